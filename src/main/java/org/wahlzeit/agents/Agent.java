@@ -82,13 +82,37 @@ public abstract class Agent implements Runnable {
 
 		while(!isToStop) {
 			try {
-				SysLog.logSysInfo("going to sleep for: " + (period / 1000) + " seconds");
-				Thread.sleep(period);
+				waitForNextRun();
 			} catch (Exception ex) {
 				// do nothing
 			}
+			try {
+				doRun();
+			} finally {
+				returnDatabaseConnection();
+			}
+		}
+	}
+	
+	/**
+	 * Returns the pooled connections doRun() borrowed, so that idle agents hold none
+	 */
+	protected void returnDatabaseConnection() {
+		Session session = SessionManager.getThreadLocalSession();
+		if (session != null) {
+			session.returnDatabaseConnection();
+		}
+	}
+	
+	/**
+	 * @methodproperty hook
+	 */
+	protected void waitForNextRun() throws InterruptedException {
+		SysLog.logSysInfo("going to sleep for: " + (period / 1000) + " seconds");
+		try {
+			Thread.sleep(period);
+		} finally {
 			SysLog.logSysInfo("just woke up");
-			doRun();
 		}
 	}
 	
@@ -39,6 +39,12 @@ public class AgentManager {
 	 */
 	protected static void initInstance() {
 		getInstance().addAgent(new NotifyAboutPraiseAgent());
+		getInstance().addAgent(new DatabaseConnectionPoolAgent());
+		getInstance().addAgent(new WriteBehindAgent());
+		getInstance().addAgent(new ReplicaMonitorAgent());
+		getInstance().addAgent(new RecordStoreCompactionAgent());
+		getInstance().addAgent(new PraiseFlushAgent());
+		getInstance().addAgent(new ModelSnapshotAgent());
 	}
 	
 	/**
@@ -0,0 +1,61 @@
+/*
+ * Copyright (c) 2006-2009 by Dirk Riehle, http://dirkriehle.com
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package org.wahlzeit.agents;
+
+import org.wahlzeit.services.*;
+
+/**
+ * Periodically evicts idle database connections and reports leaked ones.
+ */
+public class DatabaseConnectionPoolAgent extends Agent {
+
+	/**
+	 * 
+	 */
+	public static final String NAME = "DatabaseConnectionPool";
+	
+	/**
+	 * 
+	 */
+	public DatabaseConnectionPoolAgent() {
+		initialize(NAME, 30 * 1000); // every thirty seconds
+	}
+	
+	/**
+	 * 
+	 */
+	protected void doRun() {
+		maintainPool(DatabaseConnection.getPool());
+		for (DatabaseConnectionPool pool : DatabaseConnection.getReplicas().getPools()) {
+			maintainPool(pool);
+		}
+	}
+	
+	/**
+	 * 
+	 */
+	protected void maintainPool(DatabaseConnectionPool pool) {
+		pool.evictIdleConnections();
+		pool.detectLeakedConnections();
+		SysLog.logSysInfo("pool", pool.getName(), pool.asStatisticsString());
+	}
+
+}
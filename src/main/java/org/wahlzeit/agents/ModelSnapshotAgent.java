@@ -0,0 +1,71 @@
+/*
+ * Copyright (c) 2006-2009 by Dirk Riehle, http://dirkriehle.com
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.wahlzeit.agents;
+
+import java.io.*;
+import java.sql.*;
+
+import org.wahlzeit.model.*;
+import org.wahlzeit.services.*;
+
+/**
+ * Periodically saves all dirty objects and writes a snapshot of the model, so that a restart after a
+ * crash only reads what was written since.
+ */
+public class ModelSnapshotAgent extends Agent {
+
+	/**
+	 * 
+	 */
+	public static final String NAME = "ModelSnapshot";
+	
+	/**
+	 * 
+	 */
+	public ModelSnapshotAgent() {
+		initialize(NAME, SysConfig.getModelSnapshotIntervalAsLong());
+	}
+	
+	/**
+	 * 
+	 */
+	protected void doRun() {
+		ModelSnapshot snapshot = ModelSnapshot.getInstance();
+		if (snapshot == null) {
+			return;
+		}
+		
+		try {
+			PhotoCaseManager.getInstance().savePhotoCases();
+			PhotoManager.getInstance().savePhotos();
+			UserManager.getInstance().saveUsers();
+			
+			snapshot.write();
+			SysLog.logSysInfo("wrote model snapshot in " + snapshot.asPhasesString());
+		} catch (IOException ioex) {
+			SysLog.logThrowable(ioex);
+		} catch (SQLException sex) {
+			SysLog.logThrowable(sex);
+		}
+	}
+
+}
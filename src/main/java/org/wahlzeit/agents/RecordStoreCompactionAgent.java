@@ -0,0 +1,62 @@
+/*
+ * Copyright (c) 2006-2009 by Dirk Riehle, http://dirkriehle.com
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.wahlzeit.agents;
+
+import java.sql.*;
+
+import org.wahlzeit.services.*;
+
+/**
+ * Periodically compacts the logs of the embedded record store that consist mostly of superseded records.
+ */
+public class RecordStoreCompactionAgent extends Agent {
+
+	/**
+	 * 
+	 */
+	public static final String NAME = "RecordStoreCompaction";
+	
+	/**
+	 * 
+	 */
+	public RecordStoreCompactionAgent() {
+		initialize(NAME, SysConfig.getStorageCompactionIntervalAsLong());
+	}
+	
+	/**
+	 * 
+	 */
+	protected void doRun() {
+		RecordStore store = ObjectManager.getDefaultRecordStore();
+		if (store instanceof LogRecordStore) {
+			LogRecordStore logStore = (LogRecordStore) store;
+			try {
+				if (logStore.compact(SysConfig.getStorageCompactionRatioAsDouble()) > 0) {
+					SysLog.logSysInfo("storage", logStore.getDirectory().getName(), logStore.asStatisticsString());
+				}
+			} catch (SQLException sex) {
+				SysLog.logThrowable(sex);
+			}
+		}
+	}
+
+}
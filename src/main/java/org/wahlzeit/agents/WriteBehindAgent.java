@@ -0,0 +1,163 @@
+/*
+ * Copyright (c) 2006-2009 by Dirk Riehle, http://dirkriehle.com
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.wahlzeit.agents;
+
+import java.util.*;
+
+import org.wahlzeit.model.*;
+import org.wahlzeit.services.*;
+
+/**
+ * Writes the objects of the WriteBehindQueue in batches, after a short interval or once enough objects
+ * are queued. Objects are grouped by manager and saved in the order of ModelMain.saveAll().
+ */
+public class WriteBehindAgent extends Agent {
+
+	/**
+	 * 
+	 */
+	public static final String NAME = "WriteBehind";
+	
+	/**
+	 * 
+	 */
+	protected WriteBehindQueue queue = WriteBehindQueue.getInstance();
+	
+	/**
+	 * 
+	 */
+	public WriteBehindAgent() {
+		initialize(NAME, SysConfig.getWriteBehindIntervalAsLong());
+	}
+	
+	/**
+	 * Only accepts objects while running, and writes what is left once stopped.
+	 */
+	public void run() {
+		queue.enable(SysConfig.getWriteBehindMaxQueueAsInt(), SysConfig.getWriteBehindFlushSizeAsInt(), period);
+		try {
+			super.run();
+		} finally {
+			queue.disable();
+			flush();
+		}
+	}
+	
+	/**
+	 * 
+	 */
+	protected void waitForNextRun() throws InterruptedException {
+		queue.awaitFlush(period);
+	}
+	
+	/**
+	 * 
+	 */
+	protected void doRun() {
+		flush();
+	}
+	
+	/**
+	 * 
+	 */
+	protected void flush() {
+		boolean isSweep = queue.takeOverflow();
+		List<Persistent> objects = queue.drain(Integer.MAX_VALUE);
+		if (objects.isEmpty() && !isSweep) {
+			return;
+		}
+		
+		long startTime = System.currentTimeMillis();
+		
+		List<PhotoCase> photoCases = new ArrayList<PhotoCase>();
+		List<Photo> photos = new ArrayList<Photo>();
+		List<User> users = new ArrayList<User>();
+		for (Persistent obj : objects) {
+			obj.incWriteCount(); // queued objects need writing, even if a concurrent save reset their write count
+			if (obj instanceof PhotoCase) {
+				photoCases.add((PhotoCase) obj);
+			} else if (obj instanceof Photo) {
+				photos.add((Photo) obj);
+			} else if (obj instanceof User) {
+				users.add((User) obj);
+			} else {
+				SysLog.logSysError("no manager to write queued object: " + obj.getIdAsString() + "(" + obj.toString() + ")");
+			}
+		}
+
+		try {
+			savePhotoCases(photoCases);
+			savePhotos(photos);
+			saveUsers(users);
+			if (isSweep) {
+				PhotoCaseManager.getInstance().savePhotoCases();
+				PhotoManager.getInstance().savePhotos();
+				UserManager.getInstance().saveUsers();
+			}
+		} finally {
+			Session session = SessionManager.getThreadLocalSession();
+			if (session != null) {
+				session.returnDatabaseConnection();
+			}
+		}
+		
+		int noRetries = 0;
+		for (Persistent obj : objects) {
+			if (obj.isDirty() && queue.schedule(obj)) {
+				noRetries++; // failed to write or changed again while writing
+			}
+		}
+		
+		long duration = System.currentTimeMillis() - startTime;
+		queue.recordFlush(objects.size() - noRetries, duration);
+		SysLog.logSysInfo("write-behind flushed " + (objects.size() - noRetries) + " objects" + (isSweep ? " and swept all dirty objects" : "")
+				+ " in " + duration + "ms, queued " + queue.getDepth() + " (" + noRetries + " again)");
+	}
+	
+	/**
+	 * 
+	 */
+	protected void savePhotoCases(List<PhotoCase> photoCases) {
+		if (!photoCases.isEmpty()) {
+			PhotoCaseManager.getInstance().savePhotoCases(photoCases);
+		}
+	}
+	
+	/**
+	 * 
+	 */
+	protected void savePhotos(List<Photo> photos) {
+		if (!photos.isEmpty()) {
+			PhotoManager.getInstance().savePhotos(photos);
+		}
+	}
+	
+	/**
+	 * 
+	 */
+	protected void saveUsers(List<User> users) {
+		if (!users.isEmpty()) {
+			UserManager.getInstance().saveUsers(users);
+		}
+	}
+
+}
@@ -26,6 +26,7 @@ import org.wahlzeit.model.AccessRights;
 import org.wahlzeit.model.Photo;
 import org.wahlzeit.model.PhotoCase;
 import org.wahlzeit.model.PhotoCaseManager;
+import org.wahlzeit.model.PhotoManager;
 import org.wahlzeit.model.PhotoStatus;
 import org.wahlzeit.model.UserLog;
 import org.wahlzeit.model.UserSession;
@@ -93,6 +94,7 @@ public class EditPhotoCaseFormHandler extends AbstractWebFormHandler {
 		}
 
 		photo.setStatus(status);
+		PhotoManager.getInstance().savePhoto(photo);
 
 		StringBuffer sb = UserLog.createActionEntry("EditPhotoCase");
 		UserLog.addUpdatedObject(sb, "Photo", photo.getId().asString());
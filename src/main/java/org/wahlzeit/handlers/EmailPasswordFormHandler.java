@@ -61,7 +61,7 @@ public class EmailPasswordFormHandler extends AbstractWebFormHandler {
 		if (StringUtil.isNullOrEmptyString(userName)) {
 			us.setMessage(us.cfg().getFieldIsMissing());
 			return PartUtil.EMAIL_PASSWORD_PAGE_NAME;
-		} else if (!userManager.hasUserByName(userName)) {
+		} else if (!userManager.isKnownUserName(userName)) {
 			us.setMessage(us.cfg().getUserNameIsUnknown());
 			return PartUtil.EMAIL_PASSWORD_PAGE_NAME;
 		}
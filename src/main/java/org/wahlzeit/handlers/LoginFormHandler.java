@@ -58,7 +58,7 @@ public class LoginFormHandler extends AbstractWebFormHandler {
 		} else if (StringUtil.isNullOrEmptyString(password)) {
 			us.setMessage(us.cfg().getFieldIsMissing());
 			return PartUtil.LOGIN_PAGE_NAME;
-		} else if (!userManager.hasUserByName(userName)) {
+		} else if (!userManager.isKnownUserName(userName)) {
 			us.setMessage(us.cfg().getLoginIsIncorrect());
 			return PartUtil.LOGIN_PAGE_NAME;
 		}
@@ -68,6 +68,9 @@ public interface PartUtil {
 	public static final String DONE_INFO_FILE = "infos/DoneInfo";
 
 	public static final String FILTER_PHOTOS_PAGE_NAME = "filter";
+	
+	public static final String SHOW_LEADERBOARD_PAGE_NAME = "top";
+	public static final String SHOW_LEADERBOARD_PAGE_FILE = "pages/ShowLeaderboardPage";
 
 	public static final String FLAG_PHOTO_PAGE_NAME = "flag";
 	public static final String FLAG_PHOTO_FORM_NAME = "flagPhotoForm";
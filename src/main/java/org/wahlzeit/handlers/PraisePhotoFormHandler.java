@@ -20,6 +20,7 @@
 
 package org.wahlzeit.handlers;
 
+import java.io.IOException;
 import java.util.*;
 
 import org.wahlzeit.agents.Agent;
@@ -30,6 +31,7 @@ import org.wahlzeit.model.Photo;
 import org.wahlzeit.model.PhotoManager;
 import org.wahlzeit.model.UserLog;
 import org.wahlzeit.model.UserSession;
+import org.wahlzeit.services.SysLog;
 import org.wahlzeit.utils.StringUtil;
 import org.wahlzeit.webparts.WebPart;
 
@@ -79,7 +81,12 @@ public class PraisePhotoFormHandler extends AbstractWebFormHandler {
 		if (!StringUtil.isNullOrEmptyString(praise)) {
 			if (!us.hasPraisedPhoto(photo)) {
 				int value = Integer.parseInt(praise);
-				photo.addToPraise(value);
+				try {
+					PhotoManager.getInstance().praisePhoto(photo, value);
+				} catch (IOException ioex) {
+					SysLog.logThrowable(ioex);
+					return getInternalProcessingErrorPage(us);
+				}
 				us.addPraisedPhoto(photo);
 				wasPraised = true;
 				if (photo.getOwnerNotifyAboutPraise()) {
@@ -20,6 +20,7 @@
 
 package org.wahlzeit.handlers;
 
+import java.util.List;
 import java.util.Map;
 
 import org.wahlzeit.main.*;
@@ -33,6 +34,11 @@ import org.wahlzeit.webparts.*;
  */
 public class ShowAdminPageHandler extends AbstractWebPageHandler implements WebFormHandler {
 	
+	/**
+	 * 
+	 */
+	public static final int MAX_QUERY_TIMINGS = 15;
+	
 	/**
 	 * 
 	 */
@@ -47,6 +53,8 @@ public class ShowAdminPageHandler extends AbstractWebPageHandler implements WebF
 		Map args = us.getSavedArgs();
 		page.addStringFromArgs(args, UserSession.MESSAGE);
 		
+		makeStatistics(page);
+		
 		Object userId = us.getSavedArg("userId");
 		if(!StringUtil.isNullOrEmptyString(userId)) {
 			page.addStringFromArgs(args, "userId");
@@ -60,6 +68,67 @@ public class ShowAdminPageHandler extends AbstractWebPageHandler implements WebF
 		}
 	}
 	
+	/**
+	 * 
+	 */
+	protected void makeStatistics(WebPart page) {
+		page.maskAndAddString("poolStatistics", DatabaseConnection.getPool().asStatisticsString());
+		page.maskAndAddString("replicaStatistics", DatabaseConnection.getReplicas().asStatisticsString());
+		page.maskAndAddString("writeBehindStatistics", WriteBehindQueue.getInstance().asStatisticsString());
+		PraiseJournal journal = PhotoManager.getInstance().getPraiseJournal();
+		page.maskAndAddString("praiseJournalStatistics", (journal != null) ? journal.asStatisticsString() : "disabled");
+		page.maskAndAddString("praiseCounterStatistics", PhotoManager.getInstance().getPraiseCounters().asStatisticsString());
+		page.maskAndAddString("filterCacheStatistics", PhotoManager.getInstance().getFilterResultCache().asStatisticsString());
+		page.maskAndAddString("photoCacheStatistics", PhotoManager.getInstance().getPhotoCache().asStatisticsString());
+		page.maskAndAddString("userCacheStatistics", UserManager.getInstance().getUserCache().asStatisticsString());
+		page.maskAndAddString("userLookupStatistics", UserManager.getInstance().asLookupStatisticsString());
+		page.maskAndAddString("sessionStatistics", UserSession.asStatisticsString());
+		page.maskAndAddString("queryStatistics", QueryStatistics.getInstance().asStatisticsString());
+		page.addString("queryTimings", makeQueryTimings());
+		page.addString("slowQueries", makeSlowQueries());
+	}
+	
+	/**
+	 * @return table rows for the statements taking the most time in total
+	 */
+	protected String makeQueryTimings() {
+		StringBuffer result = new StringBuffer();
+		List<QueryTiming> timings = QueryStatistics.getInstance().getSnapshot();
+		for (int i = 0; (i < timings.size()) && (i < MAX_QUERY_TIMINGS); i++) {
+			QueryTiming timing = timings.get(i);
+			result.append("<tr>");
+			appendCell(result, String.valueOf(timing.getNoExecutions()));
+			appendCell(result, String.valueOf(timing.getNoRows()));
+			appendCell(result, String.valueOf(timing.getTotalMicros() / 1000));
+			appendCell(result, String.valueOf(timing.getMeanMicros()));
+			appendCell(result, String.valueOf(timing.getPercentileMicros(50)));
+			appendCell(result, String.valueOf(timing.getPercentileMicros(95)));
+			appendCell(result, String.valueOf(timing.getPercentileMicros(99)));
+			appendCell(result, String.valueOf(timing.getMaxMicros()));
+			result.append("<td align=\"left\">" + HtmlUtil.maskForWeb(timing.getSql()) + "</td>");
+			result.append("</tr>\n");
+		}
+		return result.toString();
+	}
+	
+	/**
+	 * 
+	 */
+	protected String makeSlowQueries() {
+		StringBuffer result = new StringBuffer();
+		for (String slowQuery : QueryStatistics.getInstance().getSlowQueries()) {
+			result.append("<tr><td align=\"left\">" + HtmlUtil.maskForWeb(slowQuery) + "</td></tr>\n");
+		}
+		return result.toString();
+	}
+	
+	/**
+	 * 
+	 */
+	protected void appendCell(StringBuffer sb, String value) {
+		sb.append("<td align=\"right\">" + value + "</td>");
+	}
+	
 	/**
 	 * 
 	 */
@@ -0,0 +1,105 @@
+/*
+ * Copyright (c) 2006-2009 by Dirk Riehle, http://dirkriehle.com
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package org.wahlzeit.handlers;
+
+import java.util.*;
+
+import org.wahlzeit.model.*;
+import org.wahlzeit.services.SysConfig;
+import org.wahlzeit.utils.HtmlUtil;
+import org.wahlzeit.webparts.*;
+
+/**
+ * A handler class for the page of the best rated photos, of all photos or of one tag.
+ * Example: www.wahlzeit.com/top.html?tag=flower
+ */
+public class ShowLeaderboardPageHandler extends AbstractWebPageHandler {
+	
+	/**
+	 * 
+	 */
+	public static final String TAG = "tag";
+	
+	/**
+	 *
+	 */
+	public ShowLeaderboardPageHandler() {
+		initialize(PartUtil.SHOW_LEADERBOARD_PAGE_FILE, AccessRights.GUEST);
+	}
+	
+	/**
+	 * 
+	 */
+	protected boolean isWellFormedGet(UserSession us, String link, Map args) {
+		return args != null;
+	}
+	
+	/**
+	 * 
+	 */
+	protected String doHandleGet(UserSession us, String link, Map args) {
+		us.setSavedArg(TAG, Tags.asTag(us.getAsString(args, TAG)));
+		return link;
+	}
+	
+	/**
+	 * 
+	 */
+	protected void makeWebPageBody(UserSession us, WebPart page) {
+		Object tag = us.getSavedArg(TAG);
+		String key = Leaderboards.asKey((tag == null) ? "" : tag.toString());
+		page.maskAndAddString(TAG, key.equals(Leaderboards.GLOBAL) ? "" : key.substring(Leaderboards.TAG_PREFIX.length()));
+		
+		Leaderboards leaderboards = PhotoManager.getInstance().getLeaderboards();
+		int[] ids = leaderboards.getTopPhotoIds(key, SysConfig.getLeaderboardSizeAsInt());
+		
+		StringBuffer rows = new StringBuffer();
+		int rank = 0;
+		for (int i = 0; i < ids.length; i++) {
+			Photo photo = PhotoManager.getPhoto(PhotoId.getIdFromInt(ids[i]));
+			if ((photo != null) && photo.isVisible()) {
+				rows.append(makeLeaderboardRow(us, photo, ++rank));
+			}
+		}
+		
+		if (rank != 0) {
+			page.addString("leaderboard", "<table class=\"leaderboard\">" + rows.toString() + "</table>");
+		} else {
+			page.addString("leaderboard", HtmlUtil.asP(us.cfg().getNoRankedPhotos()));
+		}
+	}
+	
+	/**
+	 * 
+	 */
+	protected String makeLeaderboardRow(UserSession us, Photo photo, int rank) {
+		String link = getResourceAsRelativeHtmlPathString(photo.getId().asString());
+		String thumb = HtmlUtil.asHref(link, getPhotoThumb(us, photo));
+		
+		StringBuffer result = new StringBuffer();
+		result.append("<tr><td>" + rank + ".</td>");
+		result.append("<td>" + thumb + "</td>");
+		result.append("<td>" + photo.getPraiseAsString(us.cfg()) + "</td>");
+		result.append("<td>" + HtmlUtil.maskForWeb(photo.getOwnerName()) + "</td></tr>");
+		return result.toString();
+	}
+	
+}
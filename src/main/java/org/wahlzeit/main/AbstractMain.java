@@ -30,6 +30,7 @@ import org.wahlzeit.services.*;
 public abstract class AbstractMain {
 	
 	private static final String DB_HOST = Optional.ofNullable(System.getenv("WAHLZEIT_DB_HOST")).orElse("localhost");
+	private static final String STORAGE_BACKEND = Optional.ofNullable(System.getenv("WAHLZEIT_STORAGE_BACKEND")).orElse("jdbc");
 	
 	/**
 	 * 
@@ -48,11 +49,16 @@ public abstract class AbstractMain {
 	 */
 	protected void startUp(String rootDir) throws Exception {
 		SysConfig.setInstance(new SysConfig(rootDir, DB_HOST));
+		SysConfig.getInstance().setValue(SysConfig.STORAGE_BACKEND, STORAGE_BACKEND);
+		QueryStatistics.getInstance().setEnabled(SysConfig.isDbQueryStatistics());
+		QueryStatistics.getInstance().setSlowQueryThreshold(SysConfig.getDbSlowQueryThresholdAsLong());
 		
-		boolean dbAvailable = DatabaseConnection.waitForDatabaseIsReady(30, 1000);
-		if (!dbAvailable) {
-			throw new RuntimeException("Unable to proceed with wahlzeit app. DB connection could not be established.");
-		}		
+		if (!SysConfig.isEmbeddedStorage()) {
+			boolean dbAvailable = DatabaseConnection.waitForDatabaseIsReady(30, 1000);
+			if (!dbAvailable) {
+				throw new RuntimeException("Unable to proceed with wahlzeit app. DB connection could not be established.");
+			}
+		}
 
 		mainSession = new SysSession("system");
 		SessionManager.setThreadLocalSession(mainSession);
@@ -62,6 +68,11 @@ public abstract class AbstractMain {
 	 * 
 	 */
 	protected void shutDown() throws Exception {
+		if (mainSession != null) {
+			mainSession.returnDatabaseConnection();
+		}
+		DatabaseConnection.closePool();
+		
 		SysConfig.dropInstance();
 	}
 	
@@ -20,9 +20,9 @@
 
 package org.wahlzeit.main;
 
-import java.io.File;
-import java.io.FileFilter;
+import java.io.*;
 import java.sql.*;
+import java.util.*;
 
 import org.wahlzeit.model.*;
 import org.wahlzeit.services.*;
@@ -33,26 +33,136 @@ import org.wahlzeit.servlets.AbstractServlet;
  */
 public abstract class ModelMain extends AbstractMain {
 	
+	/**
+	 * Embedded storage backend, or null if objects are stored in the database
+	 */
+	protected RecordStore recordStore = null;
+	
 	/**
 	 * 
 	 */
 	protected void startUp(String rootDir) throws Exception {
 		super.startUp(rootDir);
+		long startTime = System.currentTimeMillis();
 
+		if (SysConfig.isEmbeddedStorage()) {
+			openRecordStore();
+		}
+		
 		if (!hasGlobals()) {
 			tearDownDatabase();
 			setUpDatabase();
 		}
 		
+		if (recordStore == null) {
+			migrateSchema();
+			startTime = logStartUpPhase("schema", startTime);
+			if (SysConfig.isDbQueryPlanCheck()) {
+				checkQueryPlans();
+				startTime = logStartUpPhase("query plans", startTime);
+			}
+		}
+		
  		loadGlobals();
+		startTime = logStartUpPhase("globals", startTime);
 
 		PhotoFactory.initialize();
+		
+		PhotoManager photoManager = PhotoManager.getInstance();
+		photoManager.getFilterResultCache().setMaxSize(SysConfig.getFilterCacheSizeAsInt());
+		photoManager.setPhotoWeightPolicy(PhotoWeightPolicy.getFromString(SysConfig.getPhotoWeightPolicyAsString()));
+		photoManager.getPhotoCache().configure(SysConfig.getPhotoCacheSizeAsLong(), SysConfig.getCachePolicyAsString());
+		UserManager.getInstance().getUserCache().configure(SysConfig.getUserCacheSizeAsLong(), SysConfig.getCachePolicyAsString());
+		if (SysConfig.isUserLookupFilters()) {
+			UserManager.getInstance().initLookupFilters(SysConfig.getUserLookupFalsePositiveRateAsDouble(), SysConfig.getUserNegativeLookupTtlAsLong(), SysConfig.getUserNegativeLookupMaxSizeAsInt());
+			startTime = logStartUpPhase("user lookup filters", startTime);
+		}
+		
+		// snapshots rely on the modified_time column, which the record store does not maintain
+		if (isToUseModelSnapshot() && (recordStore == null)) {
+			ModelSnapshot.setInstance(new ModelSnapshot(new File(SysConfig.getStorageDir().asString(), "model.snapshot")));
+		}
+		
+		ModelSnapshot snapshot = ModelSnapshot.getInstance();
+		if ((snapshot != null) && snapshot.load()) {
+			startTime = logStartUpPhase("snapshot", startTime);
+			SysLog.logSysInfo("loaded model snapshot in " + snapshot.asPhasesString());
+		} else {
+			photoManager.buildTagIndex();
+			startTime = logStartUpPhase("tag index", startTime);
+			PhotoCaseManager.getInstance().loadOpenPhotoCases();
+			startTime = logStartUpPhase("open cases", startTime);
+		}
+		
+		photoManager.buildLeaderboards();
+		logStartUpPhase("leaderboards", startTime);
+		
+		mainSession.returnDatabaseConnection(); // borrowed again when needed
+	}
+	
+	/**
+	 * @methodproperty hook
+	 */
+	protected boolean isToUseModelSnapshot() {
+		return false;
+	}
+	
+	/**
+	 * @return the time the phase ended
+	 */
+	protected long logStartUpPhase(String phase, long startTime) {
+		long now = System.currentTimeMillis();
+		SysLog.logSysInfo("startup", phase, (now - startTime) + "ms");
+		return now;
+	}
+	
+	/**
+	 * Applies the migration scripts that were not applied to the database yet.
+	 */
+	protected void migrateSchema() throws SQLException {
+		Connection conn = mainSession.ensureDatabaseConnection().getRdbmsConnection();
+		SchemaMigrator migrator = new SchemaMigrator(SysConfig.getScriptsDir());
+		int noApplied = migrator.migrate(conn);
+		SysLog.logSysInfo("schema version " + migrator.getCurrentVersion(conn) + ", applied " + noApplied + " migrations");
+	}
+	
+	/**
+	 * Reports frequent queries that scan a table sequentially, i.e. lack an index.
+	 */
+	protected void checkQueryPlans() {
+		QueryPlanCheck check = new QueryPlanCheck();
+		check.addQuery("SELECT * FROM users WHERE name_as_tag = ?", "");
+		check.addQuery("SELECT * FROM users WHERE email_address = ?", "");
+		check.addQuery("SELECT name_as_tag, email_address FROM users WHERE creation_time >= ?", Long.valueOf(0));
+		check.addQuery("SELECT id FROM users WHERE modified_time > ?", Long.valueOf(0));
+		check.addQuery("SELECT * FROM photos WHERE owner_name = ?", "");
+		check.addQuery("SELECT * FROM photos WHERE modified_time > ?", Long.valueOf(0));
+		check.addQuery("SELECT photo_id FROM tags WHERE tag = ?", "");
+		check.addQuery("DELETE FROM tags WHERE photo_id = ?", Integer.valueOf(0));
+		check.addQuery("DELETE FROM tags WHERE photo_id = ? AND tag = ?", Integer.valueOf(0), "");
+		check.addQuery("SELECT * FROM cases WHERE was_decided = FALSE");
+		check.addQuery("SELECT * FROM cases WHERE modified_time > ?", Long.valueOf(0));
+		
+		try {
+			Connection conn = mainSession.ensureDatabaseConnection().getRdbmsConnection();
+			List<String> reports = check.check(conn);
+			for (String report : reports) {
+				SysLog.logSysError(report);
+			}
+			SysLog.logSysInfo("checked query plans, " + reports.size() + " sequential scans");
+		} catch (SQLException sex) {
+			SysLog.logThrowable(sex);
+		}
 	}
 	
 	/**
 	 * 
 	 */
 	protected boolean hasGlobals() throws SQLException {
+		if (recordStore != null) {
+			return recordStore.readRecord(RecordStoreIdBlockAllocator.GLOBALS_TABLE, RecordStoreIdBlockAllocator.GLOBALS_ID) != null;
+		}
+		
 		DatabaseConnection dbc = mainSession.ensureDatabaseConnection();
 		Connection conn = dbc.getRdbmsConnection();
 		DatabaseMetaData dbm = conn.getMetaData();
@@ -64,23 +174,106 @@ public abstract class ModelMain extends AbstractMain {
 	 * 
 	 */
 	protected void shutDown() throws Exception {
+		PhotoManager.getInstance().flushPraise();
 		saveAll();
+		
+		ModelSnapshot snapshot = ModelSnapshot.getInstance();
+		if (snapshot != null) {
+			try {
+				snapshot.write();
+				SysLog.logSysInfo("wrote model snapshot in " + snapshot.asPhasesString());
+			} catch (IOException ioex) {
+				SysLog.logThrowable(ioex);
+			}
+			ModelSnapshot.setInstance(null);
+		}
 
 		super.shutDown();
+		
+		if (recordStore != null) {
+			recordStore.close();
+			ObjectManager.setDefaultRecordStore(null);
+			recordStore = null;
+		}
+	}
+	
+	/**
+	 * Opens the embedded store with the tables of CreateTables.sql. Must run before any manager is used.
+	 */
+	protected void openRecordStore() throws SQLException {
+		TableScript script = readTableScript("CreateTables.sql");
+		File storageDir = new File(SysConfig.getStorageDir().asString());
+		recordStore = new LogRecordStore(storageDir, script.getTables(), SysConfig.isStorageSync());
+		ObjectManager.setDefaultRecordStore(recordStore);
+	}
+	
+	/**
+	 * 
+	 */
+	protected TableScript readTableScript(String scriptName) throws SQLException {
+		TableScript result = new TableScript();
+		ConfigDir scriptsDir = SysConfig.getScriptsDir();
+		
+		if(scriptsDir.hasDefaultFile(scriptName)) {
+			result.addScript(FileUtil.safelyReadFileAsString(scriptsDir.getAbsoluteDefaultConfigFileName(scriptName)));
+		}
+		
+		if(scriptsDir.hasCustomFile(scriptName)) {
+			result.addScript(FileUtil.safelyReadFileAsString(scriptsDir.getAbsoluteCustomConfigFileName(scriptName)));
+		}
+		
+		return result;
 	}
 
 	/**
 	 * 
 	 */
 	public void setUpDatabase() throws SQLException {
-		runScript("CreateTables.sql");
+		if (recordStore != null) {
+			insertInitialRecords(readTableScript("CreateTables.sql"));
+		} else {
+			runScript("CreateTables.sql");
+		}
 	}
 	
 	/**
 	 * 
 	 */
 	public void tearDownDatabase() throws SQLException {
-		runScript("DropTables.sql");
+		if (recordStore != null) {
+			deleteAllRecords(readTableScript("CreateTables.sql"));
+		} else {
+			runScript("DropTables.sql");
+		}
+	}
+	
+	/**
+	 * Writes the rows that the script inserts into the record store; rows of tables without id are skipped.
+	 */
+	protected void insertInitialRecords(TableScript script) throws SQLException {
+		for (int i = 0; i < script.getNoRows(); i++) {
+			String tableName = script.getRowTableName(i);
+			Map<String, Object> row = script.getRow(i);
+			Object id = row.get(DataObject.ID);
+			if (id instanceof Number) {
+				recordStore.writeRecords(tableName, Collections.singletonMap(((Number) id).intValue(), row));
+			} else {
+				SysLog.logSysError("cannot store initial row without id in table " + tableName);
+			}
+		}
+	}
+	
+	/**
+	 * 
+	 */
+	protected void deleteAllRecords(TableScript script) throws SQLException {
+		for (TableColumns table : script.getTables()) {
+			List<ResultSet> rows = new ArrayList<ResultSet>();
+			recordStore.readRecords(rows, table.getTableName(), null, null);
+			for (ResultSet rset : rows) {
+				recordStore.deleteRecord(table.getTableName(), rset.getInt(DataObject.ID));
+			}
+		}
 	}
 	
 	/**
@@ -112,23 +305,35 @@ public abstract class ModelMain extends AbstractMain {
 	 * 
 	 */
 	public void loadGlobals() throws SQLException {
-		DatabaseConnection dbc = mainSession.ensureDatabaseConnection();
-		Connection conn = dbc.getRdbmsConnection();
+		Statement stmt = null;
+		ResultSet result = null;
+		if (recordStore != null) {
+			result = recordStore.readRecord(RecordStoreIdBlockAllocator.GLOBALS_TABLE, RecordStoreIdBlockAllocator.GLOBALS_ID);
+		} else {
+			DatabaseConnection dbc = mainSession.ensureDatabaseConnection();
+			Connection conn = dbc.getRdbmsConnection();
 
-		String query = "SELECT * FROM globals";
-		SysLog.logQuery(query);
+			String query = "SELECT * FROM globals";
+			SysLog.logQuery(query);
 
-		Statement stmt = conn.createStatement();
-		ResultSet result = stmt.executeQuery(query);
-		if (result.next()) {
+			stmt = conn.createStatement();
+			result = stmt.executeQuery(query);
+			if (!result.next()) {
+				result = null;
+			}
+		}
+		
+		if (result != null) {
+			// ids are reserved in blocks by advancing these columns, see DatabaseIdBlockAllocator
+			int blockSize = SysConfig.getDbIdBlockSizeAsInt();
 			int lastUserId = result.getInt("last_user_id");
-			User.setLastUserId(lastUserId);
+			User.setIdAllocator(createIdAllocator("user", "last_user_id", lastUserId, blockSize));
 			SysLog.logSysInfo("loaded global variable lastUserId: " + lastUserId);
 			int lastPhotoId = result.getInt("last_photo_id");
-			PhotoId.setCurrentIdFromInt(lastPhotoId);
+			PhotoId.setIdAllocator(createIdAllocator("photo", "last_photo_id", lastPhotoId, blockSize));
 			SysLog.logSysInfo("loaded global variable lastPhotoId: " + lastPhotoId);
 			int lastCaseId = result.getInt("last_case_id");
-			Case.setLastCaseId(new CaseId(lastCaseId));
+			Case.setIdAllocator(createIdAllocator("case", "last_case_id", lastCaseId, blockSize));
 			SysLog.logSysInfo("loaded global variable lastCaseId: " + lastCaseId);
 			int lastSessionId = result.getInt("last_session_id");
 			AbstractServlet.setLastSessionId(lastSessionId);		
@@ -137,13 +342,31 @@ public abstract class ModelMain extends AbstractMain {
 			SysLog.logSysError("Could not load globals!");
 		}
 		
-		stmt.close();
+		if (stmt != null) {
+			stmt.close();
+		}
+	}
+	
+	/**
+	 * @param columnName column of the globals table holding the highest reserved id
+	 */
+	protected IdBlockAllocator createIdAllocator(String name, String columnName, int lastId, int blockSize) {
+		if (recordStore != null) {
+			return new RecordStoreIdBlockAllocator(name, recordStore, columnName, lastId, blockSize);
+		}
+		
+		return new DatabaseIdBlockAllocator(name, columnName, lastId, blockSize);
 	}
 
 	/**
 	 *
 	 */
 	public synchronized void saveGlobals() throws SQLException {
+		if (recordStore != null) {
+			saveGlobalsToRecordStore();
+			return;
+		}
+		
 		DatabaseConnection dbc = SessionManager.getDatabaseConnection();
 		Connection conn = dbc.getRdbmsConnection();
 
@@ -153,13 +376,14 @@ public abstract class ModelMain extends AbstractMain {
 		Statement stmt = conn.createStatement(ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_UPDATABLE);
 		ResultSet rset = stmt.executeQuery(query);
 		if (rset.next()) {
-			int lastUserId = User.getLastUserId();
+			// id columns may have been advanced by other nodes since, so they must never go back
+			int lastUserId = Math.max(rset.getInt("last_user_id"), User.getLastUserId());
 			rset.updateInt("last_user_id", lastUserId);
 			SysLog.logSysInfo("saved global variable lastUserId: " + lastUserId);
-			int lastPhotoId = PhotoId.getCurrentIdAsInt();
+			int lastPhotoId = Math.max(rset.getInt("last_photo_id"), PhotoId.getCurrentIdAsInt());
 			rset.updateInt("last_photo_id", lastPhotoId);
 			SysLog.logSysInfo("saved global variable lastPhotoId: " + lastPhotoId);
-			int lastCaseId = Case.getLastCaseId().asInt();
+			int lastCaseId = Math.max(rset.getInt("last_case_id"), Case.getLastCaseId().asInt());
 			rset.updateInt("last_case_id", lastCaseId);
 			SysLog.logSysInfo("saved global variable lastCaseId: " + lastCaseId);
 			int lastSessionId = AbstractServlet.getLastSessionId();
@@ -173,6 +397,27 @@ public abstract class ModelMain extends AbstractMain {
 		stmt.close();
 	}
 	
+	/**
+	 * Id columns are advanced by the id allocators in between, so they are read and written under the store lock
+	 */
+	protected void saveGlobalsToRecordStore() throws SQLException {
+		synchronized (recordStore) {
+			ResultSet rset = recordStore.readRecord(RecordStoreIdBlockAllocator.GLOBALS_TABLE, RecordStoreIdBlockAllocator.GLOBALS_ID);
+			if (rset == null) {
+				SysLog.logSysError("Could not save globals!");
+				return;
+			}
+			
+			Map<String, Object> values = new HashMap<String, Object>();
+			values.put("last_user_id", Math.max(rset.getInt("last_user_id"), User.getLastUserId()));
+			values.put("last_photo_id", Math.max(rset.getInt("last_photo_id"), PhotoId.getCurrentIdAsInt()));
+			values.put("last_case_id", Math.max(rset.getInt("last_case_id"), Case.getLastCaseId().asInt()));
+			values.put("last_session_id", AbstractServlet.getLastSessionId());
+			recordStore.writeRecords(RecordStoreIdBlockAllocator.GLOBALS_TABLE, Collections.singletonMap(RecordStoreIdBlockAllocator.GLOBALS_ID, values));
+			SysLog.logSysInfo("saved global variables: " + values);
+		}
+	}
+	
 	/**
 	 * 
 	 */
@@ -20,6 +20,8 @@
 
 package org.wahlzeit.main;
 
+import java.io.*;
+
 import org.wahlzeit.agents.AgentManager;
 import org.wahlzeit.handlers.*;
 import org.wahlzeit.model.*;
@@ -83,6 +85,11 @@ public class ServiceMain extends ModelMain {
 		isInProduction = inProduction;
 		
 		super.startUp(rootDir);
+		
+		if (SysConfig.isPraiseJournal()) {
+			openPraiseJournal();
+			mainSession.returnDatabaseConnection();
+		}
 
 		configureWebPartTemplateService();
 		configureWebPartHandlers();
@@ -98,10 +105,45 @@ public class ServiceMain extends ModelMain {
 	public void shutDown() throws Exception {
 		AgentManager am = AgentManager.getInstance();
 		am.stopAllThreads();
+		
+		closePraiseJournal();
 				
 		super.shutDown();
 	}
 	
+	/**
+	 * 
+	 */
+	protected boolean isToUseModelSnapshot() {
+		return SysConfig.isModelSnapshot();
+	}
+	
+	/**
+	 * Opens the praise journal and replays the votes a crash kept from being saved.
+	 */
+	protected void openPraiseJournal() throws Exception {
+		File storageDir = new File(SysConfig.getStorageDir().asString());
+		PraiseJournal journal = new PraiseJournal(storageDir, "praise", SysConfig.getPraiseJournalCapacityAsInt(), SysConfig.getPraiseJournalSyncIntervalAsLong());
+		
+		PhotoManager photoManager = PhotoManager.getInstance();
+		photoManager.setPraiseJournal(journal);
+		int noReplayed = photoManager.replayPraiseJournal();
+		SysLog.logSysInfo("replayed " + noReplayed + " praise votes from journal");
+	}
+	
+	/**
+	 * 
+	 */
+	protected void closePraiseJournal() throws IOException {
+		PhotoManager photoManager = PhotoManager.getInstance();
+		PraiseJournal journal = photoManager.getPraiseJournal();
+		if (journal != null) {
+			photoManager.flushPraise();
+			photoManager.setPraiseJournal(null);
+			journal.close();
+		}
+	}
+	
 	/**
 	 * 
 	 */
@@ -132,6 +174,9 @@ public class ServiceMain extends ModelMain {
 		manager.addWebPartHandler(PartUtil.ENGAGE_GUEST_FORM_NAME, temp);
 		
 		manager.addWebPartHandler(PartUtil.FILTER_PHOTOS_PAGE_NAME, new FilterPhotosPageHandler());
+		
+		// Leaderboard page
+		manager.addWebPartHandler(PartUtil.SHOW_LEADERBOARD_PAGE_NAME, new ShowLeaderboardPageHandler());
 
 		manager.addWebPartHandler(PartUtil.RESET_SESSION_PAGE_NAME, new ResetSessionPageHandler());
 		
@@ -557,6 +557,13 @@ public abstract class AbstractModelConfig extends AbstractConfig implements Mode
 		return doGetValue("NoFlaggedPhotoCases"); 
 	}
 
+	/**
+	 * 
+	 */
+	public String getNoRankedPhotos() {
+		return doGetValue("NoRankedPhotos"); 
+	}
+
 	/**
 	 * 
 	 */
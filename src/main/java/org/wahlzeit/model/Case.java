@@ -31,27 +31,34 @@ public abstract class Case extends DataObject {
 	/**
 	 * 0 is never returned, first value is 1
 	 */
-	protected static CaseId lastCaseId = CaseId.NULL_ID;
+	protected static volatile IdBlockAllocator idAllocator = new IdBlockAllocator("case", CaseId.NULL_ID.asInt(), 1024);
 	
 	/**
 	 * @methodtype get
 	 */
-	public static synchronized CaseId getLastCaseId() {
-		return lastCaseId;
+	public static CaseId getLastCaseId() {
+		return new CaseId(idAllocator.getLastAllocatedId());
 	}
 	
 	/**
 	 * @methodtype set
 	 */
 	public static synchronized void setLastCaseId(CaseId newId) {
-		lastCaseId = newId;
+		idAllocator = new IdBlockAllocator("case", newId.asInt(), 1024);
+	}
+	
+	/**
+	 * @methodtype set
+	 */
+	public static synchronized void setIdAllocator(IdBlockAllocator newAllocator) {
+		idAllocator = newAllocator;
 	}
 	
 	/**
 	 * @methodtype idiom
 	 */
-	public static synchronized CaseId getNextCaseId() {
-		return lastCaseId = lastCaseId.getNextId();
+	public static CaseId getNextCaseId() {
+		return new CaseId(idAllocator.getNextId());
 	}
 
 }
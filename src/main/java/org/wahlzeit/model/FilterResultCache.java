@@ -0,0 +1,262 @@
+/*
+ * Copyright (c) 2006-2009 by Dirk Riehle, http://dirkriehle.com
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.wahlzeit.model;
+
+import java.util.*;
+
+import org.wahlzeit.utils.IntBitmap;
+
+/**
+ * A FilterResultCache shares the visible photo ids of a set of filter conditions across all sessions.
+ * Entries are keyed by the sorted, duplicate-free conditions and are never modified once cached;
+ * each session subtracts its own processed photos. An entry is dropped as soon as a photo enters or
+ * leaves its result, and least recently used entries are evicted beyond the maximum size.
+ */
+public class FilterResultCache {
+	
+	/**
+	 * 
+	 */
+	public static final int DEFAULT_MAX_SIZE = 1000;
+	
+	/**
+	 * Cached results in access order
+	 */
+	protected LinkedHashMap<List<String>, IntBitmap> entries = new LinkedHashMap<List<String>, IntBitmap>(16, 0.75f, true);
+	
+	/**
+	 * Keys of all entries by the conditions they contain, for precise invalidation
+	 */
+	protected Map<String, Set<List<String>>> keysByCondition = new HashMap<String, Set<List<String>>>();
+	
+	/**
+	 * 
+	 */
+	protected int maxSize;
+	
+	/**
+	 * Incremented on every invalidation; a result computed meanwhile may be stale and is not cached
+	 */
+	protected long noInvalidationRuns = 0;
+	
+	/**
+	 * 
+	 */
+	protected long noHits = 0;
+	protected long noMisses = 0;
+	protected long noInvalidations = 0;
+	protected long noEvictions = 0;
+	
+	/**
+	 * 
+	 */
+	public FilterResultCache() {
+		this(DEFAULT_MAX_SIZE);
+	}
+	
+	/**
+	 * 
+	 */
+	public FilterResultCache(int myMaxSize) {
+		maxSize = myMaxSize;
+	}
+	
+	/**
+	 * @return the cached result of conditions, or the result computed from index and then cached
+	 */
+	public IntBitmap getVisiblePhotoIds(List<String> conditions, TagIndex index) {
+		List<String> key = asKey(conditions);
+		long invalidationRun;
+		synchronized(this) {
+			IntBitmap result = entries.get(key);
+			if (result != null) {
+				noHits++;
+				return result;
+			}
+			noMisses++;
+			invalidationRun = noInvalidationRuns;
+		}
+		
+		IntBitmap result = index.getVisiblePhotoIds(key);
+		
+		synchronized(this) {
+			if ((invalidationRun == noInvalidationRuns) && (maxSize > 0)) {
+				doPut(key, result);
+			}
+		}
+		
+		return result;
+	}
+	
+	/**
+	 * Drops all entries whose result contains the photo before but not after the change, or vice versa.
+	 */
+	public synchronized void invalidatePhoto(Collection<String> oldTerms, boolean wasVisible, Collection<String> newTerms, boolean isVisible) {
+		noInvalidationRuns++;
+		
+		Set<List<String>> candidates = new HashSet<List<String>>();
+		if (wasVisible != isVisible) {
+			candidates.add(Collections.<String>emptyList());
+		}
+		addCandidates(candidates, oldTerms);
+		addCandidates(candidates, newTerms);
+		
+		for (List<String> key : candidates) {
+			boolean wasMatch = wasVisible && oldTerms.containsAll(key);
+			boolean isMatch = isVisible && newTerms.containsAll(key);
+			if ((wasMatch != isMatch) && entries.containsKey(key)) {
+				doRemove(key);
+				noInvalidations++;
+			}
+		}
+	}
+	
+	/**
+	 * 
+	 */
+	public synchronized void clear() {
+		noInvalidationRuns++;
+		entries.clear();
+		keysByCondition.clear();
+	}
+	
+	/**
+	 * 
+	 */
+	public synchronized void setMaxSize(int newMaxSize) {
+		maxSize = newMaxSize;
+		evictEntries();
+	}
+	
+	/**
+	 * 
+	 */
+	public synchronized int getSize() {
+		return entries.size();
+	}
+	
+	/**
+	 * 
+	 */
+	public synchronized long getNoHits() {
+		return noHits;
+	}
+	
+	/**
+	 * 
+	 */
+	public synchronized long getNoMisses() {
+		return noMisses;
+	}
+	
+	/**
+	 * 
+	 */
+	public synchronized long getNoInvalidations() {
+		return noInvalidations;
+	}
+	
+	/**
+	 * 
+	 */
+	public synchronized long getNoEvictions() {
+		return noEvictions;
+	}
+	
+	/**
+	 * @return percentage of lookups answered from the cache
+	 */
+	public synchronized int getHitRate() {
+		long noLookups = noHits + noMisses;
+		return (noLookups == 0) ? 0 : (int) (noHits * 100 / noLookups);
+	}
+	
+	/**
+	 * @methodtype conversion
+	 */
+	public synchronized String asStatisticsString() {
+		return entries.size() + " of " + maxSize + " entries, " + getHitRate() + "% hits (" + noHits + " hits, "
+			+ noMisses + " misses), " + noInvalidations + " invalidated, " + noEvictions + " evicted";
+	}
+	
+	/**
+	 * 
+	 */
+	protected void addCandidates(Set<List<String>> candidates, Collection<String> terms) {
+		for (String term : terms) {
+			Set<List<String>> keys = keysByCondition.get(term);
+			if (keys != null) {
+				candidates.addAll(keys);
+			}
+		}
+	}
+	
+	/**
+	 * 
+	 */
+	protected void doPut(List<String> key, IntBitmap result) {
+		if (entries.put(key, result) == null) {
+			for (String condition : key) {
+				Set<List<String>> keys = keysByCondition.get(condition);
+				if (keys == null) {
+					keys = new HashSet<List<String>>();
+					keysByCondition.put(condition, keys);
+				}
+				keys.add(key);
+			}
+		}
+		
+		evictEntries();
+	}
+	
+	/**
+	 * 
+	 */
+	protected void doRemove(List<String> key) {
+		entries.remove(key);
+		for (String condition : key) {
+			Set<List<String>> keys = keysByCondition.get(condition);
+			if ((keys != null) && keys.remove(key) && keys.isEmpty()) {
+				keysByCondition.remove(condition);
+			}
+		}
+	}
+	
+	/**
+	 * 
+	 */
+	protected void evictEntries() {
+		while (entries.size() > Math.max(maxSize, 0)) {
+			doRemove(entries.keySet().iterator().next()); // least recently used
+			noEvictions++;
+		}
+	}
+	
+	/**
+	 * @return conditions in a canonical order without duplicates
+	 */
+	protected static List<String> asKey(List<String> conditions) {
+		List<String> result = new ArrayList<String>(new TreeSet<String>(conditions));
+		return Collections.unmodifiableList(result);
+	}
+	
+}
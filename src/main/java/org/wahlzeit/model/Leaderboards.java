@@ -0,0 +1,330 @@
+/*
+ * Copyright (c) 2006-2009 by Dirk Riehle, http://dirkriehle.com
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package org.wahlzeit.model;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Leaderboards keep the visible photos ordered by praise, once globally and once for every tag term
+ * ("tg:..."), in concurrent skip lists. A vote moves the photo within its boards in O(log n), so the
+ * top photos of a board are read off its head without scanning or sorting the photo set.
+ */
+public class Leaderboards {
+	
+	/**
+	 * Key of the board of all visible photos
+	 */
+	public static final String GLOBAL = "";
+	
+	/**
+	 * Prefix of the terms a photo is ranked under besides GLOBAL
+	 */
+	public static final String TAG_PREFIX = "tg:";
+	
+	/**
+	 * 
+	 */
+	protected static final int NO_STRIPES = 64;
+	
+	/**
+	 * Boards by key, ordered by descending praise
+	 */
+	protected ConcurrentMap<String, ConcurrentSkipListSet<Entry>> boards = new ConcurrentHashMap<String, ConcurrentSkipListSet<Entry>>();
+	
+	/**
+	 * Current entry and keys of every ranked photo, to remove outdated entries on change
+	 */
+	protected ConcurrentMap<Integer, Standing> standings = new ConcurrentHashMap<Integer, Standing>();
+	
+	/**
+	 * Updates of a photo are serialized by the stripe of its id
+	 */
+	protected Object[] stripes = new Object[NO_STRIPES];
+	
+	/**
+	 * 
+	 */
+	public Leaderboards() {
+		for (int i = 0; i < stripes.length; i++) {
+			stripes[i] = new Object();
+		}
+		
+		getBoard(GLOBAL);
+	}
+	
+	/**
+	 * @methodtype conversion
+	 * @return key of the board of the tag, or GLOBAL for an empty tag
+	 */
+	public static String asKey(String tag) {
+		String result = Tags.asTag(tag);
+		return result.length() == 0 ? GLOBAL : TAG_PREFIX + result;
+	}
+	
+	/**
+	 * Ranks the photo with its current praise under GLOBAL and its tag terms, or drops it if not visible.
+	 * Praise that is not finite, e.g. of a photo without votes, ranks as 0 rather than ahead of all others.
+	 */
+	public void updatePhoto(int id, double praise, int noVotes, Collection<String> terms, boolean isVisible) {
+		if (Double.isNaN(praise) || Double.isInfinite(praise)) {
+			praise = 0.0;
+		}
+		
+		synchronized (getStripe(id)) {
+			Standing oldStanding = standings.get(id);
+			if (!isVisible) {
+				if (oldStanding != null) {
+					standings.remove(id);
+					removeEntry(oldStanding);
+				}
+				return;
+			}
+			
+			Standing newStanding = new Standing(new Entry(id, praise, noVotes), getKeys(terms));
+			if (newStanding.equals(oldStanding)) {
+				return;
+			}
+			
+			if (oldStanding != null) {
+				removeEntry(oldStanding);
+			}
+			
+			for (String key : newStanding.keys) {
+				getBoard(key).add(newStanding.entry);
+			}
+			standings.put(id, newStanding);
+		}
+	}
+	
+	/**
+	 * 
+	 */
+	public void clear() {
+		for (Object stripe : stripes) {
+			synchronized (stripe) {
+				Iterator<Standing> i = standings.values().iterator();
+				while (i.hasNext()) {
+					Standing standing = i.next();
+					if (getStripe(standing.entry.id) == stripe) {
+						i.remove();
+						removeEntry(standing);
+					}
+				}
+			}
+		}
+	}
+	
+	/**
+	 * @return the ids of at most maxSize photos of the board, best first
+	 */
+	public int[] getTopPhotoIds(String key, int maxSize) {
+		ConcurrentSkipListSet<Entry> board = boards.get(key);
+		if (board == null) {
+			return new int[0];
+		}
+		
+		int[] result = new int[maxSize];
+		int size = 0;
+		for (Iterator<Entry> i = board.iterator(); i.hasNext() && (size < maxSize); ) {
+			int id = i.next().id;
+			// an update adds the new entry before the old one is gone
+			if (!contains(result, size, id)) {
+				result[size++] = id;
+			}
+		}
+		
+		return (size == maxSize) ? result : Arrays.copyOf(result, size);
+	}
+	
+	/**
+	 * @methodtype boolean-query
+	 */
+	protected static boolean contains(int[] ids, int size, int id) {
+		for (int i = 0; i < size; i++) {
+			if (ids[i] == id) {
+				return true;
+			}
+		}
+		return false;
+	}
+	
+	/**
+	 * @methodtype get
+	 */
+	public int getNoPhotos() {
+		return standings.size();
+	}
+	
+	/**
+	 * @methodtype get
+	 */
+	public int getNoBoards() {
+		return boards.size();
+	}
+	
+	/**
+	 * 
+	 */
+	public String asStatisticsString() {
+		return "photos: " + getNoPhotos() + ", boards: " + getNoBoards();
+	}
+	
+	/**
+	 * 
+	 */
+	protected Object getStripe(int id) {
+		return stripes[(id & Integer.MAX_VALUE) % NO_STRIPES];
+	}
+	
+	/**
+	 * Boards of tags that are no longer used stay empty, so that no vote can add to a dropped board
+	 */
+	protected ConcurrentSkipListSet<Entry> getBoard(String key) {
+		ConcurrentSkipListSet<Entry> result = boards.get(key);
+		if (result == null) {
+			ConcurrentSkipListSet<Entry> newBoard = new ConcurrentSkipListSet<Entry>();
+			result = boards.putIfAbsent(key, newBoard);
+			if (result == null) {
+				result = newBoard;
+			}
+		}
+		return result;
+	}
+	
+	/**
+	 * 
+	 */
+	protected void removeEntry(Standing standing) {
+		for (String key : standing.keys) {
+			ConcurrentSkipListSet<Entry> board = boards.get(key);
+			if (board != null) {
+				board.remove(standing.entry);
+			}
+		}
+	}
+	
+	/**
+	 * 
+	 */
+	protected String[] getKeys(Collection<String> terms) {
+		List<String> result = new ArrayList<String>();
+		result.add(GLOBAL);
+		for (String term : terms) {
+			if (term.startsWith(TAG_PREFIX) && !result.contains(term)) {
+				result.add(term);
+			}
+		}
+		return result.toArray(new String[result.size()]);
+	}
+	
+	/**
+	 * An Entry ranks a photo by descending praise, then descending number of votes, then ascending id.
+	 */
+	public static class Entry implements Comparable<Entry> {
+		
+		/**
+		 * 
+		 */
+		protected final int id;
+		protected final double praise;
+		protected final int noVotes;
+		
+		/**
+		 * 
+		 */
+		public Entry(int myId, double myPraise, int myNoVotes) {
+			id = myId;
+			praise = myPraise;
+			noVotes = myNoVotes;
+		}
+		
+		/**
+		 * 
+		 */
+		public int compareTo(Entry other) {
+			int result = Double.compare(other.praise, praise);
+			if (result == 0) {
+				result = (noVotes == other.noVotes) ? 0 : ((noVotes > other.noVotes) ? -1 : 1);
+			}
+			if (result == 0) {
+				result = (id == other.id) ? 0 : ((id < other.id) ? -1 : 1);
+			}
+			return result;
+		}
+		
+		/**
+		 * 
+		 */
+		public boolean equals(Object other) {
+			return (other instanceof Entry) && (compareTo((Entry) other) == 0);
+		}
+		
+		/**
+		 * 
+		 */
+		public int hashCode() {
+			return id;
+		}
+		
+	}
+	
+	/**
+	 * 
+	 */
+	protected static class Standing {
+		
+		/**
+		 * 
+		 */
+		protected final Entry entry;
+		protected final String[] keys;
+		
+		/**
+		 * 
+		 */
+		protected Standing(Entry myEntry, String[] myKeys) {
+			entry = myEntry;
+			keys = myKeys;
+		}
+		
+		/**
+		 * 
+		 */
+		public boolean equals(Object other) {
+			if (!(other instanceof Standing)) {
+				return false;
+			}
+			
+			Standing standing = (Standing) other;
+			return entry.equals(standing.entry) && Arrays.equals(keys, standing.keys);
+		}
+		
+		/**
+		 * 
+		 */
+		public int hashCode() {
+			return entry.hashCode();
+		}
+		
+	}
+	
+}
@@ -150,6 +150,9 @@ public interface ModelConfig extends Configuration {
 	// SHOW_PHOTO_CASE_FORM
 	public String getNoFlaggedPhotoCases();
 
+	// SHOW_LEADERBOARD_PAGE
+	public String getNoRankedPhotos();
+
 	// SHOW_ADMIN_MENU_FORM
 	public String getPhotoIsUnknown();
 	
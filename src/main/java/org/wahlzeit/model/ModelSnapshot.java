@@ -0,0 +1,418 @@
+/*
+ * Copyright (c) 2006-2009 by Dirk Riehle, http://dirkriehle.com
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.wahlzeit.model;
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.file.*;
+import java.sql.*;
+import java.util.*;
+import java.util.zip.*;
+
+import org.wahlzeit.services.*;
+
+/**
+ * A ModelSnapshot is a binary image of the in-memory model: the id counters, the tag index, the cached
+ * photos and users, and the open photo cases. Loading it on startup replaces building the tag index from
+ * the database and reading objects one query at a time; afterwards, only rows written since the snapshot
+ * are read, as told by their modified_time column.
+ * 
+ * The file starts with [int magic][int version][long createdAt][int lastUserId][int lastPhotoId][int lastCaseId],
+ * followed by the tag index and one section per table, and ends with a CRC32 of everything before it.
+ * A section lists its column labels and types, then its rows as values in that order, each with a dirty flag.
+ * Values are encoded like the records of a RecordLog. Rows are read by column label, so columns may be added.
+ */
+public class ModelSnapshot {
+	
+	/**
+	 * "WZSN"
+	 */
+	public static final int MAGIC = 0x575a534e;
+	
+	/**
+	 * 
+	 */
+	public static final int VERSION = 1;
+	
+	/**
+	 * Rows written this long before a snapshot are read again, for transactions in flight and clock skew
+	 */
+	protected static final long REPLAY_MARGIN = 60 * 1000;
+	
+	/**
+	 * 
+	 */
+	protected static final String TEMP_SUFFIX = ".tmp";
+	
+	/**
+	 * Snapshot of the running model, or null
+	 */
+	protected static ModelSnapshot instance = null;
+	
+	/**
+	 * @methodtype get
+	 */
+	public static ModelSnapshot getInstance() {
+		return instance;
+	}
+	
+	/**
+	 * @methodtype set
+	 */
+	public static void setInstance(ModelSnapshot newInstance) {
+		instance = newInstance;
+	}
+	
+	/**
+	 * 
+	 */
+	protected File file;
+	
+	/**
+	 * Durations of the phases of the last write or load, in millis
+	 */
+	protected Map<String, Long> phases = new LinkedHashMap<String, Long>();
+	
+	/**
+	 * 
+	 */
+	protected long phaseStartTime = 0;
+	
+	/**
+	 * 
+	 */
+	public ModelSnapshot(File myFile) {
+		file = myFile;
+	}
+	
+	/**
+	 * @methodtype get
+	 */
+	public File getFile() {
+		return file;
+	}
+	
+	/**
+	 * Writes the current model to a temporary file, forces it to disk, and moves it over the snapshot.
+	 * Objects changed since they were last saved are marked dirty, so they are saved again after loading.
+	 */
+	public synchronized void write() throws IOException, SQLException {
+		startPhases();
+		PhotoManager photoManager = PhotoManager.getInstance();
+		UserManager userManager = UserManager.getInstance();
+		PhotoCaseManager caseManager = PhotoCaseManager.getInstance();
+		
+		file.getAbsoluteFile().getParentFile().mkdirs();
+		File tempFile = new File(file.getPath() + TEMP_SUFFIX);
+		FileOutputStream fileOut = new FileOutputStream(tempFile);
+		try {
+			CRC32 crc = new CRC32();
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new CheckedOutputStream(fileOut, crc), 64 * 1024));
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeLong(System.currentTimeMillis());
+			out.writeInt(User.getLastUserId());
+			out.writeInt(PhotoId.getCurrentIdAsInt());
+			out.writeInt(Case.getLastCaseId().asInt());
+			
+			writeTagIndex(out, photoManager.getTagIndex());
+			endPhase("tag index");
+			writeSection(out, photoManager.getTableColumns("photos"), photoManager.getCachedPhotos());
+			endPhase("photos");
+			writeSection(out, userManager.getTableColumns("users"), userManager.getCachedUsers());
+			endPhase("users");
+			writeSection(out, caseManager.getTableColumns("cases"), caseManager.getOpenPhotoCases());
+			endPhase("cases");
+			
+			out.flush();
+			new DataOutputStream(fileOut).writeLong(crc.getValue());
+			fileOut.getFD().sync();
+		} finally {
+			fileOut.close();
+		}
+		
+		Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		endPhase("sync");
+	}
+	
+	/**
+	 * 
+	 */
+	protected void writeTagIndex(DataOutputStream out, TagIndex tagIndex) throws IOException {
+		int[] ids = tagIndex.getPhotoIds();
+		out.writeInt(ids.length);
+		for (int id : ids) {
+			Set<String> terms = tagIndex.getTerms(id);
+			out.writeInt(id);
+			out.writeBoolean(tagIndex.isVisible(id));
+			out.writeInt(terms.size());
+			for (String term : terms) {
+				RecordLog.writeValue(out, term);
+			}
+		}
+	}
+	
+	/**
+	 * 
+	 */
+	protected void writeSection(DataOutputStream out, TableColumns columns, Collection<? extends Persistent> objects) throws IOException, SQLException {
+		List<String> labels = columns.getColumnLabels();
+		out.writeInt(labels.size());
+		for (String label : labels) {
+			RecordLog.writeValue(out, label);
+			out.writeInt(columns.getColumnType(label));
+		}
+		
+		out.writeInt(objects.size());
+		ColumnValueRecorder recorder = new ColumnValueRecorder(columns);
+		for (Persistent obj : objects) {
+			out.writeBoolean(obj.isDirty());
+			recorder.record(obj);
+			Map<String, Object> values = recorder.getValues();
+			for (String label : labels) {
+				RecordLog.writeValue(out, values.get(label));
+			}
+		}
+	}
+	
+	/**
+	 * Loads the snapshot into the managers and reads what was written since. Returns false, leaving the
+	 * model as it was, if there is no snapshot or it is damaged, of another version, or newer than the
+	 * database. Must run before any photo, user, or case is read otherwise.
+	 */
+	public synchronized boolean load() throws IOException, SQLException {
+		startPhases();
+		if (!file.exists()) {
+			return false;
+		}
+		
+		FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+		try {
+			if (channel.size() > Integer.MAX_VALUE) {
+				SysLog.logSysError("model snapshot exceeds 2GB, ignoring it");
+				return false;
+			}
+			
+			MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			if (!isValid(buffer)) {
+				return false;
+			}
+			endPhase("map");
+			
+			long createdAt = buffer.getLong(8);
+			buffer.position(28);
+			load(buffer, createdAt - REPLAY_MARGIN);
+			return true;
+		} finally {
+			channel.close();
+		}
+	}
+	
+	/**
+	 * 
+	 */
+	protected boolean isValid(ByteBuffer buffer) {
+		int size = buffer.limit();
+		if ((size < 36) || (buffer.getInt(0) != MAGIC)) {
+			SysLog.logSysError("not a model snapshot: " + file);
+			return false;
+		}
+		
+		if (buffer.getInt(4) != VERSION) {
+			SysLog.logSysInfo("model snapshot", file.getName(), "ignoring version " + buffer.getInt(4));
+			return false;
+		}
+		
+		ByteBuffer data = buffer.duplicate();
+		data.limit(size - 8);
+		CRC32 crc = new CRC32();
+		crc.update(data);
+		if (crc.getValue() != buffer.getLong(size - 8)) {
+			SysLog.logSysError("model snapshot is damaged: " + file);
+			return false;
+		}
+		
+		// ids are only reserved in the database, so it must have seen all ids of the snapshot
+		if ((buffer.getInt(16) > User.getLastUserId()) || (buffer.getInt(20) > PhotoId.getCurrentIdAsInt()) || (buffer.getInt(24) > Case.getLastCaseId().asInt())) {
+			SysLog.logSysError("model snapshot is newer than the database: " + file);
+			return false;
+		}
+		
+		return true;
+	}
+	
+	/**
+	 * Photos are loaded first, so that users and cases find theirs in the cache.
+	 */
+	protected void load(ByteBuffer buffer, long watermark) throws IOException, SQLException {
+		PhotoManager photoManager = PhotoManager.getInstance();
+		UserManager userManager = UserManager.getInstance();
+		PhotoCaseManager caseManager = PhotoCaseManager.getInstance();
+		
+		loadTagIndex(buffer, photoManager.getTagIndex());
+		endPhase("tag index");
+		
+		for (Persistent obj : readSection(buffer, photoManager, photoManager.getTableColumns("photos"))) {
+			photoManager.doAddPhoto((Photo) obj);
+		}
+		endPhase("photos");
+		List<Photo> newPhotos = photoManager.loadPhotosModifiedSince(watermark);
+		photoManager.getFilterResultCache().clear();
+		endPhase("photos since (" + newPhotos.size() + ")");
+		
+		for (Persistent obj : readSection(buffer, userManager, userManager.getTableColumns("users"))) {
+			userManager.doAddUser((User) obj);
+		}
+		endPhase("users");
+		int noRemovedUsers = userManager.removeUsersModifiedSince(watermark);
+		attachPhotos(userManager.getCachedUsers(), photoManager);
+		endPhase("users since (" + noRemovedUsers + ")");
+		
+		List<PhotoCase> cases = new ArrayList<PhotoCase>();
+		for (Persistent obj : readSection(buffer, caseManager, caseManager.getTableColumns("cases"))) {
+			cases.add((PhotoCase) obj);
+		}
+		caseManager.setOpenPhotoCases(cases);
+		endPhase("cases");
+		caseManager.loadPhotoCasesModifiedSince(watermark);
+		endPhase("cases since");
+	}
+	
+	/**
+	 * 
+	 */
+	protected void loadTagIndex(ByteBuffer buffer, TagIndex tagIndex) throws IOException {
+		int noPhotos = buffer.getInt();
+		for (int i = 0; i < noPhotos; i++) {
+			int id = buffer.getInt();
+			boolean isVisible = buffer.get() != 0;
+			int noTerms = buffer.getInt();
+			List<String> terms = new ArrayList<String>(noTerms);
+			for (int j = 0; j < noTerms; j++) {
+				terms.add((String) RecordLog.readValue(buffer));
+			}
+			tagIndex.updatePhoto(id, terms, isVisible);
+		}
+	}
+	
+	/**
+	 * Reads the rows of a section as objects of manager, mapping snapshot columns to current ones by label.
+	 */
+	protected List<Persistent> readSection(ByteBuffer buffer, ObjectManager manager, TableColumns columns) throws IOException, SQLException {
+		int noColumns = buffer.getInt();
+		int[] indexes = new int[noColumns];
+		for (int i = 0; i < noColumns; i++) {
+			indexes[i] = columns.getColumnIndex((String) RecordLog.readValue(buffer)) - 1; // -1 if dropped
+			buffer.getInt(); // type
+		}
+		
+		int noRows = buffer.getInt();
+		List<Persistent> result = new ArrayList<Persistent>(noRows);
+		int noCurrentColumns = columns.getColumnLabels().size();
+		for (int i = 0; i < noRows; i++) {
+			boolean isDirty = buffer.get() != 0;
+			Object[] values = new Object[noCurrentColumns];
+			for (int j = 0; j < noColumns; j++) {
+				Object value = RecordLog.readValue(buffer);
+				if (indexes[j] >= 0) {
+					values[indexes[j]] = value;
+				}
+			}
+			
+			Persistent obj = createObject(manager, new ResultSetRow(columns, values).asResultSet());
+			if (isDirty) {
+				obj.incWriteCount();
+			} else {
+				obj.resetWriteCount();
+			}
+			result.add(obj);
+		}
+		
+		return result;
+	}
+	
+	/**
+	 * 
+	 */
+	protected Persistent createObject(ObjectManager manager, ResultSet rset) throws SQLException {
+		if (manager instanceof PhotoManager) {
+			return ((PhotoManager) manager).createObject(rset);
+		} else if (manager instanceof UserManager) {
+			return ((UserManager) manager).createObject(rset);
+		} else {
+			return ((PhotoCaseManager) manager).createObject(rset);
+		}
+	}
+	
+	/**
+	 * Attaches the cached photos to their owners, as UserManager.attachPhotos() would from the database.
+	 */
+	protected void attachPhotos(Collection<User> users, PhotoManager photoManager) {
+		Map<String, Set<Photo>> photosByOwner = new HashMap<String, Set<Photo>>();
+		for (Photo photo : photoManager.getCachedPhotos()) {
+			PhotoManager.addPhotoByOwner(photosByOwner, photo);
+		}
+		
+		for (User user : users) {
+			Set<Photo> photos = photosByOwner.get(user.getName());
+			if (photos == null) {
+				photos = new HashSet<Photo>();
+			}
+			
+			PhotoId userPhotoId = user.getUserPhotoId();
+			Photo userPhoto = userPhotoId.isNullId() ? null : photoManager.getPhotoFromId(userPhotoId);
+			user.attachPhotos(photos, userPhoto);
+		}
+	}
+	
+	/**
+	 * 
+	 */
+	protected void startPhases() {
+		phases.clear();
+		phaseStartTime = System.currentTimeMillis();
+	}
+	
+	/**
+	 * 
+	 */
+	protected void endPhase(String name) {
+		long now = System.currentTimeMillis();
+		phases.put(name, now - phaseStartTime);
+		phaseStartTime = now;
+	}
+	
+	/**
+	 * @methodtype conversion
+	 */
+	public synchronized String asPhasesString() {
+		StringBuffer result = new StringBuffer(128);
+		long total = 0;
+		for (Map.Entry<String, Long> phase : phases.entrySet()) {
+			result.append((result.length() == 0) ? "" : ", ").append(phase.getKey()).append(" ").append(phase.getValue()).append("ms");
+			total += phase.getValue();
+		}
+		return total + "ms (" + result + ")";
+	}
+	
+}
@@ -22,6 +22,7 @@ package org.wahlzeit.model;
 
 import java.sql.*;
 import java.net.*;
+import java.util.*;
 
 import org.wahlzeit.model.location.Location;
 import org.wahlzeit.services.*;
@@ -93,6 +94,18 @@ public class Photo extends DataObject {
 	 * 
 	 */
 	protected Tags tags = Tags.EMPTY_TAGS;
+	
+	/**
+	 * Rows of the tags table last written for this photo, null if unknown.
+	 * Tags and owner name determine these rows, so changing either marks them dirty.
+	 */
+	protected transient Set<String> persistedTagRows = null;
+	protected transient boolean areTagRowsDirty = false;
+	
+	/**
+	 * Weight last passed on to live filters, -1 if none since loaded; see PhotoManager.indexPhoto
+	 */
+	protected transient int weightInFilters = -1;
 
 	/**
 	 * 
@@ -100,10 +113,11 @@ public class Photo extends DataObject {
 	protected PhotoStatus status = PhotoStatus.VISIBLE;
 	
 	/**
-	 * 
+	 * Praise as saved, or being saved; votes not taken for saving yet are counted in pendingPraise
 	 */
 	protected int praiseSum = 10;
 	protected int noVotes = 1;
+	protected volatile StripedLong pendingPraise = null;
 	
 	/**
 	 * 
@@ -209,6 +223,7 @@ public class Photo extends DataObject {
 		rset.updateInt("praise_sum", praiseSum);
 		rset.updateInt("no_votes", noVotes);
 		rset.updateLong("creation_time", creationTime);
+		rset.updateLong("modified_time", System.currentTimeMillis()); // see ModelSnapshot
 	}
 
 	/**
@@ -257,6 +272,7 @@ public class Photo extends DataObject {
 	 */
 	public void setOwnerName(String newName) {
 		ownerName = newName;
+		areTagRowsDirty = true;
 		incWriteCount();
 	}
 	
@@ -424,8 +440,17 @@ public class Photo extends DataObject {
 	 * 
 	 * @methodtype get
 	 */
-	public double getPraise() {
-		return (double) praiseSum / noVotes;
+	public synchronized double getPraise() {
+		long pending = getPendingPraise();
+		return (double) (praiseSum + PraiseCounters.getPraiseSum(pending)) / (noVotes + PraiseCounters.getNoVotes(pending));
+	}
+	
+	/**
+	 * 
+	 * @methodtype get
+	 */
+	public synchronized int getPraiseSum() {
+		return praiseSum + PraiseCounters.getPraiseSum(getPendingPraise());
 	}
 	
 	/**
@@ -438,13 +463,64 @@ public class Photo extends DataObject {
 	
 	/**
 	 * 
+	 * @methodtype get
 	 */
-	public void addToPraise(int value) {
-		praiseSum += value;
-		noVotes += 1;
+	public synchronized int getNoVotes() {
+		return noVotes + PraiseCounters.getNoVotes(getPendingPraise());
+	}
+	
+	/**
+	 * @return the votes not taken for saving yet, as a delta; read with the saved praise under the
+	 * monitor of the photo, as takePendingPraise() moves them there
+	 */
+	protected long getPendingPraise() {
+		StripedLong pending = pendingPraise;
+		return (pending != null) ? pending.sum() : 0;
+	}
+	
+	/**
+	 * Replaces the saved praise, e.g. of generated or imported photos; pending votes are kept
+	 * @methodtype set
+	 */
+	public synchronized void setPraise(int newPraiseSum, int newNoVotes) {
+		praiseSum = newPraiseSum;
+		noVotes = newNoVotes;
 		incWriteCount();
 	}
 	
+	/**
+	 * Counts a vote without locking; the vote is saved once taken by takePendingPraise().
+	 * Does not make the photo dirty, see PraiseCounters.
+	 */
+	public void addToPraise(int value) {
+		StripedLong pending = pendingPraise;
+		if (pending == null) {
+			pending = createPendingPraise();
+		}
+		pending.add(PraiseCounters.asDelta(value, 1));
+	}
+	
+	/**
+	 * @methodtype factory
+	 */
+	protected synchronized StripedLong createPendingPraise() {
+		if (pendingPraise == null) {
+			pendingPraise = new StripedLong();
+		}
+		return pendingPraise;
+	}
+	
+	/**
+	 * Moves the pending votes to the saved praise, as they are about to be saved.
+	 * @return the votes moved, as a delta
+	 */
+	public synchronized long takePendingPraise() {
+		long result = (pendingPraise != null) ? pendingPraise.sumThenReset() : 0;
+		praiseSum += PraiseCounters.getPraiseSum(result);
+		noVotes += PraiseCounters.getNoVotes(result);
+		return result;
+	}
+	
 	/**
 	 * 
 	 * @methodtype boolean-query
@@ -462,12 +538,30 @@ public class Photo extends DataObject {
 	}
 	
 	/**
-	 * 
+	 * Reindexes the photo if it becomes visible or invisible, so that no caller can bypass the index
 	 * @methodtype set
 	 */
 	public void setStatus(PhotoStatus newStatus) {
+		boolean wasVisible = isVisible();
 		status = newStatus;
 		incWriteCount();
+		
+		if (wasVisible != isVisible()) {
+			PhotoManager.getInstance().didChangeVisibility(this);
+		}
+	}
+	
+	/**
+	 * Replaces the weight last passed on to live filters
+	 * @return true if it changed, i.e. live filters need the new weight
+	 */
+	public synchronized boolean updateWeightInFilters(int newWeight) {
+		if (weightInFilters == newWeight) {
+			return false;
+		}
+		
+		weightInFilters = newWeight;
+		return true;
 	}
 	
 	/**
@@ -492,9 +586,35 @@ public class Photo extends DataObject {
 	 */
 	public void setTags(Tags newTags) {
 		tags = newTags;
+		areTagRowsDirty = true;
 		incWriteCount();
 	}
 	
+	/**
+	 * 
+	 * @methodtype boolean-query
+	 */
+	public boolean hasTagRowChanges() {
+		return areTagRowsDirty || (persistedTagRows == null);
+	}
+	
+	/**
+	 * 
+	 * @methodtype get
+	 */
+	public Set<String> getPersistedTagRows() {
+		return persistedTagRows;
+	}
+	
+	/**
+	 * 
+	 * @methodtype set
+	 */
+	public void setPersistedTagRows(Set<String> newTagRows) {
+		persistedTagRows = newTagRows;
+		areTagRowsDirty = false;
+	}
+	
 	/**
 	 * 
 	 * @methodtype get
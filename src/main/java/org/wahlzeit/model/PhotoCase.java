@@ -105,6 +105,7 @@ public class PhotoCase extends Case {
 		
 		rset.updateBoolean("was_decided", wasDecided);
 		rset.updateLong("decision_time", decidedOn);		
+		rset.updateLong("modified_time", System.currentTimeMillis()); // see ModelSnapshot
 	}
 	
 	/**
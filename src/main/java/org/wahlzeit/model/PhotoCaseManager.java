@@ -22,6 +22,7 @@ package org.wahlzeit.model;
 
 import java.sql.*;
 import java.util.*;
+import java.util.concurrent.*;
 
 import org.wahlzeit.services.*;
 
@@ -33,7 +34,12 @@ public class PhotoCaseManager extends ObjectManager {
 	/**
 	 * 
 	 */
-	protected Map<CaseId, PhotoCase> openPhotoCases = new HashMap<CaseId, PhotoCase>();
+	protected Map<CaseId, PhotoCase> openPhotoCases = new ConcurrentHashMap<CaseId, PhotoCase>();
+	
+	/**
+	 * Reads of cases that are not open, so that concurrent requests for a case share one read
+	 */
+	protected SingleFlight<Integer, PhotoCase> caseLoads = new SingleFlight<Integer, PhotoCase>();
 
 	/**
 	 * 
@@ -53,21 +59,54 @@ public class PhotoCaseManager extends ObjectManager {
 	 * @methodproperty composed
 	 */
 	protected PhotoCaseManager() {
-		initialize();
+		// do nothing; open cases are loaded by ModelMain
 	}
 	
 	/**
 	 * @methodtype initialization
 	 * @methodproperty regular
 	 */
-	protected void initialize() {
+	public void loadOpenPhotoCases() {
 		Collection<PhotoCase> opc = new LinkedList<PhotoCase>();
 		loadOpenPhotoCases(opc);
+		setOpenPhotoCases(opc);
+	}
+	
+	/**
+	 * @methodtype set
+	 */
+	public void setOpenPhotoCases(Collection<PhotoCase> opc) {
+		openPhotoCases.clear();
 		for (PhotoCase pc : opc) {
 			openPhotoCases.put(pc.getId(), pc);
 		}
 	}
 	
+	/**
+	 * @return the open cases; a copy
+	 */
+	public List<PhotoCase> getOpenPhotoCases() {
+		return new ArrayList<PhotoCase>(openPhotoCases.values());
+	}
+	
+	/**
+	 * Reads the cases written since time; decided ones are closed, others opened or refreshed.
+	 */
+	public void loadPhotoCasesModifiedSince(long time) throws SQLException {
+		PreparedStatement stmt = getReadingStatement("SELECT * FROM cases WHERE modified_time > ?");
+		stmt.setLong(1, time);
+		SysLog.logQuery(stmt);
+		ResultSet rset = stmt.executeQuery();
+		while (rset.next()) {
+			PhotoCase pc = createObject(rset);
+			if (pc.wasDecided()) {
+				openPhotoCases.remove(pc.getId());
+			} else {
+				openPhotoCases.put(pc.getId(), pc);
+			}
+		}
+	}
+	
 	/**
 	 * 
 	 * @methodtype factory
@@ -80,15 +119,25 @@ public class PhotoCaseManager extends ObjectManager {
 	 * 
 	 * @methodtype get
 	 */
-	public PhotoCase getPhotoCase(int id) {
-		PhotoCase result = openPhotoCases.get(id);
+	public PhotoCase getPhotoCase(final int id) {
+		PhotoCase result = openPhotoCases.get(new CaseId(id));
 		if (result == null) {
-			try {
-				PreparedStatement stmt = getReadingStatement("SELECT * FROM cases WHERE id = ?");
-				result = (PhotoCase) readObject(stmt, id);
-			} catch (SQLException sex) {
-				SysLog.logThrowable(sex);
-			}
+			result = caseLoads.load(id, new Callable<PhotoCase>() {
+				public PhotoCase call() {
+					PhotoCase loaded = null;
+					try {
+						if (hasRecordStore()) {
+							loaded = (PhotoCase) readRecord("cases", id);
+						} else {
+							PreparedStatement stmt = getReadingStatement("SELECT * FROM cases WHERE id = ?");
+							loaded = (PhotoCase) readObject(stmt, id);
+						}
+					} catch (SQLException sex) {
+						SysLog.logThrowable(sex);
+					}
+					return loaded;
+				}
+			});
 		}
 		
 		return result;
@@ -101,14 +150,18 @@ public class PhotoCaseManager extends ObjectManager {
 	public void addPhotoCase(PhotoCase myCase) {
 		openPhotoCases.put(myCase.getId(), myCase);
 		try {
-			PreparedStatement stmt1 = getReadingStatement("INSERT INTO cases(id) VALUES(?)");
-			createObject(myCase, stmt1, myCase.getId().asInt());
-			PreparedStatement stmt2 = getUpdatingStatement("SELECT * FROM cases WHERE id = ?");
-			updateObject(myCase, stmt2);
+			if (hasRecordStore()) {
+				writeRecords(Collections.singletonList(myCase), "cases");
+			} else {
+				PreparedStatement stmt = getReadingStatement("INSERT INTO cases(id) VALUES(?)");
+				createObject(myCase, stmt, myCase.getId().asInt());
+			}
 			// @FIXME Main.saveGlobals();
 		} catch (SQLException sex) {
 			SysLog.logThrowable(sex);
 		}
+		
+		savePhotoCase(myCase);
 	}
 	
 	/**
@@ -117,9 +170,24 @@ public class PhotoCaseManager extends ObjectManager {
 	 */
 	public void removePhotoCase(PhotoCase myCase) {
 		openPhotoCases.remove(myCase.getId());
+		savePhotoCase(myCase);
+	}
+	
+	/**
+	 * 
+	 */
+	public void savePhotoCase(PhotoCase myCase) {
+		if (WriteBehindQueue.getInstance().schedule(myCase)) {
+			return; // written by WriteBehindAgent
+		}
+		
 		try {
-			PreparedStatement stmt = getUpdatingStatement("SELECT * FROM cases WHERE id = ?");
-			updateObject(myCase, stmt);
+			if (hasRecordStore()) {
+				updateRecords(Collections.singletonList(myCase), "cases");
+			} else {
+				PreparedStatement stmt = getUpdatingStatement("SELECT * FROM cases WHERE id = ?");
+				updateObject(myCase, stmt);
+			}
 		} catch (SQLException sex) {
 			SysLog.logThrowable(sex);
 		}
@@ -131,8 +199,12 @@ public class PhotoCaseManager extends ObjectManager {
 	 */
 	public void loadOpenPhotoCases(Collection<PhotoCase> result) {
 		try {
-			PreparedStatement stmt = getReadingStatement("SELECT * FROM cases WHERE was_decided = FALSE");
-			readObjects(result, stmt);
+			if (hasRecordStore()) {
+				readRecords(result, "cases", "was_decided", Boolean.FALSE);
+			} else {
+				PreparedStatement stmt = getReadingStatement("SELECT * FROM cases WHERE was_decided = FALSE");
+				readObjects(result, stmt);
+			}
 		} catch (SQLException sex) {
 			SysLog.logThrowable(sex);
 		}
@@ -145,9 +217,15 @@ public class PhotoCaseManager extends ObjectManager {
 	 * @methodtype command
 	 */
 	public void savePhotoCases() {
+		savePhotoCases(openPhotoCases.values());
+	}
+	
+	/**
+	 * 
+	 */
+	public void savePhotoCases(Collection<PhotoCase> photoCases) {
 		try {
-			PreparedStatement stmt = getUpdatingStatement("SELECT * FROM cases WHERE id = ?");
-			updateObjects(openPhotoCases.values(), stmt);
+			saveObjects(photoCases, "cases");
 		} catch (SQLException sex) {
 			SysLog.logThrowable(sex);
 		}
@@ -22,7 +22,9 @@ package org.wahlzeit.model;
 
 import java.util.*;
 
+import org.wahlzeit.utils.IntBitmap;
 import org.wahlzeit.utils.StringUtil;
+import org.wahlzeit.utils.WeightedSampler;
 
 /**
  * A class to specify a photo filter.
@@ -36,6 +38,11 @@ public class PhotoFilter {
 	public static final String USER_NAME = "userName";
 	public static final String TAGS = "tags";
 	
+	/**
+	 * Filters of live sessions, to pass on changes of photo weights
+	 */
+	protected static Set<PhotoFilter> liveFilters = Collections.newSetFromMap(new WeakHashMap<PhotoFilter, Boolean>());
+	
 	/**
 	 *
 	 */
@@ -45,8 +52,19 @@ public class PhotoFilter {
 	/**
 	 * 
 	 */
-	protected List<PhotoId> displayablePhotoIds = new LinkedList<PhotoId>();
-	protected List<PhotoId> processedPhotoIds = new LinkedList<PhotoId>();
+	protected static final int[] NO_PHOTO_IDS = new int[0];
+	
+	/**
+	 * Candidates for display in ascending order, drawn by the weights of the sampler
+	 */
+	protected int[] displayablePhotoIds = NO_PHOTO_IDS;
+	protected WeightedSampler sampler = new WeightedSampler(NO_PHOTO_IDS);
+	protected int noDisplayablePhotoIds = 0;
+	
+	/**
+	 * Photos already shown in this session
+	 */
+	protected IntBitmap processedPhotoIds = new IntBitmap();
 	
 	/**
 	 * 
@@ -57,7 +75,23 @@ public class PhotoFilter {
 	 * 
 	 */
 	public PhotoFilter() {
-		// do nothing
+		synchronized(liveFilters) {
+			liveFilters.add(this);
+		}
+	}
+	
+	/**
+	 * Sets the weight of photo id in all live filters that have it as an unprocessed candidate.
+	 */
+	public static void setPhotoWeightInLiveFilters(int id, int weight) {
+		List<PhotoFilter> filters;
+		synchronized(liveFilters) {
+			filters = new ArrayList<PhotoFilter>(liveFilters);
+		}
+		
+		for (PhotoFilter filter : filters) {
+			filter.setPhotoWeight(id, weight);
+		}
 	}
 	
 	/**
@@ -70,11 +104,11 @@ public class PhotoFilter {
 	/**
 	 * 
 	 */
-	public void clear() {
+	public synchronized void clear() {
         setUserName("");
         setTags(Tags.EMPTY_TAGS);
-		displayablePhotoIds.clear();
-		processedPhotoIds.clear();
+		resetDisplayablePhotoIds();
+		processedPhotoIds = new IntBitmap();
 	}
 	
 	/**
@@ -126,50 +160,92 @@ public class PhotoFilter {
 	}
 	
 	/**
-	 * 
+	 * Draws an unprocessed candidate by weight in O(log n), without retries.
 	 */
-	public PhotoId getRandomDisplayablePhotoId() {
-		if (!displayablePhotoIds.isEmpty()) {
-			int size = displayablePhotoIds.size();
-			int index = ((randomNumber.nextInt() % size) + size) / 2;
-			return displayablePhotoIds.get(index);
-		} else {
-			return PhotoId.NULL_ID;
-		}
+	public synchronized PhotoId getRandomDisplayablePhotoId() {
+		int index = sampler.sample(randomNumber);
+		return (index < 0) ? PhotoId.NULL_ID : PhotoId.getIdFromInt(displayablePhotoIds[index]);
 	}
 
 	/**
-	 * 
+	 * @return number of candidates that can still be drawn
 	 */
-	public List<PhotoId> getDisplayablePhotoIds() {
-		return displayablePhotoIds;
+	public synchronized int getNoDisplayablePhotoIds() {
+		return noDisplayablePhotoIds;
 	}
 	
 	/**
-	 * 
+	 * Sets all candidates to the same weight.
 	 */
-	public void setDisplayablePhotoIds(List<PhotoId> newPhotoIds) {
+	public void setDisplayablePhotoIds(int[] newPhotoIds) {
+		int[] weights = new int[newPhotoIds.length];
+		Arrays.fill(weights, 1);
+		setDisplayablePhotoIds(newPhotoIds, weights);
+	}
+	
+	/**
+	 * @param newPhotoIds candidates in ascending order, owned by the filter afterwards
+	 * @param weights weight of each candidate, see PhotoWeightPolicy
+	 */
+	public synchronized void setDisplayablePhotoIds(int[] newPhotoIds, int[] weights) {
+		noDisplayablePhotoIds = 0;
+		for (int i = 0; i < newPhotoIds.length; i++) {
+			if (processedPhotoIds.contains(newPhotoIds[i])) {
+				weights[i] = 0;
+			} else if (weights[i] > 0) {
+				noDisplayablePhotoIds++;
+			}
+		}
+		
 		displayablePhotoIds = newPhotoIds;
+		sampler = new WeightedSampler(weights);
+	}
+	
+	/**
+	 * 
+	 */
+	public synchronized void resetDisplayablePhotoIds() {
+		displayablePhotoIds = NO_PHOTO_IDS;
+		sampler = new WeightedSampler(NO_PHOTO_IDS);
+		noDisplayablePhotoIds = 0;
+	}
+	
+	/**
+	 * Changes the weight of a candidate in O(log n), e.g. to 0 once it is hidden.
+	 */
+	public synchronized void setPhotoWeight(int id, int weight) {
+		int index = Arrays.binarySearch(displayablePhotoIds, id);
+		if ((index >= 0) && !processedPhotoIds.contains(id)) {
+			doSetWeight(index, weight);
+		}
 	}
 	
 	/**
 	 * 
 	 */
-	public void resetDisplayablePhotoIds() {
-		displayablePhotoIds = new LinkedList<PhotoId>();
+	public synchronized int getPhotoWeight(int id) {
+		int index = Arrays.binarySearch(displayablePhotoIds, id);
+		return (index < 0) ? 0 : sampler.getWeight(index);
 	}
 	
 	/**
 	 * 
 	 */
-	public List<PhotoId> getProcessedPhotoIds() {
-		return processedPhotoIds;
+	public synchronized int getNoProcessedPhotoIds() {
+		return processedPhotoIds.getCardinality();
 	}
 	
 	/**
 	 * 
 	 */
 	public boolean isProcessedPhotoId(PhotoId photoId) {
+		return isProcessedPhotoId(photoId.asInt());
+	}
+	
+	/**
+	 * 
+	 */
+	public synchronized boolean isProcessedPhotoId(int photoId) {
 		return processedPhotoIds.contains(photoId);
 	}
 	
@@ -177,10 +253,39 @@ public class PhotoFilter {
 	 * 
 	 */
 	public void addProcessedPhoto(Photo photo) {
-		processedPhotoIds.add(photo.getId());
-		if (displayablePhotoIds != null) {
-			displayablePhotoIds.remove(photo.getId());
+		addProcessedPhotoId(photo.getId());
+	}
+	
+	/**
+	 * 
+	 */
+	public synchronized void addProcessedPhotoId(PhotoId photoId) {
+		int id = photoId.asInt();
+		int index = Arrays.binarySearch(displayablePhotoIds, id);
+		if (index >= 0) {
+			doSetWeight(index, 0);
+		}
+		processedPhotoIds.add(id);
+	}
+	
+	/**
+	 * @return approximate memory held by this filter for the session
+	 */
+	public synchronized long getSizeInBytes() {
+		return 64 + 4L * displayablePhotoIds.length + sampler.getSizeInBytes() + processedPhotoIds.getSizeInBytes();
+	}
+	
+	/**
+	 * 
+	 */
+	protected void doSetWeight(int index, int weight) {
+		int oldWeight = sampler.getWeight(index);
+		if ((oldWeight > 0) && (weight == 0)) {
+			noDisplayablePhotoIds--;
+		} else if ((oldWeight == 0) && (weight > 0)) {
+			noDisplayablePhotoIds++;
 		}
+		sampler.setWeight(index, weight);
 	}
 	
 }
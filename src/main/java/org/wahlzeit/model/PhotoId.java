@@ -20,8 +20,11 @@
 
 package org.wahlzeit.model;
 
+import java.sql.SQLException;
 import java.util.Random;
 
+import org.wahlzeit.services.IdBlockAllocator;
+
 /**
  * A photo id identifies a photo with a unique number.
  * The number has an equivalent string for web access. 
@@ -31,8 +34,14 @@ public class PhotoId {
 	
 	/**
 	 * 0 is never returned from nextValue; first value is 1
+	 * currentId is the highest id reserved or seen; other nodes may have reserved ids beyond it
+	 */
+	protected static volatile int currentId = 0;
+	
+	/**
+	 * 
 	 */
-	protected static int currentId = 0;
+	protected static volatile IdBlockAllocator idAllocator = new IdBlockAllocator("photo", 0, 1024);
 	
 	/**
 	 * 
@@ -47,7 +56,7 @@ public class PhotoId {
 	/**
 	 * 
 	 */
-	protected static PhotoId[] ids = new PhotoId[BUFFER_SIZE_INCREMENT];
+	protected static volatile PhotoId[] ids = new PhotoId[BUFFER_SIZE_INCREMENT];
 	
 	/**
 	 * What a hack :-)
@@ -70,7 +79,15 @@ public class PhotoId {
 	 * 
 	 */
 	public static synchronized void setCurrentIdFromInt(int id) {
-		currentId = id;
+		setIdAllocator(new IdBlockAllocator("photo", id, 1024));
+	}
+	
+	/**
+	 * Ids will be handed out by myAllocator, starting after the last id it allocated.
+	 */
+	public static synchronized void setIdAllocator(IdBlockAllocator myAllocator) {
+		idAllocator = myAllocator;
+		currentId = myAllocator.getLastReservedId();
 		ids = new PhotoId[currentId + BUFFER_SIZE_INCREMENT];
 		ids[0] = NULL_ID;
 	}
@@ -78,28 +95,50 @@ public class PhotoId {
 	/**
 	 * 
 	 */
-	public static synchronized int getNextIdAsInt() {
-		currentId += 1;
-		if (currentId >= ids.length) {
-			PhotoId[] nids = new PhotoId[currentId + BUFFER_SIZE_INCREMENT];
-			System.arraycopy(ids, 0, nids, 0, currentId);
+	public static int getNextIdAsInt() {
+		int result = idAllocator.getNextId();
+		if (result > currentId) {
+			ensureCapacity(idAllocator.getLastReservedId());
+		}
+		return result;
+	}
+	
+	/**
+	 * Reserves size consecutive ids that getNextIdAsInt() will not hand out
+	 * @return the first id of the range
+	 */
+	public static int reserveIds(int size) throws SQLException {
+		int result = idAllocator.reserveRange(size);
+		ensureCapacity(result + size - 1);
+		return result;
+	}
+	
+	/**
+	 * Makes room in the id cache for all ids up to lastId, growing it at least twofold.
+	 */
+	protected static synchronized void ensureCapacity(int lastId) {
+		if (lastId >= ids.length) {
+			int length = (int) Math.min(Math.max((long) lastId + BUFFER_SIZE_INCREMENT, 2L * ids.length), Integer.MAX_VALUE);
+			PhotoId[] nids = new PhotoId[length];
+			System.arraycopy(ids, 0, nids, 0, ids.length);
 			ids = nids;
 		}
-		return currentId;
+		currentId = Math.max(currentId, lastId);
 	}
 
 	/**
-	 * 
+	 * Ids of photos stored by other nodes may be beyond currentId, the cache grows for them.
 	 */
 	public static PhotoId getIdFromInt(int id) {
-		if ((id < 0) || (id > currentId)) {
+		if (id <= 0) {
 			return NULL_ID;
+		} else if (id > currentId) {
+			ensureCapacity(id);
 		}
 		
-		// @FIXME http://en.wikipedia.org/wiki/Double-checked_locking
 		PhotoId result = ids[id];
 		if (result == null) {
-			synchronized(ids) {
+			synchronized(PhotoId.class) { // same lock as growing ids
 				result = ids[id];
 				if (result == null) {
 					result = new PhotoId(id);
@@ -115,7 +154,12 @@ public class PhotoId {
 	 * 
 	 */
 	public static PhotoId getIdFromString(String id) {
-		return getIdFromInt(getFromString(id));
+		int result = getFromString(id);
+		if (result > currentId) {
+			// request input, do not grow the cache; the id is cached once its photo is read
+			return new PhotoId(result);
+		}
+		return getIdFromInt(result);
 	}
 	
 	/**
@@ -23,8 +23,9 @@ package org.wahlzeit.model;
 import java.io.*;
 import java.sql.*;
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.locks.*;
 
-import org.wahlzeit.main.*;
 import org.wahlzeit.model.gaming.GamingPhotoManager;
 import org.wahlzeit.services.*;
 import org.wahlzeit.utils.patterns.Pattern;
@@ -45,13 +46,68 @@ public class PhotoManager extends ObjectManager {
 	/**
 	 * In-memory cache for photos
 	 */
-	protected Map<PhotoId, Photo> photoCache = new HashMap<PhotoId, Photo>();
+	protected ObjectCache<PhotoId, Photo> photoCache = new ObjectCache<PhotoId, Photo>("photo cache");
 	
 	/**
 	 * 
 	 */
 	protected PhotoTagCollector photoTagCollector = null;
 	
+	/**
+	 * Tag rows written but not yet committed, by photo id
+	 */
+	protected Map<PhotoId, Set<String>> pendingTagRows = new ConcurrentHashMap<PhotoId, Set<String>>();
+	
+	/**
+	 * In-memory index of the tags table, answers filter queries
+	 */
+	protected TagIndex tagIndex = new TagIndex();
+	
+	/**
+	 * Filter results shared by all sessions, kept consistent with tagIndex
+	 */
+	protected FilterResultCache filterResultCache = new FilterResultCache();
+	
+	/**
+	 * Visible photos ordered by praise, kept consistent with tagIndex
+	 */
+	protected Leaderboards leaderboards = new Leaderboards();
+	
+	/**
+	 * How likely each candidate of a filter is shown
+	 */
+	protected PhotoWeightPolicy photoWeightPolicy = PhotoWeightPolicy.UNIFORM;
+	
+	/**
+	 * Makes praise votes durable before they are saved, or null
+	 */
+	protected volatile PraiseJournal praiseJournal = null;
+	
+	/**
+	 * Praise votes not saved yet
+	 */
+	protected PraiseCounters praiseCounters = new PraiseCounters();
+	
+	/**
+	 * Serializes flushes of praiseCounters, which are also checkpoints of praiseJournal
+	 */
+	protected final Object flushLock = new Object();
+	
+	/**
+	 * Journal checkpoint the failed batch of praiseCounters belongs to, or 0
+	 */
+	protected long failedCheckpoint = 0;
+	
+	/**
+	 * Recorded journal checkpoints whose votes were cleared from the journal since, deleted with the next save
+	 */
+	protected Set<Long> clearedCheckpoints = new HashSet<Long>();
+	
+	/**
+	 * Columns only changed by adding deltas, see flushPraise()
+	 */
+	protected static final Set<String> PRAISE_COLUMNS = new HashSet<String>(Arrays.asList("praise_sum", "no_votes"));
+	
 	/**
 	 * 
 	 */
@@ -110,22 +166,31 @@ public class PhotoManager extends ObjectManager {
 			return null;
 		}
 
-		Photo result = doGetPhotoFromId(id);
-		
-		if (result == null) {
+		return photoCache.getOrLoad(id, photoLoader);
+	}
+	
+	/**
+	 * Reads a photo missing from the cache; concurrent misses on a photo share one read
+	 */
+	protected ObjectCache.Loader<PhotoId, Photo> photoLoader = new ObjectCache.Loader<PhotoId, Photo>() {
+		public Photo load(PhotoId id) {
+			Photo result = null;
 			try {
-				PreparedStatement stmt = getReadingStatement("SELECT * FROM photos WHERE id = ?");
-				result = (Photo) readObject(stmt, id.asInt());
+				if (hasRecordStore()) {
+					result = (Photo) readRecord("photos", id.asInt());
+				} else {
+					PreparedStatement stmt = getReplicaReadingStatement("SELECT * FROM photos WHERE id = ?");
+					result = (Photo) readObject(stmt, id.asInt());
+				}
 			} catch (SQLException sex) {
 				SysLog.logThrowable(sex);
 			}
 			if (result != null) {
-				doAddPhoto(result);
+				indexPhoto(result);
 			}
+			return result;
 		}
-		
-		return result;
-	}
+	};
 		
 	/**
 	 * @methodtype get
@@ -139,7 +204,9 @@ public class PhotoManager extends ObjectManager {
 	 * 
 	 */
 	protected Photo createObject(ResultSet rset) throws SQLException {
-		return PhotoFactory.getInstance().createPhoto(rset);
+		Photo result = PhotoFactory.getInstance().createPhoto(rset);
+		result.setPersistedTagRows(collectTagRows(result)); // tags table was written with the photo
+		return result;
 	}
 	
 	/**
@@ -153,9 +220,16 @@ public class PhotoManager extends ObjectManager {
 		doAddPhoto(photo);
 
 		try {
-			PreparedStatement stmt = getReadingStatement("INSERT INTO photos(id) VALUES(?)");
-			createObject(photo, stmt, id.asInt());
-			ServiceMain.getInstance().saveGlobals();
+			if (hasRecordStore()) {
+				writeRecords(Collections.singletonList(photo), "photos");
+			} else {
+				// updates leave the praise columns alone, so the initial praise is inserted
+				PreparedStatement stmt = getReadingStatement("INSERT INTO photos(id, praise_sum, no_votes) VALUES(?, ?, ?)");
+				stmt.setInt(2, photo.getPraiseSum());
+				stmt.setInt(3, photo.getNoVotes());
+				createObject(photo, stmt, id.asInt());
+			}
+			photo.setPersistedTagRows(new HashSet<String>());
 		} catch (SQLException sex) {
 			SysLog.logThrowable(sex);
 		}
@@ -167,15 +241,242 @@ public class PhotoManager extends ObjectManager {
 	 */
 	protected void doAddPhoto(Photo myPhoto) {
 		photoCache.put(myPhoto.getId(), myPhoto);
+		indexPhoto(myPhoto);
+	}
+	
+	/**
+	 * @methodtype get
+	 */
+	public TagIndex getTagIndex() {
+		return tagIndex;
+	}
+	
+	/**
+	 * @methodtype get
+	 */
+	public FilterResultCache getFilterResultCache() {
+		return filterResultCache;
+	}
+	
+	/**
+	 * @methodtype get
+	 */
+	public Leaderboards getLeaderboards() {
+		return leaderboards;
+	}
+	
+	/**
+	 * @methodtype command
+	 * 
+	 * Updates the photo's terms and visibility in the tag index, and drops the filter results it enters or leaves.
+	 * Moves the photo within the leaderboards by its current praise. Live filters only learn its weight
+	 * when the weight changed, e.g. under UNIFORM only when the photo becomes visible or invisible.
+	 */
+	protected void indexPhoto(Photo photo) {
+		int id = photo.getId().asInt();
+		Set<String> newTerms = collectTagRows(photo);
+		boolean isVisible = photo.isVisible();
+		
+		Set<String> oldTerms = tagIndex.getTerms(id);
+		boolean wasVisible = tagIndex.isVisible(id);
+		tagIndex.updatePhoto(id, newTerms, isVisible);
+		
+		if ((wasVisible != isVisible) || !oldTerms.equals(newTerms)) {
+			filterResultCache.invalidatePhoto(oldTerms, wasVisible, newTerms, isVisible);
+		}
+		
+		leaderboards.updatePhoto(id, photo.getPraise(), photo.getNoVotes(), newTerms, isVisible);
+		int weight = isVisible ? photoWeightPolicy.getWeight(photo) : 0;
+		if (photo.updateWeightInFilters(weight)) {
+			PhotoFilter.setPhotoWeightInLiveFilters(id, weight);
+		}
 	}
+	
+	/**
+	 * Updates the tag index, filter results, and leaderboards for a cached photo whose status changed.
+	 */
+	public void didChangeVisibility(Photo photo) {
+		if (photoCache.peek(photo.getId()) == photo) {
+			indexPhoto(photo);
+		}
+	}
+	
+	/**
+	 * @methodtype get
+	 */
+	public PhotoWeightPolicy getPhotoWeightPolicy() {
+		return photoWeightPolicy;
+	}
+	
+	/**
+	 * @methodtype set
+	 */
+	public void setPhotoWeightPolicy(PhotoWeightPolicy newPolicy) {
+		photoWeightPolicy = newPolicy;
+	}
+	
+	/**
+	 * @return weight of a photo by the current policy, without loading the photo
+	 */
+	protected int getPhotoWeight(int id) {
+		Photo photo = doGetPhotoFromId(PhotoId.getIdFromInt(id));
+		if (photo == null) {
+			return photoWeightPolicy.getDefaultWeight();
+		}
+		
+		return photo.isVisible() ? photoWeightPolicy.getWeight(photo) : 0;
+	}
+	
+	/**
+	 * @methodtype command
+	 * 
+	 * Reads the tags table and the status of all photos into the tag index, without loading the photos.
+	 */
+	public void buildTagIndex() {
+		long startTime = System.currentTimeMillis();
+		try {
+			if (hasRecordStore()) {
+				buildTagIndexFromRecords();
+			} else {
+				buildTagIndexFromTables();
+			}
+		} catch (SQLException sex) {
+			SysLog.logThrowable(sex);
+		}
+
+		long duration = System.currentTimeMillis() - startTime;
+		filterResultCache.clear();
+		SysLog.logSysInfo("built tag index in " + duration + "ms: " + tagIndex.asStatisticsString());
+	}
+	
+	/**
+	 * 
+	 */
+	protected void buildTagIndexFromTables() throws SQLException {
+		Connection conn = getDatabaseConnection().getRdbmsConnection();
+		boolean wasAutoCommit = conn.getAutoCommit();
+		conn.setAutoCommit(false); // PostgreSQL only uses a cursor within a transaction
+		try {
+			ResultSet rset = executeStreamingQuery(conn, "SELECT id, status FROM photos");
+			while (rset.next()) {
+				boolean isVisible = PhotoStatus.getFromInt(rset.getInt("status")).isDisplayable();
+				tagIndex.setPhotoVisibility(rset.getInt("id"), isVisible);
+			}
+			rset.getStatement().close();
 
+			rset = executeStreamingQuery(conn, "SELECT tag, photo_id FROM tags");
+			while (rset.next()) {
+				tagIndex.addTerm(rset.getInt("photo_id"), rset.getString("tag"));
+			}
+			rset.getStatement().close();
+			conn.commit();
+		} catch (SQLException sex) {
+			conn.rollback();
+			throw sex;
+		} finally {
+			conn.setAutoCommit(wasAutoCommit);
+		}
+	}
+	
+	/**
+	 * Tag rows are not written to the record store, so terms are collected from photos that are not kept.
+	 */
+	protected void buildTagIndexFromRecords() throws SQLException {
+		List<ResultSet> rows = new ArrayList<ResultSet>();
+		recordStore.readRecords(rows, "photos", null, null);
+		for (ResultSet rset : rows) {
+			Photo photo = PhotoFactory.getInstance().createPhoto(rset);
+			tagIndex.updatePhoto(photo.getId().asInt(), collectTagRows(photo), photo.isVisible());
+		}
+	}
+	
+	/**
+	 * @methodtype command
+	 * 
+	 * Ranks all photos of the tag index by their saved praise, without loading the photos.
+	 */
+	public void buildLeaderboards() {
+		long startTime = System.currentTimeMillis();
+		leaderboards.clear();
+		try {
+			if (hasRecordStore()) {
+				buildLeaderboardsFromRecords();
+			} else {
+				buildLeaderboardsFromTables();
+			}
+		} catch (SQLException sex) {
+			SysLog.logThrowable(sex);
+		}
+		
+		long duration = System.currentTimeMillis() - startTime;
+		SysLog.logSysInfo("built leaderboards in " + duration + "ms: " + leaderboards.asStatisticsString());
+	}
+	
+	/**
+	 * 
+	 */
+	protected void buildLeaderboardsFromTables() throws SQLException {
+		Connection conn = getDatabaseConnection().getRdbmsConnection();
+		boolean wasAutoCommit = conn.getAutoCommit();
+		conn.setAutoCommit(false); // PostgreSQL only uses a cursor within a transaction
+		try {
+			ResultSet rset = executeStreamingQuery(conn, "SELECT id, praise_sum, no_votes FROM photos");
+			while (rset.next()) {
+				int id = rset.getInt("id");
+				int noVotes = rset.getInt("no_votes");
+				double praise = (noVotes == 0) ? 0.0 : (double) rset.getInt("praise_sum") / noVotes; // no_votes may be NULL
+				leaderboards.updatePhoto(id, praise, noVotes, tagIndex.getTerms(id), tagIndex.isVisible(id));
+			}
+			rset.getStatement().close();
+			conn.commit();
+		} catch (SQLException sex) {
+			conn.rollback();
+			throw sex;
+		} finally {
+			conn.setAutoCommit(wasAutoCommit);
+		}
+	}
+	
+	/**
+	 * 
+	 */
+	protected void buildLeaderboardsFromRecords() throws SQLException {
+		List<ResultSet> rows = new ArrayList<ResultSet>();
+		recordStore.readRecords(rows, "photos", null, null);
+		for (ResultSet rset : rows) {
+			Photo photo = PhotoFactory.getInstance().createPhoto(rset);
+			int id = photo.getId().asInt();
+			leaderboards.updatePhoto(id, photo.getPraise(), photo.getNoVotes(), tagIndex.getTerms(id), tagIndex.isVisible(id));
+		}
+	}
+	
+	/**
+	 * 
+	 */
+	protected ResultSet executeStreamingQuery(Connection conn, String query) throws SQLException {
+		PreparedStatement stmt = prepareStreamingStatement(conn, query);
+		stmt.setFetchSize(SysConfig.getDbLoadFetchSizeAsInt());
+		SysLog.logQuery(stmt);
+		return stmt.executeQuery();
+	}
+
+	/**
+	 * Photos are built from their row and the factory only, so loader threads can create them.
+	 */
+	protected boolean canCreateObjectsConcurrently() {
+		return true;
+	}
+	
 	/**
 	 * @methodtype command
 	 */
 	public void loadPhotos(Collection<Photo> result) {
 		try {
-			PreparedStatement stmt = getReadingStatement("SELECT * FROM photos");
-			readObjects(result, stmt);
+			if (hasRecordStore()) {
+				readRecords(result, "photos", null, null);
+			} else {
+				readObjectsStreaming(result, "SELECT * FROM photos", "photos");
+			}
 			for (Iterator<Photo> i = result.iterator(); i.hasNext(); ) {
 				Photo photo = i.next();
 				if (!doHasPhoto(photo.getId())) {
@@ -195,21 +496,344 @@ public class PhotoManager extends ObjectManager {
 	 * 
 	 */
 	public void savePhoto(Photo photo) {
+		indexPhoto(photo);
+		if (WriteBehindQueue.getInstance().schedule(photo)) {
+			return; // written by WriteBehindAgent
+		}
+		
 		try {
-			PreparedStatement stmt = getUpdatingStatement("SELECT * FROM photos WHERE id = ?");
-			updateObject(photo, stmt);
+			if (hasRecordStore()) {
+				updateRecords(Collections.singletonList(photo), "photos");
+			} else {
+				PreparedStatement stmt = getUpdatingStatement("SELECT * FROM photos WHERE id = ?");
+				updateObject(photo, stmt);
+			}
 		} catch (SQLException sex) {
 			SysLog.logThrowable(sex);
 		}
 	}
 	
+	/**
+	 * @methodtype get
+	 */
+	public PraiseJournal getPraiseJournal() {
+		return praiseJournal;
+	}
+	
+	/**
+	 * @methodtype set
+	 */
+	public void setPraiseJournal(PraiseJournal newPraiseJournal) {
+		praiseJournal = newPraiseJournal;
+	}
+	
+	/**
+	 * @methodtype get
+	 */
+	public PraiseCounters getPraiseCounters() {
+		return praiseCounters;
+	}
+	
+	/**
+	 * Adds a vote to the photo, to be saved by the next flushPraise(). With a journal, returns once
+	 * the vote is durable. If the journal is full, it is checkpointed by a flush and the vote is
+	 * journaled again; a vote that still does not fit is rejected, and neither counted nor journaled.
+	 * If forcing the journal fails, the vote is counted but may be lost in a crash.
+	 * @throws IOException if the vote was rejected or could not be made durable
+	 */
+	public void praisePhoto(Photo photo, int value) throws IOException {
+		PraiseJournal journal = praiseJournal;
+		long sequence = addVote(journal, photo, value);
+		if (sequence < 0) {
+			flushPraise();
+			sequence = addVote(journal, photo, value);
+			if (sequence < 0) {
+				throw new IOException("praise journal is full, rejected vote for photo " + photo.getId().asString());
+			}
+		}
+		
+		try {
+			if (sequence > 0) {
+				journal.awaitDurable(sequence);
+			}
+		} finally {
+			indexPhoto(photo);
+		}
+	}
+	
+	/**
+	 * Journals and counts a vote under the shared lock of the counters, so that a flush takes exactly
+	 * the votes journaled before it. Returns the sequence number of the journal entry, 0 if there is
+	 * no journal, or -1 if the journal is full and the vote was not counted.
+	 */
+	protected long addVote(PraiseJournal journal, Photo photo, int value) {
+		Lock lock = praiseCounters.getTakeLock().readLock();
+		lock.lock();
+		try {
+			long result = 0;
+			if (journal != null) {
+				result = journal.append(photo.getId().asInt(), value);
+				if (result < 0) {
+					return result;
+				}
+			}
+			praiseCounters.addVote(photo, value);
+			return result;
+		} finally {
+			lock.unlock();
+		}
+	}
+	
+	/**
+	 * Saves the votes of the journal, which the database does not count yet, and clears the journal.
+	 * Votes of a checkpoint that was saved before the crash are skipped. Returns the number of votes saved.
+	 */
+	public int replayPraiseJournal() throws SQLException, IOException {
+		Set<Long> checkpoints = praiseJournal.markAll();
+		Set<Long> savedCheckpoints = getSavedCheckpoints(checkpoints);
+		checkpoints.removeAll(savedCheckpoints);
+		
+		int result = 0;
+		Set<Photo> photos = new HashSet<Photo>();
+		for (PraiseJournal.Entry entry : praiseJournal.readEntries()) {
+			if (savedCheckpoints.contains(entry.getCheckpoint())) {
+				continue;
+			}
+			
+			Photo photo = getPhotoFromId(PhotoId.getIdFromInt(entry.getPhotoId()));
+			if (photo != null) {
+				praiseCounters.addVote(photo, entry.getValue());
+				photos.add(photo);
+				result++;
+			}
+		}
+		
+		synchronized (flushLock) {
+			PraiseCounters.Batch batch = praiseCounters.take();
+			savePraise(batch, checkpoints);
+			praiseCounters.didFlush(batch);
+			
+			praiseJournal.clear();
+			clearedCheckpoints.addAll(checkpoints);
+			clearedCheckpoints.addAll(savedCheckpoints);
+		}
+		
+		for (Photo photo : photos) {
+			indexPhoto(photo);
+		}
+		
+		return result;
+	}
+	
+	/**
+	 * Returns those of the given journal checkpoints that were saved; the record store keeps none.
+	 */
+	protected Set<Long> getSavedCheckpoints(Set<Long> checkpoints) throws SQLException {
+		Set<Long> result = new HashSet<Long>();
+		if (hasRecordStore()) {
+			return result;
+		}
+		
+		PreparedStatement stmt = getReadingStatement("SELECT id FROM praise_checkpoints WHERE id = ?");
+		for (Long checkpoint : checkpoints) {
+			stmt.setLong(1, checkpoint);
+			SysLog.logQuery(stmt);
+			ResultSet rset = stmt.executeQuery();
+			try {
+				if (rset.next()) {
+					result.add(checkpoint);
+				}
+			} finally {
+				rset.close();
+			}
+		}
+		
+		return result;
+	}
+	
+	/**
+	 * Saves the votes counted since the last flush, adding them to the saved praise as deltas, and
+	 * clears them from the journal. A batch that failed to save is retried before new votes are taken,
+	 * so that the generation the journal retired always holds exactly the votes being saved. Its
+	 * checkpoint id is saved with the votes, see replayPraiseJournal().
+	 * @return the number of votes saved, or -1 if saving failed
+	 */
+	public int flushPraise() {
+		synchronized (flushLock) {
+			PraiseJournal journal = praiseJournal;
+			try {
+				PraiseCounters.Batch batch = praiseCounters.getFailedBatch();
+				long checkpoint = failedCheckpoint;
+				if (batch == null) {
+					Lock lock = praiseCounters.getTakeLock().writeLock();
+					lock.lock();
+					try {
+						checkpoint = (journal != null) ? journal.beginCheckpoint() : 0;
+						batch = praiseCounters.take();
+					} finally {
+						lock.unlock();
+					}
+				}
+				
+				Set<Long> checkpoints = (checkpoint != 0) ? Collections.singleton(checkpoint) : Collections.<Long>emptySet();
+				try {
+					savePraise(batch, checkpoints);
+				} catch (SQLException sex) {
+					praiseCounters.didFail(batch);
+					failedCheckpoint = checkpoint;
+					throw sex;
+				}
+				
+				praiseCounters.didFlush(batch);
+				failedCheckpoint = 0;
+				if (journal != null) {
+					journal.endCheckpoint();
+					clearedCheckpoints.addAll(checkpoints);
+				}
+				return batch.getNoVotes();
+			} catch (SQLException sex) {
+				SysLog.logThrowable(sex);
+			} catch (IOException ioex) {
+				SysLog.logThrowable(ioex);
+			}
+			return -1;
+		}
+	}
+	
+	/**
+	 * Adds the deltas of batch to the saved praise and records the journal checkpoints they came from,
+	 * in one transaction. The record store has a single writer, so there the photos are written as a
+	 * whole; it records no checkpoints, so a crash between saving and clearing the journal counts the
+	 * votes of the checkpoint twice.
+	 */
+	protected void savePraise(PraiseCounters.Batch batch, Set<Long> checkpoints) throws SQLException {
+		if (batch.size() == 0) {
+			return;
+		}
+		
+		if (hasRecordStore()) {
+			for (Photo photo : batch.getPhotos()) {
+				photo.incWriteCount();
+			}
+			updateRecords(batch.getPhotos(), "photos");
+			return;
+		}
+		
+		recordWrite();
+		Connection conn = getDatabaseConnection().getRdbmsConnection();
+		boolean wasAutoCommit = conn.getAutoCommit();
+		conn.setAutoCommit(false);
+		PreparedStatement stmt = getReadingStatement("UPDATE photos SET praise_sum = praise_sum + ?, no_votes = no_votes + ?, modified_time = ? WHERE id = ?");
+		try {
+			int batchSize = SysConfig.getDbBatchSizeAsInt();
+			long now = System.currentTimeMillis();
+			for (int i = 0; i < batch.size(); i++) {
+				long delta = batch.getDelta(i);
+				stmt.setInt(1, PraiseCounters.getPraiseSum(delta));
+				stmt.setInt(2, PraiseCounters.getNoVotes(delta));
+				stmt.setLong(3, now);
+				batch.getPhoto(i).writeId(stmt, 4);
+				stmt.addBatch();
+				if (((i + 1) % batchSize == 0) || (i == batch.size() - 1)) {
+					SysLog.logQuery("UPDATE photos SET praise_sum = praise_sum + ? [batch]");
+					stmt.executeBatch();
+				}
+			}
+			saveCheckpoints(checkpoints, now);
+			conn.commit();
+			clearedCheckpoints.clear();
+		} catch (SQLException | RuntimeException ex) {
+			stmt.clearBatch(); // statements are cached
+			conn.rollback();
+			throw ex;
+		} finally {
+			conn.setAutoCommit(wasAutoCommit);
+		}
+	}
+	
+	/**
+	 * Records the journal checkpoints and deletes those cleared from the journal; part of savePraise()
+	 */
+	protected void saveCheckpoints(Set<Long> checkpoints, long now) throws SQLException {
+		if (!clearedCheckpoints.isEmpty()) {
+			PreparedStatement stmt = getReadingStatement("DELETE FROM praise_checkpoints WHERE id = ?");
+			for (Long checkpoint : clearedCheckpoints) {
+				stmt.setLong(1, checkpoint);
+				SysLog.logQuery(stmt);
+				stmt.executeUpdate();
+			}
+		}
+		
+		if (!checkpoints.isEmpty()) {
+			PreparedStatement stmt = getReadingStatement("INSERT INTO praise_checkpoints(id, saved_time) VALUES(?, ?)");
+			for (Long checkpoint : checkpoints) {
+				stmt.setLong(1, checkpoint);
+				stmt.setLong(2, now);
+				SysLog.logQuery(stmt);
+				stmt.executeUpdate();
+			}
+		}
+	}
+	
+	/**
+	 * Praise is only ever added to in the database, so that votes of concurrent nodes are not overwritten
+	 */
+	protected Set<String> getDeltaColumns(Persistent obj) {
+		return (obj instanceof Photo) ? PRAISE_COLUMNS : Collections.<String>emptySet();
+	}
+	
+	/**
+	 * @return the cached photos; a copy
+	 */
+	public List<Photo> getCachedPhotos() {
+		return new ArrayList<Photo>(photoCache.values());
+	}
+	
+	/**
+	 * @methodtype get
+	 */
+	public ObjectCache<PhotoId, Photo> getPhotoCache() {
+		return photoCache;
+	}
+	
+	/**
+	 * Reads the photos written since time, refreshing cached ones in place, and returns them.
+	 */
+	public List<Photo> loadPhotosModifiedSince(long time) throws SQLException {
+		List<Photo> result = new ArrayList<Photo>();
+		PreparedStatement stmt = getReadingStatement("SELECT * FROM photos WHERE modified_time > ?");
+		stmt.setLong(1, time);
+		SysLog.logQuery(stmt);
+		ResultSet rset = stmt.executeQuery();
+		while (rset.next()) {
+			Photo photo = doGetPhotoFromId(PhotoId.getIdFromInt(rset.getInt("id")));
+			if (photo == null) {
+				photo = createObject(rset);
+				doAddPhoto(photo);
+			} else {
+				photo.readFrom(rset);
+				photo.setPersistedTagRows(collectTagRows(photo));
+				indexPhoto(photo);
+			}
+			result.add(photo);
+		}
+		
+		return result;
+	}
+	
 	/**
 	 * 
 	 */
 	public void savePhotos() {
+		savePhotos(photoCache.values());
+	}
+	
+	/**
+	 * 
+	 */
+	public void savePhotos(Collection<Photo> photos) {
 		try {
-			PreparedStatement stmt = getUpdatingStatement("SELECT * FROM photos WHERE id = ?");
-			updateObjects(photoCache.values(), stmt);
+			saveObjects(photos, "photos");
 		} catch (SQLException sex) {
 			SysLog.logThrowable(sex);
 		}
@@ -224,16 +848,114 @@ public class PhotoManager extends ObjectManager {
 	public Set<Photo> findPhotosByOwner(String ownerName) {
 		Set<Photo> result = new HashSet<Photo>();
 		try {
-			PreparedStatement stmt = getReadingStatement("SELECT * FROM photos WHERE owner_name = ?");
-			readObjects(result, stmt, ownerName);
+			if (hasRecordStore()) {
+				List<ResultSet> rows = new ArrayList<ResultSet>();
+				recordStore.readRecords(rows, "photos", "owner_name", ownerName);
+				for (ResultSet rset : rows) {
+					result.add(readPhoto(rset));
+				}
+			} else {
+				PreparedStatement stmt = getReplicaReadingStatement("SELECT * FROM photos WHERE owner_name = ?");
+				stmt.setString(1, ownerName);
+				SysLog.logQuery(stmt);
+				ResultSet rset = stmt.executeQuery();
+				while (rset.next()) {
+					result.add(readPhoto(rset));
+				}
+			}
+		} catch (SQLException sex) {
+			SysLog.logThrowable(sex);
+		}
+		
+		return result;
+	}
+	
+	/**
+	 * Finds the photos of all ownerNames, and the photos with the given ids, in one query.
+	 * Photos already in the cache are reused rather than created again.
+	 * 
+	 * @return found photos grouped by owner name
+	 */
+	public Map<String, Set<Photo>> findPhotosByOwners(Collection<String> ownerNames, Collection<PhotoId> ids) {
+		Map<String, Set<Photo>> result = new HashMap<String, Set<Photo>>();
+		if (ownerNames.isEmpty() && ids.isEmpty()) {
+			return result;
+		}
+		
+		if (hasRecordStore()) {
+			findPhotoRecordsByOwners(result, ownerNames, ids);
+			return result;
+		}
+		
+		Integer[] idValues = new Integer[ids.size()];
+		int i = 0;
+		for (PhotoId id : ids) {
+			idValues[i++] = id.asInt();
+		}
+		
+		try {
+			Connection conn = getReplicaDatabaseConnection().getRdbmsConnection(); // arrays belong to a connection
+			PreparedStatement stmt = getReplicaReadingStatement("SELECT * FROM photos WHERE owner_name = ANY(?) OR id = ANY(?)");
+			stmt.setArray(1, conn.createArrayOf("varchar", ownerNames.toArray()));
+			stmt.setArray(2, conn.createArrayOf("integer", idValues));
+			SysLog.logQuery(stmt);
+			ResultSet rset = stmt.executeQuery();
+			while (rset.next()) {
+				addPhotoByOwner(result, readPhoto(rset));
+			}
 		} catch (SQLException sex) {
 			SysLog.logThrowable(sex);
 		}
 		
-		for (Iterator<Photo> i = result.iterator(); i.hasNext(); ) {
-			doAddPhoto(i.next());
+		return result;
+	}
+	
+	/**
+	 * The record store has no OR across columns, so owners are looked up by index one by one.
+	 */
+	protected void findPhotoRecordsByOwners(Map<String, Set<Photo>> result, Collection<String> ownerNames, Collection<PhotoId> ids) {
+		try {
+			List<ResultSet> rows = new ArrayList<ResultSet>();
+			for (String ownerName : ownerNames) {
+				recordStore.readRecords(rows, "photos", "owner_name", ownerName);
+			}
+			for (PhotoId id : ids) {
+				ResultSet rset = recordStore.readRecord("photos", id.asInt());
+				if (rset != null) {
+					rows.add(rset);
+				}
+			}
+			
+			for (ResultSet rset : rows) {
+				addPhotoByOwner(result, readPhoto(rset));
+			}
+		} catch (SQLException sex) {
+			SysLog.logThrowable(sex);
 		}
-
+	}
+	
+	/**
+	 * 
+	 */
+	protected static void addPhotoByOwner(Map<String, Set<Photo>> result, Photo photo) {
+		Set<Photo> photos = result.get(photo.getOwnerName());
+		if (photos == null) {
+			photos = new HashSet<Photo>();
+			result.put(photo.getOwnerName(), photos);
+		}
+		photos.add(photo);
+	}
+	
+	/**
+	 * @return the cached photo of the current row, or a new photo added to the cache
+	 */
+	protected Photo readPhoto(ResultSet rset) throws SQLException {
+		Photo result = doGetPhotoFromId(PhotoId.getIdFromInt(rset.getInt("id")));
+		if (result == null) {
+			result = createObject(rset);
+			doAddPhoto(result);
+		}
+		
 		return result;
 	}
 	
@@ -244,8 +966,12 @@ public class PhotoManager extends ObjectManager {
 		Photo result = getPhotoFromFilter(filter);
 		
 		if(result == null) {
-			java.util.List<PhotoId> list = getFilteredPhotoIds(filter);
-			filter.setDisplayablePhotoIds(list);
+			int[] ids = getFilteredPhotoIds(filter);
+			int[] weights = new int[ids.length];
+			for (int i = 0; i < ids.length; i++) {
+				weights[i] = getPhotoWeight(ids[i]);
+			}
+			filter.setDisplayablePhotoIds(ids, weights);
 			result = getPhotoFromFilter(filter);
 		}
 
@@ -253,100 +979,136 @@ public class PhotoManager extends ObjectManager {
 	}
 	
 	/**
-	 * 
+	 * Hidden candidates have weight 0, so the loop only runs for photos hidden or deleted by another node.
 	 */
 	protected Photo getPhotoFromFilter(PhotoFilter filter) {
-		PhotoId id = filter.getRandomDisplayablePhotoId();
-		Photo result = getPhotoFromId(id);
+		Photo result = getPhotoFromId(filter.getRandomDisplayablePhotoId());
 		while((result != null) && !result.isVisible()) {
-			id = filter.getRandomDisplayablePhotoId();
-			result = getPhotoFromId(id);
-			if ((result != null) && !result.isVisible()) {
-				filter.addProcessedPhoto(result);
-			}
+			filter.addProcessedPhoto(result);
+			result = getPhotoFromId(filter.getRandomDisplayablePhotoId());
 		}
 		
 		return result;
 	}
 	
 	/**
+	 * Intersects the posting lists of all filter conditions with the visible photos in the tag index.
+	 * The intersection is shared with other sessions through the filter result cache.
 	 * 
+	 * @return ids of photos not yet processed by filter, in ascending order
 	 */
-	protected java.util.List<PhotoId> getFilteredPhotoIds(PhotoFilter filter) {
-		java.util.List<PhotoId> result = new LinkedList<PhotoId>();
-
-		try {
-			java.util.List<String> filterConditions = filter.getFilterConditions();
-
-			int noFilterConditions = filterConditions.size();
-			PreparedStatement stmt = getUpdatingStatementFromConditions(noFilterConditions);
-			for (int i = 0; i < noFilterConditions; i++) {
-				stmt.setString(i + 1, filterConditions.get(i));
-			}
-			
-			SysLog.logQuery(stmt);
-			ResultSet rset = stmt.executeQuery();
+	protected int[] getFilteredPhotoIds(PhotoFilter filter) {
+		int[] result = filterResultCache.getVisiblePhotoIds(filter.getFilterConditions(), tagIndex).toArray();
 
-			if (noFilterConditions == 0) {
-				noFilterConditions++;
+		int noIds = 0;
+		for (int i = 0; i < result.length; i++) {
+			if (!filter.isProcessedPhotoId(result[i])) {
+				result[noIds++] = result[i];
 			}
+		}
+		
+		return (noIds == result.length) ? result : Arrays.copyOf(result, noIds);
+	}
+	
+	/**
+	 * 
+	 */
+	protected void updateDependents(Persistent obj) throws SQLException {
+		updateDependents(Collections.singletonList(obj));
+	}
+	
+	/**
+	 * Writes only the tag rows that were added or removed since the last save, in one batch per statement.
+	 * Photos whose tags and owner did not change do not touch the tags table at all.
+	 */
+	protected void updateDependents(Collection<Persistent> objects) throws SQLException {
+		PreparedStatement deleteAllStmt = getReadingStatement("DELETE FROM tags WHERE photo_id = ?");
+		PreparedStatement deleteStmt = getReadingStatement("DELETE FROM tags WHERE photo_id = ? AND tag = ?");
+		PreparedStatement insertStmt = getReadingStatement("INSERT INTO tags VALUES(?, ?)");
 
-			int[] ids = new int[PhotoId.getCurrentIdAsInt() + 1];
-			while(rset.next()) {
-				int id = rset.getInt("photo_id");
-				if (++ids[id] == noFilterConditions) {
-					PhotoId photoId = PhotoId.getIdFromInt(id);
-					if (!filter.isProcessedPhotoId(photoId)) {
-						result.add(photoId);
+		int noDeleteAlls = 0;
+		int noDeletes = 0;
+		int noInserts = 0;
+		try {
+			for (Persistent obj : objects) {
+				Photo photo = (Photo) obj;
+				if (!photo.hasTagRowChanges()) {
+					continue;
+				}
+				
+				int id = photo.getId().asInt();
+				Set<String> newRows = collectTagRows(photo);
+				Set<String> oldRows = photo.getPersistedTagRows();
+				if (oldRows == null) {
+					// unknown state of tags table, so rewrite all rows
+					deleteAllStmt.setInt(1, id);
+					deleteAllStmt.addBatch();
+					noDeleteAlls++;
+					oldRows = Collections.emptySet();
+				}
+				
+				for (String tag : oldRows) {
+					if (!newRows.contains(tag)) {
+						deleteStmt.setInt(1, id);
+						deleteStmt.setString(2, tag);
+						deleteStmt.addBatch();
+						noDeletes++;
 					}
 				}
+				
+				for (String tag : newRows) {
+					if (!oldRows.contains(tag)) {
+						insertStmt.setString(1, tag);
+						insertStmt.setInt(2, id);
+						insertStmt.addBatch();
+						noInserts++;
+					}
+				}
+				
+				pendingTagRows.put(photo.getId(), newRows);
 			}
-		} catch (SQLException sex) {
-			SysLog.logThrowable(sex);
+			
+			executeTagBatch(deleteAllStmt, noDeleteAlls);
+			executeTagBatch(deleteStmt, noDeletes);
+			executeTagBatch(insertStmt, noInserts);
+		} catch (SQLException | RuntimeException ex) {
+			// statements are cached, so they must not keep rows of a failed batch
+			deleteAllStmt.clearBatch();
+			deleteStmt.clearBatch();
+			insertStmt.clearBatch();
+			throw ex;
 		}
-		
-		return result;
 	}
-		
+	
 	/**
 	 * 
 	 */
-	protected PreparedStatement getUpdatingStatementFromConditions(int no) throws SQLException {
-		String query = "SELECT * FROM tags";
-		if (no > 0) {
-			query += " WHERE";
-		}
-
-		for (int i = 0; i < no; i++) {
-			if (i > 0) {
-				query += " OR";
-			}
-			query += " (tag = ?)";
+	protected void executeTagBatch(PreparedStatement stmt, int size) throws SQLException {
+		if (size > 0) {
+			SysLog.logQuery(stmt.toString() + " [batch of " + size + "]");
+			stmt.executeBatch();
 		}
-		
-		return getUpdatingStatement(query);
 	}
 	
 	/**
 	 * 
 	 */
-	protected void updateDependents(Persistent obj) throws SQLException {
+	protected void didUpdateObject(Persistent obj) {
 		Photo photo = (Photo) obj;
-		
-		PreparedStatement stmt = getReadingStatement("DELETE FROM tags WHERE photo_id = ?");
-		deleteObject(obj, stmt);
-		
-		stmt = getReadingStatement("INSERT INTO tags VALUES(?, ?)");
-		Set<String> tags = new HashSet<String>();
-		photoTagCollector.collect(tags, photo);
-		for (Iterator<String> i = tags.iterator(); i.hasNext(); ) {
-			String tag = i.next();
-			stmt.setString(1, tag);
-			stmt.setInt(2, photo.getId().asInt());
-			SysLog.logQuery(stmt);
-			stmt.executeUpdate();					
+		Set<String> tagRows = pendingTagRows.remove(photo.getId());
+		if (tagRows != null) {
+			photo.setPersistedTagRows(tagRows);
 		}
 	}
+	
+	/**
+	 * 
+	 */
+	protected Set<String> collectTagRows(Photo photo) {
+		Set<String> result = new HashSet<String>();
+		photoTagCollector.collect(result, photo);
+		return result;
+	}
 		
 	/**
 	 * 
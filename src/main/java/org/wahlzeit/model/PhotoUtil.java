@@ -54,7 +54,13 @@ public class PhotoUtil {
 	public static Image createImageFiles(File source, PhotoId id) throws Exception {
 		Image sourceImage = ImageIO.read(source);
 		assertIsValidImage(sourceImage);
-
+		return createImageFiles(sourceImage, id);
+	}
+	
+	/**
+	 * Creates the image files of all sizes the source image is large enough for
+	 */
+	public static Image createImageFiles(Image sourceImage, PhotoId id) throws Exception {
 		int sourceWidth = sourceImage.getWidth(null);
 		int sourceHeight = sourceImage.getHeight(null);
 		assertHasValidSize(sourceWidth, sourceHeight);
@@ -72,19 +78,32 @@ public class PhotoUtil {
 	 * 
 	 */
 	protected static void createImageFile(Image source, PhotoId id, PhotoSize size) throws Exception {	
+		BufferedImage targetImage = createScaledImage(source, size);
+		ImageIO.write(targetImage, "jpg", getImageFile(id, size));
+
+		SysLog.logSysInfo("created image file for id: " + id.asString() + " of size: " + size.asString());
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public static File getImageFile(PhotoId id, PhotoSize size) {
+		return new File(SysConfig.getPhotosDir().asString() + File.separator + id.asString() + size.asInt() + ".jpg");
+	}
+	
+	/**
+	 * @return the source image scaled to fit size, keeping its aspect ratio
+	 */
+	public static BufferedImage createScaledImage(Image source, PhotoSize size) {
 		int sourceWidth = source.getWidth(null);
 		int sourceHeight = source.getHeight(null);
 		
 		int targetWidth = size.calcAdjustedWidth(sourceWidth, sourceHeight);
 		int targetHeight = size.calcAdjustedHeight(sourceWidth, sourceHeight);
 
-		BufferedImage targetImage = scaleImage(source, targetWidth, targetHeight);
-		File target = new File(SysConfig.getPhotosDir().asString() + File.separator + id.asString() + size.asInt() + ".jpg");
-		ImageIO.write(targetImage, "jpg", target);
-
-		SysLog.logSysInfo("created image file for id: " + id.asString() + " of size: " + size.asString());
+		return scaleImage(source, targetWidth, targetHeight);
 	}
-
+	
 	/**
 	 * 
 	 */
@@ -0,0 +1,82 @@
+/*
+ * Copyright (c) 2006-2009 by Dirk Riehle, http://dirkriehle.com
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.wahlzeit.model;
+
+/**
+ * A PhotoWeightPolicy decides how likely a photo is shown next, relative to the other candidates of a filter.
+ * Weights are non-negative ints; a photo with weight 0 is never shown.
+ */
+public abstract class PhotoWeightPolicy {
+	
+	/**
+	 * Every photo is equally likely
+	 */
+	public static final PhotoWeightPolicy UNIFORM = new PhotoWeightPolicy() {
+		public int getWeight(Photo photo) {
+			return 1;
+		}
+		public int getDefaultWeight() {
+			return 1;
+		}
+	};
+	
+	/**
+	 * Photos with few votes are more likely, so new uploads get rated faster
+	 */
+	public static final PhotoWeightPolicy FEW_VOTES = new PhotoWeightPolicy() {
+		public int getWeight(Photo photo) {
+			return Math.max(MAX_WEIGHT / Math.max(photo.getNoVotes(), 1), 1);
+		}
+		public int getDefaultWeight() {
+			return MAX_WEIGHT; // not loaded since start-up, so not voted on recently either
+		}
+	};
+	
+	/**
+	 * 
+	 */
+	public static final int MAX_WEIGHT = 1000;
+	
+	/**
+	 * @return policy of the given name, as used in the configuration
+	 */
+	public static PhotoWeightPolicy getFromString(String name) throws IllegalArgumentException {
+		if ("uniform".equals(name)) {
+			return UNIFORM;
+		} else if ("fewVotes".equals(name)) {
+			return FEW_VOTES;
+		}
+		
+		throw new IllegalArgumentException("invalid photo weight policy: " + name);
+	}
+	
+	/**
+	 * @return weight of a photo in memory
+	 */
+	public abstract int getWeight(Photo photo);
+	
+	/**
+	 * @return weight of a photo that is not in memory, to avoid loading it just for weighing
+	 */
+	public abstract int getDefaultWeight();
+	
+}
@@ -0,0 +1,221 @@
+/*
+ * Copyright (c) 2006-2009 by Dirk Riehle, http://dirkriehle.com
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.wahlzeit.model;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.locks.*;
+
+/**
+ * The praise counters keep track of the photos with praise votes that are not saved yet. Photos count
+ * their votes in striped counters, without locking; PhotoManager.flushPraise() takes the counted votes
+ * as batches of deltas and adds them to the saved praise with UPDATE ... SET praise_sum = praise_sum + ?,
+ * so that concurrent votes are neither lost nor contended, and several nodes can share one database.
+ * 
+ * A delta packs the sum of the votes' values into its upper bits and the number of votes into its
+ * lower VOTES_BITS bits.
+ */
+public class PraiseCounters {
+	
+	/**
+	 * 
+	 */
+	public static final int VOTES_BITS = 24;
+	protected static final long VOTES_MASK = (1L << VOTES_BITS) - 1;
+	
+	/**
+	 * Photos with votes that are not taken yet, by id
+	 */
+	protected ConcurrentMap<Integer, Photo> pendingPhotos = new ConcurrentHashMap<Integer, Photo>();
+	
+	/**
+	 * Votes share the lock, taking a batch holds it exclusively; see PhotoManager.addVote()
+	 */
+	protected ReadWriteLock takeLock = new ReentrantReadWriteLock();
+	
+	/**
+	 * Batch that failed to save and must be retried before any other, or null
+	 */
+	protected Batch failedBatch = null;
+	
+	/**
+	 * 
+	 */
+	protected long noFlushes = 0;
+	protected long noFlushedVotes = 0;
+	protected long noFailures = 0;
+	
+	/**
+	 * @methodtype conversion
+	 */
+	public static long asDelta(int praiseSum, int noVotes) {
+		return ((long) praiseSum << VOTES_BITS) + noVotes;
+	}
+	
+	/**
+	 * @methodtype conversion
+	 */
+	public static int getPraiseSum(long delta) {
+		return (int) (delta >> VOTES_BITS);
+	}
+	
+	/**
+	 * @methodtype conversion
+	 */
+	public static int getNoVotes(long delta) {
+		return (int) (delta & VOTES_MASK);
+	}
+	
+	/**
+	 * Counts a vote; callers hold the shared take lock
+	 */
+	public void addVote(Photo photo, int value) {
+		photo.addToPraise(value);
+		Integer id = photo.getId().asInt();
+		if (!pendingPhotos.containsKey(id)) { // a concurrent take() removes the photo only after this vote was counted
+			pendingPhotos.putIfAbsent(id, photo);
+		}
+	}
+	
+	/**
+	 * Takes the counted votes of all pending photos; callers hold the exclusive take lock
+	 */
+	public Batch take() {
+		Batch result = new Batch();
+		for (Integer id : pendingPhotos.keySet()) {
+			Photo photo = pendingPhotos.remove(id);
+			if (photo != null) {
+				long delta = photo.takePendingPraise();
+				if (delta != 0) {
+					result.add(photo, delta);
+				}
+			}
+		}
+		return result;
+	}
+	
+	/**
+	 * @methodtype get
+	 */
+	public ReadWriteLock getTakeLock() {
+		return takeLock;
+	}
+	
+	/**
+	 * @methodtype get
+	 */
+	public synchronized Batch getFailedBatch() {
+		return failedBatch;
+	}
+	
+	/**
+	 * 
+	 */
+	public synchronized void didFlush(Batch batch) {
+		failedBatch = null;
+		noFlushes++;
+		noFlushedVotes += batch.getNoVotes();
+	}
+	
+	/**
+	 * 
+	 */
+	public synchronized void didFail(Batch batch) {
+		failedBatch = batch;
+		noFailures++;
+	}
+	
+	/**
+	 * @methodtype get
+	 */
+	public int getNoPendingPhotos() {
+		return pendingPhotos.size();
+	}
+	
+	/**
+	 * 
+	 */
+	public synchronized String asStatisticsString() {
+		String failed = (failedBatch != null) ? ", " + failedBatch.getNoVotes() + " votes to retry" : "";
+		return pendingPhotos.size() + " photos pending, " + noFlushedVotes + " votes saved in " + noFlushes + " flushes, " 
+			+ noFailures + " failures" + failed;
+	}
+	
+	/**
+	 * Photos and the deltas taken from them
+	 */
+	public static class Batch {
+		
+		/**
+		 * 
+		 */
+		protected List<Photo> photos = new ArrayList<Photo>();
+		protected List<Long> deltas = new ArrayList<Long>();
+		protected int noVotes = 0;
+		
+		/**
+		 * 
+		 */
+		public void add(Photo photo, long delta) {
+			photos.add(photo);
+			deltas.add(delta);
+			noVotes += PraiseCounters.getNoVotes(delta);
+		}
+		
+		/**
+		 * 
+		 */
+		public int size() {
+			return photos.size();
+		}
+		
+		/**
+		 * 
+		 */
+		public Photo getPhoto(int i) {
+			return photos.get(i);
+		}
+		
+		/**
+		 * 
+		 */
+		public long getDelta(int i) {
+			return deltas.get(i);
+		}
+		
+		/**
+		 * @methodtype get
+		 */
+		public List<Photo> getPhotos() {
+			return photos;
+		}
+		
+		/**
+		 * @methodtype get
+		 */
+		public int getNoVotes() {
+			return noVotes;
+		}
+		
+	}
+
+}
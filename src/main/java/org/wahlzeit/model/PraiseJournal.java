@@ -0,0 +1,558 @@
+/*
+ * Copyright (c) 2006-2009 by Dirk Riehle, http://dirkriehle.com
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.wahlzeit.model;
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.security.SecureRandom;
+import java.util.*;
+import java.util.zip.CRC32;
+
+/**
+ * A PraiseJournal records praise votes durably before they are written to the database. Each vote is
+ * appended as a fixed-size entry [int photoId][int value][int 0][int crc32] to a memory-mapped file, so
+ * an append is a memory write. Concurrent votes are group-committed: the first voter to wait becomes the
+ * leader, gives others syncInterval millis to append, and forces the mapping once for all of them.
+ * 
+ * The journal consists of two generations. A checkpoint switches appends to the empty generation, the
+ * votes of the other one are saved, and then it is cleared. Before they are saved, the votes of a
+ * generation are marked with a random checkpoint id, as a last entry [int 0][long id][int crc32]. The
+ * id is recorded in the transaction that saves the votes, so replay can skip a generation that was saved
+ * but not cleared. Journals written before kept the number of votes of the photo in the third int.
+ */
+public class PraiseJournal {
+	
+	/**
+	 * 
+	 */
+	public static final int ENTRY_SIZE = 16;
+	
+	/**
+	 * Size of the checksummed part of an entry
+	 */
+	protected static final int DATA_SIZE = 12;
+	
+	/**
+	 * 
+	 */
+	protected static final int NO_GENERATIONS = 2;
+	
+	/**
+	 * 
+	 */
+	protected File[] files = new File[NO_GENERATIONS];
+	
+	/**
+	 * 
+	 */
+	protected FileChannel[] channels = new FileChannel[NO_GENERATIONS];
+	
+	/**
+	 * 
+	 */
+	protected MappedByteBuffer[] mappings = new MappedByteBuffer[NO_GENERATIONS];
+	
+	/**
+	 * 
+	 */
+	protected int[] noEntries = new int[NO_GENERATIONS];
+	
+	/**
+	 * Checkpoint ids the generations are marked with, or 0 if a generation is not marked
+	 */
+	protected long[] checkpoints = new long[NO_GENERATIONS];
+	
+	/**
+	 * 
+	 */
+	protected Random random = new SecureRandom();
+	
+	/**
+	 * Generation that takes appends
+	 */
+	protected int active = 0;
+	
+	/**
+	 * Votes per generation; each generation has room for one more entry, its mark
+	 */
+	protected int capacity;
+	
+	/**
+	 * Time the leader of a group commit waits for more votes, in millis
+	 */
+	protected long syncInterval;
+	
+	/**
+	 * Sequence number of the last append
+	 */
+	protected long noAppended = 0;
+	
+	/**
+	 * 
+	 */
+	protected long noRejected = 0;
+	
+	/**
+	 * 
+	 */
+	protected long noCheckpoints = 0;
+	
+	/**
+	 * Guards noDurable, isSyncing, and noSyncs; never held while acquiring the journal itself
+	 */
+	protected final Object syncLock = new Object();
+	
+	/**
+	 * Sequence number up to which all appends are forced to disk
+	 */
+	protected long noDurable = 0;
+	
+	/**
+	 * 
+	 */
+	protected boolean isSyncing = false;
+	
+	/**
+	 * 
+	 */
+	protected long noSyncs = 0;
+	
+	/**
+	 * Opens or creates the journal as dir/name-0.journal and dir/name-1.journal.
+	 */
+	public PraiseJournal(File dir, String name, int myCapacity, long mySyncInterval) throws IOException {
+		capacity = myCapacity;
+		syncInterval = mySyncInterval;
+		
+		if (!dir.isDirectory() && !dir.mkdirs()) {
+			throw new IOException("could not create journal directory " + dir);
+		}
+		
+		for (int i = 0; i < NO_GENERATIONS; i++) {
+			files[i] = new File(dir, name + "-" + i + ".journal");
+			open(i);
+		}
+		
+		if (checkpoints[0] != 0) {
+			active = 1;
+		} else if (checkpoints[1] != 0) {
+			active = 0;
+		} else {
+			active = (noEntries[1] > noEntries[0]) ? 1 : 0;
+		}
+	}
+	
+	/**
+	 * Maps a generation and counts its valid entries; anything after them was never acknowledged.
+	 */
+	protected void open(int generation) throws IOException {
+		RandomAccessFile file = new RandomAccessFile(files[generation], "rw");
+		long size = (long) (capacity + 1) * ENTRY_SIZE;
+		if (file.length() < size) {
+			file.setLength(size);
+		}
+
+		channels[generation] = file.getChannel();
+		MappedByteBuffer mapping = channels[generation].map(FileChannel.MapMode.READ_WRITE, 0, size);
+		mappings[generation] = mapping;
+		
+		int noValid = 0;
+		while ((noValid <= capacity) && isValidEntry(mapping, noValid * ENTRY_SIZE)) {
+			noValid++;
+		}
+		noEntries[generation] = noValid;
+		
+		int last = (noValid - 1) * ENTRY_SIZE;
+		if ((noValid > 0) && (mapping.getInt(last) == 0)) {
+			checkpoints[generation] = mapping.getLong(last + 4);
+		}
+		
+		if (clear(mapping, noValid * ENTRY_SIZE, (int) size)) {
+			mapping.force();
+		}
+	}
+	
+	/**
+	 * 
+	 */
+	protected static boolean isValidEntry(ByteBuffer mapping, int offset) {
+		return mapping.getInt(offset + DATA_SIZE) == getChecksum(mapping, offset);
+	}
+	
+	/**
+	 * 
+	 */
+	protected static int getChecksum(ByteBuffer mapping, int offset) {
+		CRC32 crc = new CRC32();
+		for (int i = 0; i < DATA_SIZE; i++) {
+			crc.update(mapping.get(offset + i));
+		}
+		return (int) crc.getValue();
+	}
+	
+	/**
+	 * Zeroes the mapping from start to end; returns whether there was anything to zero.
+	 */
+	protected static boolean clear(ByteBuffer mapping, int start, int end) {
+		boolean result = false;
+		for (int i = start; i < end; i += 4) {
+			if (mapping.getInt(i) != 0) {
+				mapping.putInt(i, 0);
+				result = true;
+			}
+		}
+		return result;
+	}
+	
+	/**
+	 * Appends a vote without waiting for it to become durable; returns its sequence number for
+	 * awaitDurable(), or -1 if the journal is full. Photo ids are positive; 0 marks checkpoints.
+	 */
+	public synchronized long append(int photoId, int value) {
+		if (photoId <= 0) {
+			throw new IllegalArgumentException("invalid photo id for praise journal: " + photoId);
+		}
+		
+		if (noEntries[active] >= capacity) {
+			noRejected++;
+			return -1;
+		}
+		
+		MappedByteBuffer mapping = mappings[active];
+		int offset = noEntries[active] * ENTRY_SIZE;
+		mapping.putInt(offset, photoId);
+		mapping.putInt(offset + 4, value);
+		mapping.putInt(offset + 8, 0);
+		mapping.putInt(offset + DATA_SIZE, getChecksum(mapping, offset));
+		noEntries[active]++;
+		
+		return ++noAppended;
+	}
+	
+	/**
+	 * Appends the mark of a generation; the room for it is kept free by append().
+	 */
+	protected void mark(int generation) {
+		long checkpoint = 0;
+		while (checkpoint == 0) {
+			checkpoint = random.nextLong();
+		}
+		
+		MappedByteBuffer mapping = mappings[generation];
+		int offset = noEntries[generation] * ENTRY_SIZE;
+		mapping.putInt(offset, 0);
+		mapping.putLong(offset + 4, checkpoint);
+		mapping.putInt(offset + DATA_SIZE, getChecksum(mapping, offset));
+		noEntries[generation]++;
+		checkpoints[generation] = checkpoint;
+	}
+	
+	/**
+	 * Returns once the append of the given sequence number is on disk, syncing if no one else does.
+	 */
+	public void awaitDurable(long sequence) throws IOException {
+		while (true) {
+			synchronized (syncLock) {
+				if (noDurable >= sequence) {
+					return;
+				}
+				
+				if (isSyncing) {
+					try {
+						syncLock.wait();
+					} catch (InterruptedException ex) {
+						Thread.currentThread().interrupt();
+						throw new InterruptedIOException("interrupted while waiting for journal sync");
+					}
+					continue;
+				}
+				
+				isSyncing = true;
+			}
+			
+			try {
+				sync();
+			} finally {
+				synchronized (syncLock) {
+					isSyncing = false;
+					syncLock.notifyAll();
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Lets concurrent voters append for syncInterval millis, then forces all appends so far.
+	 */
+	protected void sync() throws IOException {
+		if (syncInterval > 0) {
+			try {
+				Thread.sleep(syncInterval);
+			} catch (InterruptedException ex) {
+				Thread.currentThread().interrupt();
+			}
+		}
+		
+		long sequence;
+		MappedByteBuffer mapping;
+		synchronized (this) {
+			sequence = noAppended;
+			mapping = mappings[active];
+		}
+		
+		mapping.force(); // appends to the other generation were forced when it was retired
+		
+		synchronized (syncLock) {
+			noDurable = Math.max(noDurable, sequence);
+			noSyncs++;
+		}
+	}
+	
+	/**
+	 * Returns the votes of both generations, in order of photo id.
+	 */
+	public synchronized List<Entry> readEntries() {
+		List<Entry> result = new ArrayList<Entry>();
+		for (int i = 0; i < NO_GENERATIONS; i++) {
+			readEntries(result, i);
+		}
+		
+		Collections.sort(result, new Comparator<Entry>() {
+			public int compare(Entry e1, Entry e2) {
+				if (e1.photoId != e2.photoId) {
+					return (e1.photoId < e2.photoId) ? -1 : 1;
+				}
+				return 0;
+			}
+		});
+		
+		return result;
+	}
+	
+	/**
+	 * 
+	 */
+	protected void readEntries(List<Entry> result, int generation) {
+		MappedByteBuffer mapping = mappings[generation];
+		for (int i = 0; i < getNoVotes(generation); i++) {
+			int offset = i * ENTRY_SIZE;
+			result.add(new Entry(mapping.getInt(offset), mapping.getInt(offset + 4), checkpoints[generation]));
+		}
+	}
+	
+	/**
+	 * Switches appends to the other generation if it is empty, and returns the checkpoint id to record
+	 * with the votes that have to be saved before endCheckpoint(), or 0 if there are none. If the other
+	 * generation still holds the votes of a failed checkpoint, appends stay where they are and its
+	 * checkpoint id is returned once more.
+	 */
+	public synchronized long beginCheckpoint() throws IOException {
+		int retired = 1 - active;
+		boolean isSwitching = (noEntries[retired] == 0);
+		if (isSwitching) {
+			retired = active;
+			active = 1 - active;
+		}
+		
+		if ((noEntries[retired] > 0) && (checkpoints[retired] == 0)) {
+			mark(retired);
+		}
+		
+		mappings[retired].force();
+		if (isSwitching) {
+			synchronized (syncLock) {
+				noDurable = Math.max(noDurable, noAppended);
+			}
+		}
+		
+		return checkpoints[retired];
+	}
+	
+	/**
+	 * Marks all generations holding votes, for replay; returns their checkpoint ids.
+	 */
+	public synchronized Set<Long> markAll() throws IOException {
+		Set<Long> result = new HashSet<Long>();
+		for (int i = 0; i < NO_GENERATIONS; i++) {
+			if ((noEntries[i] > 0) && (checkpoints[i] == 0)) {
+				mark(i);
+				mappings[i].force();
+			}
+			if (checkpoints[i] != 0) {
+				result.add(checkpoints[i]);
+			}
+		}
+		return result;
+	}
+	
+	/**
+	 * Clears the generation retired by beginCheckpoint(), once its photos are saved.
+	 */
+	public synchronized void endCheckpoint() throws IOException {
+		clear(1 - active);
+		noCheckpoints++;
+	}
+	
+	/**
+	 * Clears both generations, after all photos were saved.
+	 */
+	public synchronized void clear() throws IOException {
+		for (int i = 0; i < NO_GENERATIONS; i++) {
+			clear(i);
+		}
+	}
+	
+	/**
+	 * 
+	 */
+	protected void clear(int generation) throws IOException {
+		if (clear(mappings[generation], 0, noEntries[generation] * ENTRY_SIZE)) {
+			mappings[generation].force();
+		}
+		noEntries[generation] = 0;
+		checkpoints[generation] = 0;
+	}
+	
+	/**
+	 * Number of entries of a generation without its mark
+	 */
+	protected int getNoVotes(int generation) {
+		return (checkpoints[generation] != 0) ? noEntries[generation] - 1 : noEntries[generation];
+	}
+	
+	/**
+	 * Forces outstanding appends and closes the files; the journal must not be used afterwards.
+	 */
+	public synchronized void close() throws IOException {
+		for (int i = 0; i < NO_GENERATIONS; i++) {
+			mappings[i].force();
+			channels[i].close();
+		}
+		
+		synchronized (syncLock) {
+			noDurable = noAppended;
+			syncLock.notifyAll();
+		}
+	}
+	
+	/**
+	 * @methodtype get
+	 */
+	public int getCapacity() {
+		return capacity;
+	}
+	
+	/**
+	 * @methodtype get
+	 */
+	public synchronized int getNoEntries() {
+		return getNoVotes(0) + getNoVotes(1);
+	}
+	
+	/**
+	 * @methodtype get
+	 */
+	public synchronized long getNoAppended() {
+		return noAppended;
+	}
+	
+	/**
+	 * @methodtype get
+	 */
+	public synchronized long getNoRejected() {
+		return noRejected;
+	}
+	
+	/**
+	 * @methodtype get
+	 */
+	public synchronized long getNoCheckpoints() {
+		return noCheckpoints;
+	}
+	
+	/**
+	 * @methodtype get
+	 */
+	public long getNoSyncs() {
+		synchronized (syncLock) {
+			return noSyncs;
+		}
+	}
+	
+	/**
+	 * @methodtype conversion
+	 */
+	public String asStatisticsString() {
+		long appended = getNoAppended();
+		long syncs = getNoSyncs();
+		double votesPerSync = (syncs == 0) ? 0.0 : (double) appended / syncs;
+		return getNoEntries() + " of " + (NO_GENERATIONS * capacity) + " entries, " + appended + " votes in " + syncs
+				+ " syncs (" + String.format("%.1f", votesPerSync) + " per sync), " + getNoCheckpoints() + " checkpoints, "
+				+ getNoRejected() + " rejected";
+	}
+	
+	/**
+	 * A journaled vote
+	 */
+	public static class Entry {
+		
+		/**
+		 * 
+		 */
+		protected int photoId;
+		protected int value;
+		protected long checkpoint;
+		
+		/**
+		 * 
+		 */
+		public Entry(int myPhotoId, int myValue, long myCheckpoint) {
+			photoId = myPhotoId;
+			value = myValue;
+			checkpoint = myCheckpoint;
+		}
+		
+		/**
+		 * @methodtype get
+		 */
+		public int getPhotoId() {
+			return photoId;
+		}
+		
+		/**
+		 * @methodtype get
+		 */
+		public int getValue() {
+			return value;
+		}
+		
+		/**
+		 * Checkpoint id of the generation of the vote, or 0 if it is not marked
+		 */
+		public long getCheckpoint() {
+			return checkpoint;
+		}
+		
+	}
+
+}
@@ -0,0 +1,330 @@
+/*
+ * Copyright (c) 2006-2009 by Dirk Riehle, http://dirkriehle.com
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package org.wahlzeit.model;
+
+import java.util.*;
+import java.util.concurrent.locks.*;
+
+import org.wahlzeit.utils.IntBitmap;
+
+/**
+ * A TagIndex is an in-memory inverted index from the terms of the tags table ("tg:..." and "un:...")
+ * to the ids of the photos carrying them, plus the set of visible photos. It answers filter queries,
+ * i.e. intersections of terms, without going to the database.
+ */
+public class TagIndex {
+	
+	/**
+	 * Posting list of every term in use
+	 */
+	protected Map<String, IntBitmap> postings = new HashMap<String, IntBitmap>();
+	
+	/**
+	 * Terms each photo is indexed under, to remove outdated postings on change
+	 */
+	protected Map<Integer, String[]> indexedTerms = new HashMap<Integer, String[]>();
+	
+	/**
+	 * 
+	 */
+	protected IntBitmap allPhotos = new IntBitmap();
+	protected IntBitmap visiblePhotos = new IntBitmap();
+	
+	/**
+	 * 
+	 */
+	protected ReadWriteLock lock = new ReentrantReadWriteLock();
+	
+	/**
+	 * 
+	 */
+	public TagIndex() {
+		// do nothing
+	}
+	
+	/**
+	 * Replaces the terms and visibility of a photo.
+	 */
+	public void updatePhoto(int id, Collection<String> terms, boolean isVisible) {
+		lock.writeLock().lock();
+		try {
+			doUpdateTerms(id, terms);
+			allPhotos.add(id);
+			if (isVisible) {
+				visiblePhotos.add(id);
+			} else {
+				visiblePhotos.remove(id);
+			}
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+	
+	/**
+	 * Adds a single term to a photo, e.g. while reading the tags table.
+	 */
+	public void addTerm(int id, String term) {
+		lock.writeLock().lock();
+		try {
+			String[] oldTerms = indexedTerms.get(id);
+			if (oldTerms == null) {
+				oldTerms = new String[0];
+			} else if (Arrays.asList(oldTerms).contains(term)) {
+				return;
+			}
+			
+			String[] newTerms = Arrays.copyOf(oldTerms, oldTerms.length + 1);
+			newTerms[oldTerms.length] = term;
+			addPosting(term, id);
+			indexedTerms.put(id, newTerms);
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+	
+	/**
+	 * 
+	 */
+	public void setPhotoVisibility(int id, boolean isVisible) {
+		lock.writeLock().lock();
+		try {
+			allPhotos.add(id);
+			if (isVisible) {
+				visiblePhotos.add(id);
+			} else {
+				visiblePhotos.remove(id);
+			}
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+	
+	/**
+	 * 
+	 */
+	public void removePhoto(int id) {
+		lock.writeLock().lock();
+		try {
+			doUpdateTerms(id, Collections.<String>emptySet());
+			allPhotos.remove(id);
+			visiblePhotos.remove(id);
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+	
+	/**
+	 * @return the ids of all visible photos carrying all terms; all visible photos if there are no terms
+	 */
+	public IntBitmap getVisiblePhotoIds(Collection<String> terms) {
+		lock.readLock().lock();
+		try {
+			List<IntBitmap> bitmaps = new ArrayList<IntBitmap>(terms.size() + 1);
+			bitmaps.add(visiblePhotos);
+			for (String term : terms) {
+				IntBitmap posting = postings.get(term);
+				if (posting == null) {
+					return new IntBitmap();
+				}
+				bitmaps.add(posting);
+			}
+			
+			return IntBitmap.and(bitmaps);
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+	
+	/**
+	 * @return the ids of all photos carrying all terms, visible or not
+	 */
+	public IntBitmap getPhotoIds(Collection<String> terms) {
+		lock.readLock().lock();
+		try {
+			if (terms.isEmpty()) {
+				return allPhotos.copy();
+			}
+			
+			List<IntBitmap> bitmaps = new ArrayList<IntBitmap>(terms.size());
+			for (String term : terms) {
+				IntBitmap posting = postings.get(term);
+				if (posting == null) {
+					return new IntBitmap();
+				}
+				bitmaps.add(posting);
+			}
+			
+			return IntBitmap.and(bitmaps);
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+	
+	/**
+	 * 
+	 */
+	public boolean isVisible(int id) {
+		lock.readLock().lock();
+		try {
+			return visiblePhotos.contains(id);
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+	
+	/**
+	 * @return the terms photo id is currently indexed under
+	 */
+	public Set<String> getTerms(int id) {
+		lock.readLock().lock();
+		try {
+			String[] terms = indexedTerms.get(id);
+			return (terms == null) ? Collections.<String>emptySet() : new HashSet<String>(Arrays.asList(terms));
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+	
+	/**
+	 * @return the ids of all indexed photos, in ascending order
+	 */
+	public int[] getPhotoIds() {
+		lock.readLock().lock();
+		try {
+			return allPhotos.toArray();
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+	
+	/**
+	 * 
+	 */
+	public int getNoTerms() {
+		lock.readLock().lock();
+		try {
+			return postings.size();
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+	
+	/**
+	 * 
+	 */
+	public int getNoPhotos() {
+		lock.readLock().lock();
+		try {
+			return allPhotos.getCardinality();
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+	
+	/**
+	 * 
+	 */
+	public int getNoVisiblePhotos() {
+		lock.readLock().lock();
+		try {
+			return visiblePhotos.getCardinality();
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+	
+	/**
+	 * @return approximate memory taken by the posting lists and visibility bitmaps
+	 */
+	public long getPostingsSizeInBytes() {
+		lock.readLock().lock();
+		try {
+			long result = allPhotos.getSizeInBytes() + visiblePhotos.getSizeInBytes();
+			for (IntBitmap posting : postings.values()) {
+				result += posting.getSizeInBytes();
+			}
+			return result;
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+	
+	/**
+	 * @methodtype conversion
+	 */
+	public String asStatisticsString() {
+		return getNoTerms() + " terms, " + getNoPhotos() + " photos (" + getNoVisiblePhotos() + " visible), "
+			+ (getPostingsSizeInBytes() / 1024) + "KB postings";
+	}
+	
+	/**
+	 * 
+	 */
+	protected void doUpdateTerms(int id, Collection<String> terms) {
+		String[] oldTerms = indexedTerms.get(id);
+		if (oldTerms != null) {
+			for (String term : oldTerms) {
+				if (!terms.contains(term)) {
+					removePosting(term, id);
+				}
+			}
+		}
+		
+		if (terms.isEmpty()) {
+			indexedTerms.remove(id);
+			return;
+		}
+		
+		List<String> oldTermList = (oldTerms == null) ? Collections.<String>emptyList() : Arrays.asList(oldTerms);
+		String[] newTerms = new String[terms.size()];
+		int i = 0;
+		for (String term : terms) {
+			if (!oldTermList.contains(term)) {
+				addPosting(term, id);
+			}
+			newTerms[i++] = term;
+		}
+		indexedTerms.put(id, newTerms);
+	}
+	
+	/**
+	 * 
+	 */
+	protected void addPosting(String term, int id) {
+		IntBitmap posting = postings.get(term);
+		if (posting == null) {
+			posting = new IntBitmap();
+			postings.put(term, posting);
+		}
+		posting.add(id);
+	}
+	
+	/**
+	 * 
+	 */
+	protected void removePosting(String term, int id) {
+		IntBitmap posting = postings.get(term);
+		if ((posting != null) && posting.remove(id) && posting.isEmpty()) {
+			postings.remove(term);
+		}
+	}
+	
+}
@@ -60,27 +60,34 @@ public class User extends Client implements Persistent {
 	/**
 	 * 0 is never returned, first value is 1
 	 */
-	protected static int lastUserId = 0;
+	protected static volatile IdBlockAllocator idAllocator = new IdBlockAllocator("user", 0, 1024);
 	
 	/**
 	 * 
 	 */
 	public static int getLastUserId() {
-		return lastUserId;
+		return idAllocator.getLastAllocatedId();
 	}
 	
 	/**
 	 * 
 	 */
 	public static synchronized void setLastUserId(int newId) {
-		lastUserId = newId;
+		idAllocator = new IdBlockAllocator("user", newId, 1024);
 	}
 	
 	/**
 	 * 
 	 */
-	public static synchronized int getNextUserId() {
-		return ++lastUserId;
+	public static synchronized void setIdAllocator(IdBlockAllocator newAllocator) {
+		idAllocator = newAllocator;
+	}
+	
+	/**
+	 * 
+	 */
+	public static int getNextUserId() {
+		return idAllocator.getNextId();
 	}
 
 	/**
@@ -112,6 +119,11 @@ public class User extends Client implements Persistent {
 	protected Photo userPhoto = null;
 	protected Set<Photo> photos = new HashSet<Photo>();
 	
+	/**
+	 * Id of the user photo as read by readFrom(), until attachPhotos() resolves it
+	 */
+	protected transient PhotoId userPhotoId = PhotoId.NULL_ID;
+	
 	/**
 	 * 
 	 */
@@ -136,6 +148,7 @@ public class User extends Client implements Persistent {
 	 */
 	public User(ResultSet rset) throws SQLException {
 		readFrom(rset);
+		attachPhotos(PhotoManager.getInstance().findPhotosByOwner(name), PhotoManager.getPhoto(userPhotoId));
 	}
 	
 	/**
@@ -216,8 +229,9 @@ public class User extends Client implements Persistent {
 		gender = Gender.getFromInt(rset.getInt("gender"));
 		status = UserStatus.getFromInt(rset.getInt("status"));
 		confirmationCode = rset.getLong("confirmation_code");
-		photos = PhotoManager.getInstance().findPhotosByOwner(name);
-		userPhoto = PhotoManager.getPhoto(PhotoId.getIdFromInt(rset.getInt("photo")));
+		photos = new HashSet<Photo>(); // see attachPhotos()
+		userPhoto = null;
+		userPhotoId = PhotoId.getIdFromInt(rset.getInt("photo"));
 		creationTime = rset.getLong("creation_time");
 	}
 	
@@ -239,6 +253,7 @@ public class User extends Client implements Persistent {
 		rset.updateLong("confirmation_code", confirmationCode);
 		rset.updateInt("photo", (userPhoto == null) ? 0 : userPhoto.getId().asInt());
 		rset.updateLong("creation_time", creationTime);
+		rset.updateLong("modified_time", System.currentTimeMillis()); // see ModelSnapshot
 	}
 
 	/**
@@ -252,8 +267,10 @@ public class User extends Client implements Persistent {
 	 * 
 	 */
 	public void setEmailAddress(EmailAddress myEmailAddress) {
+		EmailAddress oldEmailAddress = emailAddress;
 		super.setEmailAddress(myEmailAddress);
 		incWriteCount();
+		UserManager.getInstance().didChangeEmailAddress(this, oldEmailAddress);
 		
 		for (Iterator<Photo> i = photos.iterator(); i.hasNext(); ) {
 			Photo photo = i.next();
@@ -445,6 +462,24 @@ public class User extends Client implements Persistent {
 		return userPhoto;
 	}
 			
+	/**
+	 * 
+	 * @methodtype get
+	 */
+	public PhotoId getUserPhotoId() {
+		return (userPhoto != null) ? userPhoto.getId() : userPhotoId;
+	}
+	
+	/**
+	 * Attaches photos loaded separately from the user, without making the user dirty.
+	 * 
+	 * @methodtype initialization
+	 */
+	public void attachPhotos(Set<Photo> myPhotos, Photo myUserPhoto) {
+		photos = myPhotos;
+		userPhoto = myUserPhoto;
+	}
+	
 	/**
 	 * 
 	 */
@@ -466,7 +501,14 @@ public class User extends Client implements Persistent {
 	public void addPhoto(Photo newPhoto) {
 		photos.add(newPhoto);
 		incWriteCount();
-
+		
+		setOwnerOf(newPhoto);
+	}
+	
+	/**
+	 * Sets the owner fields of a photo without adding it to the photos, e.g. for a bulk import
+	 */
+	public void setOwnerOf(Photo newPhoto) {
 		newPhoto.setOwnerId(id);
 		newPhoto.setOwnerName(name);
 		newPhoto.setOwnerNotifyAboutPraise(notifyAboutPraise);
@@ -22,9 +22,12 @@ package org.wahlzeit.model;
 
 import java.util.*;
 import java.sql.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
 
 import org.wahlzeit.services.*;
 import org.wahlzeit.services.mailing.*;
+import org.wahlzeit.utils.*;
 
 /**
  * The UserManager provides access to and manages Users (including Moderators and Administrators).
@@ -56,12 +59,55 @@ public class UserManager extends ObjectManager {
 	/**
 	 * Maps nameAsTag to user of that name (as tag)
 	 */
-	protected Map<String, User> users = new HashMap<String, User>();
+	protected ObjectCache<String, User> users = new ObjectCache<String, User>("user cache");
+	
+	/**
+	 * Secondary indexes of the users that entered the cache, to the name (as tag) they are cached under.
+	 * They outlive evictions, as a lookup by tag recovers or reads the user again; entries that went stale
+	 * on another node are detected on lookup. Written under indexLock together with the cache.
+	 */
+	protected Map<EmailAddress, String> userTagsByEmailAddress = new ConcurrentHashMap<EmailAddress, String>();
+	protected Map<Integer, String> userTagsById = new ConcurrentHashMap<Integer, String>();
+	protected Object indexLock = new Object();
 	
 	/**
 	 * 
 	 */
 	protected Random codeGenerator = new Random(System.currentTimeMillis());
+	
+	/**
+	 * Filters of all user names (as tags) and email addresses; null until built
+	 */
+	protected volatile BloomFilter userTagFilter = null;
+	protected volatile BloomFilter emailAddressFilter = null;
+	protected double filterFalsePositiveRate = 0.01;
+	protected Object filterLock = new Object();
+	
+	/**
+	 * Filters only learn about users signing up on other nodes by refreshing. They are a hint: a lookup
+	 * the filters reject refreshes them, at most once per refresh interval, with the users created since
+	 * the last refresh (less a margin for clock skew between nodes).
+	 */
+	protected long filterRefreshInterval = 0;
+	protected volatile long lastFilterRefreshTime = 0;
+	protected long filterCompleteTime = 0; // users created before are in the filters
+	protected static final long FILTER_REFRESH_MARGIN = 60 * 1000;
+	
+	/**
+	 * Filters start out with room for this many users, or twice the users there are
+	 */
+	protected static final int MIN_FILTER_SIZE = 10000;
+	
+	/**
+	 * Lookups answered by the filters
+	 */
+	protected AtomicLong noFilteredLookups = new AtomicLong();
+	
+	/**
+	 * Names (as tags) and email addresses recently looked up in vain
+	 */
+	protected NegativeLookupCache unknownUserTags = new NegativeLookupCache("unknown names", 0, 1);
+	protected NegativeLookupCache unknownEmailAddresses = new NegativeLookupCache("unknown email addresses", 0, 1);
 
 	/**
 	 * 
@@ -72,11 +118,20 @@ public class UserManager extends ObjectManager {
 	}
 	
 	/**
-	 * 
+	 * Reads from the primary and ignores the lookup filters, as existence checks precede writes such as
+	 * signing up, and the filters may miss users that signed up on other nodes
 	 */
 	public boolean hasUserByTag(String tag) {
 		assertIsNonNullArgument(tag, "user-by-tag");
-		return getUserByTag(tag) != null;
+		return users.getOrLoad(tag, checkingUserLoader) != null;
+	}
+	
+	/**
+	 * Reads from the primary, but lets the lookup filters answer for unknown names, e.g. on login
+	 */
+	public boolean isKnownUserName(String name) {
+		assertIsNonNullArgument(name, "user-by-name");
+		return getUserByTag(Tags.asTag(name), false) != null;
 	}
 	
 	/**
@@ -97,24 +152,259 @@ public class UserManager extends ObjectManager {
 	 * 
 	 */
 	public User getUserByTag(String tag) {
+		return getUserByTag(tag, true);
+	}
+	
+	/**
+	 * 
+	 */
+	protected User getUserByTag(String tag, boolean isReplicaAllowed) {
 		assertIsNonNullArgument(tag, "user-by-tag");
 
-		User result = doGetUserByTag(tag);
-
-		if (result == null) {
+		return users.getOrLoad(tag, isReplicaAllowed ? replicaUserLoader : userLoader);
+	}
+	
+	/**
+	 * Read users missing from the cache; concurrent misses on a user share one read
+	 */
+	protected ObjectCache.Loader<String, User> userLoader = new UserLoader(false, true);
+	protected ObjectCache.Loader<String, User> replicaUserLoader = new UserLoader(true, true);
+	protected ObjectCache.Loader<String, User> checkingUserLoader = new UserLoader(false, false);
+	
+	/**
+	 * 
+	 */
+	protected class UserLoader implements ObjectCache.Loader<String, User> {
+		
+		/**
+		 * 
+		 */
+		protected boolean isReplicaAllowed;
+		protected boolean isFiltered;
+		
+		/**
+		 * 
+		 */
+		public UserLoader(boolean myIsReplicaAllowed, boolean myIsFiltered) {
+			isReplicaAllowed = myIsReplicaAllowed;
+			isFiltered = myIsFiltered;
+		}
+		
+		/**
+		 * 
+		 */
+		public User load(String tag) {
+			if (isFiltered && !isPossibleUserTag(tag)) {
+				return null;
+			}
+			
+			User result = null;
 			try {
-				PreparedStatement stmt = getReadingStatement("SELECT * FROM users WHERE name_as_tag = ?");
-				result = (User) readObject(stmt, tag);
+				if (hasRecordStore()) {
+					result = readUserRecord("name_as_tag", tag);
+				} else {
+					String query = "SELECT * FROM users WHERE name_as_tag = ?";
+					PreparedStatement stmt = isReplicaAllowed ? getReplicaReadingStatement(query) : getReadingStatement(query);
+					result = (User) readObject(stmt, tag);
+				}
 			} catch (SQLException sex) {
 				SysLog.logThrowable(sex);
 			}
 			
 			if (result != null) {
-				doAddUser(result);
+				attachPhotos(Collections.singletonList(result));
+				indexUser(result);
+			} else {
+				unknownUserTags.add(tag);
 			}
+			return result;
 		}
 		
-		return result;
+	}
+	
+	/**
+	 * @return false if no user of that name (as tag) can exist
+	 */
+	protected boolean isPossibleUserTag(String tag) {
+		BloomFilter filter = userTagFilter;
+		if ((filter != null) && !filter.mightContain(tag) && !(refreshLookupFilters() && userTagFilter.mightContain(tag))) {
+			noFilteredLookups.incrementAndGet();
+			return false;
+		}
+		
+		return !unknownUserTags.contains(tag);
+	}
+	
+	/**
+	 * @return false if no user of that email address can exist
+	 */
+	protected boolean isPossibleEmailAddress(String emailAddress) {
+		BloomFilter filter = emailAddressFilter;
+		if ((filter != null) && !filter.mightContain(emailAddress) && !(refreshLookupFilters() && emailAddressFilter.mightContain(emailAddress))) {
+			noFilteredLookups.incrementAndGet();
+			return false;
+		}
+		
+		return !unknownEmailAddresses.contains(emailAddress);
+	}
+	
+	/**
+	 * Sets up the negative lookup caches and builds the filters. Filters are refreshed as often as negative
+	 * lookups expire, so a user that signed up on another node is found here within the same time.
+	 */
+	public void initLookupFilters(double falsePositiveRate, long negativeTimeToLive, int negativeMaxSize) {
+		filterFalsePositiveRate = falsePositiveRate;
+		filterRefreshInterval = negativeTimeToLive;
+		unknownUserTags = new NegativeLookupCache("unknown names", negativeTimeToLive, negativeMaxSize);
+		unknownEmailAddresses = new NegativeLookupCache("unknown email addresses", negativeTimeToLive, negativeMaxSize);
+		buildLookupFilters();
+	}
+	
+	/**
+	 * Builds the filters from all users, sized for twice as many. Deleted users stay in the filters
+	 * until they are rebuilt, which happens whenever the filters run full.
+	 */
+	public void buildLookupFilters() {
+		synchronized (filterLock) {
+			long startTime = System.currentTimeMillis();
+			List<String> tags = new ArrayList<String>();
+			List<String> emailAddresses = new ArrayList<String>();
+			try {
+				if (hasRecordStore()) {
+					List<User> all = new ArrayList<User>();
+					readRecords(all, "users", null, null);
+					for (User user : all) {
+						tags.add(user.getNameAsTag());
+						emailAddresses.add(user.getEmailAddress().asString());
+					}
+				} else {
+					PreparedStatement stmt = getReadingStatement("SELECT name_as_tag, email_address FROM users");
+					SysLog.logQuery(stmt);
+					ResultSet rset = stmt.executeQuery();
+					while (rset.next()) {
+						tags.add(rset.getString("name_as_tag"));
+						emailAddresses.add(rset.getString("email_address"));
+					}
+				}
+			} catch (SQLException sex) {
+				SysLog.logThrowable(sex);
+				return; // keep the current filters, if any
+			}
+			
+			int expectedSize = Math.max(MIN_FILTER_SIZE, 2 * tags.size());
+			BloomFilter newTagFilter = new BloomFilter(expectedSize, filterFalsePositiveRate);
+			BloomFilter newEmailAddressFilter = new BloomFilter(expectedSize, filterFalsePositiveRate);
+			for (String tag : tags) {
+				newTagFilter.add(tag);
+			}
+			for (String emailAddress : emailAddresses) {
+				if (emailAddress != null) {
+					newEmailAddressFilter.add(emailAddress);
+				}
+			}
+			
+			userTagFilter = newTagFilter;
+			emailAddressFilter = newEmailAddressFilter;
+			lastFilterRefreshTime = startTime;
+			filterCompleteTime = startTime;
+			SysLog.logSysInfo("built user lookup filters for " + tags.size() + " users");
+		}
+	}
+	
+	/**
+	 * Adds the users created since the last refresh to the filters, unless that was less than the refresh
+	 * interval ago. The embedded record store has no other nodes writing to it.
+	 * @return true if the filters may have changed since the caller looked
+	 */
+	protected boolean refreshLookupFilters() {
+		if (hasRecordStore() || (System.currentTimeMillis() - lastFilterRefreshTime < filterRefreshInterval)) {
+			return false;
+		}
+		
+		synchronized (filterLock) {
+			long startTime = System.currentTimeMillis();
+			if (startTime - lastFilterRefreshTime < filterRefreshInterval) {
+				return true; // refreshed by another thread meanwhile
+			}
+			
+			lastFilterRefreshTime = startTime;
+			List<String> tags = new ArrayList<String>();
+			List<String> emailAddresses = new ArrayList<String>();
+			try {
+				PreparedStatement stmt = getReadingStatement("SELECT name_as_tag, email_address FROM users WHERE creation_time >= ?");
+				stmt.setLong(1, filterCompleteTime - FILTER_REFRESH_MARGIN);
+				SysLog.logQuery(stmt);
+				ResultSet rset = stmt.executeQuery();
+				while (rset.next()) {
+					tags.add(rset.getString("name_as_tag"));
+					emailAddresses.add(rset.getString("email_address"));
+				}
+			} catch (SQLException sex) {
+				SysLog.logThrowable(sex);
+				return false; // try again after the next interval, from the same creation time
+			}
+			
+			filterCompleteTime = startTime;
+			for (String tag : tags) {
+				if (tag != null) {
+					addKnownUserTag(tag);
+				}
+			}
+			for (String emailAddress : emailAddresses) {
+				if (emailAddress != null) {
+					addKnownEmailAddress(EmailAddress.getFromString(emailAddress));
+				}
+			}
+			return true;
+		}
+	}
+	
+	/**
+	 * Makes a new user name (as tag) known to the filters and forgets failed lookups of it
+	 */
+	protected void addKnownUserTag(String tag) {
+		synchronized (filterLock) {
+			BloomFilter filter = userTagFilter;
+			if (filter != null) {
+				filter.add(tag);
+				if (filter.isSaturated()) {
+					buildLookupFilters();
+				}
+			}
+		}
+		unknownUserTags.remove(tag);
+	}
+	
+	/**
+	 * Makes a new or changed email address known to the filters and forgets failed lookups of it
+	 */
+	public void addKnownEmailAddress(EmailAddress emailAddress) {
+		if ((emailAddress == null) || emailAddress.isEmpty()) {
+			return;
+		}
+		
+		String value = emailAddress.asString();
+		synchronized (filterLock) {
+			BloomFilter filter = emailAddressFilter;
+			if (filter != null) {
+				filter.add(value);
+			}
+		}
+		unknownEmailAddresses.remove(value);
+	}
+	
+	/**
+	 * 
+	 */
+	public String asLookupStatisticsString() {
+		BloomFilter tagFilter = userTagFilter;
+		String filters = "no filters";
+		if (tagFilter != null) {
+			filters = "filters of " + tagFilter.getNoBits() + " bits, " + tagFilter.getNoHashes() + " hashes, ";
+			filters += String.format("%.4f", tagFilter.getFalsePositiveRate()) + " false positive rate";
+		}
+		return filters + ", " + noFilteredLookups.get() + " lookups filtered; " 
+			+ unknownUserTags.asStatisticsString() + "; " + unknownEmailAddresses.asStatisticsString();
 	}
 	
 	/**
@@ -131,6 +421,60 @@ public class UserManager extends ObjectManager {
 		return users.get(tag);
 	}
 	
+	/**
+	 * Users read no other objects in readFrom(), so loader threads can create them.
+	 */
+	protected boolean canCreateObjectsConcurrently() {
+		return true;
+	}
+	
+	/**
+	 * Attaches their photos and user photos to freshly read users, with one photo query per batch of users
+	 * rather than one per user.
+	 */
+	protected void attachPhotos(Collection<User> newUsers) {
+		int batchSize = Math.max(SysConfig.getDbBatchSizeAsInt(), 1);
+		List<User> batch = new ArrayList<User>(batchSize);
+		for (User user : newUsers) {
+			batch.add(user);
+			if (batch.size() >= batchSize) {
+				attachPhotosInBatch(batch);
+				batch.clear();
+			}
+		}
+		
+		if (!batch.isEmpty()) {
+			attachPhotosInBatch(batch);
+		}
+	}
+	
+	/**
+	 * 
+	 */
+	protected void attachPhotosInBatch(List<User> batch) {
+		Set<String> ownerNames = new HashSet<String>();
+		Set<PhotoId> userPhotoIds = new HashSet<PhotoId>();
+		for (User user : batch) {
+			ownerNames.add(user.getName());
+			if (!user.getUserPhotoId().isNullId()) {
+				userPhotoIds.add(user.getUserPhotoId());
+			}
+		}
+		
+		PhotoManager photoManager = PhotoManager.getInstance();
+		Map<String, Set<Photo>> photosByOwner = photoManager.findPhotosByOwners(ownerNames, userPhotoIds);
+		for (User user : batch) {
+			Set<Photo> photos = photosByOwner.get(user.getName());
+			if (photos == null) {
+				photos = new HashSet<Photo>();
+			}
+			
+			PhotoId userPhotoId = user.getUserPhotoId();
+			Photo userPhoto = userPhotoId.isNullId() ? null : photoManager.getPhotoFromId(userPhotoId); // cached by now
+			user.attachPhotos(photos, userPhoto);
+		}
+	}
+	
 	/**
 	 * 
 	 * @methodtype factory
@@ -163,21 +507,165 @@ public class UserManager extends ObjectManager {
 		assertIsUnknownUserAsIllegalArgument(user);
 
 		try {
-			int id = user.getId();
-			PreparedStatement stmt = getReadingStatement("INSERT INTO users(id) VALUES(?)");
-			createObject(user, stmt, id);
+			if (hasRecordStore()) {
+				writeRecords(Collections.singletonList(user), "users");
+			} else {
+				int id = user.getId();
+				PreparedStatement stmt = getReadingStatement("INSERT INTO users(id) VALUES(?)");
+				createObject(user, stmt, id);
+			}
 		} catch (SQLException sex) {
 			SysLog.logThrowable(sex);
 		}
 		
-		doAddUser(user);		
+		doAddUser(user);
+		addKnownUserTag(user.getNameAsTag());
+		addKnownEmailAddress(user.getEmailAddress());
 	}
 	
 	/**
 	 * 
 	 */
 	protected void doAddUser(User user) {
-		users.put(user.getNameAsTag(), user);
+		synchronized (indexLock) {
+			users.put(user.getNameAsTag(), user);
+			indexUser(user);
+		}
+	}
+	
+	/**
+	 * Adds the user's email address and id to the secondary indexes
+	 */
+	protected void indexUser(User user) {
+		synchronized (indexLock) {
+			String tag = user.getNameAsTag();
+			EmailAddress emailAddress = user.getEmailAddress();
+			if ((emailAddress != null) && !emailAddress.isEmpty()) {
+				userTagsByEmailAddress.put(emailAddress, tag);
+			}
+			userTagsById.put(user.getId(), tag);
+		}
+	}
+	
+	/**
+	 * Removes the user's email address and id from the secondary indexes, unless they were reassigned
+	 */
+	protected void unindexUser(User user) {
+		synchronized (indexLock) {
+			String tag = user.getNameAsTag();
+			EmailAddress emailAddress = user.getEmailAddress();
+			if ((emailAddress != null) && tag.equals(userTagsByEmailAddress.get(emailAddress))) {
+				userTagsByEmailAddress.remove(emailAddress);
+			}
+			if (tag.equals(userTagsById.get(user.getId()))) {
+				userTagsById.remove(user.getId());
+			}
+		}
+	}
+	
+	/**
+	 * Moves a cached user from its old email address to its current one in the index, and makes the
+	 * current one known to the lookup filters.
+	 */
+	public void didChangeEmailAddress(User user, EmailAddress oldEmailAddress) {
+		addKnownEmailAddress(user.getEmailAddress());
+		
+		String tag = user.getNameAsTag();
+		if (tag == null) {
+			return; // still being initialized
+		}
+		
+		synchronized (indexLock) {
+			if (users.peek(tag) != user) {
+				return;
+			}
+			
+			if ((oldEmailAddress != null) && tag.equals(userTagsByEmailAddress.get(oldEmailAddress))) {
+				userTagsByEmailAddress.remove(oldEmailAddress);
+			}
+			indexUser(user);
+		}
+	}
+	
+	/**
+	 * @return the cached users; a copy
+	 */
+	public List<User> getCachedUsers() {
+		return new ArrayList<User>(users.values());
+	}
+	
+	/**
+	 * @methodtype get
+	 */
+	public ObjectCache<String, User> getUserCache() {
+		return users;
+	}
+	
+	/**
+	 * Removes the cached users that were written since time or no longer exist, so that they are read again.
+	 * Only if the table holds fewer unmodified users than are cached, all ids are read to find the deleted ones.
+	 * @return the number of users removed
+	 */
+	public int removeUsersModifiedSince(long time) throws SQLException {
+		Set<Integer> modifiedIds = new HashSet<Integer>();
+		PreparedStatement stmt = getReadingStatement("SELECT id FROM users WHERE modified_time > ?");
+		stmt.setLong(1, time);
+		readIds(stmt, modifiedIds);
+		
+		int result = 0;
+		List<User> unmodifiedUsers = new ArrayList<User>();
+		for (User user : getCachedUsers()) {
+			if (modifiedIds.contains(user.getId())) {
+				doDeleteUser(user);
+				result++;
+			} else {
+				unmodifiedUsers.add(user);
+			}
+		}
+		
+		if (getNoUsers() - modifiedIds.size() >= unmodifiedUsers.size()) {
+			return result;
+		}
+		
+		Set<Integer> ids = new HashSet<Integer>();
+		readIds(getReadingStatement("SELECT id FROM users"), ids);
+		for (User user : unmodifiedUsers) {
+			if (!ids.contains(user.getId())) {
+				doDeleteUser(user);
+				result++;
+			}
+		}
+		
+		return result;
+	}
+	
+	/**
+	 * 
+	 */
+	protected void readIds(PreparedStatement stmt, Set<Integer> ids) throws SQLException {
+		SysLog.logQuery(stmt);
+		ResultSet rset = stmt.executeQuery();
+		try {
+			while (rset.next()) {
+				ids.add(rset.getInt("id"));
+			}
+		} finally {
+			rset.close();
+		}
+	}
+	
+	/**
+	 * @return the number of users in the table
+	 */
+	protected int getNoUsers() throws SQLException {
+		PreparedStatement stmt = getReadingStatement("SELECT COUNT(*) FROM users");
+		SysLog.logQuery(stmt);
+		ResultSet rset = stmt.executeQuery();
+		try {
+			return rset.next() ? rset.getInt(1) : 0;
+		} finally {
+			rset.close();
+		}
 	}
 	
 	/**
@@ -188,8 +676,12 @@ public class UserManager extends ObjectManager {
 		doDeleteUser(user);
 
 		try {
-			PreparedStatement stmt = getReadingStatement("DELETE FROM users WHERE id = ?");
-			deleteObject(user, stmt);
+			if (hasRecordStore()) {
+				deleteRecord(user, "users");
+			} else {
+				PreparedStatement stmt = getReadingStatement("DELETE FROM users WHERE id = ?");
+				deleteObject(user, stmt);
+			}
 		} catch (SQLException sex) {
 			SysLog.logThrowable(sex);
 		}
@@ -201,7 +693,10 @@ public class UserManager extends ObjectManager {
 	 * 
 	 */
 	protected void doDeleteUser(User user) {
-		users.remove(user.getNameAsTag());
+		synchronized (indexLock) {
+			users.remove(user.getNameAsTag());
+			unindexUser(user);
+		}
 	}
 	
 	/**
@@ -209,8 +704,12 @@ public class UserManager extends ObjectManager {
 	 */
 	public void loadUsers(Collection<User> result) {
 		try {
-			PreparedStatement stmt = getReadingStatement("SELECT * FROM users");
-			readObjects(result, stmt);
+			if (hasRecordStore()) {
+				readRecords(result, "users", null, null);
+			} else {
+				readObjectsStreaming(result, "SELECT * FROM users", "users");
+			}
+			attachPhotos(result);
 			for (Iterator<User> i = result.iterator(); i.hasNext(); ) {
 				User user = i.next();
 				if (!doHasUserByTag(user.getNameAsTag())) {
@@ -273,9 +772,17 @@ public class UserManager extends ObjectManager {
 	 * 
 	 */
 	public void saveUser(User user) {
+		if (WriteBehindQueue.getInstance().schedule(user)) {
+			return; // written by WriteBehindAgent
+		}
+		
 		try {
-			PreparedStatement stmt = getUpdatingStatement("SELECT * FROM users WHERE id = ?");
-			updateObject(user, stmt);
+			if (hasRecordStore()) {
+				updateRecords(Collections.singletonList(user), "users");
+			} else {
+				PreparedStatement stmt = getUpdatingStatement("SELECT * FROM users WHERE id = ?");
+				updateObject(user, stmt);
+			}
 		} catch (SQLException sex) {
 			SysLog.logThrowable(sex);
 		}
@@ -293,9 +800,15 @@ public class UserManager extends ObjectManager {
 	 * 
 	 */
 	public void saveUsers() {
+		saveUsers(users.values());
+	}
+	
+	/**
+	 * 
+	 */
+	public void saveUsers(Collection<User> someUsers) {
 		try {
-			PreparedStatement stmt = getUpdatingStatement("SELECT * FROM users WHERE id = ?");
-			updateObjects(users.values(), stmt);
+			saveObjects(someUsers, "users");
 		} catch (SQLException sex) {
 			SysLog.logThrowable(sex);
 		}
@@ -312,26 +825,106 @@ public class UserManager extends ObjectManager {
 	 * 
 	 */
 	public User getUserByEmailAddress(EmailAddress emailAddress) {
-		User result = null;
+		User result = getIndexedUser(userTagsByEmailAddress, emailAddress);
+		if ((result != null) && result.getEmailAddress().isEqual(emailAddress)) {
+			return result;
+		}
+		
+		if (!isPossibleEmailAddress(emailAddress.asString())) {
+			return null;
+		}
+		
 		try {
-			PreparedStatement stmt = getReadingStatement("SELECT * FROM users WHERE email_address = ?");
-			result = (User) readObject(stmt, emailAddress.asString());
+			if (hasRecordStore()) {
+				result = readUserRecord("email_address", emailAddress.asString());
+			} else {
+				PreparedStatement stmt = getReplicaReadingStatement("SELECT * FROM users WHERE email_address = ?");
+				result = (User) readObject(stmt, emailAddress.asString());
+			}
 		} catch (SQLException sex) {
 			SysLog.logThrowable(sex);
 		}
 		
 		if (result != null) {
-			User current = doGetUserByTag(result.getNameAsTag());
-			if (current == null) {
-				doAddUser(result);
+			result = doAddReadUser(result);
+		} else {
+			unknownEmailAddresses.add(emailAddress.asString());
+		}
+
+		return result;
+	}
+	
+	/**
+	 * 
+	 */
+	public User getUserById(int id) {
+		User result = getIndexedUser(userTagsById, id);
+		if ((result != null) && (result.getId() == id)) {
+			return result;
+		}
+		
+		result = null;
+		try {
+			if (hasRecordStore()) {
+				result = readUserRecord("id", id);
 			} else {
-				result = current;
+				PreparedStatement stmt = getReplicaReadingStatement("SELECT * FROM users WHERE id = ?");
+				result = (User) readObject(stmt, id);
 			}
+		} catch (SQLException sex) {
+			SysLog.logThrowable(sex);
+		}
+		
+		return (result != null) ? doAddReadUser(result) : null;
+	}
+	
+	/**
+	 * @return the user the index maps key to, or null; drops the entry if the user is gone
+	 */
+	protected <K> User getIndexedUser(Map<K, String> index, K key) {
+		String tag = index.get(key);
+		if (tag == null) {
+			return null;
+		}
+		
+		User result = getUserByTag(tag);
+		if (result == null) {
+			synchronized (indexLock) {
+				if (tag.equals(index.get(key))) {
+					index.remove(key);
+				}
+			}
+		}
+		return result;
+	}
+	
+	/**
+	 * Caches a user read by other than its name, unless it is cached already
+	 * @return the cached user
+	 */
+	protected User doAddReadUser(User user) {
+		User result = doGetUserByTag(user.getNameAsTag());
+		if (result == null) {
+			attachPhotos(Collections.singletonList(user));
+			synchronized (indexLock) {
+				result = users.putIfAbsent(user.getNameAsTag(), user);
+				indexUser(result);
+			}
+		} else {
+			indexUser(result);
 		}
-
 		return result;
 	}
 	
+	/**
+	 * @return the first user whose columnName equals value in the record store, like readObject() does
+	 */
+	protected User readUserRecord(String columnName, Object value) throws SQLException {
+		List<User> result = new ArrayList<User>();
+		readRecords(result, "users", columnName, value);
+		return result.isEmpty() ? null : result.get(0);
+	}
+	
 	/**
 	 * 
 	 * @methodtype assertion
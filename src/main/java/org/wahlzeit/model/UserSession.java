@@ -26,6 +26,11 @@ public class UserSession extends Session {
 	public static final String HEADING = "heading";
 	public static final String USER = "user";
 	
+	/**
+	 * Live sessions, for memory statistics; sessions are dropped once the servlet container lets go of them
+	 */
+	protected static Set<UserSession> liveSessions = Collections.newSetFromMap(new WeakHashMap<UserSession, Boolean>());
+	
 	/**
 	 * Session state
 	 */
@@ -50,6 +55,41 @@ public class UserSession extends Session {
 	public UserSession(String myName, String mySiteUrl) {
 		initialize(myName);
 		siteUrl = mySiteUrl;
+		
+		synchronized(liveSessions) {
+			liveSessions.add(this);
+		}
+	}
+	
+	/**
+	 * @methodtype conversion
+	 * 
+	 * Reports the memory taken by the photo tracking of all live sessions.
+	 */
+	public static String asStatisticsString() {
+		List<UserSession> sessions;
+		synchronized(liveSessions) {
+			sessions = new ArrayList<UserSession>(liveSessions);
+		}
+		
+		long totalSize = 0;
+		long maxSize = 0;
+		for (UserSession session : sessions) {
+			long size = session.getSizeInBytes();
+			totalSize += size;
+			maxSize = Math.max(maxSize, size);
+		}
+		
+		long averageSize = sessions.isEmpty() ? 0 : totalSize / sessions.size();
+		return sessions.size() + " sessions, " + (totalSize / 1024) + "KB photo tracking (average " + averageSize
+			+ " bytes, largest " + maxSize + " bytes)";
+	}
+	
+	/**
+	 * @return approximate memory held for tracking the photos shown in this session
+	 */
+	public long getSizeInBytes() {
+		return photoFilter.getSizeInBytes() + 48L * praisedPhotos.size();
 	}
 	
 	/**
@@ -86,7 +86,8 @@ public class VideoGameManager {
         return pathString.split(PATH_SEPARATOR);
     }
 
-    private VideoGameType getVideoGameType(String[] typePath) {
+    // photos may be loaded on several threads at once, which all extend the type hierarchy
+    private synchronized VideoGameType getVideoGameType(String[] typePath) {
         VideoGameType currentType = rootType;
         for (int typePathIndex = 0; typePathIndex < typePath.length; ++typePathIndex) {
             String currentSubTypeName = typePath[typePathIndex];
@@ -0,0 +1,67 @@
+/*
+ * Copyright (c) 2006-2009 by Dirk Riehle, http://dirkriehle.com
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.wahlzeit.services;
+
+/**
+ * A CachePolicy decides which entry an ObjectCache evicts next. It only tracks keys; the cache tells it
+ * about every access, insertion, and removal, and which keys may currently be evicted.
+ */
+public interface CachePolicy<K> {
+	
+	/**
+	 * 
+	 */
+	public void recordAccess(K key);
+	
+	/**
+	 * 
+	 */
+	public void recordInsertion(K key);
+	
+	/**
+	 * 
+	 */
+	public void recordRemoval(K key);
+	
+	/**
+	 * @return the key to evict next among the evictable ones, or null if there is none
+	 */
+	public K selectVictim(Evictable<K> evictable);
+	
+	/**
+	 * 
+	 */
+	public String getName();
+	
+	/**
+	 * Tells which keys may be evicted, e.g. not those of dirty objects
+	 */
+	public interface Evictable<K> {
+		
+		/**
+		 * 
+		 */
+		public boolean isEvictable(K key);
+		
+	}
+
+}
@@ -0,0 +1,157 @@
+/*
+ * Copyright (c) 2006-2009 by Dirk Riehle, http://dirkriehle.com
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package org.wahlzeit.services;
+
+import java.lang.reflect.*;
+import java.sql.*;
+import java.util.*;
+
+/**
+ * A ColumnValueRecorder captures the column values that a Persistent writes on a ResultSet in writeOn().
+ * The recorded values can then be bound to a parameterized UPDATE statement, so that objects can be written
+ * using JDBC batches rather than one SELECT and updateRow() round trip per object.
+ */
+public class ColumnValueRecorder {
+	
+	/**
+	 * 
+	 */
+	protected TableColumns tableColumns;
+	
+	/**
+	 * Recorded values by lowercase column label in the order written
+	 */
+	protected Map<String, Object> values = new LinkedHashMap<String, Object>();
+	
+	/**
+	 * 
+	 */
+	public ColumnValueRecorder(TableColumns myTableColumns) {
+		tableColumns = myTableColumns;
+	}
+	
+	/**
+	 * Records the values obj writes on its ResultSet, replacing any previous recording.
+	 */
+	public void record(Persistent obj) throws SQLException {
+		values.clear();
+		obj.writeOn(asResultSet());
+	}
+	
+	/**
+	 * Forgets the recorded values of the columns labeled, so that they are not updated
+	 */
+	public void removeValues(Collection<String> labels) {
+		for (String label : labels) {
+			values.remove(label.toLowerCase());
+		}
+	}
+	
+	/**
+	 * @return recorded column labels excluding the id column, in the order written
+	 */
+	public List<String> getColumnLabels() {
+		List<String> result = new ArrayList<String>(values.keySet());
+		result.remove(DataObject.ID);
+		return result;
+	}
+	
+	/**
+	 * 
+	 */
+	public Object getValue(String label) {
+		return values.get(label.toLowerCase());
+	}
+	
+	/**
+	 * @return a copy of the recorded values by lowercase column label, including the id column
+	 */
+	public Map<String, Object> getValues() {
+		return new LinkedHashMap<String, Object>(values);
+	}
+	
+	/**
+	 * @return an UPDATE statement for the recorded columns, identifying the row by its id
+	 */
+	public String asUpdateStatement() {
+		StringBuffer result = new StringBuffer(256);
+		result.append("UPDATE ").append(tableColumns.getTableName()).append(" SET ");
+		List<String> labels = getColumnLabels();
+		for (int i = 0; i < labels.size(); i++) {
+			if (i > 0) {
+				result.append(", ");
+			}
+			result.append(labels.get(i)).append(" = ?");
+		}
+		result.append(" WHERE ").append(DataObject.ID).append(" = ?");
+		return result.toString();
+	}
+	
+	/**
+	 * Binds the recorded values in the order of asUpdateStatement(), followed by the id of obj.
+	 */
+	public void bindOn(PreparedStatement stmt, Persistent obj) throws SQLException {
+		List<String> labels = getColumnLabels();
+		for (int i = 0; i < labels.size(); i++) {
+			String label = labels.get(i);
+			Object value = values.get(label);
+			if (value == null) {
+				stmt.setNull(i + 1, tableColumns.getColumnType(label));
+			} else {
+				stmt.setObject(i + 1, value);
+			}
+		}
+		obj.writeId(stmt, labels.size() + 1);
+	}
+	
+	/**
+	 * @methodtype conversion
+	 */
+	protected ResultSet asResultSet() {
+		final ResultSetMetaData metaData = tableColumns.asResultSetMetaData();
+		InvocationHandler handler = new InvocationHandler() {
+			public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+				String name = method.getName();
+				if (name.startsWith("update") && (args != null) && (args[0] instanceof String)) {
+					String label = ((String) args[0]).toLowerCase();
+					if (!tableColumns.hasColumn(label)) {
+						throw new SQLException("column " + label + " does not exist in table " + tableColumns.getTableName());
+					}
+					values.put(label, (args.length > 1) ? args[1] : null);
+					return null;
+				} else if (name.equals("getMetaData")) {
+					return metaData;
+				} else if (name.equals("toString")) {
+					return "ColumnValueRecorder(" + tableColumns.getTableName() + ")";
+				} else if (name.equals("hashCode")) {
+					return System.identityHashCode(proxy);
+				} else if (name.equals("equals")) {
+					return proxy == args[0];
+				}
+				
+				throw new SQLFeatureNotSupportedException(name + " is not supported while recording column values");
+			}
+		};
+		
+		return (ResultSet) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] { ResultSet.class }, handler);
+	}
+	
+}
@@ -0,0 +1,208 @@
+/*
+ * Copyright (c) 2006-2009 by Dirk Riehle, http://dirkriehle.com
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package org.wahlzeit.services;
+
+import java.io.*;
+import java.sql.*;
+import java.util.*;
+
+import org.postgresql.PGConnection;
+
+/**
+ * A CopyWriter collects rows of a table in the text format of PostgreSQL's COPY and loads them with
+ * COPY ... FROM STDIN, which is much faster than an INSERT per row. Loading is part of the connection's
+ * current transaction.
+ */
+public class CopyWriter {
+	
+	/**
+	 * 
+	 */
+	public static final String NULL_VALUE = "\\N";
+	
+	/**
+	 * 
+	 */
+	protected String tableName;
+	protected List<String> columnLabels;
+	
+	/**
+	 * 
+	 */
+	protected StringBuilder rows = new StringBuilder();
+	protected int noRows = 0;
+	
+	/**
+	 * 
+	 */
+	public CopyWriter(String myTableName, List<String> myColumnLabels) {
+		tableName = myTableName;
+		columnLabels = new ArrayList<String>(myColumnLabels);
+	}
+	
+	/**
+	 * @methodtype get
+	 */
+	public List<String> getColumnLabels() {
+		return Collections.unmodifiableList(columnLabels);
+	}
+	
+	/**
+	 * @methodtype get
+	 */
+	public int getNoRows() {
+		return noRows;
+	}
+	
+	/**
+	 * Adds a row of the values by lowercase column label; missing columns are null
+	 */
+	public void addRow(Map<String, Object> values) {
+		Object[] row = new Object[columnLabels.size()];
+		for (int i = 0; i < row.length; i++) {
+			row[i] = values.get(columnLabels.get(i));
+		}
+		addRow(row);
+	}
+	
+	/**
+	 * Adds a row of the values in the order of the column labels
+	 */
+	public void addRow(Object... values) {
+		if (values.length != columnLabels.size()) {
+			throw new IllegalArgumentException("expected " + columnLabels.size() + " values, got " + values.length);
+		}
+		
+		for (int i = 0; i < values.length; i++) {
+			if (i > 0) {
+				rows.append('\t');
+			}
+			appendValue(rows, values[i]);
+		}
+		rows.append('\n');
+		noRows++;
+	}
+	
+	/**
+	 * Appends the value in COPY text format, escaping the delimiters
+	 */
+	public static void appendValue(StringBuilder result, Object value) {
+		if (value == null) {
+			result.append(NULL_VALUE);
+		} else if (value instanceof Boolean) {
+			result.append(((Boolean) value).booleanValue() ? 't' : 'f');
+		} else if (value instanceof Number) {
+			result.append(value.toString());
+		} else {
+			String s = value.toString();
+			for (int i = 0; i < s.length(); i++) {
+				char c = s.charAt(i);
+				switch (c) {
+				case '\\':
+					result.append("\\\\");
+					break;
+				case '\t':
+					result.append("\\t");
+					break;
+				case '\n':
+					result.append("\\n");
+					break;
+				case '\r':
+					result.append("\\r");
+					break;
+				default:
+					result.append(c);
+				}
+			}
+		}
+	}
+	
+	/**
+	 * @methodtype conversion
+	 */
+	public String asCopyStatement() {
+		StringBuffer result = new StringBuffer(128);
+		result.append("COPY ").append(tableName).append(" (");
+		for (int i = 0; i < columnLabels.size(); i++) {
+			if (i > 0) {
+				result.append(", ");
+			}
+			result.append(columnLabels.get(i));
+		}
+		result.append(") FROM STDIN");
+		return result.toString();
+	}
+	
+	/**
+	 * @methodtype conversion
+	 */
+	public String asCopyData() {
+		return rows.toString();
+	}
+	
+	/**
+	 * Loads the rows added since the last load, and clears them
+	 * @return the number of rows loaded
+	 */
+	public long copyTo(Connection conn) throws SQLException {
+		if (noRows == 0) {
+			return 0;
+		}
+		
+		String query = asCopyStatement();
+		SysLog.logQuery(query + " [" + noRows + " rows]");
+		try {
+			long result = conn.unwrap(PGConnection.class).getCopyAPI().copyIn(query, new StringReader(rows.toString()));
+			clear();
+			return result;
+		} catch (IOException ioex) {
+			throw new SQLException("could not copy rows into " + tableName, ioex);
+		}
+	}
+	
+	/**
+	 * Loads the rows of all writers in one transaction
+	 */
+	public static void copyInTransaction(Connection conn, CopyWriter... writers) throws SQLException {
+		boolean wasAutoCommit = conn.getAutoCommit();
+		conn.setAutoCommit(false);
+		try {
+			for (CopyWriter writer : writers) {
+				writer.copyTo(conn);
+			}
+			conn.commit();
+		} catch (SQLException sex) {
+			conn.rollback();
+			throw sex;
+		} finally {
+			conn.setAutoCommit(wasAutoCommit);
+		}
+	}
+	
+	/**
+	 * 
+	 */
+	public void clear() {
+		rows.setLength(0);
+		noRows = 0;
+	}
+	
+}
@@ -29,39 +29,81 @@ import java.util.*;
 
 /**
  * A database connection wraps an RDMBS connection object.
- * It pools and reuses existing connections; it caches common SQL statements.
+ * It is pooled and reused by a DatabaseConnectionPool; it caches common SQL statements,
+ * which are timed by QueryStatistics.
  *
  * @author dirkriehle
  *
  */
-@PatternInstance(pattern = Pattern.ObjectPool, role = PatternParticipant.ReusablePool) // the static parts of the class
-@PatternInstance(pattern = Pattern.ObjectPool, role = PatternParticipant.Reusable) // the non-static parts of the class
+@PatternInstance(pattern = Pattern.ObjectPool, role = PatternParticipant.Reusable)
 public class DatabaseConnection {
 	
 	/**
 	 * 
 	 */
-	protected static Set<DatabaseConnection> pool = new HashSet<DatabaseConnection>();
+	protected static DatabaseConnectionPool pool = null;
 	
 	/**
 	 * 
 	 */
-	protected static int dbcId = 0;
+	public static synchronized DatabaseConnectionPool getPool() {
+		if (pool == null) {
+			pool = new DatabaseConnectionPool(
+				"primary",
+				SysConfig.getDbConnectionAsString(),
+				SysConfig.getDbPoolMaxSizeAsInt(),
+				SysConfig.getDbPoolBorrowTimeoutAsLong(),
+				SysConfig.getDbPoolIdleTimeoutAsLong(),
+				SysConfig.getDbPoolLeakThresholdAsLong()
+			);
+			SysLog.logCreatedObject("DatabaseConnectionPool", pool.getName());
+		}
+		
+		return pool;
+	}
 	
 	/**
 	 * 
 	 */
-	public static synchronized DatabaseConnection ensureDatabaseConnection() throws SQLException {
-		DatabaseConnection result = null;
-		if (pool.isEmpty()) {
-			result = new DatabaseConnection("dbc" + dbcId++);
-			SysLog.logCreatedObject("DatabaseConnection", result.getName());
-		} else {
-			result = pool.iterator().next();
-			pool.remove(result);
+	protected static DatabaseReplicas replicas = null;
+	
+	/**
+	 * 
+	 */
+	public static synchronized DatabaseReplicas getReplicas() {
+		if (replicas == null) {
+			replicas = new DatabaseReplicas(SysConfig.getDbReplicaMaxLagAsLong());
+			replicas.addReplicas(
+				SysConfig.getDbReplicaConnectionsAsString(),
+				SysConfig.getDbPoolMaxSizeAsInt(),
+				SysConfig.getDbPoolBorrowTimeoutAsLong(),
+				SysConfig.getDbPoolIdleTimeoutAsLong(),
+				SysConfig.getDbPoolLeakThresholdAsLong()
+			);
 		}
 		
-		return result;
+		return replicas;
+	}
+	
+	/**
+	 * Closes idle connections and drops the pools to cope with repeated startup/shutdown scenarios
+	 */
+	public static synchronized void closePool() {
+		if (pool != null) {
+			pool.close();
+			pool = null;
+		}
+		if (replicas != null) {
+			replicas.close();
+			replicas = null;
+		}
+	}
+	
+	/**
+	 * 
+	 */
+	public static DatabaseConnection ensureDatabaseConnection() throws SQLException {
+		return getPool().borrowConnection();
 	}
 
 	/**
@@ -76,7 +118,8 @@ public class DatabaseConnection {
 		String dbUrl = SysConfig.getDbConnectionAsString();
 		do {
 			try {
-				DatabaseConnection.ensureDatabaseConnection();
+				DatabaseConnection dbc = DatabaseConnection.ensureDatabaseConnection();
+				DatabaseConnection.returnDatabaseConnection(dbc);
 				SysLog.logSysInfo("[success] Service check for URL " + dbUrl);
 				return true;
 			} catch (final SQLException e) {
@@ -102,13 +145,9 @@ public class DatabaseConnection {
 	/**
 	 * 
 	 */
-	public static synchronized void returnDatabaseConnection(DatabaseConnection dbc) {
+	public static void returnDatabaseConnection(DatabaseConnection dbc) {
 		if (dbc != null) {
-			if (dbc.isOpen()) {
-				pool.add(dbc);				
-			} else {
-				SysLog.logSysError("tried to return closed database connection to pool; ignoring it");
-			}
+			dbc.getOwningPool().returnConnection(dbc);
 		} else {
 			SysLog.logSysError("tried to return null to database connection pool; ignoring it");
 		}
@@ -130,21 +169,53 @@ public class DatabaseConnection {
 	protected Map<String, PreparedStatement> readingStatements = new HashMap<String, PreparedStatement>();
 	protected Map<String, PreparedStatement> updatingStatements = new HashMap<String, PreparedStatement>();
 
+	/**
+	 * Bookkeeping of the owning pool, guarded by the pool's lock
+	 */
+	protected DatabaseConnectionPool owningPool = null;
+	protected long borrowedAt = 0;
+	protected long returnedAt = 0;
+	protected String borrowerName = null;
+	protected boolean isReportedAsLeaked = false;
+
+	/**
+	 * 
+	 */
+	protected DatabaseConnection(String dbcName, DatabaseConnectionPool myPool) throws SQLException {
+		this(dbcName, myPool, openRdbmsConnection(myPool.getConnectionUrl()));
+	}
+	
 	/**
 	 * 
 	 */
-	protected DatabaseConnection(String dbcName) throws SQLException {
+	protected DatabaseConnection(String dbcName, DatabaseConnectionPool myPool, Connection myRdbmsConnection) {
 		name = dbcName;
-		rdbmsConnection = openRdbmsConnection();
+		owningPool = myPool;
+		rdbmsConnection = myRdbmsConnection;
 	}
 	
 	/**
 	 * 
 	 */
 	protected void finalize() {
+		close();
+	}
+	
+	/**
+	 * 
+	 */
+	public DatabaseConnectionPool getOwningPool() {
+		return owningPool;
+	}
+	
+	/**
+	 * 
+	 */
+	public void close() {
 		try {
-			pool.remove(this); // just to be sure...
-			closeConnection(rdbmsConnection);
+			if (isOpen()) {
+				closeConnection(rdbmsConnection);
+			}
 		} catch (Throwable t) {
 			SysLog.logThrowable(t);
 		}
@@ -185,8 +256,8 @@ public class DatabaseConnection {
 	protected PreparedStatement getReadingStatement(String stmt) throws SQLException {
 		PreparedStatement result = readingStatements.get(stmt);
 		if (result == null) {
-			result = getRdbmsConnection().prepareStatement(stmt);
-	   		SysLog.logCreatedObject("PreparedStatement", result.toString());
+			result = QueryStatistics.getInstance().instrument(getRdbmsConnection().prepareStatement(stmt), stmt);
+	   		SysLog.logCreatedObject("PreparedStatement", String.valueOf(result));
 	   		readingStatements.put(stmt, result);
 		}
 		
@@ -200,7 +271,8 @@ public class DatabaseConnection {
 		PreparedStatement result = updatingStatements.get(stmt);
 		if (result == null) {
 			result = getRdbmsConnection().prepareStatement(stmt, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_UPDATABLE);
-	   		SysLog.logCreatedObject("UpdatingStatement", result.toString());
+			result = QueryStatistics.getInstance().instrument(result, stmt);
+	   		SysLog.logCreatedObject("UpdatingStatement", String.valueOf(result));
 	   		updatingStatements.put(stmt, result);
 		}
 		
@@ -222,7 +294,13 @@ public class DatabaseConnection {
 	 * 
 	 */
 	public static Connection openRdbmsConnection() throws SQLException {
-		String dbConnection = SysConfig.getDbConnectionAsString();
+		return openRdbmsConnection(SysConfig.getDbConnectionAsString());
+	}
+	
+	/**
+	 * 
+	 */
+	public static Connection openRdbmsConnection(String dbConnection) throws SQLException {
 		String dbUser = SysConfig.getDbUserAsString();
 		String dbPassword = SysConfig.getDbPasswordAsString();
    		Connection result = DriverManager.getConnection(dbConnection, dbUser, dbPassword);
@@ -0,0 +1,539 @@
+/*
+ * Copyright (c) 2006-2009 by Dirk Riehle, http://dirkriehle.com
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package org.wahlzeit.services;
+
+import java.sql.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.locks.*;
+
+import org.wahlzeit.utils.patterns.Pattern;
+import org.wahlzeit.utils.patterns.PatternInstance;
+import org.wahlzeit.utils.patterns.PatternParticipant;
+
+/**
+ * A bounded pool of database connections.
+ * Borrowers that find the pool exhausted wait in FIFO order until a connection is returned or their timeout expires.
+ * Idle connections are validated on borrow and evicted after a configurable idle time.
+ * Connections that are borrowed for longer than the leak threshold are reported as leaked.
+ */
+@PatternInstance(pattern = Pattern.ObjectPool, role = PatternParticipant.ReusablePool)
+public class DatabaseConnectionPool {
+
+	/**
+	 * Connections returned more recently than this are handed out again without validation
+	 */
+	public static final long VALIDATION_BYPASS_MILLIS = 1000;
+
+	/**
+	 *
+	 */
+	public static final int VALIDATION_TIMEOUT_SECONDS = 2;
+
+	/**
+	 *
+	 */
+	protected String name;
+
+	/**
+	 *
+	 */
+	protected String connectionUrl;
+
+	/**
+	 *
+	 */
+	protected int maxSize;
+	protected long borrowTimeout; // in millis
+	protected long idleTimeout; // in millis
+	protected long leakThreshold; // in millis
+
+	/**
+	 *
+	 */
+	protected int dbcId = 0;
+
+	/**
+	 * Guards all pool state; waiting borrowers are queued in waitQueue to make hand-out fair
+	 */
+	protected final ReentrantLock lock = new ReentrantLock(true);
+	protected final Condition available = lock.newCondition();
+	protected final Deque<Object> waitQueue = new ArrayDeque<Object>();
+
+	/**
+	 * Most recently returned connections are at the head
+	 */
+	protected final Deque<DatabaseConnection> idleConnections = new ArrayDeque<DatabaseConnection>();
+	protected final Set<DatabaseConnection> activeConnections = new HashSet<DatabaseConnection>();
+
+	/**
+	 * Number of connections that are being opened outside the lock
+	 */
+	protected int noPendingConnections = 0;
+
+	/**
+	 *
+	 */
+	protected boolean isClosed = false;
+
+	/**
+	 * Statistics
+	 */
+	protected long noBorrows = 0;
+	protected long noWaits = 0;
+	protected long totalWaitTime = 0; // in nanos
+	protected long maxWaitTime = 0; // in nanos
+	protected long noTimeouts = 0;
+	protected long noOpened = 0;
+	protected long noEvicted = 0;
+	protected long noInvalidated = 0;
+	protected long noLeaked = 0;
+
+	/**
+	 *
+	 */
+	public DatabaseConnectionPool(String myName, String myConnectionUrl, int myMaxSize, long myBorrowTimeout, long myIdleTimeout, long myLeakThreshold) {
+		if (myMaxSize < 1) {
+			throw new IllegalArgumentException("pool size should be at least 1 but is " + myMaxSize);
+		}
+
+		name = myName;
+		connectionUrl = myConnectionUrl;
+		maxSize = myMaxSize;
+		borrowTimeout = myBorrowTimeout;
+		idleTimeout = myIdleTimeout;
+		leakThreshold = myLeakThreshold;
+	}
+
+	/**
+	 *
+	 */
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 *
+	 */
+	public String getConnectionUrl() {
+		return connectionUrl;
+	}
+
+	/**
+	 *
+	 */
+	public int getMaxSize() {
+		return maxSize;
+	}
+
+	/**
+	 * Hands out an idle connection or opens a new one if the pool is not exhausted.
+	 * Otherwise, waits in line for a returned connection until the borrow timeout expires.
+	 */
+	public DatabaseConnection borrowConnection() throws SQLException {
+		while (true) {
+			DatabaseConnection result = takeIdleOrReserve();
+			if (result == null) {
+				return openConnection();
+			} else if (isValid(result)) {
+				return result;
+			}
+
+			discardConnection(result);
+		}
+	}
+
+	/**
+	 * Either returns an idle connection (now active) or null, in which case a slot for a new connection was reserved.
+	 */
+	protected DatabaseConnection takeIdleOrReserve() throws SQLException {
+		long startTime = System.nanoTime();
+
+		lock.lock();
+		try {
+			assertIsOpen();
+			if (!waitQueue.isEmpty() || !hasCapacity()) {
+				awaitTurn();
+			}
+
+			long waitTime = System.nanoTime() - startTime;
+			noBorrows++;
+			totalWaitTime += waitTime;
+			maxWaitTime = Math.max(maxWaitTime, waitTime);
+
+			DatabaseConnection result = idleConnections.pollFirst();
+			if (result == null) {
+				noPendingConnections++;
+			} else {
+				markBorrowed(result);
+			}
+
+			return result;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Must be called with lock held; returns once this thread is at the head of the line and the pool has capacity.
+	 */
+	protected void awaitTurn() throws SQLException {
+		Object ticket = new Object();
+		waitQueue.addLast(ticket);
+		noWaits++;
+
+		try {
+			long remaining = TimeUnit.MILLISECONDS.toNanos(borrowTimeout);
+			while ((waitQueue.peekFirst() != ticket) || !hasCapacity()) {
+				assertIsOpen();
+				if (remaining <= 0) {
+					noTimeouts++;
+					throw new SQLException("timed out after " + borrowTimeout + "ms waiting for a connection of pool " + name + " (" + asStatisticsString() + ")");
+				}
+				remaining = available.awaitNanos(remaining);
+			}
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+			throw new SQLException("interrupted while waiting for a connection of pool " + name, ex);
+		} finally {
+			waitQueue.remove(ticket);
+			available.signalAll(); // next in line may be served now
+		}
+	}
+
+	/**
+	 * @methodtype assertion
+	 */
+	protected void assertIsOpen() throws SQLException {
+		if (isClosed) {
+			throw new SQLException("database connection pool " + name + " has been closed");
+		}
+	}
+
+	/**
+	 * @methodtype boolean-query
+	 */
+	protected boolean hasCapacity() {
+		return !idleConnections.isEmpty() || (getNoConnections() < maxSize);
+	}
+
+	/**
+	 *
+	 */
+	protected DatabaseConnection openConnection() throws SQLException {
+		DatabaseConnection result = null;
+		try {
+			result = createConnection(nextConnectionName());
+			SysLog.logCreatedObject("DatabaseConnection", result.getName());
+		} finally {
+			lock.lock();
+			try {
+				noPendingConnections--;
+				if (result != null) {
+					noOpened++;
+					markBorrowed(result);
+				} else {
+					available.signalAll();
+				}
+			} finally {
+				lock.unlock();
+			}
+		}
+
+		return result;
+	}
+
+	/**
+	 * @methodtype factory
+	 */
+	protected DatabaseConnection createConnection(String dbcName) throws SQLException {
+		return new DatabaseConnection(dbcName, this);
+	}
+
+	/**
+	 *
+	 */
+	protected synchronized String nextConnectionName() {
+		return name + "-dbc" + dbcId++;
+	}
+
+	/**
+	 * Must be called with lock held.
+	 */
+	protected void markBorrowed(DatabaseConnection dbc) {
+		dbc.borrowedAt = System.currentTimeMillis();
+		dbc.isReportedAsLeaked = false;
+		Session session = SessionManager.getThreadLocalSession();
+		dbc.borrowerName = ((session != null) ? session.getName() : "no-session") + "@" + Thread.currentThread().getName();
+		activeConnections.add(dbc);
+	}
+
+	/**
+	 * @methodtype boolean-query
+	 */
+	protected boolean isValid(DatabaseConnection dbc) {
+		if ((System.currentTimeMillis() - dbc.returnedAt) < VALIDATION_BYPASS_MILLIS) {
+			return dbc.isOpen();
+		}
+
+		try {
+			return dbc.getRdbmsConnection().isValid(VALIDATION_TIMEOUT_SECONDS);
+		} catch (SQLException ex) {
+			SysLog.logThrowable(ex);
+			return false;
+		}
+	}
+
+	/**
+	 *
+	 */
+	protected void discardConnection(DatabaseConnection dbc) {
+		lock.lock();
+		try {
+			activeConnections.remove(dbc);
+			noInvalidated++;
+			available.signalAll();
+		} finally {
+			lock.unlock();
+		}
+
+		SysLog.logSysInfo("discarding invalid database connection: " + dbc.getName());
+		dbc.close();
+	}
+
+	/**
+	 *
+	 */
+	public void returnConnection(DatabaseConnection dbc) {
+		if (dbc == null) {
+			SysLog.logSysError("tried to return null to database connection pool; ignoring it");
+			return;
+		}
+
+		boolean isOpen = dbc.isOpen();
+		boolean closeLater = false;
+
+		lock.lock();
+		try {
+			if (!activeConnections.remove(dbc)) {
+				SysLog.logSysError("tried to return unknown database connection " + dbc.getName() + " to pool " + name + "; ignoring it");
+				return;
+			}
+
+			if (dbc.isReportedAsLeaked) {
+				SysLog.logSysInfo("leaked database connection " + dbc.getName() + " was finally returned by " + dbc.borrowerName);
+			}
+
+			if (isClosed) {
+				isOpen = false;
+				closeLater = true;
+			} else if (isOpen) {
+				dbc.returnedAt = System.currentTimeMillis();
+				dbc.borrowerName = null;
+				idleConnections.addFirst(dbc);
+			} else {
+				SysLog.logSysError("tried to return closed database connection to pool; ignoring it");
+			}
+
+			available.signalAll();
+		} finally {
+			lock.unlock();
+		}
+
+		if (closeLater) {
+			dbc.close();
+		}
+	}
+
+	/**
+	 * Closes connections that have been idle for longer than the idle timeout.
+	 */
+	public int evictIdleConnections() {
+		List<DatabaseConnection> evicted = new ArrayList<DatabaseConnection>();
+		long now = System.currentTimeMillis();
+
+		lock.lock();
+		try {
+			// least recently returned connections are at the tail
+			while (!idleConnections.isEmpty() && ((now - idleConnections.peekLast().returnedAt) > idleTimeout)) {
+				evicted.add(idleConnections.pollLast());
+			}
+			noEvicted += evicted.size();
+		} finally {
+			lock.unlock();
+		}
+
+		for (DatabaseConnection dbc : evicted) {
+			SysLog.logSysInfo("evicting idle database connection: " + dbc.getName());
+			dbc.close();
+		}
+
+		return evicted.size();
+	}
+
+	/**
+	 * Reports (but does not reclaim) connections that have been borrowed for longer than the leak threshold.
+	 */
+	public int detectLeakedConnections() {
+		List<String> leaks = new ArrayList<String>();
+		long now = System.currentTimeMillis();
+
+		lock.lock();
+		try {
+			for (DatabaseConnection dbc : activeConnections) {
+				long borrowTime = now - dbc.borrowedAt;
+				if (!dbc.isReportedAsLeaked && (borrowTime > leakThreshold)) {
+					dbc.isReportedAsLeaked = true;
+					noLeaked++;
+					leaks.add(dbc.getName() + " held by " + dbc.borrowerName + " for " + borrowTime + "ms");
+				}
+			}
+		} finally {
+			lock.unlock();
+		}
+
+		for (String leak : leaks) {
+			SysLog.logSysError("possibly leaked database connection: " + leak);
+		}
+
+		return leaks.size();
+	}
+
+	/**
+	 * Closes all idle connections; connections still borrowed are closed when returned.
+	 */
+	public void close() {
+		List<DatabaseConnection> idle = new ArrayList<DatabaseConnection>();
+
+		lock.lock();
+		try {
+			idle.addAll(idleConnections);
+			idleConnections.clear();
+			isClosed = true;
+			available.signalAll();
+		} finally {
+			lock.unlock();
+		}
+
+		for (DatabaseConnection dbc : idle) {
+			dbc.close();
+		}
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public int getNoConnections() {
+		lock.lock();
+		try {
+			return activeConnections.size() + idleConnections.size() + noPendingConnections;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public int getNoActiveConnections() {
+		lock.lock();
+		try {
+			return activeConnections.size();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public int getNoIdleConnections() {
+		lock.lock();
+		try {
+			return idleConnections.size();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public int getNoWaiters() {
+		lock.lock();
+		try {
+			return waitQueue.size();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public long getNoTimeouts() {
+		lock.lock();
+		try {
+			return noTimeouts;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public long getNoLeaked() {
+		lock.lock();
+		try {
+			return noLeaked;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * @methodtype conversion
+	 */
+	public String asStatisticsString() {
+		lock.lock();
+		try {
+			long avgWaitMicros = (noBorrows == 0) ? 0 : (totalWaitTime / noBorrows / 1000);
+			return "pool=" + name
+				+ ", max=" + maxSize
+				+ ", active=" + activeConnections.size()
+				+ ", idle=" + idleConnections.size()
+				+ ", waiters=" + waitQueue.size()
+				+ ", borrows=" + noBorrows
+				+ ", waits=" + noWaits
+				+ ", avgWaitMicros=" + avgWaitMicros
+				+ ", maxWaitMillis=" + (maxWaitTime / 1000000)
+				+ ", timeouts=" + noTimeouts
+				+ ", opened=" + noOpened
+				+ ", evicted=" + noEvicted
+				+ ", invalidated=" + noInvalidated
+				+ ", leaked=" + noLeaked;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+}
@@ -0,0 +1,72 @@
+/*
+ * Copyright (c) 2006-2009 by Dirk Riehle, http://dirkriehle.com
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.wahlzeit.services;
+
+import java.sql.*;
+
+/**
+ * A DatabaseIdBlockAllocator reserves its blocks by atomically advancing a counter column of the globals table.
+ * The column holds the highest id reserved by any node, so nodes sharing the database never hand out the same id.
+ */
+public class DatabaseIdBlockAllocator extends IdBlockAllocator {
+	
+	/**
+	 * 
+	 */
+	protected String columnName;
+	
+	/**
+	 * @param myColumnName column of the globals table holding the highest reserved id
+	 */
+	public DatabaseIdBlockAllocator(String myName, String myColumnName, int myLastId, int myBlockSize) {
+		super(myName, myLastId, myBlockSize);
+		columnName = myColumnName;
+	}
+	
+	/**
+	 * 
+	 */
+	public String getColumnName() {
+		return columnName;
+	}
+	
+	/**
+	 * 
+	 */
+	protected int reserveBlock(int size) throws SQLException {
+		DatabaseConnection dbc = SessionManager.getDatabaseConnection();
+		PreparedStatement stmt = dbc.getReadingStatement(
+			"UPDATE globals SET " + columnName + " = " + columnName + " + ? WHERE id = 0 RETURNING " + columnName
+		);
+		stmt.setInt(1, size);
+		SysLog.logQuery(stmt);
+		ResultSet rset = stmt.executeQuery();
+		if (!rset.next()) {
+			throw new SQLException("globals row is missing, cannot reserve " + name + " ids");
+		}
+		
+		int result = rset.getInt(1);
+		SysLog.logSysInfo("reserved " + name + " ids " + (result - size + 1) + " to " + result);
+		return result;
+	}
+	
+}
@@ -0,0 +1,249 @@
+/*
+ * Copyright (c) 2006-2009 by Dirk Riehle, http://dirkriehle.com
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.wahlzeit.services;
+
+import java.sql.*;
+import java.util.*;
+import java.util.concurrent.atomic.*;
+
+/**
+ * DatabaseReplicas routes read-only queries to a set of read replicas, each with its own connection pool.
+ * Replicas are checked periodically; a replica that fails or lags behind the primary by more than the
+ * maximum lag is skipped until it recovers. Without a usable replica, reads go to the primary.
+ */
+public class DatabaseReplicas {
+	
+	/**
+	 * Lag of a replica in milliseconds; 0 if it replayed everything it received, or if it is no replica at all
+	 */
+	public static final String LAG_QUERY = "SELECT CASE WHEN pg_last_wal_receive_lsn() = pg_last_wal_replay_lsn() THEN 0 "
+		+ "ELSE COALESCE(EXTRACT(EPOCH FROM (now() - pg_last_xact_replay_timestamp())) * 1000, 0) END AS lag";
+	
+	/**
+	 * 
+	 */
+	protected List<Replica> replicas = new ArrayList<Replica>();
+	
+	/**
+	 * 
+	 */
+	protected long maxLag; // in millis
+	
+	/**
+	 * 
+	 */
+	protected AtomicInteger nextReplica = new AtomicInteger();
+	
+	/**
+	 * 
+	 */
+	protected AtomicLong noFallbacks = new AtomicLong();
+	
+	/**
+	 * 
+	 */
+	public DatabaseReplicas(long myMaxLag) {
+		maxLag = myMaxLag;
+	}
+	
+	/**
+	 * @param connectionUrls comma-separated JDBC URLs, may be empty
+	 */
+	public void addReplicas(String connectionUrls, int maxSize, long borrowTimeout, long idleTimeout, long leakThreshold) {
+		for (String url : connectionUrls.split(",")) {
+			url = url.trim();
+			if (!url.isEmpty()) {
+				String name = "replica" + replicas.size();
+				addReplica(new DatabaseConnectionPool(name, url, maxSize, borrowTimeout, idleTimeout, leakThreshold));
+				SysLog.logCreatedObject("DatabaseConnectionPool", name);
+			}
+		}
+	}
+	
+	/**
+	 * 
+	 */
+	public void addReplica(DatabaseConnectionPool pool) {
+		replicas.add(new Replica(pool));
+	}
+	
+	/**
+	 * 
+	 */
+	public boolean hasReplicas() {
+		return !replicas.isEmpty();
+	}
+	
+	/**
+	 * 
+	 */
+	public long getMaxLag() {
+		return maxLag;
+	}
+	
+	/**
+	 * 
+	 */
+	public List<DatabaseConnectionPool> getPools() {
+		List<DatabaseConnectionPool> result = new ArrayList<DatabaseConnectionPool>();
+		for (Replica replica : replicas) {
+			result.add(replica.pool);
+		}
+		return result;
+	}
+	
+	/**
+	 * @return a connection to a usable replica, taking turns, or null if there is none
+	 */
+	public DatabaseConnection borrowConnection() {
+		int noReplicas = replicas.size();
+		int start = (noReplicas == 0) ? 0 : Math.floorMod(nextReplica.getAndIncrement(), noReplicas);
+		for (int i = 0; i < noReplicas; i++) {
+			Replica replica = replicas.get((start + i) % noReplicas);
+			if (replica.isUsable(maxLag)) {
+				try {
+					return replica.pool.borrowConnection();
+				} catch (SQLException sex) {
+					replica.markFailed();
+					SysLog.logSysError("replica " + replica.pool.getName() + " failed: " + sex.getMessage());
+				}
+			}
+		}
+		
+		if (noReplicas > 0) {
+			noFallbacks.incrementAndGet();
+		}
+		
+		return null;
+	}
+	
+	/**
+	 * Measures the lag of all replicas; a replica that cannot be reached is skipped until the next check.
+	 */
+	public void checkReplicas() {
+		for (Replica replica : replicas) {
+			DatabaseConnection dbc = null;
+			try {
+				dbc = replica.pool.borrowConnection();
+				replica.markChecked(measureLag(dbc));
+			} catch (SQLException sex) {
+				replica.markFailed();
+				SysLog.logSysError("replica " + replica.pool.getName() + " failed health check: " + sex.getMessage());
+			} finally {
+				if (dbc != null) {
+					DatabaseConnection.returnDatabaseConnection(dbc);
+				}
+			}
+			
+			if (replica.isHealthy && (replica.lag > maxLag)) {
+				SysLog.logSysInfo("replica", replica.pool.getName(), "lags behind by " + replica.lag + "ms");
+			}
+		}
+	}
+	
+	/**
+	 * @return lag of the replica behind dbc in millis
+	 */
+	protected long measureLag(DatabaseConnection dbc) throws SQLException {
+		Statement stmt = dbc.getRdbmsConnection().createStatement();
+		try {
+			ResultSet rset = stmt.executeQuery(LAG_QUERY);
+			return rset.next() ? rset.getLong("lag") : 0;
+		} finally {
+			stmt.close();
+		}
+	}
+	
+	/**
+	 * 
+	 */
+	public int getNoUsableReplicas() {
+		int result = 0;
+		for (Replica replica : replicas) {
+			if (replica.isUsable(maxLag)) {
+				result++;
+			}
+		}
+		return result;
+	}
+	
+	/**
+	 * 
+	 */
+	public long getNoFallbacks() {
+		return noFallbacks.get();
+	}
+	
+	/**
+	 * 
+	 */
+	public void close() {
+		for (Replica replica : replicas) {
+			replica.pool.close();
+		}
+	}
+	
+	/**
+	 * @methodtype conversion
+	 */
+	public String asStatisticsString() {
+		if (replicas.isEmpty()) {
+			return "none, all reads go to the primary";
+		}
+		
+		StringBuffer result = new StringBuffer();
+		result.append(getNoUsableReplicas() + " of " + replicas.size() + " usable, " + getNoFallbacks() + " reads fell back to primary");
+		for (Replica replica : replicas) {
+			result.append("; " + replica.pool.getName() + ": " + (replica.isHealthy ? "lag " + replica.lag + "ms" : "down"));
+			result.append(", " + replica.pool.getNoActiveConnections() + " active");
+		}
+		return result.toString();
+	}
+	
+	/**
+	 * A replica and its health as of the last check
+	 */
+	protected static class Replica {
+		
+		protected DatabaseConnectionPool pool;
+		protected volatile boolean isHealthy = true;
+		protected volatile long lag = 0; // in millis
+		
+		protected Replica(DatabaseConnectionPool myPool) {
+			pool = myPool;
+		}
+		
+		protected boolean isUsable(long maxLag) {
+			return isHealthy && (lag <= maxLag);
+		}
+		
+		protected void markChecked(long newLag) {
+			lag = newLag;
+			isHealthy = true;
+		}
+		
+		protected void markFailed() {
+			isHealthy = false;
+		}
+	}
+	
+}
@@ -21,6 +21,7 @@
 package org.wahlzeit.services;
 
 import java.util.*;
+import java.util.concurrent.*;
 import javax.mail.internet.*;
 
 import org.wahlzeit.utils.*;
@@ -32,9 +33,9 @@ import org.wahlzeit.utils.*;
 public class EmailAddress {
 	
 	/**
-	 * 
+	 * Read without locking, possibly from several loader threads at once
 	 */
-	protected static final Map<String, EmailAddress> instances = new HashMap<String, EmailAddress>();
+	protected static final Map<String, EmailAddress> instances = new ConcurrentHashMap<String, EmailAddress>();
 	
 	/**
 	 * 
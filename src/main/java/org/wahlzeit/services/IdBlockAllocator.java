@@ -0,0 +1,168 @@
+/*
+ * Copyright (c) 2006-2009 by Dirk Riehle, http://dirkriehle.com
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.wahlzeit.services;
+
+import java.sql.*;
+import java.util.concurrent.atomic.*;
+
+/**
+ * An IdBlockAllocator hands out ids from blocks of consecutive ids reserved in advance.
+ * Taking an id from the current block is lock-free; only reserving the next block is synchronized.
+ * This class reserves blocks in memory; subclasses may reserve them in a store shared by several nodes.
+ */
+public class IdBlockAllocator {
+	
+	/**
+	 * 
+	 */
+	protected String name;
+	protected int blockSize;
+	
+	/**
+	 * Ids are handed out from next to last, both inclusive
+	 */
+	protected static class IdBlock {
+		protected final AtomicInteger next;
+		protected final int last;
+		
+		protected IdBlock(int first, int myLast) {
+			next = new AtomicInteger(first);
+			last = myLast;
+		}
+	}
+	
+	/**
+	 * 
+	 */
+	protected AtomicReference<IdBlock> currentBlock;
+	protected volatile int lastReservedId;
+	protected AtomicInteger lastAllocatedId;
+	
+	/**
+	 * @param myLastId the last id that has been allocated before, the first id handed out will be its successor
+	 */
+	public IdBlockAllocator(String myName, int myLastId, int myBlockSize) {
+		name = myName;
+		blockSize = Math.max(myBlockSize, 1);
+		lastReservedId = myLastId;
+		lastAllocatedId = new AtomicInteger(myLastId);
+		currentBlock = new AtomicReference<IdBlock>(new IdBlock(myLastId + 1, myLastId)); // empty
+	}
+	
+	/**
+	 * 
+	 */
+	public String getName() {
+		return name;
+	}
+	
+	/**
+	 * 
+	 */
+	public int getBlockSize() {
+		return blockSize;
+	}
+	
+	/**
+	 * @return the highest id handed out by this allocator
+	 */
+	public int getLastAllocatedId() {
+		return lastAllocatedId.get();
+	}
+	
+	/**
+	 * @return the highest id reserved by this allocator; no other allocator will hand out ids up to it
+	 */
+	public int getLastReservedId() {
+		return lastReservedId;
+	}
+	
+	/**
+	 * 
+	 */
+	public int getNextId() {
+		while (true) {
+			IdBlock block = currentBlock.get();
+			int result = block.next.getAndIncrement();
+			if (result <= block.last) {
+				updateLastAllocatedId(result);
+				return result;
+			}
+			
+			renewBlock(block);
+		}
+	}
+	
+	/**
+	 * Replaces the exhausted block, unless another thread already did so.
+	 */
+	protected synchronized void renewBlock(IdBlock exhausted) {
+		if (currentBlock.get() != exhausted) {
+			return;
+		}
+		
+		int last;
+		try {
+			last = reserveBlock(blockSize);
+		} catch (SQLException sex) {
+			SysLog.logThrowable(sex);
+			throw new IllegalStateException("could not reserve " + name + " ids", sex);
+		}
+		
+		lastReservedId = last;
+		currentBlock.set(new IdBlock(last - blockSize + 1, last));
+	}
+	
+	/**
+	 * Reserves size consecutive ids for use outside of this allocator, e.g. by a bulk import;
+	 * neither this nor any other allocator will hand them out.
+	 * 
+	 * @return the first id of the reserved range
+	 */
+	public synchronized int reserveRange(int size) throws SQLException {
+		int last = reserveBlock(size);
+		lastReservedId = last;
+		return last - size + 1;
+	}
+	
+	/**
+	 * @methodproperty hook
+	 * 
+	 * Reserves the next size ids, called with the allocator locked.
+	 * 
+	 * @return the last id of the reserved block
+	 */
+	protected int reserveBlock(int size) throws SQLException {
+		return lastReservedId + size;
+	}
+	
+	/**
+	 * 
+	 */
+	protected void updateLastAllocatedId(int id) {
+		int last = lastAllocatedId.get();
+		while ((id > last) && !lastAllocatedId.compareAndSet(last, id)) {
+			last = lastAllocatedId.get();
+		}
+	}
+	
+}
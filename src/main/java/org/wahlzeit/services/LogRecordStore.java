@@ -0,0 +1,228 @@
+/*
+ * Copyright (c) 2006-2009 by Dirk Riehle, http://dirkriehle.com
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.wahlzeit.services;
+
+import java.io.*;
+import java.sql.*;
+import java.util.*;
+
+/**
+ * A LogRecordStore is an embedded RecordStore that keeps each table in a RecordLog file of its own.
+ * It lets a single node run without a database server; tables are defined by a TableScript.
+ * Failures of the underlying files are passed on as SQLExceptions, like those of the JDBC backend.
+ */
+public class LogRecordStore implements RecordStore {
+	
+	/**
+	 * 
+	 */
+	protected static final String LOG_SUFFIX = ".log";
+	
+	/**
+	 * 
+	 */
+	protected File directory;
+	
+	/**
+	 * 
+	 */
+	protected Map<String, RecordLog> logs = new LinkedHashMap<String, RecordLog>();
+	
+	/**
+	 * @param isSyncing whether every write is forced to disk before it returns
+	 */
+	public LogRecordStore(File myDirectory, Collection<TableColumns> tables, boolean isSyncing) throws SQLException {
+		directory = myDirectory;
+		if (!directory.isDirectory() && !directory.mkdirs()) {
+			throw new SQLException("cannot create storage directory " + directory);
+		}
+		
+		try {
+			for (TableColumns columns : tables) {
+				File file = new File(directory, columns.getTableName() + LOG_SUFFIX);
+				logs.put(columns.getTableName(), new RecordLog(file, columns, isSyncing));
+			}
+		} catch (IOException ioex) {
+			closeQuietly();
+			throw new SQLException("cannot open storage in " + directory, ioex);
+		}
+		
+		SysLog.logSysInfo("opened storage in " + directory + ": " + asStatisticsString());
+	}
+	
+	/**
+	 * 
+	 */
+	public File getDirectory() {
+		return directory;
+	}
+	
+	/**
+	 * 
+	 */
+	public Collection<RecordLog> getLogs() {
+		return Collections.unmodifiableCollection(logs.values());
+	}
+	
+	/**
+	 * 
+	 */
+	public RecordLog getLog(String tableName) throws SQLException {
+		RecordLog result = logs.get(tableName.toLowerCase());
+		if (result == null) {
+			throw new SQLException("table " + tableName + " does not exist");
+		}
+		
+		return result;
+	}
+	
+	/**
+	 * 
+	 */
+	public TableColumns getTableColumns(String tableName) throws SQLException {
+		return getLog(tableName).getTableColumns();
+	}
+	
+	/**
+	 * 
+	 */
+	public ResultSet readRecord(String tableName, int id) throws SQLException {
+		RecordLog log = getLog(tableName);
+		try {
+			Object[] values = log.read(id);
+			return (values == null) ? null : new ResultSetRow(log.getTableColumns(), values).asResultSet();
+		} catch (IOException ioex) {
+			throw new SQLException("cannot read record " + id + " of table " + tableName, ioex);
+		}
+	}
+	
+	/**
+	 * 
+	 */
+	public void readRecords(Collection<ResultSet> result, String tableName, String columnName, Object value) throws SQLException {
+		RecordLog log = getLog(tableName);
+		try {
+			int[] ids = (columnName == null) ? log.getIds() : log.find(columnName, value);
+			Arrays.sort(ids);
+			for (int i = 0; i < ids.length; i++) {
+				Object[] values = log.read(ids[i]);
+				if (values != null) { // deleted since
+					result.add(new ResultSetRow(log.getTableColumns(), values).asResultSet());
+				}
+			}
+		} catch (IOException ioex) {
+			throw new SQLException("cannot read records of table " + tableName, ioex);
+		}
+	}
+	
+	/**
+	 * 
+	 */
+	public void writeRecords(String tableName, Map<Integer, Map<String, Object>> records) throws SQLException {
+		if (records.isEmpty()) {
+			return;
+		}
+		
+		try {
+			getLog(tableName).write(records);
+		} catch (IOException ioex) {
+			throw new SQLException("cannot write " + records.size() + " records of table " + tableName, ioex);
+		}
+	}
+	
+	/**
+	 * 
+	 */
+	public void deleteRecord(String tableName, int id) throws SQLException {
+		try {
+			getLog(tableName).delete(id);
+		} catch (IOException ioex) {
+			throw new SQLException("cannot delete record " + id + " of table " + tableName, ioex);
+		}
+	}
+	
+	/**
+	 * Compacts all logs of which at least minGarbageRatio is garbage.
+	 * 
+	 * @return number of compacted logs
+	 */
+	public int compact(double minGarbageRatio) throws SQLException {
+		int result = 0;
+		for (RecordLog log : logs.values()) {
+			if ((log.getGarbageSize() > 0) && (log.getGarbageRatio() >= minGarbageRatio)) {
+				try {
+					log.compact();
+					result++;
+				} catch (IOException ioex) {
+					throw new SQLException("cannot compact table " + log.getTableColumns().getTableName(), ioex);
+				}
+			}
+		}
+		
+		return result;
+	}
+	
+	/**
+	 * 
+	 */
+	public void close() throws SQLException {
+		IOException failure = null;
+		for (RecordLog log : logs.values()) {
+			try {
+				log.close();
+			} catch (IOException ioex) {
+				failure = ioex;
+			}
+		}
+		
+		if (failure != null) {
+			throw new SQLException("cannot close storage in " + directory, failure);
+		}
+	}
+	
+	/**
+	 * 
+	 */
+	protected void closeQuietly() {
+		try {
+			close();
+		} catch (SQLException sex) {
+			SysLog.logThrowable(sex);
+		}
+	}
+	
+	/**
+	 * 
+	 */
+	public String asStatisticsString() {
+		StringBuffer result = new StringBuffer(256);
+		for (RecordLog log : logs.values()) {
+			if (result.length() > 0) {
+				result.append("; ");
+			}
+			result.append(log.getTableColumns().getTableName()).append(": ").append(log.asStatisticsString());
+		}
+		
+		return result.toString();
+	}
+	
+}
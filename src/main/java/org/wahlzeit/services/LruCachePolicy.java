@@ -0,0 +1,88 @@
+/*
+ * Copyright (c) 2006-2009 by Dirk Riehle, http://dirkriehle.com
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.wahlzeit.services;
+
+import java.util.*;
+
+/**
+ * Evicts the least recently used evictable entry.
+ */
+public class LruCachePolicy<K> implements CachePolicy<K> {
+	
+	/**
+	 * 
+	 */
+	public static final String NAME = "lru";
+	
+	/**
+	 * Keys in access order, least recently used first
+	 */
+	protected LinkedHashMap<K, Boolean> keys = new LinkedHashMap<K, Boolean>(16, 0.75f, true);
+	
+	/**
+	 * 
+	 */
+	public void recordAccess(K key) {
+		keys.get(key);
+	}
+	
+	/**
+	 * 
+	 */
+	public void recordInsertion(K key) {
+		keys.put(key, Boolean.TRUE);
+	}
+	
+	/**
+	 * 
+	 */
+	public void recordRemoval(K key) {
+		keys.remove(key);
+	}
+	
+	/**
+	 * 
+	 */
+	public K selectVictim(Evictable<K> evictable) {
+		return selectEldest(keys, evictable);
+	}
+	
+	/**
+	 * @return the first evictable key of an access-ordered map, or null
+	 */
+	protected static <K> K selectEldest(LinkedHashMap<K, Boolean> keys, Evictable<K> evictable) {
+		for (K key : keys.keySet()) {
+			if (evictable.isEvictable(key)) {
+				return key;
+			}
+		}
+		return null;
+	}
+	
+	/**
+	 * 
+	 */
+	public String getName() {
+		return NAME;
+	}
+
+}
@@ -0,0 +1,146 @@
+/*
+ * Copyright (c) 2006-2009 by Dirk Riehle, http://dirkriehle.com
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.wahlzeit.services;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+/**
+ * Remembers keys that were recently looked up and not found, for a short time to live.
+ * Whoever creates an object for such a key must remove the key, or it stays unknown until it expires.
+ * When full, expired keys are dropped; if that does not help, all keys are.
+ */
+public class NegativeLookupCache {
+	
+	/**
+	 * 
+	 */
+	protected String name;
+	
+	/**
+	 * Expiry time by key
+	 */
+	protected ConcurrentMap<String, Long> expiries = new ConcurrentHashMap<String, Long>();
+	
+	/**
+	 * 
+	 */
+	protected long timeToLive;
+	protected int maxSize;
+	
+	/**
+	 * 
+	 */
+	protected AtomicLong noHits = new AtomicLong();
+	
+	/**
+	 * 
+	 */
+	public NegativeLookupCache(String myName, long myTimeToLive, int myMaxSize) {
+		name = myName;
+		timeToLive = myTimeToLive;
+		maxSize = myMaxSize;
+	}
+	
+	/**
+	 * @return true if key was recently not found
+	 */
+	public boolean contains(String key) {
+		Long expiry = expiries.get(key);
+		if (expiry == null) {
+			return false;
+		} else if (expiry.longValue() <= System.currentTimeMillis()) {
+			expiries.remove(key, expiry);
+			return false;
+		}
+		
+		noHits.incrementAndGet();
+		return true;
+	}
+	
+	/**
+	 * 
+	 */
+	public void add(String key) {
+		if (timeToLive <= 0) {
+			return;
+		}
+		
+		if (expiries.size() >= maxSize) {
+			purge();
+		}
+		expiries.put(key, System.currentTimeMillis() + timeToLive);
+	}
+	
+	/**
+	 * 
+	 */
+	public void remove(String key) {
+		expiries.remove(key);
+	}
+	
+	/**
+	 * 
+	 */
+	protected void purge() {
+		long now = System.currentTimeMillis();
+		for (Iterator<Map.Entry<String, Long>> i = expiries.entrySet().iterator(); i.hasNext(); ) {
+			if (i.next().getValue().longValue() <= now) {
+				i.remove();
+			}
+		}
+		
+		if (expiries.size() >= maxSize) {
+			expiries.clear();
+		}
+	}
+	
+	/**
+	 * 
+	 */
+	public void clear() {
+		expiries.clear();
+	}
+	
+	/**
+	 * @methodtype get
+	 */
+	public int size() {
+		return expiries.size();
+	}
+	
+	/**
+	 * @methodtype get
+	 */
+	public long getNoHits() {
+		return noHits.get();
+	}
+	
+	/**
+	 * 
+	 */
+	public String asStatisticsString() {
+		return name + ": " + expiries.size() + " keys, " + noHits.get() + " hits";
+	}
+
+}
@@ -0,0 +1,592 @@
+/*
+ * Copyright (c) 2006-2009 by Dirk Riehle, http://dirkriehle.com
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.wahlzeit.services;
+
+import java.lang.ref.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import java.util.concurrent.locks.*;
+
+/**
+ * A size-bounded cache of persistent objects. Once the cache grows beyond its maximum weight, the
+ * cache policy selects entries to evict; dirty objects are never evicted before they were written.
+ * Evicted objects are still held weakly, so that as long as anyone else refers to an object, looking
+ * up its key returns that same object rather than a second copy read from the database.
+ * 
+ * Hits are read without locking; they are recorded in a lossy buffer that is replayed to the cache
+ * policy under the lock later. Misses loaded through getOrLoad() are single-flight: concurrent
+ * misses on the same key share one load and hence one object.
+ */
+public class ObjectCache<K, V extends Persistent> {
+	
+	/**
+	 * 
+	 */
+	public static final long UNBOUNDED = Long.MAX_VALUE;
+	
+	/**
+	 * Buffered hits beyond which the buffer is drained, and beyond which hits are dropped
+	 */
+	protected static final int READ_BUFFER_DRAIN_THRESHOLD = 64;
+	protected static final int READ_BUFFER_MAX_SIZE = 1024;
+	
+	/**
+	 * 
+	 */
+	protected String name;
+	
+	/**
+	 * Guards everything but entries, the read buffer, and the hit and miss counters
+	 */
+	protected ReentrantLock lock = new ReentrantLock();
+	
+	/**
+	 * Modified only while holding the lock
+	 */
+	protected ConcurrentMap<K, V> entries = new ConcurrentHashMap<K, V>();
+	
+	/**
+	 * Evicted objects, for as long as they are still reachable from elsewhere
+	 */
+	protected Map<K, KeyedReference<K, V>> evicted = new HashMap<K, KeyedReference<K, V>>();
+	protected ReferenceQueue<V> evictedQueue = new ReferenceQueue<V>();
+	
+	/**
+	 * Hits not yet recorded by the cache policy
+	 */
+	protected Queue<K> readBuffer = new ConcurrentLinkedQueue<K>();
+	protected AtomicInteger readBufferSize = new AtomicInteger();
+	
+	/**
+	 * 
+	 */
+	protected SingleFlight<K, V> loads = new SingleFlight<K, V>();
+	
+	/**
+	 * 
+	 */
+	protected CachePolicy<K> policy = new LruCachePolicy<K>();
+	protected Weigher<V> weigher = new Weigher<V>();
+	
+	/**
+	 * 
+	 */
+	protected long maxWeight = UNBOUNDED;
+	protected long weight = 0;
+	
+	/**
+	 * 
+	 */
+	protected AtomicLong noHits = new AtomicLong();
+	protected AtomicLong noMisses = new AtomicLong();
+	protected long noRecoveries = 0;
+	protected long noEvictions = 0;
+	
+	/**
+	 * 
+	 */
+	protected CachePolicy.Evictable<K> evictable = new CachePolicy.Evictable<K>() {
+		public boolean isEvictable(K key) {
+			V value = entries.get(key);
+			return (value == null) || !value.isDirty();
+		}
+	};
+	
+	/**
+	 * 
+	 */
+	public ObjectCache(String myName) {
+		name = myName;
+	}
+	
+	/**
+	 * Bounds the cache and replaces its policy, keeping the current entries
+	 */
+	public void configure(long newMaxWeight, CachePolicy<K> newPolicy) {
+		lock.lock();
+		try {
+			maxWeight = newMaxWeight;
+			policy = newPolicy;
+			readBuffer.clear();
+			readBufferSize.set(0);
+			for (K key : entries.keySet()) {
+				policy.recordInsertion(key);
+			}
+			evict();
+		} finally {
+			lock.unlock();
+		}
+	}
+	
+	/**
+	 * 
+	 */
+	public void configure(long newMaxWeight, String policyName) {
+		configure(newMaxWeight, ObjectCache.<K>createPolicy(policyName, newMaxWeight));
+	}
+	
+	/**
+	 * @methodtype factory
+	 */
+	public static <K> CachePolicy<K> createPolicy(String policyName, long maxWeight) {
+		if (TinyLfuCachePolicy.NAME.equals(policyName)) {
+			return new TinyLfuCachePolicy<K>((int) Math.min(maxWeight, 1 << 24));
+		} else if (LruCachePolicy.NAME.equals(policyName)) {
+			return new LruCachePolicy<K>();
+		} else {
+			SysLog.logSysError("unknown cache policy " + policyName + ", using " + LruCachePolicy.NAME);
+			return new LruCachePolicy<K>();
+		}
+	}
+	
+	/**
+	 * @methodtype set
+	 */
+	public void setWeigher(Weigher<V> newWeigher) {
+		lock.lock();
+		try {
+			weigher = newWeigher;
+			weight = 0;
+			for (V value : entries.values()) {
+				weight += weigher.getWeight(value);
+			}
+			evict();
+		} finally {
+			lock.unlock();
+		}
+	}
+	
+	/**
+	 * @return the cached object, or null; counts as a hit or miss
+	 */
+	public V get(K key) {
+		V result = entries.get(key);
+		if (result != null) {
+			noHits.incrementAndGet();
+			recordHit(key);
+			return result;
+		}
+		
+		lock.lock();
+		try {
+			result = entries.get(key);
+			if (result == null) {
+				result = recover(key);
+				if (result != null) {
+					noRecoveries++;
+				}
+			}
+		} finally {
+			lock.unlock();
+		}
+		
+		if (result != null) {
+			noHits.incrementAndGet();
+		} else {
+			noMisses.incrementAndGet();
+		}
+		
+		return result;
+	}
+	
+	/**
+	 * Returns the cached object or, on a miss, the object loaded by loader. Concurrent misses on
+	 * the same key wait for a single load. The loaded object is cached unless the key was cached
+	 * meanwhile, in which case the cached object is returned instead.
+	 */
+	public V getOrLoad(final K key, final Loader<K, V> loader) {
+		V result = get(key);
+		if (result != null) {
+			return result;
+		}
+		
+		return loads.load(key, new Callable<V>() {
+			public V call() {
+				V cached = peek(key);
+				if (cached != null) {
+					return cached;
+				}
+				
+				V loaded = loader.load(key);
+				return (loaded != null) ? putIfAbsent(key, loaded) : null;
+			}
+		});
+	}
+	
+	/**
+	 * @return the cached object, or null; neither counts nor records an access
+	 */
+	public V peek(K key) {
+		V result = entries.get(key);
+		if (result == null) {
+			lock.lock();
+			try {
+				result = recover(key);
+			} finally {
+				lock.unlock();
+			}
+		}
+		return result;
+	}
+	
+	/**
+	 * @methodtype boolean-query
+	 */
+	public boolean containsKey(K key) {
+		return peek(key) != null;
+	}
+	
+	/**
+	 * 
+	 */
+	public void put(K key, V value) {
+		lock.lock();
+		try {
+			doPut(key, value);
+		} finally {
+			lock.unlock();
+		}
+	}
+	
+	/**
+	 * @return the object cached for key, which is value if there was none
+	 */
+	public V putIfAbsent(K key, V value) {
+		lock.lock();
+		try {
+			V result = entries.get(key);
+			if (result == null) {
+				result = recover(key);
+			}
+			if (result == null) {
+				doPut(key, value);
+				result = value;
+			}
+			return result;
+		} finally {
+			lock.unlock();
+		}
+	}
+	
+	/**
+	 * 
+	 */
+	public V remove(K key) {
+		lock.lock();
+		try {
+			evicted.remove(key);
+			V result = entries.remove(key);
+			if (result != null) {
+				weight -= weigher.getWeight(result);
+				policy.recordRemoval(key);
+			}
+			return result;
+		} finally {
+			lock.unlock();
+		}
+	}
+	
+	/**
+	 * @return the cached objects, including evicted ones still in use; a copy
+	 */
+	public Collection<V> values() {
+		lock.lock();
+		try {
+			purgeEvicted();
+			List<V> result = new ArrayList<V>(entries.values());
+			for (KeyedReference<K, V> reference : evicted.values()) {
+				V value = reference.get();
+				if (value != null) {
+					result.add(value);
+				}
+			}
+			return result;
+		} finally {
+			lock.unlock();
+		}
+	}
+	
+	/**
+	 * 
+	 */
+	public void clear() {
+		lock.lock();
+		try {
+			entries.clear();
+			evicted.clear();
+			readBuffer.clear();
+			readBufferSize.set(0);
+			weight = 0;
+			policy = ObjectCache.<K>createPolicy(policy.getName(), maxWeight);
+		} finally {
+			lock.unlock();
+		}
+	}
+	
+	/**
+	 * @methodproperties primitive
+	 */
+	protected void doPut(K key, V value) {
+		drainReadBuffer();
+		evicted.remove(key);
+		V previous = entries.put(key, value);
+		if (previous != null) {
+			weight -= weigher.getWeight(previous);
+			policy.recordAccess(key);
+		} else {
+			policy.recordInsertion(key);
+		}
+		
+		weight += weigher.getWeight(value);
+		evict();
+	}
+	
+	/**
+	 * Buffers a hit; whoever finds the buffer full enough and the lock free replays it.
+	 */
+	protected void recordHit(K key) {
+		if (readBufferSize.get() < READ_BUFFER_MAX_SIZE) {
+			readBuffer.offer(key);
+			readBufferSize.incrementAndGet();
+		}
+		
+		if ((readBufferSize.get() >= READ_BUFFER_DRAIN_THRESHOLD) && lock.tryLock()) {
+			try {
+				drainReadBuffer();
+			} finally {
+				lock.unlock();
+			}
+		}
+	}
+	
+	/**
+	 * Replays buffered hits to the cache policy; requires the lock
+	 */
+	protected void drainReadBuffer() {
+		for (K key = readBuffer.poll(); key != null; key = readBuffer.poll()) {
+			readBufferSize.decrementAndGet();
+			if (entries.containsKey(key)) {
+				policy.recordAccess(key);
+			}
+		}
+	}
+	
+	/**
+	 * Evicts entries until the cache is within its bounds or only dirty entries remain.
+	 * Pinned dirty entries may hold the cache above its bounds until they were written;
+	 * the next insertion evicts them then. Requires the lock.
+	 */
+	protected void evict() {
+		purgeEvicted();
+		while (weight > maxWeight) {
+			K victim = policy.selectVictim(evictable);
+			if (victim == null) {
+				return;
+			}
+			
+			V value = entries.remove(victim);
+			policy.recordRemoval(victim);
+			weight -= weigher.getWeight(value);
+			evicted.put(victim, new KeyedReference<K, V>(victim, value, evictedQueue));
+			noEvictions++;
+		}
+	}
+	
+	/**
+	 * Moves an evicted object that is still in use back into the cache; requires the lock
+	 */
+	protected V recover(K key) {
+		KeyedReference<K, V> reference = evicted.get(key);
+		V result = (reference != null) ? reference.get() : null;
+		if (result != null) {
+			doPut(key, result);
+		}
+		return result;
+	}
+	
+	/**
+	 * Requires the lock
+	 */
+	@SuppressWarnings("unchecked")
+	protected void purgeEvicted() {
+		for (Reference<? extends V> ref = evictedQueue.poll(); ref != null; ref = evictedQueue.poll()) {
+			KeyedReference<K, V> reference = (KeyedReference<K, V>) ref;
+			if (evicted.get(reference.key) == reference) {
+				evicted.remove(reference.key);
+			}
+		}
+	}
+	
+	/**
+	 * @methodtype get
+	 */
+	public int size() {
+		return entries.size();
+	}
+	
+	/**
+	 * @methodtype get
+	 */
+	public long getWeight() {
+		lock.lock();
+		try {
+			return weight;
+		} finally {
+			lock.unlock();
+		}
+	}
+	
+	/**
+	 * @methodtype get
+	 */
+	public long getMaxWeight() {
+		lock.lock();
+		try {
+			return maxWeight;
+		} finally {
+			lock.unlock();
+		}
+	}
+	
+	/**
+	 * @methodtype get
+	 */
+	public CachePolicy<K> getPolicy() {
+		lock.lock();
+		try {
+			return policy;
+		} finally {
+			lock.unlock();
+		}
+	}
+	
+	/**
+	 * @methodtype get
+	 */
+	public long getNoHits() {
+		return noHits.get();
+	}
+	
+	/**
+	 * @methodtype get
+	 */
+	public long getNoMisses() {
+		return noMisses.get();
+	}
+	
+	/**
+	 * @methodtype get
+	 */
+	public long getNoRecoveries() {
+		lock.lock();
+		try {
+			return noRecoveries;
+		} finally {
+			lock.unlock();
+		}
+	}
+	
+	/**
+	 * @methodtype get
+	 */
+	public long getNoEvictions() {
+		lock.lock();
+		try {
+			return noEvictions;
+		} finally {
+			lock.unlock();
+		}
+	}
+	
+	/**
+	 * @methodtype get
+	 */
+	public SingleFlight<K, V> getLoads() {
+		return loads;
+	}
+	
+	/**
+	 * 
+	 */
+	public String asStatisticsString() {
+		lock.lock();
+		try {
+			long hits = noHits.get();
+			long lookups = hits + noMisses.get();
+			long hitRate = (lookups == 0) ? 0 : (100 * hits / lookups);
+			String bound = (maxWeight == UNBOUNDED) ? "unbounded" : String.valueOf(maxWeight);
+			return name + ": " + entries.size() + " entries, weight " + weight + " of " + bound + " (" + policy.getName() + "), "
+				+ hits + " hits (" + hitRate + "%), " + noMisses.get() + " misses, " + noRecoveries + " recovered, " + noEvictions + " evicted, "
+				+ loads.getNoLoads() + " loads, " + loads.getNoSharedLoads() + " shared";
+		} finally {
+			lock.unlock();
+		}
+	}
+	
+	/**
+	 * Loads an object on a cache miss; returns null if there is none
+	 */
+	public interface Loader<K, V> {
+		
+		/**
+		 * 
+		 */
+		public V load(K key);
+		
+	}
+	
+	/**
+	 * Weighs a cached object; by default, every object weighs one
+	 */
+	public static class Weigher<V> {
+		
+		/**
+		 * 
+		 */
+		public long getWeight(V value) {
+			return 1;
+		}
+		
+	}
+	
+	/**
+	 * 
+	 */
+	protected static class KeyedReference<K, V> extends WeakReference<V> {
+		
+		/**
+		 * 
+		 */
+		protected K key;
+		
+		/**
+		 * 
+		 */
+		public KeyedReference(K myKey, V value, ReferenceQueue<V> queue) {
+			super(value, queue);
+			key = myKey;
+		}
+		
+	}
+
+}
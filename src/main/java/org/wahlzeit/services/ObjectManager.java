@@ -6,8 +6,10 @@
 
 package org.wahlzeit.services;
 
+import java.lang.reflect.*;
 import java.sql.*;
 import java.util.*;
+import java.util.concurrent.*;
 
 /**
  * An ObjectManager creates/reads/updates/deletes Persistent (objects) from a database.
@@ -15,6 +17,56 @@ import java.util.*;
  */
 public abstract class ObjectManager {
 	
+	/**
+	 * Column snapshots of the tables written in batches, by table name
+	 */
+	protected Map<String, TableColumns> tableColumns = new ConcurrentHashMap<String, TableColumns>();
+	
+	/**
+	 * Store that managers created from now on use instead of the database, see setDefaultRecordStore()
+	 */
+	protected static RecordStore defaultRecordStore = null;
+	
+	/**
+	 * Embedded storage backend; objects are read and written through JDBC if null
+	 */
+	protected RecordStore recordStore = defaultRecordStore;
+	
+	/**
+	 * Managers are singletons that may load objects when they are created, so the store must be set before.
+	 */
+	public static void setDefaultRecordStore(RecordStore newRecordStore) {
+		defaultRecordStore = newRecordStore;
+	}
+	
+	/**
+	 * 
+	 */
+	public static RecordStore getDefaultRecordStore() {
+		return defaultRecordStore;
+	}
+	
+	/**
+	 * 
+	 */
+	public RecordStore getRecordStore() {
+		return recordStore;
+	}
+	
+	/**
+	 * 
+	 */
+	public void setRecordStore(RecordStore newRecordStore) {
+		recordStore = newRecordStore;
+	}
+	
+	/**
+	 * @methodtype boolean-query
+	 */
+	public boolean hasRecordStore() {
+		return recordStore != null;
+	}
+	
 	/**
 	 * All objects are now saved under this root key. In case of multi-tenancy this may change to several keys.
 	 */
@@ -26,6 +78,10 @@ public abstract class ObjectManager {
 	 * 
 	 */
 	protected PreparedStatement getReadingStatement(String stmt) throws SQLException {
+		if (!isQuery(stmt)) {
+			recordWrite();
+		}
+		
     	DatabaseConnection dbc = getDatabaseConnection();
     	return dbc.getReadingStatement(stmt);
 	}
@@ -34,10 +90,44 @@ public abstract class ObjectManager {
 	 * 
 	 */
 	protected PreparedStatement getUpdatingStatement(String stmt) throws SQLException {
+		recordWrite();
     	DatabaseConnection dbc = getDatabaseConnection();
     	return dbc.getUpdatingStatement(stmt);
 	}
 	
+	/**
+	 * For read-only queries that may see data a little behind the primary, see DatabaseReplicas.
+	 * Sessions that wrote within the maximum replica lag keep reading from the primary.
+	 */
+	protected PreparedStatement getReplicaReadingStatement(String stmt) throws SQLException {
+		DatabaseConnection dbc = getReplicaDatabaseConnection();
+		return dbc.getReadingStatement(stmt);
+	}
+	
+	/**
+	 * 
+	 */
+	public DatabaseConnection getReplicaDatabaseConnection() throws SQLException {
+		return SessionManager.getReplicaDatabaseConnection();
+	}
+	
+	/**
+	 * 
+	 */
+	protected void recordWrite() {
+		Session session = SessionManager.getThreadLocalSession();
+		if (session != null) {
+			session.recordWrite();
+		}
+	}
+	
+	/**
+	 * 
+	 */
+	protected static boolean isQuery(String stmt) {
+		return stmt.regionMatches(true, 0, "SELECT", 0, 6);
+	}
+	
 	/**
 	 * 
 	 */
@@ -68,6 +158,75 @@ public abstract class ObjectManager {
 		return result;
 	}
 	
+	/**
+	 * @return the object of the record of id in tableName of the record store, or null if there is none
+	 */
+	protected Persistent readRecord(String tableName, int id) throws SQLException {
+		ResultSet rset = recordStore.readRecord(tableName, id);
+		return (rset == null) ? null : createObject(rset);
+	}
+	
+	/**
+	 * Adds the objects of all records of tableName whose columnName equals value; of all records if columnName is null.
+	 */
+	protected void readRecords(Collection result, String tableName, String columnName, Object value) throws SQLException {
+		List<ResultSet> rows = new ArrayList<ResultSet>();
+		recordStore.readRecords(rows, tableName, columnName, value);
+		for (ResultSet rset : rows) {
+			result.add(createObject(rset));
+		}
+	}
+	
+	/**
+	 * Writes all objects of coll to tableName of the record store, whether dirty or not, as one write.
+	 */
+	protected void writeRecords(Collection coll, String tableName) throws SQLException {
+		ColumnValueRecorder recorder = new ColumnValueRecorder(recordStore.getTableColumns(tableName));
+		Map<Integer, Map<String, Object>> records = new LinkedHashMap<Integer, Map<String, Object>>();
+		for (Iterator i = coll.iterator(); i.hasNext(); ) {
+			Persistent obj = (Persistent) i.next();
+			recorder.record(obj);
+			records.put(getRecordId(obj), recorder.getValues());
+		}
+		
+		recordStore.writeRecords(tableName, records);
+	}
+	
+	/**
+	 * Writes the dirty objects of coll to the record store, resetting their write counts afterwards.
+	 */
+	protected void updateRecords(Collection coll, String tableName) throws SQLException {
+		List<Persistent> dirtyObjects = new ArrayList<Persistent>();
+		for (Iterator i = coll.iterator(); i.hasNext(); ) {
+			Persistent obj = (Persistent) i.next();
+			if (obj.isDirty()) {
+				dirtyObjects.add(obj);
+			}
+		}
+		
+		if (!dirtyObjects.isEmpty()) {
+			writeRecords(dirtyObjects, tableName);
+			for (Persistent obj : dirtyObjects) {
+				obj.resetWriteCount();
+				didUpdateObject(obj);
+			}
+		}
+	}
+	
+	/**
+	 * 
+	 */
+	protected void deleteRecord(Persistent obj, String tableName) throws SQLException {
+		recordStore.deleteRecord(tableName, getRecordId(obj));
+	}
+	
+	/**
+	 * Records are keyed by the integer ids that all Persistents of this application have
+	 */
+	protected static int getRecordId(Persistent obj) {
+		return Integer.parseInt(obj.getIdAsString());
+	}
+	
 	/**
 	 * 
 	 */
@@ -93,6 +252,188 @@ public abstract class ObjectManager {
 		}
 	}
 		
+	/**
+	 * Streams all rows of query into result, using the configured fetch size and worker threads.
+	 */
+	protected void readObjectsStreaming(Collection result, String query, String tableName) throws SQLException {
+		readObjectsStreaming(result, query, tableName, SysConfig.getDbLoadFetchSizeAsInt(), SysConfig.getDbLoadThreadsAsInt());
+	}
+	
+	/**
+	 * Prepares a forward-only statement for a cursor read, timed like those of DatabaseConnection
+	 */
+	protected PreparedStatement prepareStreamingStatement(Connection conn, String query) throws SQLException {
+		PreparedStatement result = conn.prepareStatement(query, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+		return QueryStatistics.getInstance().instrument(result, query);
+	}
+	
+	/**
+	 * Reads the rows of query through a server-side cursor that fetches fetchSize rows per round trip,
+	 * rather than the whole table before the first row. If objects can be created concurrently, rows are
+	 * copied in chunks of fetchSize and handed to noThreads workers while the next rows are still arriving.
+	 * Objects are added to result in row order; at most two chunks per worker are held in memory.
+	 */
+	protected void readObjectsStreaming(Collection result, String query, String tableName, int fetchSize, int noThreads) throws SQLException {
+		long startTime = System.currentTimeMillis();
+		long peakMemory = getUsedMemory();
+		int noRows = 0;
+		
+		noThreads = canCreateObjectsConcurrently() ? Math.max(Math.min(noThreads, Runtime.getRuntime().availableProcessors()), 1) : 1;
+		ExecutorService workers = (noThreads > 1) ? Executors.newFixedThreadPool(noThreads, new LoaderThreadFactory(tableName)) : null;
+		Deque<Future<List<Persistent>>> pendingChunks = new ArrayDeque<Future<List<Persistent>>>();
+
+		Connection conn = getDatabaseConnection().getRdbmsConnection();
+		boolean wasAutoCommit = conn.getAutoCommit();
+		conn.setAutoCommit(false); // PostgreSQL only uses a cursor within a transaction
+		PreparedStatement stmt = prepareStreamingStatement(conn, query);
+		try {
+			stmt.setFetchSize(fetchSize);
+			SysLog.logQuery(stmt);
+			ResultSet rset = stmt.executeQuery();
+			TableColumns columns = new TableColumns(tableName, rset.getMetaData());
+			
+			List<ResultSetRow> chunk = new ArrayList<ResultSetRow>(fetchSize);
+			while (rset.next()) {
+				noRows++;
+				if (workers == null) {
+					result.add(createObject(rset));
+				} else {
+					chunk.add(ResultSetRow.copyOf(rset, columns));
+					if (chunk.size() >= fetchSize) {
+						pendingChunks.addLast(workers.submit(new ChunkCreator(chunk)));
+						chunk = new ArrayList<ResultSetRow>(fetchSize);
+						while (pendingChunks.size() > (2 * noThreads)) {
+							result.addAll(awaitChunk(pendingChunks.removeFirst()));
+						}
+					}
+				}
+				
+				if ((noRows % fetchSize) == 0) {
+					peakMemory = Math.max(peakMemory, getUsedMemory());
+				}
+			}
+			
+			if ((workers != null) && !chunk.isEmpty()) {
+				pendingChunks.addLast(workers.submit(new ChunkCreator(chunk)));
+			}
+			while (!pendingChunks.isEmpty()) {
+				result.addAll(awaitChunk(pendingChunks.removeFirst()));
+			}
+			
+			rset.close();
+			conn.commit();
+		} catch (SQLException | RuntimeException ex) {
+			conn.rollback();
+			throw ex;
+		} finally {
+			if (workers != null) {
+				workers.shutdownNow();
+			}
+			stmt.close();
+			conn.setAutoCommit(wasAutoCommit);
+		}
+		
+		peakMemory = Math.max(peakMemory, getUsedMemory());
+		long duration = Math.max(System.currentTimeMillis() - startTime, 1);
+		long throughput = noRows * 1000L / duration;
+		SysLog.logSysInfo("table", tableName, "loaded " + noRows + " rows in " + duration + "ms (" + throughput + " rows/s, "
+				+ noThreads + " threads, peak heap " + (peakMemory / (1024 * 1024)) + "MB)");
+	}
+	
+	/**
+	 * @methodproperty hook
+	 * 
+	 * Whether createObject() may run on loader threads, i.e. needs neither the session nor its database connection.
+	 */
+	protected boolean canCreateObjectsConcurrently() {
+		return false;
+	}
+	
+	/**
+	 * 
+	 */
+	protected List<Persistent> awaitChunk(Future<List<Persistent>> chunk) throws SQLException {
+		try {
+			return chunk.get();
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+			throw new SQLException("interrupted while loading objects", ex);
+		} catch (ExecutionException ex) {
+			Throwable cause = ex.getCause();
+			if (cause instanceof SQLException) {
+				throw (SQLException) cause;
+			} else if (cause instanceof RuntimeException) {
+				throw (RuntimeException) cause;
+			}
+			throw new SQLException("failed to create objects", cause);
+		}
+	}
+	
+	/**
+	 * 
+	 */
+	protected static long getUsedMemory() {
+		Runtime runtime = Runtime.getRuntime();
+		return runtime.totalMemory() - runtime.freeMemory();
+	}
+	
+	/**
+	 * Creates the objects of a chunk of copied rows on a loader thread
+	 */
+	protected class ChunkCreator implements Callable<List<Persistent>> {
+		
+		/**
+		 * 
+		 */
+		protected List<ResultSetRow> rows;
+		
+		/**
+		 * 
+		 */
+		public ChunkCreator(List<ResultSetRow> myRows) {
+			rows = myRows;
+		}
+		
+		/**
+		 * 
+		 */
+		public List<Persistent> call() throws SQLException {
+			List<Persistent> result = new ArrayList<Persistent>(rows.size());
+			for (ResultSetRow row : rows) {
+				result.add(createObject(row.asResultSet()));
+			}
+			return result;
+		}
+	}
+	
+	/**
+	 * Names loader threads after the table and makes sure they do not keep the VM alive
+	 */
+	protected static class LoaderThreadFactory implements ThreadFactory {
+		
+		/**
+		 * 
+		 */
+		protected String tableName;
+		protected int noThreads = 0;
+		
+		/**
+		 * 
+		 */
+		public LoaderThreadFactory(String myTableName) {
+			tableName = myTableName;
+		}
+		
+		/**
+		 * 
+		 */
+		public synchronized Thread newThread(Runnable runnable) {
+			Thread result = new Thread(runnable, "loader-" + tableName + "-" + (++noThreads));
+			result.setDaemon(true);
+			return result;
+		}
+	}
+	
 	/**
 	 * 
 	 */
@@ -125,10 +466,11 @@ public abstract class ObjectManager {
 			SysLog.logQuery(stmt);
 			ResultSet rset = stmt.executeQuery();
 			if (rset.next()) {
-				obj.writeOn(rset);
+				obj.writeOn(skipColumns(rset, getDeltaColumns(obj)));
 				rset.updateRow();
 				updateDependents(obj);
 				obj.resetWriteCount();
+				didUpdateObject(obj);
 			} else {
 				SysLog.logSysError("trying to update non-existent object: " + obj.getIdAsString() + "(" + obj.toString() + ")");
 			}
@@ -145,6 +487,156 @@ public abstract class ObjectManager {
 		}
 	}
 	
+	/**
+	 * Saves all dirty objects of coll to tableName, using the record store or JDBC batches if configured.
+	 * Falls back to updateObjects() if batching is switched off or fails.
+	 */
+	protected void saveObjects(Collection coll, String tableName) throws SQLException {
+		if (hasRecordStore()) {
+			updateRecords(coll, tableName);
+			return;
+		}
+		
+		if (SysConfig.isDbBatchUpdates()) {
+			try {
+				updateObjectsInBatches(coll, tableName, SysConfig.getDbBatchSizeAsInt());
+				return;
+			} catch (SQLException sex) {
+				SysLog.logThrowable(sex);
+				SysLog.logSysInfo("table", tableName, "batch update failed; falling back to row-wise updates");
+			}
+		}
+		
+		PreparedStatement stmt = getUpdatingStatement("SELECT * FROM " + tableName + " WHERE id = ?");
+		updateObjects(coll, stmt);
+	}
+	
+	/**
+	 * Writes all dirty objects of coll with parameterized UPDATE statements in chunks of batchSize rows.
+	 * All chunks and dependents are written in one transaction; write counts are only reset after commit.
+	 */
+	protected void updateObjectsInBatches(Collection coll, String tableName, int batchSize) throws SQLException {
+		List<Persistent> dirtyObjects = new ArrayList<Persistent>();
+		for (Iterator i = coll.iterator(); i.hasNext(); ) {
+			Persistent obj = (Persistent) i.next();
+			if (obj.isDirty()) {
+				dirtyObjects.add(obj);
+			}
+		}
+		
+		if (dirtyObjects.isEmpty()) {
+			return;
+		}
+		
+		long startTime = System.currentTimeMillis();
+
+		recordWrite();
+		Connection conn = getDatabaseConnection().getRdbmsConnection();
+		boolean wasAutoCommit = conn.getAutoCommit();
+		conn.setAutoCommit(false);
+		try {
+			TableColumns columns = getTableColumns(conn, tableName);
+			ColumnValueRecorder recorder = new ColumnValueRecorder(columns);
+			for (int start = 0; start < dirtyObjects.size(); start += batchSize) {
+				int end = Math.min(start + batchSize, dirtyObjects.size());
+				updateObjectsInBatch(dirtyObjects.subList(start, end), recorder);
+			}
+			updateDependents(dirtyObjects);
+			conn.commit();
+		} catch (SQLException | RuntimeException ex) {
+			conn.rollback();
+			throw ex;
+		} finally {
+			conn.setAutoCommit(wasAutoCommit);
+		}
+		
+		for (Persistent obj : dirtyObjects) {
+			obj.resetWriteCount();
+			didUpdateObject(obj);
+		}
+
+		long duration = Math.max(System.currentTimeMillis() - startTime, 1);
+		long throughput = dirtyObjects.size() * 1000L / duration;
+		SysLog.logSysInfo("table", tableName, "saved " + dirtyObjects.size() + " objects in " + duration + "ms (" + throughput + " objects/s)");
+	}
+	
+	/**
+	 * Objects may write different sets of columns, so each chunk is grouped by resulting UPDATE statement.
+	 */
+	protected void updateObjectsInBatch(List<Persistent> objects, ColumnValueRecorder recorder) throws SQLException {
+		Map<String, List<Persistent>> batches = new LinkedHashMap<String, List<Persistent>>();
+		try {
+			for (Persistent obj : objects) {
+				recorder.record(obj);
+				recorder.removeValues(getDeltaColumns(obj));
+				String query = recorder.asUpdateStatement();
+				List<Persistent> batch = batches.get(query);
+				if (batch == null) {
+					batch = new ArrayList<Persistent>();
+					batches.put(query, batch);
+				}
+				batch.add(obj);
+
+				PreparedStatement stmt = getReadingStatement(query);
+				recorder.bindOn(stmt, obj);
+				stmt.addBatch();
+			}
+			
+			for (Map.Entry<String, List<Persistent>> entry : batches.entrySet()) {
+				PreparedStatement stmt = getReadingStatement(entry.getKey());
+				SysLog.logQuery(entry.getKey() + " [batch of " + entry.getValue().size() + "]");
+				int[] updateCounts = stmt.executeBatch();
+				for (int i = 0; i < updateCounts.length; i++) {
+					if (updateCounts[i] == 0) {
+						Persistent obj = entry.getValue().get(i);
+						SysLog.logSysError("trying to update non-existent object: " + obj.getIdAsString() + "(" + obj.toString() + ")");
+					}
+				}
+			}
+		} catch (SQLException | RuntimeException ex) {
+			// statements are cached, so they must not keep rows of a failed batch
+			for (String query : batches.keySet()) {
+				getReadingStatement(query).clearBatch();
+			}
+			throw ex;
+		}
+	}
+	
+	/**
+	 * @return the columns of tableName in the record store or database
+	 */
+	public TableColumns getTableColumns(String tableName) throws SQLException {
+		if (hasRecordStore()) {
+			return recordStore.getTableColumns(tableName);
+		}
+		
+		return getTableColumns(getDatabaseConnection().getRdbmsConnection(), tableName);
+	}
+	
+	/**
+	 * 
+	 */
+	protected TableColumns getTableColumns(Connection conn, String tableName) throws SQLException {
+		TableColumns result = tableColumns.get(tableName);
+		if (result == null) {
+			result = TableColumns.readFrom(conn, tableName);
+			tableColumns.put(tableName, result);
+		}
+		
+		return result;
+	}
+	
+	/**
+	 * @methodproperty hook
+	 * 
+	 * Updates the dependents of objects written in a batch; by default one by one.
+	 */
+	protected void updateDependents(Collection<Persistent> objects) throws SQLException {
+		for (Persistent obj : objects) {
+			updateDependents(obj);
+		}
+	}
+	
 	/**
 	 * 
 	 */
@@ -152,6 +644,52 @@ public abstract class ObjectManager {
 		// do nothing
 	}
 	
+	/**
+	 * @methodproperty hook
+	 * 
+	 * Columns that JDBC updates of obj leave alone, as other statements add to them; lowercase labels.
+	 * Records written to the record store and snapshots still hold them.
+	 */
+	protected Set<String> getDeltaColumns(Persistent obj) {
+		return Collections.emptySet();
+	}
+	
+	/**
+	 * @return rset, ignoring updates of the columns labeled skipped
+	 */
+	protected ResultSet skipColumns(final ResultSet rset, final Set<String> skipped) {
+		if (skipped.isEmpty()) {
+			return rset;
+		}
+		
+		InvocationHandler handler = new InvocationHandler() {
+			public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+				if (method.getName().startsWith("update") && (args != null) && (args[0] instanceof String)) {
+					if (skipped.contains(((String) args[0]).toLowerCase())) {
+						return null;
+					}
+				}
+				
+				try {
+					return method.invoke(rset, args);
+				} catch (InvocationTargetException itex) {
+					throw itex.getCause();
+				}
+			}
+		};
+		
+		return (ResultSet) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] { ResultSet.class }, handler);
+	}
+	
+	/**
+	 * @methodproperty hook
+	 * 
+	 * Called once obj and its dependents have been written durably, i.e. after commit in batch mode.
+	 */
+	protected void didUpdateObject(Persistent obj) {
+		// do nothing
+	}
+	
 	/**
 	 * 
 	 */
@@ -0,0 +1,113 @@
+/*
+ * Copyright (c) 2006-2009 by Dirk Riehle, http://dirkriehle.com
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package org.wahlzeit.services;
+
+import java.sql.*;
+import java.util.*;
+import java.util.regex.*;
+
+/**
+ * A QueryPlanCheck asks PostgreSQL for the plans of frequent queries and reports those that scan a table
+ * sequentially. Sequential scans are disabled while planning, so that a query on a small table still
+ * uses an index if one fits; any sequential scan left in a plan hence points to a missing index.
+ */
+public class QueryPlanCheck {
+	
+	/**
+	 * 
+	 */
+	protected static final Pattern SEQ_SCAN = Pattern.compile("Seq Scan on (\\w+)");
+	
+	/**
+	 * Queries with sample arguments, in order of addition
+	 */
+	protected Map<String, Object[]> queries = new LinkedHashMap<String, Object[]>();
+	
+	/**
+	 * 
+	 */
+	public QueryPlanCheck() {
+		// do nothing
+	}
+	
+	/**
+	 * @param args sample arguments for the query's parameters; their values do not matter, their types do
+	 */
+	public void addQuery(String query, Object... args) {
+		queries.put(query, args);
+	}
+	
+	/**
+	 * @return a report per sequentially scanned table of each query, empty if all queries use indexes
+	 */
+	public List<String> check(Connection conn) throws SQLException {
+		List<String> result = new ArrayList<String>();
+		Statement stmt = conn.createStatement();
+		try {
+			stmt.execute("SET enable_seqscan = off");
+			for (Map.Entry<String, Object[]> query : queries.entrySet()) {
+				for (String tableName : getScannedTables(conn, query.getKey(), query.getValue())) {
+					result.add("sequential scan on " + tableName + " in: " + query.getKey());
+				}
+			}
+		} finally {
+			stmt.execute("RESET enable_seqscan");
+			stmt.close();
+		}
+		
+		return result;
+	}
+	
+	/**
+	 * @return the tables the query's plan scans sequentially
+	 */
+	protected Set<String> getScannedTables(Connection conn, String query, Object[] args) throws SQLException {
+		Set<String> result = new LinkedHashSet<String>();
+		PreparedStatement stmt = conn.prepareStatement("EXPLAIN " + query);
+		try {
+			for (int i = 0; i < args.length; i++) {
+				stmt.setObject(i + 1, args[i]);
+			}
+			
+			ResultSet rset = stmt.executeQuery();
+			while (rset.next()) {
+				result.addAll(getScannedTables(rset.getString(1)));
+			}
+		} finally {
+			stmt.close();
+		}
+		
+		return result;
+	}
+	
+	/**
+	 * @return the tables a line of a plan scans sequentially
+	 */
+	public static Set<String> getScannedTables(String planLine) {
+		Set<String> result = new LinkedHashSet<String>();
+		Matcher matcher = SEQ_SCAN.matcher(planLine);
+		while (matcher.find()) {
+			result.add(matcher.group(1));
+		}
+		return result;
+	}
+	
+}
@@ -0,0 +1,326 @@
+/*
+ * Copyright (c) 2006-2009 by Dirk Riehle, http://dirkriehle.com
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.wahlzeit.services;
+
+import java.lang.reflect.*;
+import java.sql.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * QueryStatistics times the statements handed out by DatabaseConnection, per normalized SQL text.
+ * Statements are wrapped in a proxy that times every execution and counts the rows read or written.
+ * Executions slower than the slow query threshold are logged and kept for the admin page.
+ */
+public class QueryStatistics {
+	
+	/**
+	 * 
+	 */
+	public static final int MAX_SLOW_QUERIES = 20;
+	
+	/**
+	 * 
+	 */
+	protected static final QueryStatistics instance = new QueryStatistics();
+	
+	/**
+	 * 
+	 */
+	public static QueryStatistics getInstance() {
+		return instance;
+	}
+	
+	/**
+	 * 
+	 */
+	protected volatile boolean isEnabled = true;
+	protected volatile long slowQueryThreshold = 250 * 1000000L; // in nanoseconds
+	
+	/**
+	 * 
+	 */
+	protected ConcurrentMap<String, QueryTiming> timings = new ConcurrentHashMap<String, QueryTiming>();
+	
+	/**
+	 * Most recent slow queries, newest first, guarded by itself
+	 */
+	protected Deque<String> slowQueries = new ArrayDeque<String>();
+	protected long noSlowQueries = 0;
+	
+	/**
+	 * 
+	 */
+	protected QueryStatistics() {
+		// do nothing
+	}
+	
+	/**
+	 * 
+	 */
+	public void setEnabled(boolean enabled) {
+		isEnabled = enabled;
+	}
+	
+	/**
+	 * 
+	 */
+	public void setSlowQueryThreshold(long millis) {
+		slowQueryThreshold = millis * 1000000L;
+	}
+	
+	/**
+	 * @return stmt wrapped to record its executions under the normalized sql, or stmt itself if disabled
+	 */
+	public PreparedStatement instrument(PreparedStatement stmt, String sql) {
+		if (!isEnabled || (stmt == null)) {
+			return stmt;
+		}
+		
+		QueryTiming timing = getTiming(normalize(sql));
+		return (PreparedStatement) Proxy.newProxyInstance(
+			PreparedStatement.class.getClassLoader(),
+			new Class<?>[] { PreparedStatement.class },
+			new StatementTimer(stmt, timing)
+		);
+	}
+	
+	/**
+	 * 
+	 */
+	public QueryTiming getTiming(String normalizedSql) {
+		QueryTiming result = timings.get(normalizedSql);
+		if (result == null) {
+			QueryTiming newTiming = new QueryTiming(normalizedSql);
+			result = timings.putIfAbsent(normalizedSql, newTiming);
+			if (result == null) {
+				result = newTiming;
+			}
+		}
+		return result;
+	}
+	
+	/**
+	 * @return timings of all statements, highest total time first
+	 */
+	public List<QueryTiming> getSnapshot() {
+		List<QueryTiming> result = new ArrayList<QueryTiming>(timings.values());
+		Collections.sort(result, new Comparator<QueryTiming>() {
+			public int compare(QueryTiming a, QueryTiming b) {
+				return Long.compare(b.getTotalMicros(), a.getTotalMicros());
+			}
+		});
+		return result;
+	}
+	
+	/**
+	 * @return most recent slow queries, newest first
+	 */
+	public List<String> getSlowQueries() {
+		synchronized(slowQueries) {
+			return new ArrayList<String>(slowQueries);
+		}
+	}
+	
+	/**
+	 * 
+	 */
+	public long getNoSlowQueries() {
+		synchronized(slowQueries) {
+			return noSlowQueries;
+		}
+	}
+	
+	/**
+	 * 
+	 */
+	public void reset() {
+		timings.clear();
+		synchronized(slowQueries) {
+			slowQueries.clear();
+			noSlowQueries = 0;
+		}
+	}
+	
+	/**
+	 * @methodtype conversion
+	 */
+	public String asStatisticsString() {
+		long noExecutions = 0;
+		long totalMicros = 0;
+		for (QueryTiming timing : timings.values()) {
+			noExecutions += timing.getNoExecutions();
+			totalMicros += timing.getTotalMicros();
+		}
+		
+		return timings.size() + " statements, " + noExecutions + " executions, " + (totalMicros / 1000) + "ms total, "
+			+ getNoSlowQueries() + " slower than " + (slowQueryThreshold / 1000000L) + "ms";
+	}
+	
+	/**
+	 * 
+	 */
+	protected void recordExecution(QueryTiming timing, long nanos, Statement stmt) {
+		timing.recordExecution(nanos);
+		if (nanos >= slowQueryThreshold) {
+			String entry = (nanos / 1000000L) + "ms: " + stmt.toString();
+			synchronized(slowQueries) {
+				noSlowQueries++;
+				slowQueries.addFirst(entry);
+				if (slowQueries.size() > MAX_SLOW_QUERIES) {
+					slowQueries.removeLast();
+				}
+			}
+			SysLog.logSysInfo("slow query", timing.getSql(), entry);
+		}
+	}
+	
+	/**
+	 * @return sql with runs of white space collapsed and literals replaced by ?
+	 */
+	public static String normalize(String sql) {
+		StringBuilder result = new StringBuilder(sql.length());
+		int length = sql.length();
+		int i = 0;
+		while (i < length) {
+			char c = sql.charAt(i);
+			if (Character.isWhitespace(c)) {
+				while ((i < length) && Character.isWhitespace(sql.charAt(i))) {
+					i++;
+				}
+				if ((result.length() > 0) && (i < length)) {
+					result.append(' ');
+				}
+			} else if (c == '\'') {
+				i = skipStringLiteral(sql, i);
+				result.append('?');
+			} else if (Character.isDigit(c) && !endsWithName(result)) {
+				while ((i < length) && (Character.isDigit(sql.charAt(i)) || (sql.charAt(i) == '.'))) {
+					i++;
+				}
+				result.append('?');
+			} else {
+				result.append(c);
+				i++;
+			}
+		}
+		
+		return result.toString();
+	}
+	
+	/**
+	 * @return index after the string literal starting at start
+	 */
+	protected static int skipStringLiteral(String sql, int start) {
+		int i = start + 1;
+		while (i < sql.length()) {
+			if (sql.charAt(i) == '\'') {
+				if ((i + 1 < sql.length()) && (sql.charAt(i + 1) == '\'')) {
+					i += 2; // escaped quote
+					continue;
+				}
+				return i + 1;
+			}
+			i++;
+		}
+		
+		return i;
+	}
+	
+	/**
+	 * 
+	 */
+	protected static boolean endsWithName(StringBuilder sql) {
+		if (sql.length() == 0) {
+			return false;
+		}
+		
+		char last = sql.charAt(sql.length() - 1);
+		return Character.isLetterOrDigit(last) || (last == '_');
+	}
+	
+	/**
+	 * Times the executions of a statement and counts the rows of its results
+	 */
+	protected class StatementTimer implements InvocationHandler {
+		
+		protected PreparedStatement stmt;
+		protected QueryTiming timing;
+		
+		protected StatementTimer(PreparedStatement myStmt, QueryTiming myTiming) {
+			stmt = myStmt;
+			timing = myTiming;
+		}
+		
+		public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+			String name = method.getName();
+			if (!name.startsWith("execute")) {
+				return forward(stmt, method, args);
+			}
+			
+			long startTime = System.nanoTime();
+			Object result = forward(stmt, method, args);
+			recordExecution(timing, System.nanoTime() - startTime, stmt);
+			
+			if (result instanceof ResultSet) {
+				return countRows((ResultSet) result);
+			} else if (result instanceof Integer) {
+				timing.recordRows(Math.max((Integer) result, 0));
+			} else if (result instanceof Long) {
+				timing.recordRows(Math.max((Long) result, 0));
+			} else if (result instanceof int[]) {
+				for (int rows : (int[]) result) {
+					timing.recordRows(Math.max(rows, 0));
+				}
+			}
+			return result;
+		}
+		
+		protected ResultSet countRows(final ResultSet rset) {
+			return (ResultSet) Proxy.newProxyInstance(
+				ResultSet.class.getClassLoader(),
+				new Class<?>[] { ResultSet.class },
+				new InvocationHandler() {
+					public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+						Object result = forward(rset, method, args);
+						if (method.getName().equals("next") && Boolean.TRUE.equals(result)) {
+							timing.recordRows(1);
+						}
+						return result;
+					}
+				}
+			);
+		}
+	}
+	
+	/**
+	 * 
+	 */
+	protected static Object forward(Object target, Method method, Object[] args) throws Throwable {
+		try {
+			return method.invoke(target, args);
+		} catch (InvocationTargetException ex) {
+			throw ex.getCause();
+		}
+	}
+	
+}
@@ -0,0 +1,170 @@
+/*
+ * Copyright (c) 2006-2009 by Dirk Riehle, http://dirkriehle.com
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.wahlzeit.services;
+
+import java.util.concurrent.atomic.*;
+
+/**
+ * A QueryTiming collects the executions of one normalized SQL text: count, rows, and a latency histogram.
+ * Recording only updates atomic counters, so it can run on every statement execution.
+ */
+public class QueryTiming {
+	
+	/**
+	 * Upper bounds of the histogram buckets in microseconds; the last bucket takes everything slower
+	 */
+	public static final long[] BUCKET_BOUNDS = {
+		100, 250, 500, 1000, 2500, 5000, 10000, 25000, 50000, 100000, 250000, 500000, 1000000, 2500000, 5000000
+	};
+	
+	/**
+	 * 
+	 */
+	protected String sql;
+	
+	/**
+	 * 
+	 */
+	protected AtomicLong noExecutions = new AtomicLong();
+	protected AtomicLong noRows = new AtomicLong();
+	protected AtomicLong totalNanos = new AtomicLong();
+	protected AtomicLong maxNanos = new AtomicLong();
+	protected AtomicLongArray histogram = new AtomicLongArray(BUCKET_BOUNDS.length + 1);
+	
+	/**
+	 * 
+	 */
+	public QueryTiming(String mySql) {
+		sql = mySql;
+	}
+	
+	/**
+	 * 
+	 */
+	public void recordExecution(long nanos) {
+		noExecutions.incrementAndGet();
+		totalNanos.addAndGet(nanos);
+		histogram.incrementAndGet(getBucket(nanos / 1000));
+		
+		long max = maxNanos.get();
+		while ((nanos > max) && !maxNanos.compareAndSet(max, nanos)) {
+			max = maxNanos.get();
+		}
+	}
+	
+	/**
+	 * 
+	 */
+	public void recordRows(long rows) {
+		noRows.addAndGet(rows);
+	}
+	
+	/**
+	 * 
+	 */
+	public String getSql() {
+		return sql;
+	}
+	
+	/**
+	 * 
+	 */
+	public long getNoExecutions() {
+		return noExecutions.get();
+	}
+	
+	/**
+	 * 
+	 */
+	public long getNoRows() {
+		return noRows.get();
+	}
+	
+	/**
+	 * 
+	 */
+	public long getTotalMicros() {
+		return totalNanos.get() / 1000;
+	}
+	
+	/**
+	 * 
+	 */
+	public long getMeanMicros() {
+		long count = noExecutions.get();
+		return (count == 0) ? 0 : getTotalMicros() / count;
+	}
+	
+	/**
+	 * 
+	 */
+	public long getMaxMicros() {
+		return maxNanos.get() / 1000;
+	}
+	
+	/**
+	 * 
+	 */
+	public long getBucketCount(int bucket) {
+		return histogram.get(bucket);
+	}
+	
+	/**
+	 * @return upper bound in microseconds of the bucket holding the given percentile, or the maximum for the last bucket
+	 */
+	public long getPercentileMicros(int percentile) {
+		long count = 0;
+		long[] counts = new long[histogram.length()];
+		for (int i = 0; i < counts.length; i++) {
+			counts[i] = histogram.get(i);
+			count += counts[i];
+		}
+		if (count == 0) {
+			return 0;
+		}
+		
+		long rank = (count * percentile + 99) / 100;
+		long seen = 0;
+		for (int i = 0; i < BUCKET_BOUNDS.length; i++) {
+			seen += counts[i];
+			if (seen >= rank) {
+				return Math.min(BUCKET_BOUNDS[i], getMaxMicros());
+			}
+		}
+		
+		return getMaxMicros();
+	}
+	
+	/**
+	 * 
+	 */
+	protected static int getBucket(long micros) {
+		for (int i = 0; i < BUCKET_BOUNDS.length; i++) {
+			if (micros <= BUCKET_BOUNDS[i]) {
+				return i;
+			}
+		}
+		
+		return BUCKET_BOUNDS.length;
+	}
+	
+}
@@ -0,0 +1,811 @@
+/*
+ * Copyright (c) 2006-2009 by Dirk Riehle, http://dirkriehle.com
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.wahlzeit.services;
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.locks.*;
+import java.util.zip.CRC32;
+
+/**
+ * A RecordLog is the append-only file of one table of a LogRecordStore. Every write appends a record that
+ * supersedes all earlier records of its id, and a delete appends a tombstone. An in-memory index maps each
+ * id to the offset of its latest record; records are read through a memory mapping of the file.
+ * 
+ * Records are framed as [int length][int crc32][byte kind][int id][short noValues][values], where length
+ * and checksum cover everything after the checksum. An append that was interrupted by a crash can only
+ * leave an incomplete or corrupt record at the end of the file, so opening a log scans it and cuts it off
+ * at the first such record. Compaction copies the latest records to a new file and moves it over the log.
+ */
+public class RecordLog {
+	
+	/**
+	 * Record kinds
+	 */
+	public static final byte PUT = 1;
+	public static final byte DELETE = 2;
+	
+	/**
+	 * Value tags
+	 */
+	protected static final byte NULL_VALUE = 0;
+	protected static final byte INT_VALUE = 1;
+	protected static final byte LONG_VALUE = 2;
+	protected static final byte DOUBLE_VALUE = 3;
+	protected static final byte BOOLEAN_VALUE = 4;
+	protected static final byte STRING_VALUE = 5;
+	protected static final byte DATE_VALUE = 6;
+	protected static final byte TIMESTAMP_VALUE = 7;
+	
+	/**
+	 * Size of length and checksum
+	 */
+	protected static final int HEADER_SIZE = 8;
+	
+	/**
+	 * Size of kind and id, i.e. the smallest valid length
+	 */
+	protected static final int KEY_SIZE = 5;
+	
+	/**
+	 * 
+	 */
+	protected static final String COMPACT_SUFFIX = ".compact";
+	
+	/**
+	 * 
+	 */
+	protected File file;
+	protected TableColumns tableColumns;
+	protected boolean isSyncing;
+	
+	/**
+	 * 
+	 */
+	protected FileChannel channel;
+	protected volatile MappedByteBuffer mapping = null;
+	protected long size = 0;
+	
+	/**
+	 * Offset of the latest record by id; deleted ids are not contained
+	 */
+	protected Map<Integer, Long> offsets = new HashMap<Integer, Long>();
+	
+	/**
+	 * Bytes of superseded records and tombstones, i.e. what compaction would reclaim
+	 */
+	protected long garbageSize = 0;
+	
+	/**
+	 * Ids by value of a column, built on the first lookup by that column and maintained on writes
+	 */
+	protected Map<String, Map<Object, Set<Integer>>> columnIndexes = new HashMap<String, Map<Object, Set<Integer>>>();
+	
+	/**
+	 * 
+	 */
+	protected long noTruncatedBytes = 0;
+	protected int noCompactions = 0;
+	
+	/**
+	 * Readers share the lock; appends and the end of a compaction hold it exclusively
+	 */
+	protected ReadWriteLock lock = new ReentrantReadWriteLock();
+	
+	/**
+	 * Serializes compactions, which copy most records without holding lock
+	 */
+	protected final Object compactLock = new Object();
+	
+	/**
+	 * @param mySyncing whether each append is forced to disk before it returns
+	 */
+	public RecordLog(File myFile, TableColumns myTableColumns, boolean mySyncing) throws IOException {
+		file = myFile;
+		tableColumns = myTableColumns;
+		isSyncing = mySyncing;
+		open();
+	}
+	
+	/**
+	 * 
+	 */
+	protected void open() throws IOException {
+		File compactFile = getCompactFile();
+		if (compactFile.exists() && compactFile.delete()) {
+			SysLog.logSysInfo("table", tableColumns.getTableName(), "deleted unfinished compaction");
+		}
+		
+		channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+		recover();
+	}
+	
+	/**
+	 * Rebuilds the index from the file, truncating it after the last complete and intact record.
+	 */
+	protected void recover() throws IOException {
+		long fileSize = channel.size();
+		size = fileSize;
+		offsets.clear();
+		columnIndexes.clear();
+		garbageSize = 0;
+		noTruncatedBytes = 0;
+		mapping = null;
+		
+		long position = 0;
+		if (fileSize > 0) {
+			ByteBuffer buffer = getBuffer(fileSize);
+			while (position + HEADER_SIZE <= fileSize) {
+				int length = buffer.getInt((int) position);
+				if ((length < KEY_SIZE) || (position + HEADER_SIZE + length > fileSize)) {
+					break;
+				}
+				
+				int checksum = buffer.getInt((int) position + 4);
+				if (checksum != getChecksum(buffer, (int) position + HEADER_SIZE, length)) {
+					break;
+				}
+				
+				byte kind = buffer.get((int) position + HEADER_SIZE);
+				int id = buffer.getInt((int) position + HEADER_SIZE + 1);
+				int frameSize = HEADER_SIZE + length;
+				if (kind == PUT) {
+					Long previous = offsets.put(id, position);
+					if (previous != null) {
+						garbageSize += getFrameSize(buffer, previous);
+					}
+				} else if (kind == DELETE) {
+					Long previous = offsets.remove(id);
+					garbageSize += frameSize + ((previous != null) ? getFrameSize(buffer, previous) : 0);
+				} else {
+					break;
+				}
+				
+				position += frameSize;
+			}
+		}
+		
+		if (position < fileSize) {
+			noTruncatedBytes = fileSize - position;
+			mapping = null;
+			channel.truncate(position);
+			channel.force(true);
+			size = position;
+			SysLog.logSysError("table " + tableColumns.getTableName() + ": dropped " + noTruncatedBytes + " bytes of incomplete records after offset " + position);
+		}
+	}
+	
+	/**
+	 * 
+	 */
+	protected static int getChecksum(ByteBuffer buffer, int position, int length) {
+		ByteBuffer frame = buffer.duplicate();
+		frame.limit(position + length);
+		frame.position(position);
+		CRC32 crc = new CRC32();
+		crc.update(frame);
+		return (int) crc.getValue();
+	}
+	
+	/**
+	 * 
+	 */
+	protected static int getFrameSize(ByteBuffer buffer, long position) {
+		return HEADER_SIZE + buffer.getInt((int) position);
+	}
+	
+	/**
+	 * @return a view of the mapped file covering at least the first end bytes
+	 */
+	protected ByteBuffer getBuffer(long end) throws IOException {
+		MappedByteBuffer result = mapping;
+		if ((result == null) || (result.capacity() < end)) {
+			if (size > Integer.MAX_VALUE) {
+				throw new IOException(file + " exceeds the mappable size of 2GB, compact it");
+			}
+			result = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+			mapping = result;
+		}
+		
+		return result.duplicate();
+	}
+	
+	/**
+	 * @return column values in table order, or null if there is no record of id
+	 */
+	public Object[] read(int id) throws IOException {
+		lock.readLock().lock();
+		try {
+			return doRead(id);
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+	
+	/**
+	 * 
+	 */
+	protected Object[] doRead(int id) throws IOException {
+		Long offset = offsets.get(id);
+		return (offset == null) ? null : decode(offset);
+	}
+	
+	/**
+	 * @return ids of all records, in no particular order
+	 */
+	public int[] getIds() {
+		lock.readLock().lock();
+		try {
+			int[] result = new int[offsets.size()];
+			int i = 0;
+			for (Integer id : offsets.keySet()) {
+				result[i++] = id;
+			}
+			return result;
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+	
+	/**
+	 * @return ids of all records whose column label equals value
+	 */
+	public int[] find(String label, Object value) throws IOException {
+		label = label.toLowerCase();
+		lock.writeLock().lock(); // may build the index
+		try {
+			Map<Object, Set<Integer>> index = columnIndexes.get(label);
+			if (index == null) {
+				index = buildColumnIndex(label);
+				columnIndexes.put(label, index);
+			}
+			
+			Set<Integer> ids = index.get(asIndexKey(value));
+			int[] result = new int[(ids == null) ? 0 : ids.size()];
+			if (ids != null) {
+				int i = 0;
+				for (Integer id : ids) {
+					result[i++] = id;
+				}
+			}
+			return result;
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+	
+	/**
+	 * 
+	 */
+	protected Map<Object, Set<Integer>> buildColumnIndex(String label) throws IOException {
+		int columnIndex = tableColumns.getColumnIndex(label);
+		if (columnIndex == 0) {
+			throw new IOException("column " + label + " does not exist in table " + tableColumns.getTableName());
+		}
+		
+		Map<Object, Set<Integer>> result = new HashMap<Object, Set<Integer>>();
+		for (Map.Entry<Integer, Long> entry : offsets.entrySet()) {
+			Object[] values = decode(entry.getValue());
+			addToIndex(result, values[columnIndex - 1], entry.getKey());
+		}
+		
+		return result;
+	}
+	
+	/**
+	 * 
+	 */
+	protected static void addToIndex(Map<Object, Set<Integer>> index, Object value, int id) {
+		Object key = asIndexKey(value);
+		Set<Integer> ids = index.get(key);
+		if (ids == null) {
+			ids = new HashSet<Integer>();
+			index.put(key, ids);
+		}
+		ids.add(id);
+	}
+	
+	/**
+	 * 
+	 */
+	protected static void removeFromIndex(Map<Object, Set<Integer>> index, Object value, int id) {
+		Object key = asIndexKey(value);
+		Set<Integer> ids = index.get(key);
+		if ((ids != null) && ids.remove(id) && ids.isEmpty()) {
+			index.remove(key);
+		}
+	}
+	
+	/**
+	 * Integral numbers are compared by value, whatever their type
+	 */
+	protected static Object asIndexKey(Object value) {
+		if ((value instanceof Integer) || (value instanceof Short) || (value instanceof Byte)) {
+			return Long.valueOf(((Number) value).longValue());
+		}
+		return value;
+	}
+	
+	/**
+	 * Merges the given column values into the current records and appends the results, forcing them to
+	 * disk once for all of them if configured.
+	 */
+	public void write(Map<Integer, Map<String, Object>> records) throws IOException {
+		lock.writeLock().lock();
+		try {
+			List<byte[]> frames = new ArrayList<byte[]>(records.size());
+			List<Object[]> oldValues = new ArrayList<Object[]>(records.size());
+			List<Object[]> newValues = new ArrayList<Object[]>(records.size());
+			for (Map.Entry<Integer, Map<String, Object>> entry : records.entrySet()) {
+				int id = entry.getKey();
+				Object[] old = doRead(id);
+				Object[] values = (old == null) ? new Object[tableColumns.getColumnLabels().size()] : old.clone();
+				for (Map.Entry<String, Object> column : entry.getValue().entrySet()) {
+					int columnIndex = tableColumns.getColumnIndex(column.getKey());
+					if (columnIndex == 0) {
+						throw new IOException("column " + column.getKey() + " does not exist in table " + tableColumns.getTableName());
+					}
+					values[columnIndex - 1] = column.getValue();
+				}
+				int idIndex = tableColumns.getColumnIndex(DataObject.ID);
+				if (idIndex > 0) {
+					values[idIndex - 1] = id;
+				}
+				
+				frames.add(encode(PUT, id, values));
+				oldValues.add(old);
+				newValues.add(values);
+			}
+			
+			long position = append(frames);
+			int i = 0;
+			for (Integer id : records.keySet()) {
+				Long previous = offsets.put(id, position);
+				if (previous != null) {
+					garbageSize += getFrameSize(getBuffer(previous + HEADER_SIZE), previous);
+				}
+				updateIndexes(id, oldValues.get(i), newValues.get(i));
+				position += frames.get(i).length;
+				i++;
+			}
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+	
+	/**
+	 * @return whether there was a record of id
+	 */
+	public boolean delete(int id) throws IOException {
+		lock.writeLock().lock();
+		try {
+			Object[] old = doRead(id);
+			if (old == null) {
+				return false;
+			}
+			
+			byte[] frame = encode(DELETE, id, null);
+			append(Collections.singletonList(frame));
+			long previous = offsets.remove(id);
+			garbageSize += frame.length + getFrameSize(getBuffer(previous + HEADER_SIZE), previous);
+			updateIndexes(id, old, null);
+			return true;
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+	
+	/**
+	 * 
+	 */
+	protected void updateIndexes(int id, Object[] oldValues, Object[] newValues) {
+		for (Map.Entry<String, Map<Object, Set<Integer>>> entry : columnIndexes.entrySet()) {
+			int columnIndex = tableColumns.getColumnIndex(entry.getKey());
+			if (oldValues != null) {
+				removeFromIndex(entry.getValue(), oldValues[columnIndex - 1], id);
+			}
+			if (newValues != null) {
+				addToIndex(entry.getValue(), newValues[columnIndex - 1], id);
+			}
+		}
+	}
+	
+	/**
+	 * Appends frames with as few writes as possible; an append that fails halfway is cut off again.
+	 * 
+	 * @return offset of the first frame
+	 */
+	protected long append(List<byte[]> frames) throws IOException {
+		int length = 0;
+		for (byte[] frame : frames) {
+			length += frame.length;
+		}
+		
+		ByteBuffer buffer = ByteBuffer.allocate(length);
+		for (byte[] frame : frames) {
+			buffer.put(frame);
+		}
+		buffer.flip();
+		
+		long result = size;
+		try {
+			long position = size;
+			while (buffer.hasRemaining()) {
+				position += channel.write(buffer, position);
+			}
+			if (isSyncing) {
+				channel.force(false);
+			}
+		} catch (IOException ex) {
+			channel.truncate(result);
+			throw ex;
+		}
+		
+		size += length;
+		return result;
+	}
+	
+	/**
+	 * 
+	 */
+	protected byte[] encode(byte kind, int id, Object[] values) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+		DataOutputStream out = new DataOutputStream(bytes);
+		out.writeLong(0); // length and checksum, see below
+		out.writeByte(kind);
+		out.writeInt(id);
+		if (values != null) {
+			out.writeShort(values.length);
+			for (int i = 0; i < values.length; i++) {
+				writeValue(out, values[i]);
+			}
+		}
+		out.flush();
+		
+		byte[] result = bytes.toByteArray();
+		CRC32 crc = new CRC32();
+		crc.update(result, HEADER_SIZE, result.length - HEADER_SIZE);
+		ByteBuffer header = ByteBuffer.wrap(result);
+		header.putInt(0, result.length - HEADER_SIZE);
+		header.putInt(4, (int) crc.getValue());
+		return result;
+	}
+	
+	/**
+	 * 
+	 */
+	public static void writeValue(DataOutputStream out, Object value) throws IOException {
+		if (value == null) {
+			out.writeByte(NULL_VALUE);
+		} else if ((value instanceof Integer) || (value instanceof Short) || (value instanceof Byte)) {
+			out.writeByte(INT_VALUE);
+			out.writeInt(((Number) value).intValue());
+		} else if (value instanceof Long) {
+			out.writeByte(LONG_VALUE);
+			out.writeLong((Long) value);
+		} else if ((value instanceof Double) || (value instanceof Float)) {
+			out.writeByte(DOUBLE_VALUE);
+			out.writeDouble(((Number) value).doubleValue());
+		} else if (value instanceof Boolean) {
+			out.writeByte(BOOLEAN_VALUE);
+			out.writeBoolean((Boolean) value);
+		} else if (value instanceof String) {
+			byte[] bytes = ((String) value).getBytes(StandardCharsets.UTF_8);
+			out.writeByte(STRING_VALUE);
+			out.writeInt(bytes.length);
+			out.write(bytes);
+		} else if (value instanceof java.sql.Date) {
+			out.writeByte(DATE_VALUE);
+			out.writeLong(((java.sql.Date) value).getTime());
+		} else if (value instanceof java.util.Date) {
+			out.writeByte(TIMESTAMP_VALUE);
+			out.writeLong(((java.util.Date) value).getTime());
+		} else {
+			throw new IOException("cannot store values of " + value.getClass().getName());
+		}
+	}
+	
+	/**
+	 * Decodes the values of the PUT record at offset. Values beyond the current columns are dropped
+	 * and missing ones are null, so columns can be appended to a table definition.
+	 */
+	protected Object[] decode(long offset) throws IOException {
+		ByteBuffer buffer = getBuffer(offset + HEADER_SIZE);
+		int length = buffer.getInt((int) offset);
+		buffer = getBuffer(offset + HEADER_SIZE + length);
+		buffer.position((int) offset + HEADER_SIZE + KEY_SIZE);
+		
+		Object[] result = new Object[tableColumns.getColumnLabels().size()];
+		int noValues = buffer.getShort();
+		for (int i = 0; i < noValues; i++) {
+			Object value = readValue(buffer);
+			if (i < result.length) {
+				result[i] = value;
+			}
+		}
+		
+		return result;
+	}
+	
+	/**
+	 * 
+	 */
+	public static Object readValue(ByteBuffer buffer) throws IOException {
+		byte tag = buffer.get();
+		switch (tag) {
+		case NULL_VALUE:
+			return null;
+		case INT_VALUE:
+			return buffer.getInt();
+		case LONG_VALUE:
+			return buffer.getLong();
+		case DOUBLE_VALUE:
+			return buffer.getDouble();
+		case BOOLEAN_VALUE:
+			return buffer.get() != 0;
+		case STRING_VALUE:
+			byte[] bytes = new byte[buffer.getInt()];
+			buffer.get(bytes);
+			return new String(bytes, StandardCharsets.UTF_8);
+		case DATE_VALUE:
+			return new java.sql.Date(buffer.getLong());
+		case TIMESTAMP_VALUE:
+			return new java.sql.Timestamp(buffer.getLong());
+		default:
+			throw new IOException("unknown value tag " + tag);
+		}
+	}
+	
+	/**
+	 * Copies the latest record of every id to a new file in log order and moves it over the log. The
+	 * records up to the current end of the log are copied without holding the lock, as appends never
+	 * change them; only the records appended meanwhile are copied while holding it exclusively.
+	 * If the process dies before the move, the next open() deletes the copy; after the move and the
+	 * sync of the directory, the log is complete.
+	 */
+	public void compact() throws IOException {
+		synchronized (compactLock) {
+			long copiedSize;
+			ByteBuffer buffer;
+			List<Map.Entry<Integer, Long>> entries;
+			lock.readLock().lock();
+			try {
+				copiedSize = size;
+				buffer = getBuffer(size);
+				entries = new ArrayList<Map.Entry<Integer, Long>>(offsets.entrySet());
+			} finally {
+				lock.readLock().unlock();
+			}
+			
+			Collections.sort(entries, new Comparator<Map.Entry<Integer, Long>>() {
+				public int compare(Map.Entry<Integer, Long> e1, Map.Entry<Integer, Long> e2) {
+					return e1.getValue().compareTo(e2.getValue());
+				}
+			});
+			
+			File compactFile = getCompactFile();
+			Map<Integer, Long> copiedOffsets = new HashMap<Integer, Long>(entries.size() * 2);
+			long position = 0;
+			FileChannel compactChannel = FileChannel.open(compactFile.toPath(), StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+			try {
+				OutputStream out = new BufferedOutputStream(Channels.newOutputStream(compactChannel), 64 * 1024);
+				byte[] frame = new byte[256];
+				for (Map.Entry<Integer, Long> entry : entries) {
+					int offset = entry.getValue().intValue();
+					int frameSize = getFrameSize(buffer, offset);
+					if (frame.length < frameSize) {
+						frame = new byte[frameSize * 2];
+					}
+					buffer.position(offset);
+					buffer.get(frame, 0, frameSize);
+					out.write(frame, 0, frameSize);
+					copiedOffsets.put(entry.getKey(), position);
+					position += frameSize;
+				}
+				out.flush();
+				
+				lock.writeLock().lock();
+				try {
+					finishCompaction(compactChannel, copiedSize, copiedOffsets, position);
+				} finally {
+					lock.writeLock().unlock();
+				}
+			} finally {
+				if (compactChannel.isOpen()) {
+					compactChannel.close();
+					compactFile.delete();
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Appends the records written since copiedSize to the copy, moves it over the log, and switches to
+	 * it; callers hold the lock exclusively.
+	 */
+	protected void finishCompaction(FileChannel compactChannel, long copiedSize, Map<Integer, Long> copiedOffsets, long copiedEnd) throws IOException {
+		long oldSize = size;
+		ByteBuffer tail = getBuffer(size);
+		tail.limit((int) size);
+		tail.position((int) copiedSize);
+		long position = copiedEnd;
+		while (tail.hasRemaining()) {
+			position += compactChannel.write(tail, position);
+		}
+		compactChannel.force(true);
+		compactChannel.close();
+		
+		ByteBuffer buffer = getBuffer(size);
+		Map<Integer, Long> newOffsets = new HashMap<Integer, Long>(offsets.size() * 2);
+		long liveSize = 0;
+		for (Map.Entry<Integer, Long> entry : offsets.entrySet()) {
+			long offset = entry.getValue();
+			long newOffset = (offset < copiedSize) ? copiedOffsets.get(entry.getKey()) : copiedEnd + offset - copiedSize;
+			newOffsets.put(entry.getKey(), newOffset);
+			liveSize += getFrameSize(buffer, offset);
+		}
+		
+		mapping = null;
+		channel.close();
+		Files.move(getCompactFile().toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+		forceDirectory(file.getAbsoluteFile().getParentFile());
+		channel = FileChannel.open(file.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE);
+		
+		offsets = newOffsets;
+		size = position;
+		garbageSize = size - liveSize;
+		noCompactions++;
+		SysLog.logSysInfo("table", tableColumns.getTableName(), "compacted log from " + oldSize + " to " + size + " bytes");
+	}
+	
+	/**
+	 * Makes a rename within dir durable; platforms that cannot open directories sync them on their own.
+	 */
+	protected static void forceDirectory(File dir) throws IOException {
+		FileChannel dirChannel;
+		try {
+			dirChannel = FileChannel.open(dir.toPath(), StandardOpenOption.READ);
+		} catch (IOException ex) {
+			return;
+		}
+		
+		try {
+			dirChannel.force(true);
+		} finally {
+			dirChannel.close();
+		}
+	}
+	
+	/**
+	 * 
+	 */
+	protected File getCompactFile() {
+		return new File(file.getPath() + COMPACT_SUFFIX);
+	}
+	
+	/**
+	 * 
+	 */
+	public TableColumns getTableColumns() {
+		return tableColumns;
+	}
+	
+	/**
+	 * 
+	 */
+	public File getFile() {
+		return file;
+	}
+	
+	/**
+	 * 
+	 */
+	public int getNoRecords() {
+		lock.readLock().lock();
+		try {
+			return offsets.size();
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+	
+	/**
+	 * 
+	 */
+	public long getSize() {
+		lock.readLock().lock();
+		try {
+			return size;
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+	
+	/**
+	 * 
+	 */
+	public long getGarbageSize() {
+		lock.readLock().lock();
+		try {
+			return garbageSize;
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+	
+	/**
+	 * @return share of the file that compaction would reclaim, between 0 and 1
+	 */
+	public double getGarbageRatio() {
+		lock.readLock().lock();
+		try {
+			return (size == 0) ? 0 : (double) garbageSize / size;
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+	
+	/**
+	 * @return bytes cut off when the log was opened
+	 */
+	public long getNoTruncatedBytes() {
+		return noTruncatedBytes;
+	}
+	
+	/**
+	 * 
+	 */
+	public int getNoCompactions() {
+		return noCompactions;
+	}
+	
+	/**
+	 * 
+	 */
+	public void close() throws IOException {
+		lock.writeLock().lock();
+		try {
+			mapping = null;
+			channel.close();
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+	
+	/**
+	 * 
+	 */
+	public String asStatisticsString() {
+		lock.readLock().lock();
+		try {
+			long garbagePercent = (size == 0) ? 0 : (garbageSize * 100 / size);
+			return offsets.size() + " records, " + (size / 1024) + "KB, " + garbagePercent + "% garbage, " + noCompactions + " compactions";
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+	
+}
@@ -0,0 +1,68 @@
+/*
+ * Copyright (c) 2006-2009 by Dirk Riehle, http://dirkriehle.com
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.wahlzeit.services;
+
+import java.sql.*;
+import java.util.*;
+
+/**
+ * A RecordStore is a storage backend for ObjectManagers that does not go through a JDBC connection.
+ * Records are rows of a table identified by their integer id. They are written as the column values
+ * a Persistent writes in writeOn(), see ColumnValueRecorder, and read back as single-row ResultSets,
+ * so that Persistent.readFrom() and ObjectManager.createObject() work unchanged on either backend.
+ */
+public interface RecordStore {
+	
+	/**
+	 * 
+	 */
+	public TableColumns getTableColumns(String tableName) throws SQLException;
+
+	/**
+	 * @return the record as a ResultSet positioned on its only row, or null if there is no such record
+	 */
+	public ResultSet readRecord(String tableName, int id) throws SQLException;
+	
+	/**
+	 * Adds all records of tableName whose column columnName equals value to result;
+	 * all records of the table if columnName is null.
+	 */
+	public void readRecords(Collection<ResultSet> result, String tableName, String columnName, Object value) throws SQLException;
+	
+	/**
+	 * Writes records by id, each mapped from lowercase column label to value. Like an UPDATE, columns that
+	 * are not given keep their previous values; unlike an UPDATE, missing records are created. The records
+	 * of one call are durable together, as far as the backend is configured to be durable at all.
+	 */
+	public void writeRecords(String tableName, Map<Integer, Map<String, Object>> records) throws SQLException;
+	
+	/**
+	 * 
+	 */
+	public void deleteRecord(String tableName, int id) throws SQLException;
+	
+	/**
+	 * 
+	 */
+	public void close() throws SQLException;
+	
+}
@@ -0,0 +1,83 @@
+/*
+ * Copyright (c) 2006-2009 by Dirk Riehle, http://dirkriehle.com
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.wahlzeit.services;
+
+import java.sql.*;
+import java.util.*;
+
+/**
+ * A RecordStoreIdBlockAllocator reserves its blocks by advancing a counter column of the globals record
+ * of a record store, like DatabaseIdBlockAllocator does in the globals table of the database.
+ * The store belongs to this process only, so locking the store makes the read and write atomic.
+ */
+public class RecordStoreIdBlockAllocator extends IdBlockAllocator {
+	
+	/**
+	 * 
+	 */
+	public static final String GLOBALS_TABLE = "globals";
+	public static final int GLOBALS_ID = 0;
+	
+	/**
+	 * 
+	 */
+	protected RecordStore recordStore;
+	protected String columnName;
+	
+	/**
+	 * @param myColumnName column of the globals record holding the highest reserved id
+	 */
+	public RecordStoreIdBlockAllocator(String myName, RecordStore myRecordStore, String myColumnName, int myLastId, int myBlockSize) {
+		super(myName, myLastId, myBlockSize);
+		recordStore = myRecordStore;
+		columnName = myColumnName;
+	}
+	
+	/**
+	 * 
+	 */
+	public String getColumnName() {
+		return columnName;
+	}
+	
+	/**
+	 * 
+	 */
+	protected int reserveBlock(int size) throws SQLException {
+		int result;
+		synchronized (recordStore) {
+			ResultSet rset = recordStore.readRecord(GLOBALS_TABLE, GLOBALS_ID);
+			if (rset == null) {
+				throw new SQLException("globals record is missing, cannot reserve " + name + " ids");
+			}
+			
+			result = rset.getInt(columnName) + size;
+			Map<String, Object> values = new HashMap<String, Object>();
+			values.put(columnName, result);
+			recordStore.writeRecords(GLOBALS_TABLE, Collections.singletonMap(GLOBALS_ID, values));
+		}
+		
+		SysLog.logSysInfo("reserved " + name + " ids " + (result - size + 1) + " to " + result);
+		return result;
+	}
+	
+}
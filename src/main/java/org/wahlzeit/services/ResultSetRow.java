@@ -0,0 +1,192 @@
+/*
+ * Copyright (c) 2006-2009 by Dirk Riehle, http://dirkriehle.com
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.wahlzeit.services;
+
+import java.lang.reflect.*;
+import java.sql.*;
+
+/**
+ * A ResultSetRow is a copy of the current row of a ResultSet that stays readable after the ResultSet moved on.
+ * This allows createObject() to run on a thread other than the one reading from the database.
+ */
+public class ResultSetRow {
+	
+	/**
+	 * 
+	 */
+	protected TableColumns tableColumns;
+	
+	/**
+	 * Column values in table order
+	 */
+	protected Object[] values;
+	
+	/**
+	 * 
+	 */
+	protected boolean wasNull = false;
+	
+	/**
+	 * 
+	 */
+	public ResultSetRow(TableColumns myTableColumns, Object[] myValues) {
+		tableColumns = myTableColumns;
+		values = myValues;
+	}
+	
+	/**
+	 * Copies the current row of rset, whose columns are described by columns.
+	 */
+	public static ResultSetRow copyOf(ResultSet rset, TableColumns columns) throws SQLException {
+		Object[] values = new Object[columns.getColumnLabels().size()];
+		for (int i = 0; i < values.length; i++) {
+			values[i] = rset.getObject(i + 1);
+		}
+		return new ResultSetRow(columns, values);
+	}
+	
+	/**
+	 * 
+	 */
+	public Object getValue(String label) throws SQLException {
+		int index = tableColumns.getColumnIndex(label);
+		if (index == 0) {
+			throw new SQLException("column " + label + " does not exist in table " + tableColumns.getTableName());
+		}
+		
+		return getValue(index);
+	}
+	
+	/**
+	 * 
+	 */
+	public Object getValue(int index) throws SQLException {
+		if ((index < 1) || (index > values.length)) {
+			throw new SQLException("column index " + index + " is out of range");
+		}
+		
+		Object result = values[index - 1];
+		wasNull = (result == null);
+		return result;
+	}
+	
+	/**
+	 * Converts value to what the JDBC getter named getterName returns for it.
+	 */
+	protected static Object convert(Object value, String getterName) throws SQLException {
+		if (getterName.equals("getObject")) {
+			return value;
+		} else if (getterName.equals("getString")) {
+			return (value == null) ? null : value.toString();
+		} else if (getterName.equals("getBoolean")) {
+			if (value instanceof Number) {
+				return ((Number) value).intValue() != 0;
+			}
+			return (value == null) ? false : Boolean.valueOf(value.toString());
+		}
+		
+		if (getterName.equals("getDate") || getterName.equals("getTimestamp")) {
+			if ((value == null) || (value instanceof java.util.Date)) {
+				java.util.Date date = (java.util.Date) value;
+				if (date == null) {
+					return null;
+				} else if (getterName.equals("getDate")) {
+					return (date instanceof Date) ? date : new Date(date.getTime());
+				} else {
+					return (date instanceof Timestamp) ? date : new Timestamp(date.getTime());
+				}
+			}
+			throw new SQLException("cannot convert " + value.getClass().getName() + " with " + getterName);
+		}
+		
+		Number number = null;
+		if (value instanceof Number) {
+			number = (Number) value;
+		} else if (value instanceof Boolean) {
+			number = ((Boolean) value) ? 1 : 0;
+		} else if (value != null) {
+			try {
+				number = Double.valueOf(value.toString());
+			} catch (NumberFormatException ex) {
+				throw new SQLException("cannot convert " + value + " with " + getterName, ex);
+			}
+		}
+		
+		if (getterName.equals("getInt")) {
+			return (number == null) ? 0 : number.intValue();
+		} else if (getterName.equals("getLong")) {
+			return (number == null) ? 0L : number.longValue();
+		} else if (getterName.equals("getDouble")) {
+			return (number == null) ? 0.0d : number.doubleValue();
+		} else if (getterName.equals("getFloat")) {
+			return (number == null) ? 0.0f : number.floatValue();
+		} else if (getterName.equals("getShort")) {
+			return (number == null) ? (short) 0 : number.shortValue();
+		}
+		
+		throw new SQLFeatureNotSupportedException(getterName + " is not supported by result set rows");
+	}
+	
+	/**
+	 * @methodtype conversion
+	 */
+	public ResultSet asResultSet() {
+		final ResultSetMetaData metaData = tableColumns.asResultSetMetaData();
+		InvocationHandler handler = new InvocationHandler() {
+			public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+				String name = method.getName();
+				if (name.startsWith("get") && (args != null) && (args.length == 1)) {
+					if (name.equals("getObject") || name.equals("getString") || name.equals("getBoolean")
+							|| name.equals("getInt") || name.equals("getLong") || name.equals("getDouble")
+							|| name.equals("getFloat") || name.equals("getShort") || name.equals("getDate")
+							|| name.equals("getTimestamp")) {
+						Object value = (args[0] instanceof String) ? getValue((String) args[0]) : getValue((Integer) args[0]);
+						return convert(value, name);
+					}
+				} else if (name.equals("getMetaData")) {
+					return metaData;
+				} else if (name.equals("wasNull")) {
+					return wasNull;
+				} else if (name.equals("findColumn")) {
+					int index = tableColumns.getColumnIndex((String) args[0]);
+					if (index == 0) {
+						throw new SQLException("column " + args[0] + " does not exist in table " + tableColumns.getTableName());
+					}
+					return index;
+				} else if (name.equals("close")) {
+					return null;
+				} else if (name.equals("toString")) {
+					return "ResultSetRow(" + tableColumns.getTableName() + ")";
+				} else if (name.equals("hashCode")) {
+					return System.identityHashCode(proxy);
+				} else if (name.equals("equals")) {
+					return proxy == args[0];
+				}
+				
+				throw new SQLFeatureNotSupportedException(name + " is not supported by result set rows");
+			}
+		};
+		
+		return (ResultSet) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] { ResultSet.class }, handler);
+	}
+	
+}
@@ -0,0 +1,184 @@
+/*
+ * Copyright (c) 2006-2009 by Dirk Riehle, http://dirkriehle.com
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package org.wahlzeit.services;
+
+import java.sql.*;
+
+/**
+ * A SchemaMigrator brings the database schema up to date by applying the numbered scripts Migration1.sql,
+ * Migration2.sql, ... of the scripts directory that were not applied yet, in order and each exactly once.
+ * Applied versions are recorded in the schema_version table. Each script runs in a transaction of its own
+ * that holds a lock on schema_version, so that concurrently starting nodes do not apply a script twice.
+ * 
+ * CreateTables.sql creates the current tables, so scripts must tolerate being applied to a new database,
+ * e.g. by using IF NOT EXISTS.
+ */
+public class SchemaMigrator {
+	
+	/**
+	 * 
+	 */
+	public static final String VERSION_TABLE = "schema_version";
+	public static final String SCRIPT_PREFIX = "Migration";
+	public static final String SCRIPT_SUFFIX = ".sql";
+	
+	/**
+	 * 
+	 */
+	protected ConfigDir scriptsDir;
+	
+	/**
+	 * 
+	 */
+	public SchemaMigrator(ConfigDir myScriptsDir) {
+		scriptsDir = myScriptsDir;
+	}
+	
+	/**
+	 * @methodtype conversion
+	 */
+	public static String getScriptName(int version) {
+		return SCRIPT_PREFIX + version + SCRIPT_SUFFIX;
+	}
+	
+	/**
+	 * @methodtype boolean-query
+	 */
+	public boolean hasScript(int version) {
+		String scriptName = getScriptName(version);
+		return scriptsDir.hasDefaultFile(scriptName) || scriptsDir.hasCustomFile(scriptName);
+	}
+	
+	/**
+	 * @return the default script followed by the custom one, if any
+	 */
+	public String readScript(int version) {
+		String scriptName = getScriptName(version);
+		StringBuffer result = new StringBuffer();
+		
+		if (scriptsDir.hasDefaultFile(scriptName)) {
+			result.append(FileUtil.safelyReadFileAsString(scriptsDir.getAbsoluteDefaultConfigFileName(scriptName)));
+		}
+		
+		if (scriptsDir.hasCustomFile(scriptName)) {
+			result.append("\n").append(FileUtil.safelyReadFileAsString(scriptsDir.getAbsoluteCustomConfigFileName(scriptName)));
+		}
+		
+		return result.toString();
+	}
+	
+	/**
+	 * @return the number of the latest script available
+	 */
+	public int getLatestVersion() {
+		int result = 0;
+		while (hasScript(result + 1)) {
+			result++;
+		}
+		return result;
+	}
+	
+	/**
+	 * @return the number of the latest script applied, or 0
+	 */
+	public int getCurrentVersion(Connection conn) throws SQLException {
+		Statement stmt = conn.createStatement();
+		try {
+			ResultSet rset = stmt.executeQuery("SELECT MAX(version) FROM " + VERSION_TABLE);
+			return rset.next() ? rset.getInt(1) : 0;
+		} finally {
+			stmt.close();
+		}
+	}
+	
+	/**
+	 * Applies the scripts that were not applied yet
+	 * @return the number of scripts applied
+	 */
+	public int migrate(Connection conn) throws SQLException {
+		execute(conn, "CREATE TABLE IF NOT EXISTS " + VERSION_TABLE + " (version integer PRIMARY KEY, script text, applied_time bigint)");
+		
+		int result = 0;
+		int latestVersion = getLatestVersion();
+		boolean wasAutoCommit = conn.getAutoCommit();
+		conn.setAutoCommit(false);
+		try {
+			for (int version = getCurrentVersion(conn) + 1; version <= latestVersion; version++) {
+				if (migrate(conn, version)) {
+					result++;
+				}
+			}
+		} finally {
+			conn.setAutoCommit(wasAutoCommit);
+		}
+		
+		return result;
+	}
+	
+	/**
+	 * Applies one script and records it, unless another node did so first
+	 * @return true if the script was applied
+	 */
+	protected boolean migrate(Connection conn, int version) throws SQLException {
+		try {
+			execute(conn, "LOCK TABLE " + VERSION_TABLE + " IN EXCLUSIVE MODE");
+			if (getCurrentVersion(conn) >= version) {
+				conn.commit();
+				return false;
+			}
+			
+			long startTime = System.currentTimeMillis();
+			execute(conn, readScript(version));
+			
+			PreparedStatement stmt = conn.prepareStatement("INSERT INTO " + VERSION_TABLE + "(version, script, applied_time) VALUES(?, ?, ?)");
+			try {
+				stmt.setInt(1, version);
+				stmt.setString(2, getScriptName(version));
+				stmt.setLong(3, System.currentTimeMillis());
+				stmt.executeUpdate();
+			} finally {
+				stmt.close();
+			}
+			
+			conn.commit();
+			long duration = System.currentTimeMillis() - startTime;
+			SysLog.logSysInfo("schema", getScriptName(version), "applied in " + duration + "ms");
+			return true;
+		} catch (SQLException sex) {
+			conn.rollback();
+			throw sex;
+		}
+	}
+	
+	/**
+	 * 
+	 */
+	protected void execute(Connection conn, String query) throws SQLException {
+		SysLog.logQuery(query);
+		Statement stmt = conn.createStatement();
+		try {
+			stmt.execute(query);
+		} finally {
+			stmt.close();
+		}
+	}
+	
+}
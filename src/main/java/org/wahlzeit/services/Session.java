@@ -36,6 +36,12 @@ public class Session {
 	 * Database stuff
 	 */
 	protected DatabaseConnection databaseConnection = null;
+	protected DatabaseConnection replicaConnection = null;
+	
+	/**
+	 * Time of the last write, to read own writes from the primary while replicas may lag behind
+	 */
+	protected volatile long lastWriteTime = 0;
 	
 	/**
 	 * processing time for requests
@@ -111,6 +117,49 @@ public class Session {
 			DatabaseConnection.returnDatabaseConnection(databaseConnection);
 			databaseConnection = null;
 		}
+		if (replicaConnection != null) {
+			DatabaseConnection.returnDatabaseConnection(replicaConnection);
+			replicaConnection = null;
+		}
+	}
+	
+	/**
+	 * @return a connection for read-only queries: to a replica if there is a usable one and this
+	 * session did not write recently, to the primary otherwise
+	 */
+	public DatabaseConnection ensureReplicaConnection() {
+		DatabaseReplicas replicas = DatabaseConnection.getReplicas();
+		if (!replicas.hasReplicas() || isReadingOwnWrites(replicas.getMaxLag())) {
+			return ensureDatabaseConnection(); // also if a replica connection is held from before the write
+		}
+		
+		if (replicaConnection == null) {
+			replicaConnection = replicas.borrowConnection();
+		}
+		
+		return (replicaConnection != null) ? replicaConnection : ensureDatabaseConnection();
+	}
+	
+	/**
+	 * 
+	 */
+	public void recordWrite() {
+		recordWrite(0);
+	}
+	
+	/**
+	 * Records a write that reaches the primary within delay millis, e.g. one queued for write-behind
+	 */
+	public synchronized void recordWrite(long delay) {
+		lastWriteTime = Math.max(lastWriteTime, System.currentTimeMillis() + delay);
+	}
+	
+	/**
+	 * @return whether a replica that lags by maxLag may not show this session's last write yet; lastWriteTime
+	 * is in the future while a queued write is pending
+	 */
+	public boolean isReadingOwnWrites(long maxLag) {
+		return (System.currentTimeMillis() - lastWriteTime) <= maxLag;
 	}
 	
 	/**
@@ -58,4 +58,11 @@ public class SessionManager {
 		return getThreadLocalSession().ensureDatabaseConnection();
 	}
 	
+	/**
+	 * 
+	 */
+	public static DatabaseConnection getReplicaDatabaseConnection() {
+		return getThreadLocalSession().ensureReplicaConnection();
+	}
+	
 }
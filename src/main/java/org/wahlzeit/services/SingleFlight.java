@@ -0,0 +1,116 @@
+/*
+ * Copyright (c) 2006-2009 by Dirk Riehle, http://dirkriehle.com
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.wahlzeit.services;
+
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+/**
+ * Runs at most one load per key at a time. Threads asking for a key that is already being loaded
+ * wait for that load and share its result instead of loading the key again.
+ */
+public class SingleFlight<K, V> {
+	
+	/**
+	 * Loads in progress by key
+	 */
+	protected ConcurrentMap<K, FutureTask<V>> flights = new ConcurrentHashMap<K, FutureTask<V>>();
+	
+	/**
+	 * 
+	 */
+	protected AtomicLong noLoads = new AtomicLong();
+	protected AtomicLong noSharedLoads = new AtomicLong();
+	
+	/**
+	 * Loads key using loader, or waits for the load of key already in progress.
+	 * Runtime exceptions of the loader are passed on to all waiting threads.
+	 */
+	public V load(K key, Callable<V> loader) {
+		FutureTask<V> task = new FutureTask<V>(loader);
+		FutureTask<V> flight = flights.putIfAbsent(key, task);
+		if (flight == null) {
+			flight = task;
+			noLoads.incrementAndGet();
+			try {
+				task.run();
+			} finally {
+				flights.remove(key, task);
+			}
+		} else {
+			noSharedLoads.incrementAndGet();
+		}
+		
+		return getResult(flight);
+	}
+	
+	/**
+	 * 
+	 */
+	protected V getResult(FutureTask<V> flight) {
+		boolean wasInterrupted = false;
+		try {
+			while (true) {
+				try {
+					return flight.get();
+				} catch (InterruptedException iex) {
+					wasInterrupted = true;
+				}
+			}
+		} catch (ExecutionException eex) {
+			Throwable cause = eex.getCause();
+			if (cause instanceof RuntimeException) {
+				throw (RuntimeException) cause;
+			} else if (cause instanceof Error) {
+				throw (Error) cause;
+			} else {
+				throw new IllegalStateException(cause);
+			}
+		} finally {
+			if (wasInterrupted) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+	
+	/**
+	 * @methodtype get
+	 */
+	public int getNoFlights() {
+		return flights.size();
+	}
+	
+	/**
+	 * @methodtype get
+	 */
+	public long getNoLoads() {
+		return noLoads.get();
+	}
+	
+	/**
+	 * @methodtype get
+	 */
+	public long getNoSharedLoads() {
+		return noSharedLoads.get();
+	}
+
+}
@@ -35,6 +35,68 @@ public class SysConfig extends AbstractConfig {
 	public static final String DB_USER = "DB_USER";
 	public static final String DB_PASSWORD = "DB_PASSWORD";
 	
+	/**
+	 * Database connection pool definitions; timeouts in millis
+	 */
+	public static final String DB_POOL_MAX_SIZE = "DB_POOL_MAX_SIZE";
+	public static final String DB_POOL_BORROW_TIMEOUT = "DB_POOL_BORROW_TIMEOUT";
+	public static final String DB_POOL_IDLE_TIMEOUT = "DB_POOL_IDLE_TIMEOUT";
+	public static final String DB_POOL_LEAK_THRESHOLD = "DB_POOL_LEAK_THRESHOLD";
+	
+	/**
+	 * Batch writing of dirty objects; batch size in rows per executeBatch()
+	 */
+	public static final String DB_BATCH_UPDATES = "DB_BATCH_UPDATES";
+	public static final String DB_BATCH_SIZE = "DB_BATCH_SIZE";
+	public static final String DB_LOAD_FETCH_SIZE = "DB_LOAD_FETCH_SIZE";
+	public static final String DB_LOAD_THREADS = "DB_LOAD_THREADS";
+	public static final String DB_ID_BLOCK_SIZE = "DB_ID_BLOCK_SIZE";
+	public static final String WRITE_BEHIND_INTERVAL = "WRITE_BEHIND_INTERVAL";
+	public static final String WRITE_BEHIND_FLUSH_SIZE = "WRITE_BEHIND_FLUSH_SIZE";
+	public static final String WRITE_BEHIND_MAX_QUEUE = "WRITE_BEHIND_MAX_QUEUE";
+	public static final String FILTER_CACHE_SIZE = "FILTER_CACHE_SIZE";
+	public static final String PHOTO_WEIGHT_POLICY = "PHOTO_WEIGHT_POLICY";
+	public static final String LEADERBOARD_SIZE = "LEADERBOARD_SIZE";
+	public static final String DB_QUERY_STATISTICS = "DB_QUERY_STATISTICS";
+	public static final String DB_SLOW_QUERY_THRESHOLD = "DB_SLOW_QUERY_THRESHOLD";
+	public static final String DB_QUERY_PLAN_CHECK = "DB_QUERY_PLAN_CHECK";
+	
+	/**
+	 * Read replicas as comma-separated JDBC URLs; lag and check interval in millis
+	 */
+	public static final String DB_REPLICA_CONNECTIONS = "DB_REPLICA_CONNECTIONS";
+	public static final String DB_REPLICA_MAX_LAG = "DB_REPLICA_MAX_LAG";
+	public static final String DB_REPLICA_CHECK_INTERVAL = "DB_REPLICA_CHECK_INTERVAL";
+	
+	/**
+	 * Storage backend, "jdbc" or "embedded"; compaction ratio of garbage to log size, interval in millis
+	 */
+	public static final String STORAGE_BACKEND = "STORAGE_BACKEND";
+	public static final String STORAGE_SYNC = "STORAGE_SYNC";
+	public static final String STORAGE_COMPACTION_RATIO = "STORAGE_COMPACTION_RATIO";
+	public static final String STORAGE_COMPACTION_INTERVAL = "STORAGE_COMPACTION_INTERVAL";
+	
+	/**
+	 * Praise vote journal; capacity in votes per generation, sync and checkpoint intervals in millis
+	 */
+	public static final String PRAISE_JOURNAL = "PRAISE_JOURNAL";
+	public static final String PRAISE_JOURNAL_CAPACITY = "PRAISE_JOURNAL_CAPACITY";
+	public static final String PRAISE_JOURNAL_SYNC_INTERVAL = "PRAISE_JOURNAL_SYNC_INTERVAL";
+	public static final String PRAISE_FLUSH_INTERVAL = "PRAISE_FLUSH_INTERVAL";
+	
+	/**
+	 * Binary snapshot of the in-memory model for warm restarts; interval in millis
+	 */
+	public static final String MODEL_SNAPSHOT = "MODEL_SNAPSHOT";
+	public static final String MODEL_SNAPSHOT_INTERVAL = "MODEL_SNAPSHOT_INTERVAL";
+	public static final String PHOTO_CACHE_SIZE = "PHOTO_CACHE_SIZE";
+	public static final String USER_CACHE_SIZE = "USER_CACHE_SIZE";
+	public static final String CACHE_POLICY = "CACHE_POLICY";
+	public static final String USER_LOOKUP_FILTERS = "USER_LOOKUP_FILTERS";
+	public static final String USER_LOOKUP_FALSE_POSITIVE_RATE = "USER_LOOKUP_FALSE_POSITIVE_RATE";
+	public static final String USER_NEGATIVE_LOOKUP_TTL = "USER_NEGATIVE_LOOKUP_TTL";
+	public static final String USER_NEGATIVE_LOOKUP_MAX_SIZE = "USER_NEGATIVE_LOOKUP_MAX_SIZE";
+	
 	/**
 	 * 
 	 */
@@ -99,6 +161,7 @@ public class SysConfig extends AbstractConfig {
 	protected Directory photosDir;
 	protected Directory backupDir;
 	protected Directory tempDir;
+	protected Directory storageDir;
 	
 	/**
 	 * 
@@ -123,12 +186,85 @@ public class SysConfig extends AbstractConfig {
 		photosDir = new Directory(rootDir, "data" + File.separator + "photos");
 		backupDir = new Directory(rootDir, "data" + File.separator + "backup");
 		tempDir = new Directory(rootDir, "data" + File.separator + "temp");
+		storageDir = new Directory(rootDir, "data" + File.separator + "storage");
 		
 		// Database connection
 		doSetValue(SysConfig.DB_DRIVER, "org.postgresql.Driver");
 		doSetValue(SysConfig.DB_CONNECTION, "jdbc:postgresql://" + dbHostName + ":5432/wahlzeit");
 		doSetValue(SysConfig.DB_USER, "wahlzeit");
 		doSetValue(SysConfig.DB_PASSWORD, "wahlzeit");
+		
+		// Database connection pool
+		doSetValue(SysConfig.DB_POOL_MAX_SIZE, "20");
+		doSetValue(SysConfig.DB_POOL_BORROW_TIMEOUT, "10000");
+		doSetValue(SysConfig.DB_POOL_IDLE_TIMEOUT, "600000");
+		doSetValue(SysConfig.DB_POOL_LEAK_THRESHOLD, "60000");
+		
+		// Batch writing
+		doSetValue(SysConfig.DB_BATCH_UPDATES, "true");
+		doSetValue(SysConfig.DB_BATCH_SIZE, "500");
+		
+		// Bulk loading
+		doSetValue(SysConfig.DB_LOAD_FETCH_SIZE, "1000");
+		doSetValue(SysConfig.DB_LOAD_THREADS, "4");
+		
+		// Id allocation
+		doSetValue(SysConfig.DB_ID_BLOCK_SIZE, "100");
+		
+		// Write-behind
+		doSetValue(SysConfig.WRITE_BEHIND_INTERVAL, "1000");
+		doSetValue(SysConfig.WRITE_BEHIND_FLUSH_SIZE, "500");
+		doSetValue(SysConfig.WRITE_BEHIND_MAX_QUEUE, "20000");
+		
+		// Shared filter results, in entries
+		doSetValue(SysConfig.FILTER_CACHE_SIZE, "1000");
+		
+		// Choice of shown photos, "uniform" or "fewVotes"
+		doSetValue(SysConfig.PHOTO_WEIGHT_POLICY, "uniform");
+		
+		// Number of photos shown on a leaderboard page
+		doSetValue(SysConfig.LEADERBOARD_SIZE, "20");
+		
+		// Query timing; slow query threshold in milliseconds
+		doSetValue(SysConfig.DB_QUERY_STATISTICS, "true");
+		doSetValue(SysConfig.DB_SLOW_QUERY_THRESHOLD, "250");
+		
+		// Startup check for frequent queries that scan tables sequentially
+		doSetValue(SysConfig.DB_QUERY_PLAN_CHECK, "true");
+		
+		// Read replicas, none by default
+		doSetValue(SysConfig.DB_REPLICA_CONNECTIONS, "");
+		doSetValue(SysConfig.DB_REPLICA_MAX_LAG, "5000");
+		doSetValue(SysConfig.DB_REPLICA_CHECK_INTERVAL, "5000");
+		
+		// Storage backend, the database by default
+		doSetValue(SysConfig.STORAGE_BACKEND, "jdbc");
+		doSetValue(SysConfig.STORAGE_SYNC, "true");
+		doSetValue(SysConfig.STORAGE_COMPACTION_RATIO, "0.5");
+		doSetValue(SysConfig.STORAGE_COMPACTION_INTERVAL, "60000");
+		
+		// Praise vote journal, group-committed
+		doSetValue(SysConfig.PRAISE_JOURNAL, "true");
+		doSetValue(SysConfig.PRAISE_JOURNAL_CAPACITY, "1000000");
+		doSetValue(SysConfig.PRAISE_JOURNAL_SYNC_INTERVAL, "5");
+		
+		// Praise votes are added to the database in batches of deltas, in milliseconds
+		doSetValue(SysConfig.PRAISE_FLUSH_INTERVAL, "1000");
+		
+		// Model snapshot, written at shutdown and periodically
+		doSetValue(SysConfig.MODEL_SNAPSHOT, "true");
+		doSetValue(SysConfig.MODEL_SNAPSHOT_INTERVAL, "900000");
+		
+		// Object caches, in entries; eviction by "tinylfu" or "lru"
+		doSetValue(SysConfig.PHOTO_CACHE_SIZE, "100000");
+		doSetValue(SysConfig.USER_CACHE_SIZE, "10000");
+		doSetValue(SysConfig.CACHE_POLICY, "tinylfu");
+		
+		// Bloom filters of user names and email addresses; unknown ones are remembered for milliseconds
+		doSetValue(SysConfig.USER_LOOKUP_FILTERS, "true");
+		doSetValue(SysConfig.USER_LOOKUP_FALSE_POSITIVE_RATE, "0.01");
+		doSetValue(SysConfig.USER_NEGATIVE_LOOKUP_TTL, "30000");
+		doSetValue(SysConfig.USER_NEGATIVE_LOOKUP_MAX_SIZE, "100000");
 	}
 	
 	/**
@@ -179,6 +315,13 @@ public class SysConfig extends AbstractConfig {
 	public static Directory getTempDir() {
 		return getInstance().tempDir;
 	}
+	
+	/**
+	 * 
+	 */
+	public static Directory getStorageDir() {
+		return getInstance().storageDir;
+	}
 
 	/**
 	 * 
@@ -208,4 +351,270 @@ public class SysConfig extends AbstractConfig {
 		return getInstance().getValue(SysConfig.DB_PASSWORD);
 	}
 
+	/**
+	 * 
+	 */
+	public static int getDbPoolMaxSizeAsInt() {
+		return Integer.parseInt(getInstance().getValue(SysConfig.DB_POOL_MAX_SIZE));
+	}
+	
+	/**
+	 * 
+	 */
+	public static long getDbPoolBorrowTimeoutAsLong() {
+		return Long.parseLong(getInstance().getValue(SysConfig.DB_POOL_BORROW_TIMEOUT));
+	}
+	
+	/**
+	 * 
+	 */
+	public static long getDbPoolIdleTimeoutAsLong() {
+		return Long.parseLong(getInstance().getValue(SysConfig.DB_POOL_IDLE_TIMEOUT));
+	}
+	
+	/**
+	 * 
+	 */
+	public static long getDbPoolLeakThresholdAsLong() {
+		return Long.parseLong(getInstance().getValue(SysConfig.DB_POOL_LEAK_THRESHOLD));
+	}
+
+	/**
+	 * 
+	 */
+	public static boolean isDbBatchUpdates() {
+		return Boolean.parseBoolean(getInstance().getValue(SysConfig.DB_BATCH_UPDATES));
+	}
+	
+	/**
+	 * 
+	 */
+	public static int getDbBatchSizeAsInt() {
+		return Integer.parseInt(getInstance().getValue(SysConfig.DB_BATCH_SIZE));
+	}
+	
+	/**
+	 * 
+	 */
+	public static int getDbLoadFetchSizeAsInt() {
+		return Integer.parseInt(getInstance().getValue(SysConfig.DB_LOAD_FETCH_SIZE));
+	}
+	
+	/**
+	 * 
+	 */
+	public static int getDbLoadThreadsAsInt() {
+		return Integer.parseInt(getInstance().getValue(SysConfig.DB_LOAD_THREADS));
+	}
+	
+	/**
+	 * 
+	 */
+	public static long getWriteBehindIntervalAsLong() {
+		return Long.parseLong(getInstance().getValue(SysConfig.WRITE_BEHIND_INTERVAL));
+	}
+	
+	/**
+	 * 
+	 */
+	public static int getWriteBehindFlushSizeAsInt() {
+		return Integer.parseInt(getInstance().getValue(SysConfig.WRITE_BEHIND_FLUSH_SIZE));
+	}
+	
+	/**
+	 * 
+	 */
+	public static int getWriteBehindMaxQueueAsInt() {
+		return Integer.parseInt(getInstance().getValue(SysConfig.WRITE_BEHIND_MAX_QUEUE));
+	}
+	
+	/**
+	 * 
+	 */
+	public static int getDbIdBlockSizeAsInt() {
+		return Integer.parseInt(getInstance().getValue(SysConfig.DB_ID_BLOCK_SIZE));
+	}
+	
+	/**
+	 * 
+	 */
+	public static int getFilterCacheSizeAsInt() {
+		return Integer.parseInt(getInstance().getValue(SysConfig.FILTER_CACHE_SIZE));
+	}
+	
+	/**
+	 * 
+	 */
+	public static int getLeaderboardSizeAsInt() {
+		return Integer.parseInt(getInstance().getValue(SysConfig.LEADERBOARD_SIZE));
+	}
+	
+	/**
+	 * 
+	 */
+	public static String getPhotoWeightPolicyAsString() {
+		return getInstance().getValue(SysConfig.PHOTO_WEIGHT_POLICY);
+	}
+	
+	/**
+	 * 
+	 */
+	public static boolean isDbQueryStatistics() {
+		return Boolean.parseBoolean(getInstance().getValue(SysConfig.DB_QUERY_STATISTICS));
+	}
+	
+	/**
+	 * 
+	 */
+	public static long getDbSlowQueryThresholdAsLong() {
+		return Long.parseLong(getInstance().getValue(SysConfig.DB_SLOW_QUERY_THRESHOLD));
+	}
+	
+	/**
+	 * 
+	 */
+	public static boolean isDbQueryPlanCheck() {
+		return Boolean.parseBoolean(getInstance().getValue(SysConfig.DB_QUERY_PLAN_CHECK));
+	}
+	
+	/**
+	 * 
+	 */
+	public static String getDbReplicaConnectionsAsString() {
+		return getInstance().getValue(SysConfig.DB_REPLICA_CONNECTIONS);
+	}
+	
+	/**
+	 * 
+	 */
+	public static long getDbReplicaMaxLagAsLong() {
+		return Long.parseLong(getInstance().getValue(SysConfig.DB_REPLICA_MAX_LAG));
+	}
+	
+	/**
+	 * 
+	 */
+	public static long getDbReplicaCheckIntervalAsLong() {
+		return Long.parseLong(getInstance().getValue(SysConfig.DB_REPLICA_CHECK_INTERVAL));
+	}
+
+	/**
+	 * 
+	 */
+	public static boolean isEmbeddedStorage() {
+		return getInstance().getValue(SysConfig.STORAGE_BACKEND).equals("embedded");
+	}
+	
+	/**
+	 * 
+	 */
+	public static boolean isStorageSync() {
+		return Boolean.parseBoolean(getInstance().getValue(SysConfig.STORAGE_SYNC));
+	}
+	
+	/**
+	 * 
+	 */
+	public static double getStorageCompactionRatioAsDouble() {
+		return Double.parseDouble(getInstance().getValue(SysConfig.STORAGE_COMPACTION_RATIO));
+	}
+	
+	/**
+	 * 
+	 */
+	public static long getStorageCompactionIntervalAsLong() {
+		return Long.parseLong(getInstance().getValue(SysConfig.STORAGE_COMPACTION_INTERVAL));
+	}
+
+	/**
+	 * 
+	 */
+	public static boolean isPraiseJournal() {
+		return Boolean.parseBoolean(getInstance().getValue(SysConfig.PRAISE_JOURNAL));
+	}
+	
+	/**
+	 * 
+	 */
+	public static int getPraiseJournalCapacityAsInt() {
+		return Integer.parseInt(getInstance().getValue(SysConfig.PRAISE_JOURNAL_CAPACITY));
+	}
+	
+	/**
+	 * 
+	 */
+	public static long getPraiseJournalSyncIntervalAsLong() {
+		return Long.parseLong(getInstance().getValue(SysConfig.PRAISE_JOURNAL_SYNC_INTERVAL));
+	}
+	
+	/**
+	 * 
+	 */
+	public static long getPraiseFlushIntervalAsLong() {
+		return Long.parseLong(getInstance().getValue(SysConfig.PRAISE_FLUSH_INTERVAL));
+	}
+
+	/**
+	 * 
+	 */
+	public static boolean isModelSnapshot() {
+		return Boolean.parseBoolean(getInstance().getValue(SysConfig.MODEL_SNAPSHOT));
+	}
+	
+	/**
+	 * 
+	 */
+	public static long getModelSnapshotIntervalAsLong() {
+		return Long.parseLong(getInstance().getValue(SysConfig.MODEL_SNAPSHOT_INTERVAL));
+	}
+	
+	/**
+	 * 
+	 */
+	public static long getPhotoCacheSizeAsLong() {
+		return Long.parseLong(getInstance().getValue(SysConfig.PHOTO_CACHE_SIZE));
+	}
+	
+	/**
+	 * 
+	 */
+	public static long getUserCacheSizeAsLong() {
+		return Long.parseLong(getInstance().getValue(SysConfig.USER_CACHE_SIZE));
+	}
+	
+	/**
+	 * 
+	 */
+	public static String getCachePolicyAsString() {
+		return getInstance().getValue(SysConfig.CACHE_POLICY);
+	}
+	
+	/**
+	 * 
+	 */
+	public static boolean isUserLookupFilters() {
+		return Boolean.parseBoolean(getInstance().getValue(SysConfig.USER_LOOKUP_FILTERS));
+	}
+	
+	/**
+	 * 
+	 */
+	public static double getUserLookupFalsePositiveRateAsDouble() {
+		return Double.parseDouble(getInstance().getValue(SysConfig.USER_LOOKUP_FALSE_POSITIVE_RATE));
+	}
+	
+	/**
+	 * 
+	 */
+	public static long getUserNegativeLookupTtlAsLong() {
+		return Long.parseLong(getInstance().getValue(SysConfig.USER_NEGATIVE_LOOKUP_TTL));
+	}
+	
+	/**
+	 * 
+	 */
+	public static int getUserNegativeLookupMaxSizeAsInt() {
+		return Integer.parseInt(getInstance().getValue(SysConfig.USER_NEGATIVE_LOOKUP_MAX_SIZE));
+	}
+
 }
@@ -0,0 +1,166 @@
+/*
+ * Copyright (c) 2006-2009 by Dirk Riehle, http://dirkriehle.com
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package org.wahlzeit.services;
+
+import java.lang.reflect.*;
+import java.sql.*;
+import java.util.*;
+
+/**
+ * A TableColumns object is a connection-independent snapshot of the column labels and SQL types of a table.
+ * It can stand in for the ResultSetMetaData of that table, e.g. when a Persistent asserts its columns in writeOn().
+ */
+public class TableColumns {
+	
+	/**
+	 * 
+	 */
+	protected String tableName;
+	
+	/**
+	 * Lowercase column labels in table order
+	 */
+	protected List<String> columnLabels = new ArrayList<String>();
+	protected Map<String, Integer> columnTypes = new HashMap<String, Integer>();
+	protected Map<String, Integer> columnIndexes = new HashMap<String, Integer>();
+	
+	/**
+	 * 
+	 */
+	public TableColumns(String myTableName, ResultSetMetaData metaData) throws SQLException {
+		tableName = myTableName;
+		for (int i = 1; i <= metaData.getColumnCount(); i++) {
+			String label = metaData.getColumnLabel(i).toLowerCase();
+			columnLabels.add(label);
+			columnTypes.put(label, metaData.getColumnType(i));
+			columnIndexes.put(label, i);
+		}
+	}
+	
+	/**
+	 * Creates an empty snapshot, to be filled with addColumn(), e.g. from a table definition
+	 */
+	public TableColumns(String myTableName) {
+		tableName = myTableName;
+	}
+	
+	/**
+	 * @return a snapshot with the same columns for a table named otherTableName
+	 */
+	public TableColumns copyAs(String otherTableName) {
+		TableColumns result = new TableColumns(otherTableName);
+		for (String label : columnLabels) {
+			result.addColumn(label, columnTypes.get(label));
+		}
+		return result;
+	}
+	
+	/**
+	 * 
+	 */
+	protected void addColumn(String label, int type) {
+		label = label.toLowerCase();
+		columnLabels.add(label);
+		columnTypes.put(label, type);
+		columnIndexes.put(label, columnLabels.size());
+	}
+	
+	/**
+	 * Reads the columns of a table without reading any of its rows.
+	 */
+	public static TableColumns readFrom(Connection conn, String tableName) throws SQLException {
+		Statement stmt = conn.createStatement();
+		try {
+			ResultSet rset = stmt.executeQuery("SELECT * FROM " + tableName + " WHERE 1 = 0");
+			return new TableColumns(tableName, rset.getMetaData());
+		} finally {
+			stmt.close();
+		}
+	}
+	
+	/**
+	 * 
+	 */
+	public String getTableName() {
+		return tableName;
+	}
+	
+	/**
+	 * 
+	 */
+	public List<String> getColumnLabels() {
+		return Collections.unmodifiableList(columnLabels);
+	}
+	
+	/**
+	 * 
+	 */
+	public boolean hasColumn(String label) {
+		return columnTypes.containsKey(label.toLowerCase());
+	}
+	
+	/**
+	 * @return the 1-based index of the column, or 0 if there is no such column
+	 */
+	public int getColumnIndex(String label) {
+		Integer result = columnIndexes.get(label.toLowerCase());
+		return (result == null) ? 0 : result;
+	}
+	
+	/**
+	 * @return the java.sql.Types constant of the column, or Types.OTHER if there is no such column
+	 */
+	public int getColumnType(String label) {
+		Integer result = columnTypes.get(label.toLowerCase());
+		return (result == null) ? Types.OTHER : result;
+	}
+	
+	/**
+	 * @methodtype conversion
+	 */
+	public ResultSetMetaData asResultSetMetaData() {
+		InvocationHandler handler = new InvocationHandler() {
+			public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+				String name = method.getName();
+				if (name.equals("getColumnCount")) {
+					return columnLabels.size();
+				} else if (name.equals("getColumnLabel") || name.equals("getColumnName")) {
+					return columnLabels.get((Integer) args[0] - 1);
+				} else if (name.equals("getColumnType")) {
+					return columnTypes.get(columnLabels.get((Integer) args[0] - 1));
+				} else if (name.equals("getTableName")) {
+					return tableName;
+				} else if (name.equals("toString")) {
+					return "TableColumns(" + tableName + ")";
+				} else if (name.equals("hashCode")) {
+					return System.identityHashCode(proxy);
+				} else if (name.equals("equals")) {
+					return proxy == args[0];
+				}
+				
+				throw new SQLFeatureNotSupportedException(name + " is not supported by table column snapshots");
+			}
+		};
+		
+		return (ResultSetMetaData) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] { ResultSetMetaData.class }, handler);
+	}
+	
+}
@@ -0,0 +1,302 @@
+/*
+ * Copyright (c) 2006-2009 by Dirk Riehle, http://dirkriehle.com
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.wahlzeit.services;
+
+import java.sql.*;
+import java.util.*;
+
+/**
+ * A TableScript reads the table definitions and initial rows of an SQL setup script like CreateTables.sql.
+ * It serves storage backends that do not run SQL, so the script stays the one place where tables are defined.
+ * Only CREATE TABLE and INSERT statements with literal values are understood; other statements are skipped.
+ */
+public class TableScript {
+	
+	/**
+	 * 
+	 */
+	protected Map<String, TableColumns> tables = new LinkedHashMap<String, TableColumns>();
+	
+	/**
+	 * Initial rows in script order; each row is mapped from lowercase column label to value
+	 */
+	protected List<String> rowTableNames = new ArrayList<String>();
+	protected List<Map<String, Object>> rows = new ArrayList<Map<String, Object>>();
+	
+	/**
+	 * 
+	 */
+	public TableScript() {
+		// do nothing
+	}
+	
+	/**
+	 * 
+	 */
+	public static TableScript readFrom(String script) throws SQLException {
+		TableScript result = new TableScript();
+		result.addScript(script);
+		return result;
+	}
+	
+	/**
+	 * Adds the tables and rows of script, e.g. of a custom script after the default one.
+	 */
+	public void addScript(String script) throws SQLException {
+		for (String statement : splitStatements(script)) {
+			String upper = statement.toUpperCase();
+			if (upper.startsWith("CREATE TABLE")) {
+				addTable(statement);
+			} else if (upper.startsWith("INSERT INTO")) {
+				addRow(statement);
+			}
+		}
+	}
+	
+	/**
+	 * 
+	 */
+	public Collection<TableColumns> getTables() {
+		return Collections.unmodifiableCollection(tables.values());
+	}
+	
+	/**
+	 * 
+	 */
+	public TableColumns getTable(String tableName) {
+		return tables.get(tableName.toLowerCase());
+	}
+	
+	/**
+	 * 
+	 */
+	public int getNoRows() {
+		return rows.size();
+	}
+	
+	/**
+	 * 
+	 */
+	public String getRowTableName(int i) {
+		return rowTableNames.get(i);
+	}
+	
+	/**
+	 * 
+	 */
+	public Map<String, Object> getRow(int i) {
+		return Collections.unmodifiableMap(rows.get(i));
+	}
+	
+	/**
+	 * Splits script at semicolons outside of string literals, dropping -- comments.
+	 */
+	protected static List<String> splitStatements(String script) {
+		List<String> result = new ArrayList<String>();
+		StringBuffer statement = new StringBuffer();
+		boolean isInString = false;
+		for (int i = 0; i < script.length(); i++) {
+			char c = script.charAt(i);
+			if (!isInString && (c == '-') && (i + 1 < script.length()) && (script.charAt(i + 1) == '-')) {
+				while ((i < script.length()) && (script.charAt(i) != '\n')) {
+					i++;
+				}
+				statement.append('\n');
+			} else if (!isInString && (c == ';')) {
+				addStatement(result, statement);
+				statement = new StringBuffer();
+			} else {
+				if (c == '\'') {
+					isInString = !isInString;
+				}
+				statement.append(c);
+			}
+		}
+		
+		addStatement(result, statement);
+		return result;
+	}
+	
+	/**
+	 * 
+	 */
+	protected static void addStatement(List<String> result, StringBuffer statement) {
+		String trimmed = statement.toString().trim();
+		if (trimmed.length() > 0) {
+			result.add(trimmed.replaceAll("\\s+", " "));
+		}
+	}
+	
+	/**
+	 * 
+	 */
+	protected void addTable(String statement) throws SQLException {
+		int start = statement.indexOf('(');
+		int end = statement.lastIndexOf(')');
+		if ((start < 0) || (end < start)) {
+			throw new SQLException("cannot read table definition: " + statement);
+		}
+		
+		String tableName = unquote(statement.substring("CREATE TABLE".length(), start).trim());
+		TableColumns columns = new TableColumns(tableName);
+		for (String definition : splitAtTopLevel(statement.substring(start + 1, end))) {
+			String[] words = definition.trim().split(" ", 2);
+			String first = words[0].toUpperCase();
+			if (first.equals("PRIMARY") || first.equals("CONSTRAINT") || first.equals("UNIQUE") || first.equals("FOREIGN")) {
+				continue;
+			}
+			
+			columns.addColumn(unquote(words[0]), (words.length > 1) ? getSqlType(words[1]) : Types.OTHER);
+		}
+		
+		tables.put(tableName, columns);
+	}
+	
+	/**
+	 * @return the java.sql.Types constant for the start of a column definition
+	 */
+	protected static int getSqlType(String definition) {
+		String type = definition.toLowerCase();
+		if (type.startsWith("integer") || type.startsWith("int ") || type.equals("int") || type.startsWith("serial")) {
+			return Types.INTEGER;
+		} else if (type.startsWith("bigint") || type.startsWith("bigserial")) {
+			return Types.BIGINT;
+		} else if (type.startsWith("boolean") || type.startsWith("bool")) {
+			return Types.BOOLEAN;
+		} else if (type.startsWith("double precision") || type.startsWith("float") || type.startsWith("real")) {
+			return Types.DOUBLE;
+		} else if (type.startsWith("text") || type.startsWith("varchar") || type.startsWith("character varying")) {
+			return Types.VARCHAR;
+		} else if (type.startsWith("date")) {
+			return Types.DATE;
+		} else if (type.startsWith("timestamp")) {
+			return Types.TIMESTAMP;
+		}
+		
+		return Types.OTHER;
+	}
+	
+	/**
+	 * 
+	 */
+	protected void addRow(String statement) throws SQLException {
+		int start = statement.indexOf('(');
+		int valuesStart = statement.toUpperCase().indexOf("VALUES");
+		if ((start < 0) || (valuesStart < start)) {
+			throw new SQLException("cannot read insert statement without column list: " + statement);
+		}
+		
+		String tableName = unquote(statement.substring("INSERT INTO".length(), start).trim());
+		TableColumns columns = tables.get(tableName);
+		if (columns == null) {
+			throw new SQLException("cannot insert into undefined table " + tableName);
+		}
+		
+		List<String> labels = splitAtTopLevel(statement.substring(start + 1, statement.lastIndexOf(')', valuesStart)));
+		String valueList = statement.substring(valuesStart + "VALUES".length()).trim();
+		List<String> literals = splitAtTopLevel(valueList.substring(valueList.indexOf('(') + 1, valueList.lastIndexOf(')')));
+		if (labels.size() != literals.size()) {
+			throw new SQLException("column and value counts differ: " + statement);
+		}
+		
+		Map<String, Object> row = new LinkedHashMap<String, Object>();
+		for (int i = 0; i < labels.size(); i++) {
+			String label = unquote(labels.get(i).trim());
+			if (!columns.hasColumn(label)) {
+				throw new SQLException("column " + label + " does not exist in table " + tableName);
+			}
+			row.put(label, getValue(literals.get(i).trim(), columns.getColumnType(label)));
+		}
+		
+		rowTableNames.add(tableName);
+		rows.add(row);
+	}
+	
+	/**
+	 * Converts an SQL literal to the Java type that JDBC returns for columns of sqlType.
+	 */
+	protected static Object getValue(String literal, int sqlType) throws SQLException {
+		if (literal.equalsIgnoreCase("NULL")) {
+			return null;
+		} else if (literal.startsWith("'") && literal.endsWith("'") && (literal.length() > 1)) {
+			String value = literal.substring(1, literal.length() - 1).replace("''", "'");
+			return (sqlType == Types.DATE) ? java.sql.Date.valueOf(value) : value;
+		}
+		
+		try {
+			switch (sqlType) {
+			case Types.INTEGER:
+				return Integer.valueOf(literal);
+			case Types.BIGINT:
+				return Long.valueOf(literal);
+			case Types.DOUBLE:
+				return Double.valueOf(literal);
+			case Types.BOOLEAN:
+				return Boolean.valueOf(literal);
+			default:
+				return literal;
+			}
+		} catch (NumberFormatException ex) {
+			throw new SQLException("cannot read literal " + literal, ex);
+		}
+	}
+	
+	/**
+	 * Splits at commas that are neither in parentheses nor in string literals.
+	 */
+	protected static List<String> splitAtTopLevel(String list) {
+		List<String> result = new ArrayList<String>();
+		int depth = 0;
+		boolean isInString = false;
+		int start = 0;
+		for (int i = 0; i < list.length(); i++) {
+			char c = list.charAt(i);
+			if (c == '\'') {
+				isInString = !isInString;
+			} else if (!isInString && (c == '(')) {
+				depth++;
+			} else if (!isInString && (c == ')')) {
+				depth--;
+			} else if (!isInString && (depth == 0) && (c == ',')) {
+				result.add(list.substring(start, i).trim());
+				start = i + 1;
+			}
+		}
+		
+		String last = list.substring(start).trim();
+		if (last.length() > 0) {
+			result.add(last);
+		}
+		return result;
+	}
+	
+	/**
+	 * 
+	 */
+	protected static String unquote(String name) {
+		if (name.startsWith("\"") && name.endsWith("\"") && (name.length() > 1)) {
+			name = name.substring(1, name.length() - 1);
+		}
+		return name.toLowerCase();
+	}
+	
+}
@@ -0,0 +1,260 @@
+/*
+ * Copyright (c) 2006-2009 by Dirk Riehle, http://dirkriehle.com
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.wahlzeit.services;
+
+import java.util.*;
+
+/**
+ * A W-TinyLFU policy: new keys enter a small LRU window; keys leaving the window are admitted to the main
+ * space only if they were used more often than the entry they would displace. The main space is a
+ * segmented LRU, where keys used again move from probation to a protected segment. Usage frequencies
+ * are estimated by a count-min sketch that is halved periodically, so old popularity fades.
+ * 
+ * This keeps popular photos cached while one-off views of the long tail pass through the window.
+ */
+public class TinyLfuCachePolicy<K> implements CachePolicy<K> {
+	
+	/**
+	 * 
+	 */
+	public static final String NAME = "tinylfu";
+	
+	/**
+	 * Share of the window and of the protected segment of the main space
+	 */
+	protected static final double WINDOW_RATIO = 0.01;
+	protected static final double PROTECTED_RATIO = 0.8;
+	
+	/**
+	 * Segments in access order, least recently used first
+	 */
+	protected LinkedHashMap<K, Boolean> window = new LinkedHashMap<K, Boolean>(16, 0.75f, true);
+	protected LinkedHashMap<K, Boolean> probation = new LinkedHashMap<K, Boolean>(16, 0.75f, true);
+	protected LinkedHashMap<K, Boolean> protectedKeys = new LinkedHashMap<K, Boolean>(16, 0.75f, true);
+	
+	/**
+	 * 
+	 */
+	protected int maxWindowSize;
+	protected int maxProtectedSize;
+	
+	/**
+	 * Key that most recently left the window, until it competed for admission
+	 */
+	protected K candidate = null;
+	
+	/**
+	 * 
+	 */
+	protected FrequencySketch sketch;
+	
+	/**
+	 * 
+	 */
+	public TinyLfuCachePolicy(int maxSize) {
+		maxWindowSize = Math.max(1, (int) (maxSize * WINDOW_RATIO));
+		maxProtectedSize = (int) ((maxSize - maxWindowSize) * PROTECTED_RATIO);
+		sketch = new FrequencySketch(maxSize);
+	}
+	
+	/**
+	 * 
+	 */
+	public void recordAccess(K key) {
+		sketch.increment(key);
+		if (window.containsKey(key)) {
+			window.get(key);
+		} else if (probation.remove(key) != null) {
+			protectedKeys.put(key, Boolean.TRUE);
+			if (protectedKeys.size() > maxProtectedSize) {
+				K demoted = protectedKeys.keySet().iterator().next();
+				protectedKeys.remove(demoted);
+				probation.put(demoted, Boolean.TRUE);
+			}
+		} else {
+			protectedKeys.get(key);
+		}
+	}
+	
+	/**
+	 * 
+	 */
+	public void recordInsertion(K key) {
+		sketch.increment(key);
+		window.put(key, Boolean.TRUE);
+		if (window.size() > maxWindowSize) {
+			K eldest = window.keySet().iterator().next();
+			window.remove(eldest);
+			probation.put(eldest, Boolean.TRUE);
+			candidate = eldest;
+		}
+	}
+	
+	/**
+	 * 
+	 */
+	public void recordRemoval(K key) {
+		if ((window.remove(key) == null) && (probation.remove(key) == null)) {
+			protectedKeys.remove(key);
+		}
+		
+		if (key.equals(candidate)) {
+			candidate = null;
+		}
+	}
+	
+	/**
+	 * The candidate from the window competes with the least recently used key on probation; the one
+	 * used less often is evicted, the candidate on ties. Otherwise, segments are evicted from in order.
+	 */
+	public K selectVictim(Evictable<K> evictable) {
+		K victim = LruCachePolicy.selectEldest(probation, evictable);
+		if ((candidate != null) && !candidate.equals(victim) && probation.containsKey(candidate) && evictable.isEvictable(candidate)) {
+			K admitted = candidate;
+			candidate = null;
+			if ((victim == null) || (sketch.getFrequency(admitted) <= sketch.getFrequency(victim))) {
+				return admitted;
+			}
+		}
+		
+		if (victim == null) {
+			victim = LruCachePolicy.selectEldest(window, evictable);
+		}
+		if (victim == null) {
+			victim = LruCachePolicy.selectEldest(protectedKeys, evictable);
+		}
+		
+		return victim;
+	}
+	
+	/**
+	 * @methodtype get
+	 */
+	public int getFrequency(K key) {
+		return sketch.getFrequency(key);
+	}
+	
+	/**
+	 * 
+	 */
+	public String getName() {
+		return NAME;
+	}
+	
+	/**
+	 * A count-min sketch of four rows of counters saturating at 15
+	 */
+	protected static class FrequencySketch {
+		
+		/**
+		 * 
+		 */
+		protected static final int DEPTH = 4;
+		protected static final int MAX_COUNT = 15;
+		protected static final int[] SEEDS = { 0x97cb3127, 0xc2b2ae35, 0x85ebca6b, 0x27d4eb2f };
+		
+		/**
+		 * 
+		 */
+		protected byte[][] counters;
+		
+		/**
+		 * 
+		 */
+		protected int mask;
+		
+		/**
+		 * Number of increments after which all counters are halved
+		 */
+		protected int sampleSize;
+		protected int noIncrements = 0;
+		
+		/**
+		 * 
+		 */
+		public FrequencySketch(int maxSize) {
+			int width = Integer.highestOneBit(Math.max(maxSize, 8) - 1) << 1;
+			counters = new byte[DEPTH][width];
+			mask = width - 1;
+			sampleSize = 10 * width;
+		}
+		
+		/**
+		 * 
+		 */
+		public int getFrequency(Object key) {
+			int hash = spread(key.hashCode());
+			int result = MAX_COUNT;
+			for (int i = 0; i < DEPTH; i++) {
+				result = Math.min(result, counters[i][getIndex(hash, i)]);
+			}
+			return result;
+		}
+		
+		/**
+		 * 
+		 */
+		public void increment(Object key) {
+			int hash = spread(key.hashCode());
+			for (int i = 0; i < DEPTH; i++) {
+				int index = getIndex(hash, i);
+				if (counters[i][index] < MAX_COUNT) {
+					counters[i][index]++;
+				}
+			}
+			
+			if (++noIncrements >= sampleSize) {
+				halve();
+			}
+		}
+		
+		/**
+		 * 
+		 */
+		protected void halve() {
+			for (byte[] row : counters) {
+				for (int i = 0; i < row.length; i++) {
+					row[i] = (byte) (row[i] >> 1);
+				}
+			}
+			noIncrements /= 2;
+		}
+		
+		/**
+		 * 
+		 */
+		protected int getIndex(int hash, int row) {
+			int h = (hash ^ SEEDS[row]) * 0x9e3779b9;
+			return (h ^ (h >>> 16)) & mask;
+		}
+		
+		/**
+		 * 
+		 */
+		protected static int spread(int hash) {
+			hash = (hash ^ (hash >>> 16)) * 0x45d9f3b;
+			return hash ^ (hash >>> 16);
+		}
+		
+	}
+
+}
@@ -0,0 +1,305 @@
+/*
+ * Copyright (c) 2006-2009 by Dirk Riehle, http://dirkriehle.com
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.wahlzeit.services;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+/**
+ * A WriteBehindQueue collects dirty objects so that a background flusher can write them in batches.
+ * Request threads only enqueue and never wait for the database. An object that is already queued is
+ * not queued again, so repeated changes to it between two flushes result in one write.
+ * 
+ * If the queue is full, objects are not queued but the queue is marked as overflowed. Such objects stay
+ * dirty, and the flusher then sweeps all cached objects for dirty ones rather than relying on the queue.
+ */
+public class WriteBehindQueue {
+	
+	/**
+	 * 
+	 */
+	protected static final WriteBehindQueue instance = new WriteBehindQueue();
+	
+	/**
+	 * 
+	 */
+	public static WriteBehindQueue getInstance() {
+		return instance;
+	}
+	
+	/**
+	 * Objects not yet taken by the flusher, in order of first change
+	 */
+	protected Queue<Persistent> queue = new ConcurrentLinkedQueue<Persistent>();
+	protected Set<Persistent> queuedObjects = Collections.newSetFromMap(new ConcurrentHashMap<Persistent, Boolean>());
+	protected AtomicInteger depth = new AtomicInteger(0);
+	
+	/**
+	 * 
+	 */
+	protected volatile boolean isEnabled = false;
+	protected int maxDepth = 0;
+	protected int flushSize = 0;
+	protected long maxWriteDelay = 0;
+	protected AtomicBoolean hasOverflowed = new AtomicBoolean(false);
+	
+	/**
+	 * Monitor the flusher waits on between flushes
+	 */
+	protected Object flushSignal = new Object();
+	
+	/**
+	 * Statistics
+	 */
+	protected AtomicInteger peakDepth = new AtomicInteger(0);
+	protected AtomicLong noScheduled = new AtomicLong(0);
+	protected AtomicLong noCoalesced = new AtomicLong(0);
+	protected AtomicLong noOverflowed = new AtomicLong(0);
+	protected AtomicLong noFlushes = new AtomicLong(0);
+	protected AtomicLong noFlushed = new AtomicLong(0);
+	protected AtomicLong totalFlushTime = new AtomicLong(0);
+	protected AtomicLong maxFlushTime = new AtomicLong(0);
+	protected volatile long lastFlushTime = 0;
+	
+	/**
+	 * Starts accepting objects; until then, schedule() returns false and callers write synchronously.
+	 */
+	public void enable(int myMaxDepth, int myFlushSize) {
+		enable(myMaxDepth, myFlushSize, 0);
+	}
+	
+	/**
+	 * @param myMaxWriteDelay how long a queued object may wait for the flusher, in millis
+	 */
+	public void enable(int myMaxDepth, int myFlushSize, long myMaxWriteDelay) {
+		maxDepth = myMaxDepth;
+		flushSize = myFlushSize;
+		maxWriteDelay = myMaxWriteDelay;
+		isEnabled = true;
+	}
+	
+	/**
+	 * Stops accepting objects; queued objects remain to be drained.
+	 */
+	public void disable() {
+		isEnabled = false;
+		signalFlusher();
+	}
+	
+	/**
+	 * @methodtype boolean-query
+	 */
+	public boolean isEnabled() {
+		return isEnabled;
+	}
+	
+	/**
+	 * Hands obj to the flusher without blocking. The calling session counts as writing until the flusher
+	 * is due, so that it keeps reading its own writes from the primary.
+	 * 
+	 * @return false if there is no flusher, i.e. the caller needs to write obj itself
+	 */
+	public boolean schedule(Persistent obj) {
+		if (!isEnabled) {
+			return false;
+		}
+		
+		Session session = SessionManager.getThreadLocalSession();
+		if (session != null) {
+			session.recordWrite(maxWriteDelay);
+		}
+		
+		if (!queuedObjects.add(obj)) {
+			noCoalesced.incrementAndGet();
+			return true;
+		}
+		
+		if (depth.get() >= maxDepth) {
+			queuedObjects.remove(obj);
+			noOverflowed.incrementAndGet();
+			if (hasOverflowed.compareAndSet(false, true)) {
+				SysLog.logSysInfo("write-behind queue is full, falling back to sweeping dirty objects");
+				signalFlusher();
+			}
+			return true;
+		}
+		
+		queue.offer(obj);
+		noScheduled.incrementAndGet();
+		int newDepth = depth.incrementAndGet();
+		updatePeakDepth(newDepth);
+		if (newDepth == flushSize) {
+			signalFlusher();
+		}
+		
+		return true;
+	}
+	
+	/**
+	 * Takes up to max objects off the queue. An object that changes after being taken gets queued again.
+	 */
+	public List<Persistent> drain(int max) {
+		List<Persistent> result = new ArrayList<Persistent>();
+		while (result.size() < max) {
+			Persistent obj = queue.poll();
+			if (obj == null) {
+				break;
+			}
+			
+			depth.decrementAndGet();
+			queuedObjects.remove(obj);
+			result.add(obj);
+		}
+		
+		return result;
+	}
+	
+	/**
+	 * @return whether objects were turned away since the last call
+	 */
+	public boolean takeOverflow() {
+		return hasOverflowed.getAndSet(false);
+	}
+	
+	/**
+	 * Waits until timeout passed, the flush size is reached, or the queue overflowed.
+	 */
+	public void awaitFlush(long timeout) throws InterruptedException {
+		synchronized(flushSignal) {
+			if (isEnabled && (depth.get() < flushSize) && !hasOverflowed.get()) {
+				flushSignal.wait(timeout);
+			}
+		}
+	}
+	
+	/**
+	 * 
+	 */
+	protected void signalFlusher() {
+		synchronized(flushSignal) {
+			flushSignal.notifyAll();
+		}
+	}
+	
+	/**
+	 * 
+	 */
+	protected void updatePeakDepth(int newDepth) {
+		int peak = peakDepth.get();
+		while ((newDepth > peak) && !peakDepth.compareAndSet(peak, newDepth)) {
+			peak = peakDepth.get();
+		}
+	}
+	
+	/**
+	 * 
+	 */
+	public void recordFlush(int noObjects, long duration) {
+		noFlushes.incrementAndGet();
+		noFlushed.addAndGet(noObjects);
+		totalFlushTime.addAndGet(duration);
+		lastFlushTime = duration;
+		long max = maxFlushTime.get();
+		while ((duration > max) && !maxFlushTime.compareAndSet(max, duration)) {
+			max = maxFlushTime.get();
+		}
+	}
+	
+	/**
+	 * 
+	 */
+	public int getDepth() {
+		return depth.get();
+	}
+	
+	/**
+	 * 
+	 */
+	public int getPeakDepth() {
+		return peakDepth.get();
+	}
+	
+	/**
+	 * 
+	 */
+	public long getNoScheduled() {
+		return noScheduled.get();
+	}
+	
+	/**
+	 * 
+	 */
+	public long getNoCoalesced() {
+		return noCoalesced.get();
+	}
+	
+	/**
+	 * 
+	 */
+	public long getNoOverflowed() {
+		return noOverflowed.get();
+	}
+	
+	/**
+	 * 
+	 */
+	public long getNoFlushes() {
+		return noFlushes.get();
+	}
+	
+	/**
+	 * 
+	 */
+	public long getNoFlushed() {
+		return noFlushed.get();
+	}
+	
+	/**
+	 * 
+	 */
+	public long getMaxFlushTime() {
+		return maxFlushTime.get();
+	}
+	
+	/**
+	 * 
+	 */
+	public long getAverageFlushTime() {
+		long flushes = noFlushes.get();
+		return (flushes == 0) ? 0 : totalFlushTime.get() / flushes;
+	}
+	
+	/**
+	 * @methodtype conversion
+	 */
+	public String asStatisticsString() {
+		return (isEnabled ? "" : "disabled, ")
+			+ "queued: " + getDepth() + " (peak " + getPeakDepth() + " of " + maxDepth + ")"
+			+ ", scheduled: " + getNoScheduled()
+			+ ", coalesced: " + getNoCoalesced()
+			+ ", overflowed: " + getNoOverflowed()
+			+ ", flushed: " + getNoFlushed() + " in " + getNoFlushes() + " flushes"
+			+ ", flush time: " + lastFlushTime + "ms last, " + getAverageFlushTime() + "ms avg, " + getMaxFlushTime() + "ms max";
+	}
+	
+}
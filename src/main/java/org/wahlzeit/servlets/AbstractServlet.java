@@ -75,8 +75,11 @@ public abstract class AbstractServlet extends HttpServlet {
 		if (ServiceMain.getInstance().isShuttingDown() || (us == null)) {
 			displayNullPage(request, response);
 		} else {
-			myGet(request, response);
-			us.returnDatabaseConnection();
+			try {
+				myGet(request, response);
+			} finally {
+				us.returnDatabaseConnection();
+			}
 		}
 
 		SessionManager.dropThreadLocalSession();
@@ -99,8 +102,11 @@ public abstract class AbstractServlet extends HttpServlet {
 		if (ServiceMain.getInstance().isShuttingDown() || (us == null)) {
 			displayNullPage(request, response);
 		} else {
-			myPost(request, response);
-			us.returnDatabaseConnection();
+			try {
+				myPost(request, response);
+			} finally {
+				us.returnDatabaseConnection();
+			}
 		}
 
 		SessionManager.dropThreadLocalSession();
@@ -0,0 +1,472 @@
+/*
+ * Copyright (c) 2006-2009 by Dirk Riehle, http://dirkriehle.com
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package org.wahlzeit.tools;
+
+import java.io.*;
+import java.nio.file.*;
+import java.sql.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+import org.wahlzeit.main.*;
+import org.wahlzeit.model.*;
+import org.wahlzeit.services.*;
+
+/**
+ * A script that imports a directory tree of photos for one user, e.g. an archive of millions of photos.
+ * The photo files are walked in sorted order; a bounded pool of workers creates the image files, while
+ * the main thread loads the photos and tags rows in batches with COPY, one transaction per batch. The
+ * directories a photo is in become its tags.
+ * 
+ * The ids of all photos are reserved up front, the n-th photo file gets the n-th id of the range. After
+ * each batch, the number of photos done is written to a checkpoint file; a run that is started again on
+ * the same directory resumes from there, after removing rows of the range that were loaded after the
+ * checkpoint. Running servers only see the imported photos after a restart.
+ * 
+ * Example: BulkImport --dir /archive --user commons --threads 8 --batch 1000
+ */
+public class BulkImport extends ScriptMain {
+	
+	/**
+	 * 
+	 */
+	public static final String[] PHOTO_FILE_EXTENSIONS = { ".jpg", ".jpeg", ".png", ".gif" };
+	
+	/**
+	 * 
+	 */
+	public static void main(String[] argv) {
+		new BulkImport().run(argv);
+	}
+	
+	/**
+	 * 
+	 */
+	protected String photoDirName = null;
+	protected String userName = "commons";
+	protected int noThreads = Runtime.getRuntime().availableProcessors();
+	protected int batchSize = 1000;
+	protected String checkpointFileName = null;
+	
+	/**
+	 * 
+	 */
+	protected int handleArg(String arg, int i, String[] argv) {
+		if (arg.equals("--dir")) {
+			photoDirName = argv[++i];
+		} else if (arg.equals("--user")) {
+			userName = argv[++i];
+		} else if (arg.equals("--threads")) {
+			noThreads = Math.max(Integer.parseInt(argv[++i]), 1);
+		} else if (arg.equals("--batch")) {
+			batchSize = Math.max(Integer.parseInt(argv[++i]), 1);
+		} else if (arg.equals("--checkpoint")) {
+			checkpointFileName = argv[++i];
+		} else {
+			i = super.handleArg(arg, i, argv);
+		}
+		
+		return i;
+	}
+	
+	/**
+	 * 
+	 */
+	protected void execute() throws Exception {
+		super.execute();
+		
+		if (recordStore != null) {
+			SysLog.logSysError("bulk import loads the database, not the embedded record store");
+			return;
+		} else if (photoDirName == null) {
+			SysLog.logSysError("no photo directory given, use --dir");
+			return;
+		}
+		
+		User user = UserManager.getInstance().getUserByName(userName);
+		if (user == null) {
+			SysLog.logSysError("unknown user: " + userName);
+			return;
+		}
+		
+		File photoDir = new File(photoDirName).getCanonicalFile();
+		File checkpointFile = getCheckpointFile(photoDir);
+		int noFiles = countPhotoFiles(photoDir);
+		Connection conn = SessionManager.getDatabaseConnection().getRdbmsConnection();
+		
+		Checkpoint checkpoint = Checkpoint.readFrom(checkpointFile);
+		if (checkpoint == null) {
+			if (noFiles == 0) {
+				SysLog.logSysInfo("no photos found in " + photoDir);
+				return;
+			}
+			checkpoint = new Checkpoint(photoDir.getPath(), user.getName(), PhotoId.reserveIds(noFiles), noFiles);
+			checkpoint.writeTo(checkpointFile);
+			SysLog.logSysInfo("importing " + noFiles + " photos with ids from " + checkpoint.firstId);
+		} else if (!checkpoint.isFor(photoDir.getPath(), user.getName(), noFiles)) {
+			throw new IllegalStateException("photos in " + photoDir + " changed since checkpoint " + checkpointFile);
+		} else {
+			deleteRowsAfter(conn, checkpoint);
+			SysLog.logSysInfo("resuming import after " + checkpoint.noDone + " of " + noFiles + " photos");
+		}
+		
+		importPhotos(conn, photoDir, user, checkpoint, checkpointFile);
+	}
+	
+	/**
+	 * 
+	 */
+	protected File getCheckpointFile(File photoDir) {
+		if (checkpointFileName != null) {
+			return new File(checkpointFileName);
+		}
+		
+		String name = "bulkimport-" + Integer.toHexString(photoDir.getPath().hashCode()) + ".properties";
+		return new File(SysConfig.getTempDir().asString(), name);
+	}
+	
+	/**
+	 * 
+	 */
+	protected int countPhotoFiles(File photoDir) {
+		int result = 0;
+		for (Iterator<File> i = new PhotoFileWalker(photoDir); i.hasNext(); i.next()) {
+			result++;
+		}
+		return result;
+	}
+	
+	/**
+	 * Removes the rows of the photos after the checkpoint, which a previous run may have loaded
+	 */
+	protected void deleteRowsAfter(Connection conn, Checkpoint checkpoint) throws SQLException {
+		int firstId = checkpoint.firstId + checkpoint.noDone;
+		int lastId = checkpoint.firstId + checkpoint.noFiles - 1;
+		String[] queries = { "DELETE FROM tags WHERE photo_id BETWEEN ? AND ?", "DELETE FROM photos WHERE id BETWEEN ? AND ?" };
+		for (String query : queries) {
+			PreparedStatement stmt = conn.prepareStatement(query);
+			try {
+				stmt.setInt(1, firstId);
+				stmt.setInt(2, lastId);
+				SysLog.logQuery(stmt);
+				stmt.executeUpdate();
+			} finally {
+				stmt.close();
+			}
+		}
+	}
+	
+	/**
+	 * 
+	 */
+	protected void importPhotos(Connection conn, File photoDir, User user, Checkpoint checkpoint, File checkpointFile) throws Exception {
+		TableColumns photoColumns = TableColumns.readFrom(conn, "photos");
+		ColumnValueRecorder recorder = new ColumnValueRecorder(photoColumns);
+		CopyWriter photoRows = new CopyWriter("photos", photoColumns.getColumnLabels());
+		CopyWriter tagRows = new CopyWriter("tags", Arrays.asList("tag", "photo_id"));
+		PhotoTagCollector tagCollector = PhotoFactory.getInstance().createPhotoTagCollector();
+		
+		Iterator<File> files = new PhotoFileWalker(photoDir);
+		for (int i = 0; (i < checkpoint.noDone) && files.hasNext(); i++) {
+			files.next();
+		}
+		
+		ExecutorService workers = Executors.newFixedThreadPool(noThreads);
+		Deque<Future<Photo>> pending = new ArrayDeque<Future<Photo>>();
+		int maxPending = noThreads * 4; // bounds the images held in memory
+		int nextNo = checkpoint.noDone;
+		int noInBatch = 0;
+		int noSkippedInBatch = 0;
+		long startTime = System.currentTimeMillis();
+		int noDoneAtStart = checkpoint.noDone;
+		try {
+			while (files.hasNext() || !pending.isEmpty()) {
+				while (files.hasNext() && (pending.size() < maxPending)) {
+					PhotoId id = PhotoId.getIdFromInt(checkpoint.firstId + nextNo++);
+					pending.addLast(workers.submit(new ImportTask(photoDir, files.next(), id, user)));
+				}
+				
+				Photo photo = pending.removeFirst().get();
+				noInBatch++;
+				if (photo != null) {
+					recorder.record(photo);
+					photoRows.addRow(recorder.getValues());
+					Set<String> tags = new HashSet<String>();
+					tagCollector.collect(tags, photo);
+					for (String tag : tags) {
+						tagRows.addRow(tag, photo.getId().asInt());
+					}
+				} else {
+					noSkippedInBatch++;
+				}
+				
+				if ((noInBatch >= batchSize) || (!files.hasNext() && pending.isEmpty())) {
+					commitBatch(conn, photoRows, tagRows);
+					checkpoint.noDone += noInBatch;
+					checkpoint.noSkipped += noSkippedInBatch;
+					checkpoint.writeTo(checkpointFile);
+					noInBatch = 0;
+					noSkippedInBatch = 0;
+					logProgress(checkpoint, checkpoint.noDone - noDoneAtStart, startTime);
+				}
+			}
+		} finally {
+			workers.shutdownNow();
+		}
+		
+		SysLog.logSysInfo("imported " + (checkpoint.noDone - checkpoint.noSkipped) + " photos of " + photoDir + ", skipped " + checkpoint.noSkipped);
+	}
+	
+	/**
+	 * Loads the rows of a batch in one transaction
+	 */
+	protected void commitBatch(Connection conn, CopyWriter photoRows, CopyWriter tagRows) throws SQLException {
+		CopyWriter.copyInTransaction(conn, photoRows, tagRows);
+	}
+	
+	/**
+	 * 
+	 */
+	protected void logProgress(Checkpoint checkpoint, int noDoneInRun, long startTime) {
+		long duration = Math.max(System.currentTimeMillis() - startTime, 1);
+		long throughput = (noDoneInRun * 1000L) / duration;
+		SysLog.logSysInfo("bulk import", checkpoint.noDone + "/" + checkpoint.noFiles, throughput + " photos/s, " + checkpoint.noSkipped + " skipped");
+	}
+	
+	/**
+	 * Creates the image files and the photo of one photo file; null if the file is not a valid photo
+	 */
+	protected static class ImportTask implements Callable<Photo> {
+		
+		/**
+		 * 
+		 */
+		protected File photoDir;
+		protected File file;
+		protected PhotoId id;
+		protected User user;
+		
+		/**
+		 * 
+		 */
+		protected ImportTask(File myPhotoDir, File myFile, PhotoId myId, User myUser) {
+			photoDir = myPhotoDir;
+			file = myFile;
+			id = myId;
+			user = myUser;
+		}
+		
+		/**
+		 * 
+		 */
+		public Photo call() {
+			try {
+				Photo result = PhotoUtil.createPhoto(file, id);
+				user.setOwnerOf(result);
+				result.setTags(new Tags(getDirectoryNames()));
+				return result;
+			} catch (Exception ex) {
+				SysLog.logSysInfo("bulk import", file.getPath(), "skipped: " + ex.getMessage());
+				return null;
+			}
+		}
+		
+		/**
+		 * @return the directories between photoDir and the file, separated by Tags.SEPARATOR_CHAR
+		 */
+		protected String getDirectoryNames() {
+			StringBuffer result = new StringBuffer();
+			for (File dir = file.getParentFile(); (dir != null) && !dir.equals(photoDir); dir = dir.getParentFile()) {
+				result.insert(0, dir.getName() + Tags.SEPARATOR_CHAR);
+			}
+			return result.toString();
+		}
+		
+	}
+	
+	/**
+	 * Iterates over the photo files of a directory tree, depth first and sorted by name, so that
+	 * every run sees them in the same order
+	 */
+	protected static class PhotoFileWalker implements Iterator<File> {
+		
+		/**
+		 * Files and directories still to visit, next on top
+		 */
+		protected Deque<File> stack = new ArrayDeque<File>();
+		protected File next = null;
+		
+		/**
+		 * 
+		 */
+		protected PhotoFileWalker(File root) {
+			stack.push(root);
+			advance();
+		}
+		
+		/**
+		 * 
+		 */
+		public boolean hasNext() {
+			return next != null;
+		}
+		
+		/**
+		 * 
+		 */
+		public File next() {
+			if (next == null) {
+				throw new NoSuchElementException();
+			}
+			
+			File result = next;
+			advance();
+			return result;
+		}
+		
+		/**
+		 * 
+		 */
+		public void remove() {
+			throw new UnsupportedOperationException();
+		}
+		
+		/**
+		 * 
+		 */
+		protected void advance() {
+			next = null;
+			while ((next == null) && !stack.isEmpty()) {
+				File file = stack.pop();
+				if (file.isDirectory()) {
+					File[] children = file.listFiles();
+					if (children != null) {
+						Arrays.sort(children);
+						for (int i = children.length - 1; i >= 0; i--) {
+							stack.push(children[i]);
+						}
+					}
+				} else if (isPhotoFile(file)) {
+					next = file;
+				}
+			}
+		}
+		
+		/**
+		 * @methodtype boolean-query
+		 */
+		protected static boolean isPhotoFile(File file) {
+			String name = file.getName().toLowerCase();
+			for (String extension : PHOTO_FILE_EXTENSIONS) {
+				if (name.endsWith(extension)) {
+					return true;
+				}
+			}
+			return false;
+		}
+		
+	}
+	
+	/**
+	 * The progress of an import: its range of ids, and how many photos of it are loaded or skipped
+	 */
+	protected static class Checkpoint {
+		
+		/**
+		 * 
+		 */
+		protected String photoDirName;
+		protected String userName;
+		protected int firstId;
+		protected int noFiles;
+		protected int noDone = 0;
+		protected int noSkipped = 0;
+		
+		/**
+		 * 
+		 */
+		protected Checkpoint(String myPhotoDirName, String myUserName, int myFirstId, int myNoFiles) {
+			photoDirName = myPhotoDirName;
+			userName = myUserName;
+			firstId = myFirstId;
+			noFiles = myNoFiles;
+		}
+		
+		/**
+		 * @return the checkpoint written to file, or null if there is none
+		 */
+		protected static Checkpoint readFrom(File file) throws IOException {
+			if (!file.exists()) {
+				return null;
+			}
+			
+			Properties properties = new Properties();
+			InputStream in = new FileInputStream(file);
+			try {
+				properties.load(in);
+			} finally {
+				in.close();
+			}
+			
+			Checkpoint result = new Checkpoint(
+				properties.getProperty("photoDir"),
+				properties.getProperty("user"),
+				Integer.parseInt(properties.getProperty("firstId")),
+				Integer.parseInt(properties.getProperty("noFiles"))
+			);
+			result.noDone = Integer.parseInt(properties.getProperty("noDone"));
+			result.noSkipped = Integer.parseInt(properties.getProperty("noSkipped"));
+			return result;
+		}
+		
+		/**
+		 * Replaces file atomically, so that a crash leaves the previous checkpoint
+		 */
+		protected void writeTo(File file) throws IOException {
+			Properties properties = new Properties();
+			properties.setProperty("photoDir", photoDirName);
+			properties.setProperty("user", userName);
+			properties.setProperty("firstId", String.valueOf(firstId));
+			properties.setProperty("noFiles", String.valueOf(noFiles));
+			properties.setProperty("noDone", String.valueOf(noDone));
+			properties.setProperty("noSkipped", String.valueOf(noSkipped));
+			
+			File tempFile = new File(file.getPath() + ".tmp");
+			FileOutputStream out = new FileOutputStream(tempFile);
+			try {
+				properties.store(out, "bulk import checkpoint");
+				out.getFD().sync();
+			} finally {
+				out.close();
+			}
+			Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		}
+		
+		/**
+		 * @methodtype boolean-query
+		 */
+		protected boolean isFor(String otherPhotoDirName, String otherUserName, int otherNoFiles) {
+			return photoDirName.equals(otherPhotoDirName) && userName.equals(otherUserName) && (noFiles == otherNoFiles);
+		}
+		
+	}
+	
+}
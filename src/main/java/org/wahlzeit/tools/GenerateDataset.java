@@ -0,0 +1,513 @@
+/*
+ * Copyright (c) 2006-2009 by Dirk Riehle, http://dirkriehle.com
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package org.wahlzeit.tools;
+
+import java.awt.*;
+import java.awt.image.*;
+import java.io.*;
+import java.nio.file.*;
+import java.sql.*;
+import java.sql.Date;
+import java.util.*;
+import java.util.concurrent.*;
+
+import javax.imageio.*;
+
+import org.wahlzeit.main.*;
+import org.wahlzeit.model.*;
+import org.wahlzeit.model.gaming.*;
+import org.wahlzeit.model.location.*;
+import org.wahlzeit.services.*;
+import org.wahlzeit.utils.*;
+
+/**
+ * A script that generates a synthetic dataset of users and gaming photos for load tests and benchmarks.
+ * Owners, tags, video games, and places are drawn with Zipfian popularity; vote counts are log-normal
+ * around a median, and photo states follow a configurable mix. Everything but the ids is drawn from one
+ * random generator in a fixed order, so the same seed and arguments produce the same dataset.
+ * 
+ * Users and photos are written either through the managers, like uploads, or loaded with COPY in batches,
+ * like BulkImport; the latter is only seen by running servers after a restart. Image files cost nothing
+ * (none), a file copy per size of a few prerendered images (placeholder), or rendering and scaling a
+ * distinct image per photo, like an upload (full).
+ * 
+ * Example: GenerateDataset --users 10000 --photos 1000000 --seed 7 --mode copy --images placeholder
+ */
+public class GenerateDataset extends ScriptMain {
+	
+	/**
+	 * 
+	 */
+	public static final String MODE_MANAGERS = "managers";
+	public static final String MODE_COPY = "copy";
+	
+	/**
+	 * 
+	 */
+	public static final String IMAGES_NONE = "none";
+	public static final String IMAGES_PLACEHOLDER = "placeholder";
+	public static final String IMAGES_FULL = "full";
+	
+	/**
+	 * 
+	 */
+	public static final String DEFAULT_STATUS_MIX = "visible=90,invisible=4,flagged=3,moderated=1,deleted=2";
+	public static final String DEFAULT_GAME_TYPES = "Action/Shooter,Action/Platformer,Action/Fighting,Adventure,"
+		+ "RolePlaying/Western,RolePlaying/Japanese,Strategy/RealTime,Strategy/TurnBased,Simulation/Racing,Simulation/Sports,Puzzle";
+	
+	/**
+	 * Width and height of the generated photos, landscape, portrait, and square
+	 */
+	protected static final int[][] PHOTO_SHAPES = { { 1200, 900 }, { 1200, 800 }, { 900, 1200 }, { 1000, 1000 } };
+	
+	/**
+	 * 
+	 */
+	protected static final String[] SYLLABLES = {
+		"ka", "lo", "mi", "ra", "tu", "ne", "so", "vi", "pa", "de", "ri", "go", "lu", "fe", "ba", "zo"
+	};
+	
+	/**
+	 * 
+	 */
+	protected static final double EARTH_RADIUS = 6371.0;
+	protected static final double PLACE_SPREAD = 0.01; // radians
+	protected static final double VOTES_SIGMA = 1.0;
+	protected static final int MAX_TAGS_PER_PHOTO = 5;
+	protected static final long MILLIS_PER_DAY = 24L * 60 * 60 * 1000;
+	
+	/**
+	 * 
+	 */
+	public static void main(String[] argv) {
+		new GenerateDataset().run(argv);
+	}
+	
+	/**
+	 * 
+	 */
+	protected int noUsers = 1000;
+	protected int noPhotos = 10000;
+	protected long seed = 42;
+	protected String userNamePrefix = "user";
+	protected int noTags = 500;
+	protected int noGames = 200;
+	protected int noPlaces = 50;
+	protected double skew = 1.0;
+	protected int medianNoVotes = 10;
+	protected double locatedShare = 0.8;
+	protected String statusMix = DEFAULT_STATUS_MIX;
+	protected String gameTypes = DEFAULT_GAME_TYPES;
+	protected String mode = MODE_MANAGERS;
+	protected String images = IMAGES_PLACEHOLDER;
+	protected int noThreads = Runtime.getRuntime().availableProcessors();
+	protected int batchSize = 1000;
+	
+	/**
+	 * 
+	 */
+	protected Random random;
+	protected WeightedSampler ownerSampler;
+	protected WeightedSampler tagSampler;
+	protected WeightedSampler gameSampler;
+	protected WeightedSampler placeSampler;
+	protected WeightedSampler statusSampler;
+	protected PhotoStatus[] statuses;
+	protected VideoGame[] games;
+	protected double[][] places;
+	
+	/**
+	 * Prerendered image files by photo shape and size, null for sizes a shape is too small for
+	 */
+	protected byte[][][] placeholders;
+	
+	/**
+	 * 
+	 */
+	protected ExecutorService imageWriters;
+	protected Deque<Future<?>> pendingImages = new ArrayDeque<Future<?>>();
+	
+	/**
+	 * 
+	 */
+	protected int handleArg(String arg, int i, String[] argv) {
+		if (arg.equals("--users")) {
+			noUsers = Math.max(Integer.parseInt(argv[++i]), 1);
+		} else if (arg.equals("--photos")) {
+			noPhotos = Math.max(Integer.parseInt(argv[++i]), 0);
+		} else if (arg.equals("--seed")) {
+			seed = Long.parseLong(argv[++i]);
+		} else if (arg.equals("--prefix")) {
+			userNamePrefix = argv[++i];
+		} else if (arg.equals("--tags")) {
+			noTags = Math.max(Integer.parseInt(argv[++i]), 1);
+		} else if (arg.equals("--games")) {
+			noGames = Math.max(Integer.parseInt(argv[++i]), 1);
+		} else if (arg.equals("--places")) {
+			noPlaces = Math.max(Integer.parseInt(argv[++i]), 1);
+		} else if (arg.equals("--skew")) {
+			skew = Math.max(Double.parseDouble(argv[++i]), 0.0);
+		} else if (arg.equals("--votes")) {
+			medianNoVotes = Math.max(Integer.parseInt(argv[++i]), 1);
+		} else if (arg.equals("--located")) {
+			locatedShare = Double.parseDouble(argv[++i]);
+		} else if (arg.equals("--status")) {
+			statusMix = argv[++i];
+		} else if (arg.equals("--game-types")) {
+			gameTypes = argv[++i];
+		} else if (arg.equals("--mode")) {
+			mode = argv[++i];
+		} else if (arg.equals("--images")) {
+			images = argv[++i];
+		} else if (arg.equals("--threads")) {
+			noThreads = Math.max(Integer.parseInt(argv[++i]), 1);
+		} else if (arg.equals("--batch")) {
+			batchSize = Math.max(Integer.parseInt(argv[++i]), 1);
+		} else {
+			i = super.handleArg(arg, i, argv);
+		}
+		
+		return i;
+	}
+	
+	/**
+	 * 
+	 */
+	protected void execute() throws Exception {
+		super.execute();
+		
+		boolean isCopyMode = mode.equals(MODE_COPY);
+		if (!isCopyMode && !mode.equals(MODE_MANAGERS)) {
+			SysLog.logSysError("unknown mode: " + mode + ", use " + MODE_MANAGERS + " or " + MODE_COPY);
+			return;
+		} else if (!images.equals(IMAGES_NONE) && !images.equals(IMAGES_PLACEHOLDER) && !images.equals(IMAGES_FULL)) {
+			SysLog.logSysError("unknown images: " + images + ", use " + IMAGES_NONE + ", " + IMAGES_PLACEHOLDER + " or " + IMAGES_FULL);
+			return;
+		} else if (isCopyMode && (recordStore != null)) {
+			SysLog.logSysError("copy mode loads the database, not the embedded record store");
+			return;
+		} else if (UserManager.getInstance().getUserByName(getUserName(0)) != null) {
+			SysLog.logSysError("users named " + getUserName(0) + "... exist already, use another --prefix");
+			return;
+		}
+		
+		initDistributions();
+		if (images.equals(IMAGES_PLACEHOLDER)) {
+			renderPlaceholders();
+		}
+		
+		imageWriters = Executors.newFixedThreadPool(noThreads);
+		try {
+			if (isCopyMode) {
+				copyDataset(SessionManager.getDatabaseConnection().getRdbmsConnection());
+			} else {
+				addDataset();
+			}
+			
+			while (!pendingImages.isEmpty()) {
+				pendingImages.removeFirst().get();
+			}
+		} finally {
+			imageWriters.shutdownNow();
+		}
+	}
+	
+	/**
+	 * Draws the games and places, so the samplers need no further setup per photo
+	 */
+	protected void initDistributions() {
+		random = new Random(seed);
+		ownerSampler = WeightedSampler.createZipfian(noUsers, skew);
+		tagSampler = WeightedSampler.createZipfian(noTags, skew);
+		gameSampler = WeightedSampler.createZipfian(noGames, skew);
+		placeSampler = WeightedSampler.createZipfian(noPlaces, skew);
+		initStatusSampler();
+		
+		String[] typePaths = gameTypes.split(",");
+		long firstRelease = Date.valueOf("1980-01-01").getTime();
+		games = new VideoGame[noGames];
+		for (int i = 0; i < noGames; i++) {
+			String word = getWord(i);
+			String title = word.substring(0, 1).toUpperCase() + word.substring(1);
+			String typePath = typePaths[random.nextInt(typePaths.length)].trim();
+			Date release = new Date(firstRelease + random.nextInt(40 * 365) * MILLIS_PER_DAY);
+			games[i] = VideoGameManager.getInstance().createInstance(title, typePath, release);
+		}
+		
+		places = new double[noPlaces][];
+		for (int i = 0; i < noPlaces; i++) {
+			double phi = 2 * Math.PI * random.nextDouble();
+			double theta = Math.acos(2 * random.nextDouble() - 1); // uniform over the sphere
+			places[i] = new double[] { phi, theta };
+		}
+	}
+	
+	/**
+	 * Parses the status mix, e.g. visible=90,flagged=10, into weights
+	 */
+	protected void initStatusSampler() {
+		String[] parts = statusMix.split(",");
+		statuses = new PhotoStatus[parts.length];
+		int[] weights = new int[parts.length];
+		for (int i = 0; i < parts.length; i++) {
+			String[] nameAndWeight = parts[i].split("=");
+			if (nameAndWeight.length != 2) {
+				throw new IllegalArgumentException("invalid status mix: " + statusMix);
+			}
+			statuses[i] = PhotoStatus.getFromString(nameAndWeight[0].trim());
+			weights[i] = Integer.parseInt(nameAndWeight[1].trim());
+		}
+		statusSampler = new WeightedSampler(weights);
+	}
+	
+	/**
+	 * Writes users and photos through the managers, as if created with the web UI
+	 */
+	protected void addDataset() throws Exception {
+		UserManager userManager = UserManager.getInstance();
+		PhotoManager photoManager = PhotoManager.getInstance();
+		
+		long startTime = System.currentTimeMillis();
+		User[] users = new User[noUsers];
+		for (int i = 0; i < noUsers; i++) {
+			users[i] = createUser(i);
+			userManager.addUser(users[i]);
+		}
+		logProgress("users", noUsers, noUsers, startTime);
+		
+		startTime = System.currentTimeMillis();
+		for (int i = 0; i < noPhotos; i++) {
+			User owner = users[ownerSampler.sample(random)];
+			Photo photo = createPhoto(i, PhotoId.getNextId());
+			Tags tags = createTags();
+			photoManager.addPhoto(photo);
+			owner.addPhoto(photo);
+			photo.setTags(tags);
+			photoManager.savePhoto(photo);
+			
+			if (((i + 1) % batchSize == 0) || (i + 1 == noPhotos)) {
+				logProgress("photos", i + 1, noPhotos, startTime);
+			}
+		}
+	}
+	
+	/**
+	 * Loads users and photos with COPY, one transaction per batch
+	 */
+	protected void copyDataset(Connection conn) throws Exception {
+		long startTime = System.currentTimeMillis();
+		ColumnValueRecorder userRecorder = new ColumnValueRecorder(TableColumns.readFrom(conn, "users"));
+		CopyWriter userRows = new CopyWriter("users", userRecorder.getColumnLabels());
+		User[] users = new User[noUsers];
+		for (int i = 0; i < noUsers; i++) {
+			users[i] = createUser(i);
+			userRecorder.record(users[i]);
+			userRows.addRow(userRecorder.getValues());
+			if ((userRows.getNoRows() >= batchSize) || (i + 1 == noUsers)) {
+				CopyWriter.copyInTransaction(conn, userRows);
+				logProgress("users", i + 1, noUsers, startTime);
+			}
+		}
+		
+		if (noPhotos == 0) {
+			return;
+		}
+		
+		startTime = System.currentTimeMillis();
+		int firstId = PhotoId.reserveIds(noPhotos);
+		ColumnValueRecorder photoRecorder = new ColumnValueRecorder(TableColumns.readFrom(conn, "photos"));
+		CopyWriter photoRows = new CopyWriter("photos", photoRecorder.getColumnLabels());
+		CopyWriter tagRows = new CopyWriter("tags", Arrays.asList("tag", "photo_id"));
+		PhotoTagCollector tagCollector = PhotoFactory.getInstance().createPhotoTagCollector();
+		for (int i = 0; i < noPhotos; i++) {
+			User owner = users[ownerSampler.sample(random)];
+			Photo photo = createPhoto(i, PhotoId.getIdFromInt(firstId + i));
+			owner.setOwnerOf(photo);
+			photo.setTags(createTags());
+			
+			photoRecorder.record(photo);
+			photoRows.addRow(photoRecorder.getValues());
+			Set<String> tags = new HashSet<String>();
+			tagCollector.collect(tags, photo);
+			for (String tag : tags) {
+				tagRows.addRow(tag, photo.getId().asInt());
+			}
+			
+			if ((photoRows.getNoRows() >= batchSize) || (i + 1 == noPhotos)) {
+				CopyWriter.copyInTransaction(conn, photoRows, tagRows);
+				logProgress("photos", i + 1, noPhotos, startTime);
+			}
+		}
+	}
+	
+	/**
+	 * @methodtype factory
+	 */
+	protected User createUser(int no) {
+		String name = getUserName(no);
+		User result = new User(name, name, name + "@example.org", no);
+		result.setConfirmed();
+		return result;
+	}
+	
+	/**
+	 * Draws the attributes of the no-th photo and schedules its image files
+	 * @methodtype factory
+	 */
+	protected Photo createPhoto(int no, PhotoId id) throws Exception {
+		Photo result = new GamingPhoto(id, games[gameSampler.sample(random)]);
+		
+		int shape = random.nextInt(PHOTO_SHAPES.length);
+		result.setWidthAndHeight(PHOTO_SHAPES[shape][0], PHOTO_SHAPES[shape][1]);
+		result.setStatus(statuses[statusSampler.sample(random)]);
+		
+		int noVotes = (int) Math.min(Math.round(medianNoVotes * Math.exp(VOTES_SIGMA * random.nextGaussian())), 1000000);
+		noVotes = Math.max(noVotes, 1);
+		double quality = Math.min(Math.max(5.5 + 1.5 * random.nextGaussian(), 1.0), 10.0);
+		result.setPraise((int) Math.round(noVotes * quality), noVotes);
+		
+		if (random.nextDouble() < locatedShare) {
+			result.location = new Location(createCoordinate());
+		}
+		
+		scheduleImageFiles(no, id, shape);
+		return result;
+	}
+	
+	/**
+	 * @return a coordinate close to a place, rounded to about 6km, as coordinates are shared value objects
+	 */
+	protected Coordinate createCoordinate() {
+		double[] place = places[placeSampler.sample(random)];
+		double phi = place[0] + PLACE_SPREAD * random.nextGaussian();
+		double theta = Math.min(Math.max(place[1] + PLACE_SPREAD * random.nextGaussian(), 0.0), Math.PI);
+		return SphericCoordinate.getValueObject(Math.round(phi * 1000) / 1000.0, Math.round(theta * 1000) / 1000.0, EARTH_RADIUS);
+	}
+	
+	/**
+	 * @methodtype factory
+	 */
+	protected Tags createTags() {
+		int noPhotoTags = random.nextInt(MAX_TAGS_PER_PHOTO + 1);
+		StringBuffer tags = new StringBuffer();
+		for (int i = 0; i < noPhotoTags; i++) {
+			tags.append(getWord(tagSampler.sample(random))).append(Tags.SEPARATOR_CHAR);
+		}
+		return new Tags(tags.toString()); // drops duplicates
+	}
+	
+	/**
+	 * @return a pronounceable word of at least two syllables, distinct for every no
+	 */
+	protected static String getWord(int no) {
+		StringBuffer result = new StringBuffer();
+		for (int n = no + SYLLABLES.length; n > 0; n /= SYLLABLES.length) {
+			result.append(SYLLABLES[n % SYLLABLES.length]);
+		}
+		return result.toString();
+	}
+	
+	/**
+	 * 
+	 */
+	protected String getUserName(int no) {
+		return userNamePrefix + no;
+	}
+	
+	/**
+	 * Renders one source image per photo shape and keeps its image files of all sizes
+	 */
+	protected void renderPlaceholders() throws IOException {
+		placeholders = new byte[PHOTO_SHAPES.length][][];
+		for (int shape = 0; shape < PHOTO_SHAPES.length; shape++) {
+			BufferedImage source = renderImage(PHOTO_SHAPES[shape][0], PHOTO_SHAPES[shape][1], new Random(seed + shape));
+			placeholders[shape] = new byte[PhotoSize.values().length][];
+			for (PhotoSize size : PhotoSize.values()) {
+				if (!size.isWiderAndHigher(source.getWidth(), source.getHeight())) {
+					ByteArrayOutputStream out = new ByteArrayOutputStream();
+					ImageIO.write(PhotoUtil.createScaledImage(source, size), "jpg", out);
+					placeholders[shape][size.asInt()] = out.toByteArray();
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Hands the image files of a photo to the writers, waiting for earlier ones to bound memory
+	 */
+	protected void scheduleImageFiles(final int no, final PhotoId id, final int shape) throws Exception {
+		if (images.equals(IMAGES_NONE)) {
+			return;
+		}
+		
+		while (pendingImages.size() >= noThreads * 4) {
+			pendingImages.removeFirst().get();
+		}
+		
+		pendingImages.addLast(imageWriters.submit(new Callable<Void>() {
+			public Void call() throws Exception {
+				if (images.equals(IMAGES_FULL)) {
+					int[] dimensions = PHOTO_SHAPES[shape];
+					PhotoUtil.createImageFiles(renderImage(dimensions[0], dimensions[1], new Random(seed ^ (no * 31L + 17))), id);
+				} else {
+					for (PhotoSize size : PhotoSize.values()) {
+						byte[] placeholder = placeholders[shape][size.asInt()];
+						if (placeholder != null) {
+							Files.write(PhotoUtil.getImageFile(id, size).toPath(), placeholder);
+						}
+					}
+				}
+				return null;
+			}
+		}));
+	}
+	
+	/**
+	 * @return an image of a gradient and some shapes in random colors
+	 */
+	protected static BufferedImage renderImage(int width, int height, Random random) {
+		BufferedImage result = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+		Graphics2D g2d = result.createGraphics();
+		try {
+			g2d.setPaint(new GradientPaint(0, 0, new Color(random.nextInt(0x1000000)), width, height, new Color(random.nextInt(0x1000000))));
+			g2d.fillRect(0, 0, width, height);
+			for (int i = 0; i < 8; i++) {
+				g2d.setColor(new Color(random.nextInt(0x1000000)));
+				int w = 1 + random.nextInt(width / 2);
+				int h = 1 + random.nextInt(height / 2);
+				g2d.fillOval(random.nextInt(width - w), random.nextInt(height - h), w, h);
+			}
+		} finally {
+			g2d.dispose();
+		}
+		return result;
+	}
+	
+	/**
+	 * 
+	 */
+	protected void logProgress(String what, int noDone, int noTotal, long startTime) {
+		long duration = Math.max(System.currentTimeMillis() - startTime, 1);
+		long throughput = (noDone * 1000L) / duration;
+		SysLog.logSysInfo("generate dataset", what + " " + noDone + "/" + noTotal, throughput + " " + what + "/s");
+	}
+	
+}
@@ -0,0 +1,238 @@
+/*
+ * Copyright (c) 2006-2009 by Dirk Riehle, http://dirkriehle.com
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.wahlzeit.tools;
+
+import java.io.File;
+import java.sql.*;
+import java.util.*;
+
+import org.wahlzeit.main.*;
+import org.wahlzeit.model.*;
+import org.wahlzeit.services.*;
+import org.wahlzeit.utils.*;
+
+/**
+ * A script that compares the embedded record store with the JDBC backend on the photos table.
+ * Both backends go through the same ObjectManager methods the photo manager uses: adding photos one by one,
+ * saving all of them as a batch, reading single photos by id, and loading the whole table.
+ * The benchmark writes to a table and a storage directory of its own, which are removed afterwards.
+ */
+public class StorageBenchmark extends ScriptMain {
+	
+	/**
+	 * 
+	 */
+	public static final String TABLE_NAME = "benchmark_photos";
+	
+	/**
+	 * 
+	 */
+	public static void main(String[] argv) {
+		new StorageBenchmark().run(argv);
+	}
+	
+	/**
+	 * 
+	 */
+	protected int noPhotos = 10000;
+	protected int noReads = 10000;
+	
+	/**
+	 * 
+	 */
+	protected int handleArg(String arg, int i, String[] argv) {
+		if (arg.equals("--photos")) {
+			noPhotos = Integer.parseInt(argv[++i]);
+		} else if (arg.equals("--reads")) {
+			noReads = Integer.parseInt(argv[++i]);
+		} else {
+			i = super.handleArg(arg, i, argv);
+		}
+		
+		return i;
+	}
+	
+	/**
+	 * 
+	 */
+	protected void execute() throws Exception {
+		PhotoId.setIdAllocator(new IdBlockAllocator("benchmark", PhotoId.getCurrentIdAsInt(), 1024));
+		TableColumns columns = readTableScript("CreateTables.sql").getTable("photos").copyAs(TABLE_NAME);
+		
+		File storageDir = new File(SysConfig.getTempDir().asString(), TABLE_NAME);
+		LogRecordStore store = new LogRecordStore(storageDir, Collections.singleton(columns), SysConfig.isStorageSync());
+		try {
+			BenchmarkManager manager = new BenchmarkManager();
+			manager.setRecordStore(store);
+			runBenchmark("embedded", manager);
+		} finally {
+			store.close();
+			for (File file : storageDir.listFiles()) {
+				file.delete();
+			}
+			storageDir.delete();
+		}
+		
+		try {
+			runJdbcBenchmark();
+		} catch (SQLException sex) {
+			SysLog.logSysInfo("benchmark", "jdbc", "database not available: " + sex.getMessage());
+		}
+	}
+	
+	/**
+	 * 
+	 */
+	protected void runJdbcBenchmark() throws SQLException {
+		DatabaseConnection dbc = SessionManager.getDatabaseConnection();
+		if (dbc == null) {
+			throw new SQLException("no database connection");
+		}
+		
+		Statement stmt = dbc.getRdbmsConnection().createStatement();
+		try {
+			stmt.execute("DROP TABLE IF EXISTS " + TABLE_NAME);
+			stmt.execute("CREATE TABLE " + TABLE_NAME + " (LIKE photos INCLUDING ALL)");
+			BenchmarkManager manager = new BenchmarkManager();
+			manager.setRecordStore(null);
+			runBenchmark("jdbc", manager);
+		} finally {
+			stmt.execute("DROP TABLE IF EXISTS " + TABLE_NAME);
+			stmt.close();
+		}
+	}
+	
+	/**
+	 * 
+	 */
+	protected void runBenchmark(String backend, BenchmarkManager manager) throws SQLException {
+		List<Photo> photos = new ArrayList<Photo>(noPhotos);
+		for (int i = 0; i < noPhotos; i++) {
+			Photo photo = PhotoFactory.getInstance().createPhoto(PhotoId.getNextId());
+			photo.setOwnerName("owner" + (i % 100));
+			photo.setOwnerEmailAddress(EmailAddress.getFromString("owner" + (i % 100) + "@wahlzeit.org"));
+			photo.setOwnerHomePage(StringUtil.asUrl("http://wahlzeit.org/"));
+			photo.setWidthAndHeight(640, 480);
+			photos.add(photo);
+		}
+		
+		long startTime = System.nanoTime();
+		for (Photo photo : photos) {
+			manager.addPhoto(photo);
+		}
+		report(backend, "add", noPhotos, startTime);
+		
+		for (Photo photo : photos) {
+			photo.setOwnerName(photo.getOwnerName() + "*");
+		}
+		startTime = System.nanoTime();
+		manager.savePhotos(photos);
+		report(backend, "save", noPhotos, startTime);
+		
+		Random random = new Random(42);
+		startTime = System.nanoTime();
+		for (int i = 0; i < noReads; i++) {
+			Photo photo = photos.get(random.nextInt(photos.size()));
+			if (manager.readPhoto(photo.getId()) == null) {
+				throw new SQLException("photo " + photo.getIdAsString() + " was not stored");
+			}
+		}
+		report(backend, "read", noReads, startTime);
+		
+		startTime = System.nanoTime();
+		List<Photo> loaded = new ArrayList<Photo>(noPhotos);
+		manager.loadPhotos(loaded);
+		report(backend, "load", loaded.size(), startTime);
+	}
+	
+	/**
+	 * 
+	 */
+	protected void report(String backend, String operation, int noOperations, long startTime) {
+		long duration = Math.max((System.nanoTime() - startTime) / 1000, 1);
+		long throughput = noOperations * 1000000L / duration;
+		SysLog.logSysInfo("benchmark", backend, operation + ": " + noOperations + " photos in " + (duration / 1000) + "ms (" + throughput + " photos/s)");
+	}
+	
+	/**
+	 * Stores photos in the benchmark table the way PhotoManager stores them in the photos table
+	 */
+	protected static class BenchmarkManager extends ObjectManager {
+		
+		/**
+		 * 
+		 */
+		protected Photo createObject(ResultSet rset) throws SQLException {
+			return PhotoFactory.getInstance().createPhoto(rset);
+		}
+		
+		/**
+		 * 
+		 */
+		protected boolean canCreateObjectsConcurrently() {
+			return true;
+		}
+		
+		/**
+		 * 
+		 */
+		public void addPhoto(Photo photo) throws SQLException {
+			if (hasRecordStore()) {
+				writeRecords(Collections.singletonList(photo), TABLE_NAME);
+			} else {
+				PreparedStatement stmt = getReadingStatement("INSERT INTO " + TABLE_NAME + "(id) VALUES(?)");
+				createObject(photo, stmt, photo.getId().asInt());
+			}
+		}
+		
+		/**
+		 * 
+		 */
+		public void savePhotos(Collection<Photo> photos) throws SQLException {
+			saveObjects(photos, TABLE_NAME);
+		}
+		
+		/**
+		 * 
+		 */
+		public Photo readPhoto(PhotoId id) throws SQLException {
+			if (hasRecordStore()) {
+				return (Photo) readRecord(TABLE_NAME, id.asInt());
+			}
+			
+			PreparedStatement stmt = getReadingStatement("SELECT * FROM " + TABLE_NAME + " WHERE id = ?");
+			return (Photo) readObject(stmt, id.asInt());
+		}
+		
+		/**
+		 * 
+		 */
+		public void loadPhotos(Collection<Photo> result) throws SQLException {
+			if (hasRecordStore()) {
+				readRecords(result, TABLE_NAME, null, null);
+			} else {
+				readObjectsStreaming(result, "SELECT * FROM " + TABLE_NAME, TABLE_NAME);
+			}
+		}
+	}
+	
+}
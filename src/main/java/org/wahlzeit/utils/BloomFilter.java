@@ -0,0 +1,170 @@
+/*
+ * Copyright (c) 2006-2009 by Dirk Riehle, http://dirkriehle.com
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.wahlzeit.utils;
+
+import java.util.concurrent.atomic.*;
+
+/**
+ * A BloomFilter is a compact set of strings that may answer "maybe" for strings never added,
+ * but never answers "no" for strings that were added. Strings cannot be removed.
+ * The number of bits and hash functions follow from the expected number of strings and the
+ * acceptable rate of false positives; each string sets one bit per hash function, derived
+ * from two independent hashes by double hashing.
+ * 
+ * BloomFilters are thread-safe; bits are set with compare-and-set, without locking.
+ */
+public class BloomFilter {
+	
+	/**
+	 * 
+	 */
+	protected AtomicLongArray bits;
+	protected int noBits;
+	protected int noHashes;
+	
+	/**
+	 * 
+	 */
+	protected int expectedSize;
+	protected AtomicInteger noAdditions = new AtomicInteger();
+	
+	/**
+	 * 
+	 */
+	public BloomFilter(int myExpectedSize, double falsePositiveRate) {
+		expectedSize = Math.max(myExpectedSize, 1);
+		long optimalBits = (long) Math.ceil(-expectedSize * Math.log(falsePositiveRate) / (Math.log(2) * Math.log(2)));
+		noBits = (int) Math.min(Math.max(optimalBits, 64), Integer.MAX_VALUE - 63);
+		noHashes = Math.max(1, (int) Math.round((double) noBits / expectedSize * Math.log(2)));
+		bits = new AtomicLongArray((noBits + 63) / 64);
+	}
+	
+	/**
+	 * 
+	 */
+	public void add(String value) {
+		long hash = hash64(value);
+		int h1 = (int) hash;
+		int h2 = (int) (hash >>> 32);
+		for (int i = 0; i < noHashes; i++) {
+			setBit(getIndex(h1, h2, i));
+		}
+		noAdditions.incrementAndGet();
+	}
+	
+	/**
+	 * @return false if value was certainly never added
+	 */
+	public boolean mightContain(String value) {
+		long hash = hash64(value);
+		int h1 = (int) hash;
+		int h2 = (int) (hash >>> 32);
+		for (int i = 0; i < noHashes; i++) {
+			int index = getIndex(h1, h2, i);
+			if ((bits.get(index >>> 6) & (1L << index)) == 0) {
+				return false;
+			}
+		}
+		return true;
+	}
+	
+	/**
+	 * 
+	 */
+	protected int getIndex(int h1, int h2, int i) {
+		int combined = h1 + i * h2;
+		return (combined & Integer.MAX_VALUE) % noBits;
+	}
+	
+	/**
+	 * 
+	 */
+	protected void setBit(int index) {
+		int word = index >>> 6;
+		long mask = 1L << index;
+		long current = bits.get(word);
+		while ((current & mask) == 0) {
+			if (bits.compareAndSet(word, current, current | mask)) {
+				return;
+			}
+			current = bits.get(word);
+		}
+	}
+	
+	/**
+	 * A 64-bit FNV-1a hash of the chars of value, with a final mix
+	 */
+	protected static long hash64(String value) {
+		long hash = 0xcbf29ce484222325L;
+		for (int i = 0; i < value.length(); i++) {
+			hash ^= value.charAt(i);
+			hash *= 0x100000001b3L;
+		}
+		hash ^= hash >>> 33;
+		hash *= 0xff51afd7ed558ccdL;
+		hash ^= hash >>> 33;
+		return hash;
+	}
+	
+	/**
+	 * @methodtype boolean-query
+	 */
+	public boolean isSaturated() {
+		return noAdditions.get() > expectedSize;
+	}
+	
+	/**
+	 * @methodtype get
+	 */
+	public int getNoBits() {
+		return noBits;
+	}
+	
+	/**
+	 * @methodtype get
+	 */
+	public int getNoHashes() {
+		return noHashes;
+	}
+	
+	/**
+	 * @methodtype get
+	 */
+	public int getExpectedSize() {
+		return expectedSize;
+	}
+	
+	/**
+	 * @methodtype get
+	 */
+	public int getNoAdditions() {
+		return noAdditions.get();
+	}
+	
+	/**
+	 * @return the expected false positive rate at the current number of additions
+	 */
+	public double getFalsePositiveRate() {
+		return Math.pow(1 - Math.exp(-(double) noHashes * noAdditions.get() / noBits), noHashes);
+	}
+
+}
@@ -0,0 +1,539 @@
+/*
+ * Copyright (c) 2006-2009 by Dirk Riehle, http://dirkriehle.com
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package org.wahlzeit.utils;
+
+import java.util.*;
+
+/**
+ * An IntBitmap is a compressed set of non-negative ints such as ids.
+ * Each int is split into a high and a low 16-bit half. For every high half in use, the low halves are kept
+ * in a sorted char array while there are at most 4096 of them, and in a 65536-bit bitmap otherwise.
+ * Memory thus grows with the number of entries, and dense ranges take about one bit per entry.
+ * Intersections work container by container, without looking at ints that cannot be in the result.
+ * 
+ * IntBitmaps are not thread-safe.
+ */
+public class IntBitmap {
+	
+	/**
+	 * Array containers hold at most this many entries, which take as much memory as one bitmap container
+	 */
+	protected static final int MAX_ARRAY_SIZE = 4096;
+	protected static final int BITMAP_SIZE = 1024; // in longs
+	
+	/**
+	 * Sorted high halves, and for each a char[] or long[] container with its cardinality
+	 */
+	protected char[] keys = new char[4];
+	protected Object[] containers = new Object[4];
+	protected int[] cardinalities = new int[4];
+	protected int noContainers = 0;
+	protected int cardinality = 0;
+	
+	/**
+	 * 
+	 */
+	public IntBitmap() {
+		// do nothing
+	}
+	
+	/**
+	 * 
+	 */
+	public static IntBitmap of(int... values) {
+		IntBitmap result = new IntBitmap();
+		for (int value : values) {
+			result.add(value);
+		}
+		return result;
+	}
+	
+	/**
+	 * 
+	 */
+	public int getCardinality() {
+		return cardinality;
+	}
+	
+	/**
+	 * 
+	 */
+	public boolean isEmpty() {
+		return cardinality == 0;
+	}
+	
+	/**
+	 * 
+	 */
+	public boolean contains(int value) {
+		if (value < 0) {
+			return false;
+		}
+		
+		int i = indexOfKey(highOf(value));
+		if (i < 0) {
+			return false;
+		}
+		
+		char low = lowOf(value);
+		Object container = containers[i];
+		if (container instanceof long[]) {
+			return isBitSet((long[]) container, low);
+		} else {
+			return Arrays.binarySearch((char[]) container, 0, cardinalities[i], low) >= 0;
+		}
+	}
+	
+	/**
+	 * @return true if value was not contained before
+	 */
+	public boolean add(int value) {
+		assertIsNonNegative(value);
+		
+		char high = highOf(value);
+		char low = lowOf(value);
+		int i = indexOfKey(high);
+		if (i < 0) {
+			i = -i - 1;
+			insertContainer(i, high, new char[] { low, 0, 0, 0 }, 1);
+			cardinality++;
+			return true;
+		}
+		
+		Object container = containers[i];
+		if (container instanceof long[]) {
+			long[] bitmap = (long[]) container;
+			if (isBitSet(bitmap, low)) {
+				return false;
+			}
+			bitmap[low >>> 6] |= 1L << low;
+		} else {
+			char[] array = (char[]) container;
+			int size = cardinalities[i];
+			int pos = Arrays.binarySearch(array, 0, size, low);
+			if (pos >= 0) {
+				return false;
+			}
+			
+			if (size == MAX_ARRAY_SIZE) {
+				long[] bitmap = toBitmap(array, size);
+				bitmap[low >>> 6] |= 1L << low;
+				containers[i] = bitmap;
+			} else {
+				pos = -pos - 1;
+				if (size == array.length) {
+					array = Arrays.copyOf(array, Math.min(size * 2, MAX_ARRAY_SIZE));
+					containers[i] = array;
+				}
+				System.arraycopy(array, pos, array, pos + 1, size - pos);
+				array[pos] = low;
+			}
+		}
+		
+		cardinalities[i]++;
+		cardinality++;
+		return true;
+	}
+	
+	/**
+	 * @return true if value was contained before
+	 */
+	public boolean remove(int value) {
+		if (value < 0) {
+			return false;
+		}
+		
+		int i = indexOfKey(highOf(value));
+		if (i < 0) {
+			return false;
+		}
+		
+		char low = lowOf(value);
+		Object container = containers[i];
+		if (container instanceof long[]) {
+			long[] bitmap = (long[]) container;
+			if (!isBitSet(bitmap, low)) {
+				return false;
+			}
+			bitmap[low >>> 6] &= ~(1L << low);
+			if ((cardinalities[i] - 1) == MAX_ARRAY_SIZE) {
+				containers[i] = toArray(bitmap, MAX_ARRAY_SIZE);
+			}
+		} else {
+			char[] array = (char[]) container;
+			int size = cardinalities[i];
+			int pos = Arrays.binarySearch(array, 0, size, low);
+			if (pos < 0) {
+				return false;
+			}
+			System.arraycopy(array, pos + 1, array, pos, size - pos - 1);
+		}
+		
+		cardinality--;
+		if (--cardinalities[i] == 0) {
+			removeContainer(i);
+		}
+		return true;
+	}
+	
+	/**
+	 * @return the ints contained in both this and other
+	 */
+	public IntBitmap and(IntBitmap other) {
+		IntBitmap result = new IntBitmap();
+		int i = 0;
+		int j = 0;
+		while ((i < noContainers) && (j < other.noContainers)) {
+			if (keys[i] < other.keys[j]) {
+				i++;
+			} else if (keys[i] > other.keys[j]) {
+				j++;
+			} else {
+				result.appendIntersection(keys[i], containers[i], cardinalities[i], other.containers[j], other.cardinalities[j]);
+				i++;
+				j++;
+			}
+		}
+		
+		return result;
+	}
+	
+	/**
+	 * @return the ints contained in this but not in other
+	 */
+	public IntBitmap andNot(IntBitmap other) {
+		IntBitmap result = copy();
+		int[] values = (other.cardinality < cardinality) ? other.toArray() : toArray();
+		for (int i = 0; i < values.length; i++) {
+			if (other.contains(values[i])) {
+				result.remove(values[i]);
+			}
+		}
+		return result;
+	}
+	
+	/**
+	 * @return the ints contained in all bitmaps, smallest bitmaps first to keep intermediate results small
+	 */
+	public static IntBitmap and(Collection<IntBitmap> bitmaps) {
+		if (bitmaps.isEmpty()) {
+			return new IntBitmap();
+		}
+		
+		List<IntBitmap> sorted = new ArrayList<IntBitmap>(bitmaps);
+		Collections.sort(sorted, new Comparator<IntBitmap>() {
+			public int compare(IntBitmap a, IntBitmap b) {
+				return Integer.compare(a.cardinality, b.cardinality);
+			}
+		});
+		IntBitmap result = sorted.get(0).copy();
+		for (int i = 1; (i < sorted.size()) && !result.isEmpty(); i++) {
+			result = result.and(sorted.get(i));
+		}
+		return result;
+	}
+	
+	/**
+	 * @return the rank-th smallest int, starting with 0
+	 */
+	public int select(int rank) {
+		if ((rank < 0) || (rank >= cardinality)) {
+			throw new IndexOutOfBoundsException("rank " + rank + " of " + cardinality);
+		}
+		
+		int i = 0;
+		while (rank >= cardinalities[i]) {
+			rank -= cardinalities[i++];
+		}
+		
+		int high = keys[i] << 16;
+		Object container = containers[i];
+		if (container instanceof char[]) {
+			return high | ((char[]) container)[rank];
+		}
+		
+		long[] bitmap = (long[]) container;
+		for (int w = 0; ; w++) {
+			int count = Long.bitCount(bitmap[w]);
+			if (rank < count) {
+				long word = bitmap[w];
+				for (int k = 0; k < rank; k++) {
+					word &= word - 1; // drop lowest set bit
+				}
+				return high | (w << 6) | Long.numberOfTrailingZeros(word);
+			}
+			rank -= count;
+		}
+	}
+	
+	/**
+	 * @return all ints in ascending order
+	 */
+	public int[] toArray() {
+		int[] result = new int[cardinality];
+		int pos = 0;
+		for (int i = 0; i < noContainers; i++) {
+			int high = keys[i] << 16;
+			Object container = containers[i];
+			if (container instanceof char[]) {
+				char[] array = (char[]) container;
+				for (int k = 0; k < cardinalities[i]; k++) {
+					result[pos++] = high | array[k];
+				}
+			} else {
+				long[] bitmap = (long[]) container;
+				for (int w = 0; w < BITMAP_SIZE; w++) {
+					long word = bitmap[w];
+					while (word != 0) {
+						result[pos++] = high | (w << 6) | Long.numberOfTrailingZeros(word);
+						word &= word - 1; // drop lowest set bit
+					}
+				}
+			}
+		}
+		return result;
+	}
+	
+	/**
+	 * 
+	 */
+	public IntBitmap copy() {
+		IntBitmap result = new IntBitmap();
+		result.keys = Arrays.copyOf(keys, Math.max(noContainers, 1));
+		result.cardinalities = Arrays.copyOf(cardinalities, Math.max(noContainers, 1));
+		result.containers = new Object[Math.max(noContainers, 1)];
+		for (int i = 0; i < noContainers; i++) {
+			Object container = containers[i];
+			if (container instanceof char[]) {
+				result.containers[i] = Arrays.copyOf((char[]) container, cardinalities[i]);
+			} else {
+				result.containers[i] = ((long[]) container).clone();
+			}
+		}
+		result.noContainers = noContainers;
+		result.cardinality = cardinality;
+		return result;
+	}
+	
+	/**
+	 * @return approximate memory taken by the containers
+	 */
+	public long getSizeInBytes() {
+		long result = 16 + keys.length * 2 + cardinalities.length * 4 + containers.length * 8;
+		for (int i = 0; i < noContainers; i++) {
+			Object container = containers[i];
+			result += 16 + ((container instanceof char[]) ? ((char[]) container).length * 2 : BITMAP_SIZE * 8);
+		}
+		return result;
+	}
+	
+	/**
+	 * 
+	 */
+	public boolean equals(Object o) {
+		if (!(o instanceof IntBitmap)) {
+			return false;
+		}
+		
+		IntBitmap other = (IntBitmap) o;
+		return (cardinality == other.cardinality) && Arrays.equals(toArray(), other.toArray());
+	}
+	
+	/**
+	 * 
+	 */
+	public int hashCode() {
+		return Arrays.hashCode(toArray());
+	}
+	
+	/**
+	 * 
+	 */
+	public String toString() {
+		return "IntBitmap(" + cardinality + ")";
+	}
+	
+	/**
+	 * 
+	 */
+	protected void appendIntersection(char key, Object a, int aSize, Object b, int bSize) {
+		if ((a instanceof long[]) && (b instanceof long[])) {
+			long[] aBitmap = (long[]) a;
+			long[] bBitmap = (long[]) b;
+			long[] bitmap = new long[BITMAP_SIZE];
+			int size = 0;
+			for (int w = 0; w < BITMAP_SIZE; w++) {
+				bitmap[w] = aBitmap[w] & bBitmap[w];
+				size += Long.bitCount(bitmap[w]);
+			}
+			if (size > MAX_ARRAY_SIZE) {
+				appendContainer(key, bitmap, size);
+			} else if (size > 0) {
+				appendContainer(key, toArray(bitmap, size), size);
+			}
+			return;
+		}
+		
+		if (a instanceof long[]) { // make a the array container
+			Object c = a;
+			a = b;
+			b = c;
+			int cSize = aSize;
+			aSize = bSize;
+			bSize = cSize;
+		}
+		
+		char[] array = (char[]) a;
+		char[] values = new char[Math.min(aSize, bSize)];
+		int size = 0;
+		if (b instanceof long[]) {
+			long[] bitmap = (long[]) b;
+			for (int k = 0; k < aSize; k++) {
+				if (isBitSet(bitmap, array[k])) {
+					values[size++] = array[k];
+				}
+			}
+		} else {
+			char[] other = (char[]) b;
+			int k = 0;
+			int l = 0;
+			while ((k < aSize) && (l < bSize)) {
+				if (array[k] < other[l]) {
+					k++;
+				} else if (array[k] > other[l]) {
+					l++;
+				} else {
+					values[size++] = array[k];
+					k++;
+					l++;
+				}
+			}
+		}
+		
+		if (size > 0) {
+			appendContainer(key, values, size);
+		}
+	}
+	
+	/**
+	 * 
+	 */
+	protected void appendContainer(char key, Object container, int size) {
+		insertContainer(noContainers, key, container, size);
+		cardinality += size;
+	}
+	
+	/**
+	 * 
+	 */
+	protected void insertContainer(int i, char key, Object container, int size) {
+		if (noContainers == keys.length) {
+			int newLength = keys.length * 2;
+			keys = Arrays.copyOf(keys, newLength);
+			containers = Arrays.copyOf(containers, newLength);
+			cardinalities = Arrays.copyOf(cardinalities, newLength);
+		}
+		
+		System.arraycopy(keys, i, keys, i + 1, noContainers - i);
+		System.arraycopy(containers, i, containers, i + 1, noContainers - i);
+		System.arraycopy(cardinalities, i, cardinalities, i + 1, noContainers - i);
+		keys[i] = key;
+		containers[i] = container;
+		cardinalities[i] = size;
+		noContainers++;
+	}
+	
+	/**
+	 * 
+	 */
+	protected void removeContainer(int i) {
+		System.arraycopy(keys, i + 1, keys, i, noContainers - i - 1);
+		System.arraycopy(containers, i + 1, containers, i, noContainers - i - 1);
+		System.arraycopy(cardinalities, i + 1, cardinalities, i, noContainers - i - 1);
+		noContainers--;
+		containers[noContainers] = null;
+	}
+	
+	/**
+	 * 
+	 */
+	protected int indexOfKey(char key) {
+		return Arrays.binarySearch(keys, 0, noContainers, key);
+	}
+	
+	/**
+	 * 
+	 */
+	protected static char highOf(int value) {
+		return (char) (value >>> 16);
+	}
+	
+	/**
+	 * 
+	 */
+	protected static char lowOf(int value) {
+		return (char) value;
+	}
+	
+	/**
+	 * 
+	 */
+	protected static boolean isBitSet(long[] bitmap, char low) {
+		return (bitmap[low >>> 6] & (1L << low)) != 0;
+	}
+	
+	/**
+	 * 
+	 */
+	protected static long[] toBitmap(char[] array, int size) {
+		long[] result = new long[BITMAP_SIZE];
+		for (int k = 0; k < size; k++) {
+			result[array[k] >>> 6] |= 1L << array[k];
+		}
+		return result;
+	}
+	
+	/**
+	 * 
+	 */
+	protected static char[] toArray(long[] bitmap, int size) {
+		char[] result = new char[size];
+		int pos = 0;
+		for (int w = 0; w < BITMAP_SIZE; w++) {
+			long word = bitmap[w];
+			while (word != 0) {
+				result[pos++] = (char) ((w << 6) | Long.numberOfTrailingZeros(word));
+				word &= word - 1;
+			}
+		}
+		return result;
+	}
+	
+	/**
+	 * 
+	 */
+	protected static void assertIsNonNegative(int value) {
+		if (value < 0) {
+			throw new IllegalArgumentException("negative values are not supported: " + value);
+		}
+	}
+	
+}
@@ -0,0 +1,133 @@
+/*
+ * Copyright (c) 2006-2009 by Dirk Riehle, http://dirkriehle.com
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.wahlzeit.utils;
+
+import java.util.*;
+import java.util.concurrent.atomic.*;
+
+/**
+ * A StripedLong is a sum that many threads can add to without contending on one memory word.
+ * It starts with a single cell; whenever an add finds its cell contended, the thread moves on to
+ * another cell, and the cells are doubled up to about the number of processors. Cells are shared
+ * by reference when doubling, so no add is ever lost.
+ * 
+ * Unlike java.util.concurrent.atomic.LongAdder, sumThenReset() takes every cell with getAndSet(),
+ * so that adds racing with a reset are counted either before or after it, never dropped.
+ */
+public class StripedLong {
+	
+	/**
+	 * 
+	 */
+	protected static final int MAX_CELLS = Integer.highestOneBit(Math.max(Runtime.getRuntime().availableProcessors(), 1) * 2 - 1);
+	
+	/**
+	 * Per-thread cell index, changed on contention
+	 */
+	protected static final ThreadLocal<int[]> probe = new ThreadLocal<int[]>() {
+		protected int[] initialValue() {
+			return new int[] { new Random().nextInt() | 1 };
+		}
+	};
+	
+	/**
+	 * Length is always a power of two
+	 */
+	protected volatile AtomicLong[] cells = new AtomicLong[] { new AtomicLong() };
+	
+	/**
+	 * 
+	 */
+	public StripedLong() {
+		// do nothing
+	}
+	
+	/**
+	 * 
+	 */
+	public void add(long value) {
+		int[] threadProbe = probe.get();
+		AtomicLong[] current = cells;
+		AtomicLong cell = current[threadProbe[0] & (current.length - 1)];
+		long old = cell.get();
+		if (!cell.compareAndSet(old, old + value)) {
+			cell.addAndGet(value);
+			threadProbe[0] = rehash(threadProbe[0]);
+			if (current.length < MAX_CELLS) {
+				expand(current);
+			}
+		}
+	}
+	
+	/**
+	 * @return the sum of all cells; adds racing with sum() may or may not be included
+	 */
+	public long sum() {
+		long result = 0;
+		for (AtomicLong cell : cells) {
+			result += cell.get();
+		}
+		return result;
+	}
+	
+	/**
+	 * @return the sum of all cells, which are reset to zero
+	 */
+	public long sumThenReset() {
+		long result = 0;
+		for (AtomicLong cell : cells) {
+			result += cell.getAndSet(0);
+		}
+		return result;
+	}
+	
+	/**
+	 * @methodtype get
+	 */
+	public int getNoCells() {
+		return cells.length;
+	}
+	
+	/**
+	 * 
+	 */
+	protected synchronized void expand(AtomicLong[] current) {
+		if (cells == current) {
+			AtomicLong[] expanded = Arrays.copyOf(current, current.length * 2);
+			for (int i = current.length; i < expanded.length; i++) {
+				expanded[i] = new AtomicLong();
+			}
+			cells = expanded;
+		}
+	}
+	
+	/**
+	 * A xorshift step
+	 */
+	protected static int rehash(int value) {
+		value ^= value << 13;
+		value ^= value >>> 17;
+		value ^= value << 5;
+		return value;
+	}
+
+}
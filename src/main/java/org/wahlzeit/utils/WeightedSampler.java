@@ -0,0 +1,172 @@
+/*
+ * Copyright (c) 2006-2009 by Dirk Riehle, http://dirkriehle.com
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.wahlzeit.utils;
+
+import java.util.*;
+
+/**
+ * A WeightedSampler draws indexes 0..size-1 with probability proportional to their weight.
+ * Weights are kept in a Fenwick tree of prefix sums, so drawing and changing a weight take O(log size).
+ * An index with weight 0 is never drawn.
+ */
+public class WeightedSampler {
+	
+	/**
+	 * 
+	 */
+	protected int[] weights;
+	
+	/**
+	 * Fenwick tree, tree[i] is the sum of weights (i - lowbit(i), i], 1-based
+	 */
+	protected long[] tree;
+	
+	/**
+	 * 
+	 */
+	protected long totalWeight = 0;
+	
+	/**
+	 * 
+	 */
+	protected int highestPowerOfTwo;
+	
+	/**
+	 * Creates a sampler over the given non-negative weights in O(size).
+	 */
+	public WeightedSampler(int[] myWeights) {
+		weights = myWeights.clone();
+		tree = new long[weights.length + 1];
+		for (int i = 0; i < weights.length; i++) {
+			assertIsValidWeight(weights[i]);
+			tree[i + 1] += weights[i];
+			int parent = (i + 1) + ((i + 1) & -(i + 1));
+			if (parent <= weights.length) {
+				tree[parent] += tree[i + 1];
+			}
+			totalWeight += weights[i];
+		}
+		
+		highestPowerOfTwo = (weights.length == 0) ? 0 : Integer.highestOneBit(weights.length);
+	}
+	
+	/**
+	 * Weight of the most popular index in samplers created by createZipfian
+	 */
+	public static final int MAX_ZIPFIAN_WEIGHT = 1 << 20;
+	
+	/**
+	 * Creates a sampler that draws index k with probability proportional to 1 / (k + 1)^exponent, as
+	 * popularity is distributed over tags or users. Weights are scaled to ints and at least 1.
+	 * @methodtype factory
+	 */
+	public static WeightedSampler createZipfian(int size, double exponent) {
+		int[] weights = new int[size];
+		for (int i = 0; i < size; i++) {
+			weights[i] = Math.max((int) Math.round(MAX_ZIPFIAN_WEIGHT / Math.pow(i + 1, exponent)), 1);
+		}
+		return new WeightedSampler(weights);
+	}
+	
+	/**
+	 * 
+	 */
+	public int getSize() {
+		return weights.length;
+	}
+	
+	/**
+	 * 
+	 */
+	public long getTotalWeight() {
+		return totalWeight;
+	}
+	
+	/**
+	 * 
+	 */
+	public int getWeight(int index) {
+		return weights[index];
+	}
+	
+	/**
+	 * 
+	 */
+	public void setWeight(int index, int weight) {
+		assertIsValidWeight(weight);
+		int delta = weight - weights[index];
+		if (delta == 0) {
+			return;
+		}
+		
+		weights[index] = weight;
+		totalWeight += delta;
+		for (int i = index + 1; i < tree.length; i += i & -i) {
+			tree[i] += delta;
+		}
+	}
+	
+	/**
+	 * @return index drawn by weight, or -1 if all weights are 0
+	 */
+	public int sample(Random random) {
+		if (totalWeight <= 0) {
+			return -1;
+		}
+		
+		long target = Math.min((long) (random.nextDouble() * totalWeight), totalWeight - 1);
+		return findIndex(target);
+	}
+	
+	/**
+	 * @return the smallest index whose prefix sum of weights exceeds target
+	 */
+	protected int findIndex(long target) {
+		int position = 0;
+		for (int step = highestPowerOfTwo; step > 0; step >>= 1) {
+			int next = position + step;
+			if ((next < tree.length) && (tree[next] <= target)) {
+				position = next;
+				target -= tree[next];
+			}
+		}
+		
+		return position; // weights of the first position indexes sum up to at most target
+	}
+	
+	/**
+	 * @return approximate memory taken by weights and tree
+	 */
+	public long getSizeInBytes() {
+		return 32 + 4L * weights.length + 8L * tree.length;
+	}
+	
+	/**
+	 * @methodtype assertion
+	 */
+	protected void assertIsValidWeight(int weight) {
+		if (weight < 0) {
+			throw new IllegalArgumentException("weight must not be negative: " + weight);
+		}
+	}
+	
+}
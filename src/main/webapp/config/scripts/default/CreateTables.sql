@@ -12,7 +12,8 @@ CREATE TABLE users (
 	status integer,
 	confirmation_code bigint,
 	photo integer,
-	creation_time bigint
+	creation_time bigint,
+	modified_time bigint
 );
 
 CREATE TABLE photos (
@@ -36,7 +37,8 @@ CREATE TABLE photos (
 	coordinate_3 double precision,
 	game_title text,
 	game_type text,
-	game_release date
+	game_release date,
+	modified_time bigint
 );
 
 CREATE TABLE tags (
@@ -52,7 +54,8 @@ CREATE TABLE cases (
 	explanation text,
 	creation_time bigint,
 	was_decided boolean,
-	decision_time bigint
+	decision_time bigint,
+	modified_time bigint
 );
 
 CREATE TABLE globals (
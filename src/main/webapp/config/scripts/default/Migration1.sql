@@ -0,0 +1,3 @@
+ALTER TABLE users ADD COLUMN IF NOT EXISTS modified_time bigint;
+ALTER TABLE photos ADD COLUMN IF NOT EXISTS modified_time bigint;
+ALTER TABLE cases ADD COLUMN IF NOT EXISTS modified_time bigint;
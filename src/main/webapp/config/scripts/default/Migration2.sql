@@ -0,0 +1,11 @@
+CREATE INDEX IF NOT EXISTS tags_tag_idx ON tags(tag, photo_id);
+CREATE INDEX IF NOT EXISTS tags_photo_id_idx ON tags(photo_id, tag);
+
+CREATE INDEX IF NOT EXISTS photos_owner_name_idx ON photos(owner_name);
+CREATE INDEX IF NOT EXISTS photos_modified_time_idx ON photos(modified_time);
+
+CREATE INDEX IF NOT EXISTS users_name_as_tag_idx ON users(name_as_tag);
+CREATE INDEX IF NOT EXISTS users_email_address_idx ON users(email_address);
+
+CREATE INDEX IF NOT EXISTS cases_open_idx ON cases(id) WHERE was_decided = FALSE;
+CREATE INDEX IF NOT EXISTS cases_modified_time_idx ON cases(modified_time);
@@ -0,0 +1 @@
+CREATE INDEX IF NOT EXISTS users_creation_time_idx ON users(creation_time);
@@ -0,0 +1,4 @@
+CREATE TABLE IF NOT EXISTS praise_checkpoints (
+	id bigint PRIMARY KEY,
+	saved_time bigint
+);
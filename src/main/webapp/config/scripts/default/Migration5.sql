@@ -0,0 +1 @@
+CREATE INDEX IF NOT EXISTS users_modified_time_idx ON users(modified_time);
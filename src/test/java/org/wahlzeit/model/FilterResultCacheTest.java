@@ -0,0 +1,95 @@
+/*
+ * SPDX-FileCopyrightText: 2006-2009 Dirk Riehle https://dirkriehle.com
+ *
+ * SPDX-License-Identifier: AGPL-3.0-or-later
+ */
+
+package org.wahlzeit.model;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Test cases for the {@link FilterResultCache} class.
+ */
+public class FilterResultCacheTest {
+
+	private TagIndex index;
+	private FilterResultCache cache;
+
+	@Before
+	public void initCache() {
+		index = new TagIndex();
+		index.updatePhoto(1, Arrays.asList("tg:cat", "tg:black"), true);
+		index.updatePhoto(2, Arrays.asList("tg:cat", "tg:white"), true);
+		index.updatePhoto(3, Arrays.asList("tg:dog"), true);
+		cache = new FilterResultCache(2);
+	}
+
+	@Test
+	public void testEqualConditionsShareOneEntry() {
+		assertArrayEquals(new int[] { 1 }, cache.getVisiblePhotoIds(Arrays.asList("tg:cat", "tg:black"), index).toArray());
+		assertArrayEquals(new int[] { 1 }, cache.getVisiblePhotoIds(Arrays.asList("tg:black", "tg:cat", "tg:cat"), index).toArray());
+
+		assertEquals(1, cache.getSize());
+		assertEquals(1, cache.getNoHits());
+		assertEquals(1, cache.getNoMisses());
+		assertEquals(50, cache.getHitRate());
+	}
+
+	@Test
+	public void testOnlyAffectedEntriesAreInvalidated() {
+		cache.getVisiblePhotoIds(list("tg:cat"), index);
+		cache.getVisiblePhotoIds(list("tg:dog"), index);
+
+		update(2, Arrays.asList("tg:cat", "tg:white"), Arrays.asList("tg:cat", "tg:grey"), true, true);
+		assertEquals(2, cache.getSize());
+
+		update(3, list("tg:dog"), Arrays.asList("tg:dog", "tg:cat"), true, true);
+		assertEquals(1, cache.getSize());
+		assertEquals(1, cache.getNoInvalidations());
+		assertArrayEquals(new int[] { 1, 2, 3 }, cache.getVisiblePhotoIds(list("tg:cat"), index).toArray());
+	}
+
+	@Test
+	public void testVisibilityChangeInvalidatesMatchingEntries() {
+		cache.getVisiblePhotoIds(Collections.<String>emptyList(), index);
+		cache.getVisiblePhotoIds(list("tg:cat"), index);
+
+		update(1, Arrays.asList("tg:cat", "tg:black"), Arrays.asList("tg:cat", "tg:black"), true, false);
+
+		assertEquals(0, cache.getSize());
+		assertArrayEquals(new int[] { 2 }, cache.getVisiblePhotoIds(list("tg:cat"), index).toArray());
+		assertArrayEquals(new int[] { 2, 3 }, cache.getVisiblePhotoIds(Collections.<String>emptyList(), index).toArray());
+	}
+
+	@Test
+	public void testLeastRecentlyUsedEntryIsEvicted() {
+		cache.getVisiblePhotoIds(list("tg:cat"), index);
+		cache.getVisiblePhotoIds(list("tg:dog"), index);
+		cache.getVisiblePhotoIds(list("tg:cat"), index);
+		cache.getVisiblePhotoIds(list("tg:black"), index);
+
+		assertEquals(2, cache.getSize());
+		assertEquals(1, cache.getNoEvictions());
+
+		cache.getVisiblePhotoIds(list("tg:cat"), index);
+		assertEquals(2, cache.getNoHits());
+	}
+
+	private void update(int id, List<String> oldTerms, List<String> newTerms, boolean wasVisible, boolean isVisible) {
+		index.updatePhoto(id, newTerms, isVisible);
+		cache.invalidatePhoto(oldTerms, wasVisible, newTerms, isVisible);
+	}
+
+	private static List<String> list(String term) {
+		return Collections.singletonList(term);
+	}
+
+}
@@ -0,0 +1,125 @@
+/*
+ * SPDX-FileCopyrightText: 2006-2009 Dirk Riehle https://dirkriehle.com
+ *
+ * SPDX-License-Identifier: AGPL-3.0-or-later
+ */
+
+package org.wahlzeit.model;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Test cases for the {@link Leaderboards} class.
+ */
+public class LeaderboardsTest {
+
+	private Leaderboards leaderboards;
+
+	@Before
+	public void initLeaderboards() {
+		leaderboards = new Leaderboards();
+	}
+
+	@Test
+	public void testPhotosAreRankedByPraise() {
+		leaderboards.updatePhoto(1, 5.0, 2, terms(), true);
+		leaderboards.updatePhoto(2, 8.0, 2, terms(), true);
+		leaderboards.updatePhoto(3, 5.0, 4, terms(), true);
+		leaderboards.updatePhoto(4, 5.0, 4, terms(), true);
+
+		assertArrayEquals(new int[] { 2, 3, 4, 1 }, leaderboards.getTopPhotoIds(Leaderboards.GLOBAL, 10));
+		assertArrayEquals(new int[] { 2, 3 }, leaderboards.getTopPhotoIds(Leaderboards.GLOBAL, 2));
+	}
+
+	@Test
+	public void testPraiseThatIsNotFiniteRanksLast() {
+		leaderboards.updatePhoto(1, 5.0, 2, terms("tg:flower"), true);
+		leaderboards.updatePhoto(2, Double.NaN, 0, terms("tg:flower"), true);
+		leaderboards.updatePhoto(3, Double.POSITIVE_INFINITY, 0, terms(), true);
+
+		assertArrayEquals(new int[] { 1, 2, 3 }, leaderboards.getTopPhotoIds(Leaderboards.GLOBAL, 10));
+		assertArrayEquals(new int[] { 1, 2 }, leaderboards.getTopPhotoIds("tg:flower", 10));
+	}
+
+	@Test
+	public void testVotesMovePhotos() {
+		leaderboards.updatePhoto(1, 5.0, 1, terms(), true);
+		leaderboards.updatePhoto(2, 6.0, 1, terms(), true);
+		leaderboards.updatePhoto(1, 7.0, 2, terms(), true);
+
+		assertArrayEquals(new int[] { 1, 2 }, leaderboards.getTopPhotoIds(Leaderboards.GLOBAL, 10));
+		assertEquals(2, leaderboards.getNoPhotos());
+	}
+
+	@Test
+	public void testTagBoardsFollowTerms() {
+		leaderboards.updatePhoto(1, 5.0, 1, terms("tg:flower", "un:laura"), true);
+		leaderboards.updatePhoto(2, 6.0, 1, terms("tg:flower", "tg:tree"), true);
+
+		assertArrayEquals(new int[] { 2, 1 }, leaderboards.getTopPhotoIds("tg:flower", 10));
+		assertArrayEquals(new int[] { 2 }, leaderboards.getTopPhotoIds("tg:tree", 10));
+		assertArrayEquals(new int[0], leaderboards.getTopPhotoIds("un:laura", 10));
+
+		leaderboards.updatePhoto(2, 6.0, 1, terms("tg:tree"), true);
+		assertArrayEquals(new int[] { 1 }, leaderboards.getTopPhotoIds("tg:flower", 10));
+		assertArrayEquals(new int[0], leaderboards.getTopPhotoIds("tg:unknown", 10));
+	}
+
+	@Test
+	public void testInvisiblePhotosAreNotRanked() {
+		leaderboards.updatePhoto(1, 5.0, 1, terms("tg:flower"), true);
+		leaderboards.updatePhoto(1, 5.0, 1, terms("tg:flower"), false);
+
+		assertArrayEquals(new int[0], leaderboards.getTopPhotoIds(Leaderboards.GLOBAL, 10));
+		assertArrayEquals(new int[0], leaderboards.getTopPhotoIds("tg:flower", 10));
+		assertEquals(0, leaderboards.getNoPhotos());
+	}
+
+	@Test
+	public void testAsKey() {
+		assertEquals(Leaderboards.GLOBAL, Leaderboards.asKey(""));
+		assertEquals(Leaderboards.GLOBAL, Leaderboards.asKey("  "));
+		assertEquals("tg:flower", Leaderboards.asKey("Flower"));
+	}
+
+	@Test
+	public void testConcurrentVotesKeepOneEntryPerPhoto() throws Exception {
+		final int noPhotos = 50;
+		List<Thread> threads = new ArrayList<Thread>();
+		for (int t = 0; t < 4; t++) {
+			final Random random = new Random(t);
+			Thread thread = new Thread() {
+				public void run() {
+					for (int i = 0; i < 5000; i++) {
+						int id = random.nextInt(noPhotos);
+						leaderboards.updatePhoto(id, random.nextInt(10), 1 + random.nextInt(100), terms("tg:flower"), true);
+					}
+				}
+			};
+			thread.start();
+			threads.add(thread);
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+
+		assertEquals(noPhotos, leaderboards.getNoPhotos());
+		assertEquals(noPhotos, leaderboards.boards.get(Leaderboards.GLOBAL).size());
+		assertEquals(noPhotos, leaderboards.boards.get("tg:flower").size());
+		assertEquals(noPhotos, leaderboards.getTopPhotoIds(Leaderboards.GLOBAL, 100).length);
+	}
+
+	private static List<String> terms(String... terms) {
+		return (terms.length == 0) ? Collections.<String>emptyList() : Arrays.asList(terms);
+	}
+
+}
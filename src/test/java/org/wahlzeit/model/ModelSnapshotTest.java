@@ -0,0 +1,145 @@
+/*
+ * SPDX-FileCopyrightText: 2006-2009 Dirk Riehle https://dirkriehle.com
+ *
+ * SPDX-License-Identifier: AGPL-3.0-or-later
+ */
+
+package org.wahlzeit.model;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.wahlzeit.services.*;
+import org.wahlzeit.utils.IntBitmap;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.sql.SQLException;
+import java.util.*;
+import java.util.zip.CRC32;
+
+import static org.junit.Assert.*;
+
+/**
+ * Test cases for the file format of the {@link ModelSnapshot} class. Loading into the managers needs a
+ * database for the rows written since, so only the parts that do not are covered here.
+ */
+public class ModelSnapshotTest {
+
+	private static final String USERS = "CREATE TABLE users (id integer PRIMARY KEY, name text, name_as_tag text, email_address text, "
+			+ "\"password\" text, rights integer, \"language\" integer, notify_about_praise boolean, home_page text, gender integer, "
+			+ "status integer, confirmation_code bigint, photo integer, creation_time bigint, modified_time bigint);";
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private ModelSnapshot snapshot;
+
+	@Before
+	public void initSnapshot() {
+		snapshot = new ModelSnapshot(new File(folder.getRoot(), "model.snapshot"));
+	}
+
+	@Test
+	public void testSectionIsReadByColumnLabel() throws Exception {
+		User alice = new User("alice", "secret", "alice@example.org", 42L);
+		User bob = new User("bob", "secret", "bob@example.org", 43L);
+		alice.resetWriteCount();
+		bob.incWriteCount();
+
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		TableColumns columns = TableScript.readFrom(USERS).getTable("users");
+		snapshot.writeSection(new DataOutputStream(bytes), columns, Arrays.asList(alice, bob));
+
+		// columns reordered and one added since the snapshot was written
+		String reordered = "CREATE TABLE users (confirmation_code bigint, id integer PRIMARY KEY, shoe_size integer, name text, name_as_tag text, "
+				+ "email_address text, \"password\" text, rights integer, \"language\" integer, notify_about_praise boolean, home_page text, "
+				+ "gender integer, status integer, photo integer, creation_time bigint, modified_time bigint);";
+		TableColumns newColumns = TableScript.readFrom(reordered).getTable("users");
+		List<Persistent> users = snapshot.readSection(ByteBuffer.wrap(bytes.toByteArray()), UserManager.getInstance(), newColumns);
+
+		assertEquals(2, users.size());
+		User first = (User) users.get(0);
+		User second = (User) users.get(1);
+		assertEquals(alice.getId(), first.getId());
+		assertEquals("alice", first.getName());
+		assertEquals("alice@example.org", first.getEmailAddress().asString());
+		assertEquals(42L, first.getConfirmationCode());
+		assertEquals("bob", second.getName());
+		assertFalse(first.isDirty());
+		assertTrue(second.isDirty());
+	}
+
+	@Test
+	public void testTagIndexRoundTrip() throws IOException {
+		TagIndex tagIndex = new TagIndex();
+		tagIndex.updatePhoto(3, Arrays.asList("tg:flower", "un:alice"), true);
+		tagIndex.updatePhoto(9, Arrays.asList("tg:tree"), false);
+
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		snapshot.writeTagIndex(new DataOutputStream(bytes), tagIndex);
+		TagIndex loaded = new TagIndex();
+		snapshot.loadTagIndex(ByteBuffer.wrap(bytes.toByteArray()), loaded);
+
+		assertArrayEquals(new int[] { 3, 9 }, loaded.getPhotoIds());
+		assertEquals(new HashSet<String>(Arrays.asList("tg:flower", "un:alice")), loaded.getTerms(3));
+		assertTrue(loaded.isVisible(3));
+		assertFalse(loaded.isVisible(9));
+		assertEquals(IntBitmap.of(3), loaded.getVisiblePhotoIds(Arrays.asList("tg:flower")));
+	}
+
+	@Test
+	public void testMissingSnapshotIsNotLoaded() throws IOException, SQLException {
+		assertFalse(snapshot.load());
+	}
+
+	@Test
+	public void testDamagedSnapshotIsNotLoaded() throws IOException, SQLException {
+		byte[] data = createSnapshotFile(ModelSnapshot.VERSION, 0);
+		data[30] ^= 1;
+		writeFile(data);
+
+		assertFalse(snapshot.load());
+	}
+
+	@Test
+	public void testOtherVersionIsNotLoaded() throws IOException, SQLException {
+		writeFile(createSnapshotFile(ModelSnapshot.VERSION + 1, 0));
+
+		assertFalse(snapshot.load());
+	}
+
+	@Test
+	public void testSnapshotNewerThanDatabaseIsNotLoaded() throws IOException, SQLException {
+		writeFile(createSnapshotFile(ModelSnapshot.VERSION, User.getLastUserId() + 1));
+
+		assertFalse(snapshot.load());
+	}
+
+	/**
+	 * A header followed by some bytes and a valid checksum
+	 */
+	private static byte[] createSnapshotFile(int version, int lastUserId) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bytes);
+		out.writeInt(ModelSnapshot.MAGIC);
+		out.writeInt(version);
+		out.writeLong(System.currentTimeMillis());
+		out.writeInt(lastUserId);
+		out.writeInt(0);
+		out.writeInt(0);
+		out.writeInt(0); // no photos in tag index
+		CRC32 crc = new CRC32();
+		crc.update(bytes.toByteArray());
+		out.writeLong(crc.getValue());
+		return bytes.toByteArray();
+	}
+
+	private void writeFile(byte[] data) throws IOException {
+		FileOutputStream out = new FileOutputStream(snapshot.getFile());
+		out.write(data);
+		out.close();
+	}
+
+}
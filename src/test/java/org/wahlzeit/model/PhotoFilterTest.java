@@ -22,6 +22,10 @@ package org.wahlzeit.model;
 import org.junit.Before;
 import org.junit.Test;
 
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
@@ -46,8 +50,8 @@ public class PhotoFilterTest {
 		assertEquals("", photoFilter.userName);
 		assertEquals(Tags.EMPTY_TAGS, photoFilter.tags);
 
-		assertEquals(0, photoFilter.processedPhotoIds.size());
-		assertEquals(0, photoFilter.displayablePhotoIds.size());
+		assertEquals(0, photoFilter.getNoProcessedPhotoIds());
+		assertEquals(0, photoFilter.getNoDisplayablePhotoIds());
 	}
 
 	/**
@@ -70,18 +74,56 @@ public class PhotoFilterTest {
 		photoFilter.setTags(new Tags("test"));
 		assertEquals("test", photoFilter.getTags().asString());
 
-		photoFilter.displayablePhotoIds.add(new PhotoId(3));
-		assertTrue(photoFilter.displayablePhotoIds.size() == 1);
+		photoFilter.setDisplayablePhotoIds(new int[] { 3 });
+		assertTrue(photoFilter.getNoDisplayablePhotoIds() == 1);
 
-		photoFilter.processedPhotoIds.add(new PhotoId(2));
-		assertTrue(photoFilter.processedPhotoIds.size() == 1);
+		photoFilter.addProcessedPhotoId(new PhotoId(2));
+		assertTrue(photoFilter.getNoProcessedPhotoIds() == 1);
 
 		photoFilter.clear();
 
 		assertEquals("", photoFilter.getUserName());
 		assertEquals(Tags.EMPTY_TAGS, photoFilter.getTags());
-		assertTrue(photoFilter.displayablePhotoIds.isEmpty());
-		assertTrue(photoFilter.processedPhotoIds.isEmpty());
+		assertEquals(0, photoFilter.getNoDisplayablePhotoIds());
+		assertEquals(0, photoFilter.getNoProcessedPhotoIds());
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testRandomPhotoIdSkipsProcessedPhotos() {
+		photoFilter.setDisplayablePhotoIds(new int[] { 1, 2, 3, 4 });
+		photoFilter.addProcessedPhotoId(new PhotoId(1));
+		photoFilter.addProcessedPhotoId(new PhotoId(3));
+
+		Set<PhotoId> picked = new HashSet<PhotoId>();
+		for (int i = 0; i < 100; i++) {
+			picked.add(photoFilter.getRandomDisplayablePhotoId());
+		}
+
+		assertEquals(new HashSet<PhotoId>(Arrays.asList(new PhotoId(2), new PhotoId(4))), picked);
+		assertEquals(2, photoFilter.getNoDisplayablePhotoIds());
+
+		photoFilter.addProcessedPhotoId(new PhotoId(2));
+		photoFilter.addProcessedPhotoId(new PhotoId(4));
+		assertEquals(PhotoId.NULL_ID, photoFilter.getRandomDisplayablePhotoId());
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testHiddenPhotoIsNeverPicked() {
+		photoFilter.setDisplayablePhotoIds(new int[] { 1, 2, 3 }, new int[] { 1, 1000, 1 });
+		assertEquals(1000, photoFilter.getPhotoWeight(2));
+
+		PhotoFilter.setPhotoWeightInLiveFilters(2, 0);
+
+		assertEquals(2, photoFilter.getNoDisplayablePhotoIds());
+		for (int i = 0; i < 100; i++) {
+			assertTrue(!new PhotoId(2).equals(photoFilter.getRandomDisplayablePhotoId()));
+		}
 	}
 
 }
@@ -0,0 +1,45 @@
+/*
+ * SPDX-FileCopyrightText: 2006-2009 Dirk Riehle https://dirkriehle.com
+ *
+ * SPDX-License-Identifier: AGPL-3.0-or-later
+ */
+
+package org.wahlzeit.model;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Test cases for the {@link PhotoId} class.
+ */
+public class PhotoIdTest {
+
+	@Test
+	public void testIdsReservedElsewhereAreResolved() {
+		int id = PhotoId.getCurrentIdAsInt() + 5000;
+		PhotoId result = PhotoId.getIdFromInt(id);
+
+		assertFalse(result.isNullId());
+		assertEquals(id, result.asInt());
+		assertSame(result, PhotoId.getIdFromInt(id));
+		assertTrue(PhotoId.getCurrentIdAsInt() >= id);
+	}
+
+	@Test
+	public void testNonPositiveIdsAreNullIds() {
+		assertTrue(PhotoId.getIdFromInt(0).isNullId());
+		assertTrue(PhotoId.getIdFromInt(-3).isNullId());
+	}
+
+	@Test
+	public void testUnknownIdStringsDoNotGrowCache() {
+		int currentId = PhotoId.getCurrentIdAsInt();
+		String id = PhotoId.getFromInt(currentId + 1000000);
+		PhotoId result = PhotoId.getIdFromString(id);
+
+		assertEquals(id, result.asString());
+		assertEquals(currentId, PhotoId.getCurrentIdAsInt());
+	}
+
+}
@@ -0,0 +1,242 @@
+/*
+ * SPDX-FileCopyrightText: 2006-2009 Dirk Riehle https://dirkriehle.com
+ *
+ * SPDX-License-Identifier: AGPL-3.0-or-later
+ */
+
+package org.wahlzeit.model;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.wahlzeit.services.DatabaseConnection;
+import org.wahlzeit.services.Persistent;
+
+import java.sql.*;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+/**
+ * Test cases for the tag table maintenance of the {@link PhotoManager} class.
+ */
+public class PhotoManagerTest {
+
+	private static final String DELETE_ALL = "DELETE FROM tags WHERE photo_id = ?";
+	private static final String DELETE = "DELETE FROM tags WHERE photo_id = ? AND tag = ?";
+	private static final String INSERT = "INSERT INTO tags VALUES(?, ?)";
+	private static final String FIND_BY_OWNERS = "SELECT * FROM photos WHERE owner_name = ANY(?) OR id = ANY(?)";
+
+	private Map<String, PreparedStatement> statements;
+	private PhotoManager photoManager;
+
+	@Before
+	public void initPhotoManager() throws SQLException {
+		statements = new HashMap<String, PreparedStatement>();
+		statements.put(DELETE_ALL, mock(PreparedStatement.class));
+		statements.put(DELETE, mock(PreparedStatement.class));
+		statements.put(INSERT, mock(PreparedStatement.class));
+		statements.put(FIND_BY_OWNERS, mock(PreparedStatement.class));
+
+		final DatabaseConnection dbc = mock(DatabaseConnection.class);
+		when(dbc.getRdbmsConnection()).thenReturn(mock(Connection.class));
+		photoManager = new PhotoManager() {
+			@Override
+			public DatabaseConnection getDatabaseConnection() {
+				return dbc;
+			}
+
+			@Override
+			public DatabaseConnection getReplicaDatabaseConnection() {
+				return dbc;
+			}
+
+			@Override
+			protected PreparedStatement getReadingStatement(String query) {
+				return statements.get(query);
+			}
+
+			@Override
+			protected PreparedStatement getReplicaReadingStatement(String query) {
+				return statements.get(query);
+			}
+
+			@Override
+			protected Photo createObject(ResultSet rset) throws SQLException {
+				Photo result = new Photo(PhotoId.getIdFromInt(rset.getInt("id")));
+				result.setOwnerName(rset.getString("owner_name"));
+				return result;
+			}
+		};
+	}
+
+	@Test
+	public void testUnchangedPhotoDoesNotTouchTags() throws SQLException {
+		Photo photo = createPersistedPhoto("alpha, beta");
+
+		save(photo);
+
+		for (PreparedStatement stmt : statements.values()) {
+			verify(stmt, never()).addBatch();
+			verify(stmt, never()).executeBatch();
+		}
+	}
+
+	@Test
+	public void testOnlyChangedTagRowsAreWritten() throws SQLException {
+		Photo photo = createPersistedPhoto("alpha, beta");
+		photo.setTags(new Tags("beta, gamma"));
+
+		save(photo);
+
+		int id = photo.getId().asInt();
+		PreparedStatement delete = statements.get(DELETE);
+		verify(delete).setInt(1, id);
+		verify(delete).setString(2, "tg:alpha");
+		verify(delete, times(1)).addBatch();
+		verify(delete).executeBatch();
+
+		PreparedStatement insert = statements.get(INSERT);
+		verify(insert).setString(1, "tg:gamma");
+		verify(insert).setInt(2, id);
+		verify(insert, times(1)).addBatch();
+		verify(insert).executeBatch();
+
+		verify(statements.get(DELETE_ALL), never()).executeBatch();
+		assertFalse(photo.hasTagRowChanges());
+		assertEquals(new HashSet<String>(Arrays.asList("tg:beta", "tg:gamma")), photo.getPersistedTagRows());
+	}
+
+	@Test
+	public void testUnknownTagRowsAreRewritten() throws SQLException {
+		Photo photo = new Photo();
+		photo.setTags(new Tags("alpha"));
+
+		save(photo);
+
+		verify(statements.get(DELETE_ALL)).setInt(1, photo.getId().asInt());
+		verify(statements.get(DELETE_ALL)).executeBatch();
+		verify(statements.get(INSERT)).setString(1, "tg:alpha");
+		verify(statements.get(DELETE), never()).executeBatch();
+	}
+
+	@Test
+	public void testFailedBatchKeepsTagRowsDirty() throws SQLException {
+		Photo photo = createPersistedPhoto("alpha");
+		photo.setTags(new Tags("beta"));
+		when(statements.get(INSERT).executeBatch()).thenThrow(new SQLException("failed"));
+
+		try {
+			photoManager.updateDependents(Collections.<Persistent>singletonList(photo));
+			fail("batch failure should be passed on");
+		} catch (SQLException ex) {
+			// expected
+		}
+
+		verify(statements.get(INSERT)).clearBatch();
+		assertTrue(photo.hasTagRowChanges());
+		assertEquals(Collections.singleton("tg:alpha"), photo.getPersistedTagRows());
+	}
+
+	@Test
+	public void testPhotosOfOwnersAreFoundInOneQueryAndReuseCache() throws SQLException {
+		Photo cached = new Photo();
+		cached.setOwnerName("alice");
+		photoManager.doAddPhoto(cached);
+		final int uncachedId = PhotoId.getNextIdAsInt();
+		final int otherId = PhotoId.getNextIdAsInt();
+
+		final int[] ids = { cached.getId().asInt(), uncachedId, otherId };
+		final String[] ownerNames = { "alice", "alice", "bob" };
+		final AtomicInteger row = new AtomicInteger(-1);
+		ResultSet rset = mock(ResultSet.class);
+		when(rset.next()).thenAnswer(invocation -> row.incrementAndGet() < ids.length);
+		when(rset.getInt("id")).thenAnswer(invocation -> ids[row.get()]);
+		when(rset.getString("owner_name")).thenAnswer(invocation -> ownerNames[row.get()]);
+		when(statements.get(FIND_BY_OWNERS).executeQuery()).thenReturn(rset);
+
+		Map<String, Set<Photo>> result = photoManager.findPhotosByOwners(
+				Arrays.asList("alice"), Arrays.asList(PhotoId.getIdFromInt(otherId)));
+
+		verify(statements.get(FIND_BY_OWNERS), times(1)).executeQuery();
+		assertEquals(2, result.get("alice").size());
+		assertTrue(result.get("alice").contains(cached));
+		assertEquals(1, result.get("bob").size());
+		assertSame(photoManager.getPhotoFromId(PhotoId.getIdFromInt(uncachedId)), findPhoto(result.get("alice"), uncachedId));
+		assertEquals("bob", photoManager.getPhotoFromId(PhotoId.getIdFromInt(otherId)).getOwnerName());
+	}
+
+	@Test
+	public void testStatusChangesReindexCachedPhotos() {
+		PhotoManager instance = PhotoManager.getInstance();
+		Photo photo = new Photo(PhotoId.getIdFromInt(PhotoId.getCurrentIdAsInt() + 1));
+		int id = photo.getId().asInt();
+		instance.doAddPhoto(photo);
+		assertTrue(instance.getTagIndex().isVisible(id));
+
+		photo.setStatus(photo.getStatus().asFlagged(true));
+		assertFalse(instance.getTagIndex().isVisible(id));
+
+		photo.setStatus(photo.getStatus().asFlagged(false));
+		assertTrue(instance.getTagIndex().isVisible(id));
+
+		Photo uncached = new Photo(PhotoId.getIdFromInt(id + 1));
+		uncached.setStatus(PhotoStatus.INVISIBLE);
+		assertFalse(instance.getTagIndex().isVisible(id + 1));
+	}
+
+	@Test
+	public void testLiveFiltersOnlyLearnChangedWeights() {
+		PhotoManager instance = PhotoManager.getInstance();
+		PhotoWeightPolicy policy = instance.getPhotoWeightPolicy();
+		instance.setPhotoWeightPolicy(PhotoWeightPolicy.UNIFORM);
+		final int[] noUpdates = { 0 };
+		PhotoFilter filter = new PhotoFilter() {
+			@Override
+			public synchronized void setPhotoWeight(int id, int weight) {
+				noUpdates[0]++;
+				super.setPhotoWeight(id, weight);
+			}
+		};
+		try {
+			Photo photo = new Photo(PhotoId.getIdFromInt(PhotoId.getCurrentIdAsInt() + 1));
+			filter.setDisplayablePhotoIds(new int[] { photo.getId().asInt() });
+			instance.doAddPhoto(photo);
+			int noUpdatesAfterAdd = noUpdates[0];
+
+			photo.setPraise(40, 5);
+			instance.indexPhoto(photo);
+			assertEquals(noUpdatesAfterAdd, noUpdates[0]);
+
+			photo.setStatus(PhotoStatus.INVISIBLE);
+			assertEquals(noUpdatesAfterAdd + 1, noUpdates[0]);
+			assertEquals(0, filter.getPhotoWeight(photo.getId().asInt()));
+		} finally {
+			instance.setPhotoWeightPolicy(policy);
+		}
+	}
+
+	private static Photo findPhoto(Set<Photo> photos, int id) {
+		for (Photo photo : photos) {
+			if (photo.getId().asInt() == id) {
+				return photo;
+			}
+		}
+		return null;
+	}
+
+	private Photo createPersistedPhoto(String tags) {
+		Photo photo = new Photo();
+		photo.setTags(new Tags(tags));
+		photo.setPersistedTagRows(photoManager.collectTagRows(photo));
+		return photo;
+	}
+
+	private void save(Photo photo) throws SQLException {
+		photoManager.updateDependents(Collections.<Persistent>singletonList(photo));
+		photoManager.didUpdateObject(photo);
+	}
+
+}
@@ -201,6 +201,7 @@ public class PhotoTest {
         verify(mockedResultSet, times(1)).updateInt("praise_sum", praiseSum);
         verify(mockedResultSet, times(1)).updateInt("no_votes", noVotes);
         verify(mockedResultSet, times(1)).updateLong("creation_time", creationTime);
+        verify(mockedResultSet, times(1)).updateLong(eq("modified_time"), anyLong());
         verify(mockedResultSet, times(1)).updateInt("coordinate_type", CoordinateType.Cartesian.ordinal());
         verify(mockedResultSet, times(1)).updateDouble("coordinate_1", coordinateX);
         verify(mockedResultSet, times(1)).updateDouble("coordinate_2", coordinateY);
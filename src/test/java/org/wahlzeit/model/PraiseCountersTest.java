@@ -0,0 +1,267 @@
+/*
+ * SPDX-FileCopyrightText: 2006-2009 Dirk Riehle https://dirkriehle.com
+ *
+ * SPDX-License-Identifier: AGPL-3.0-or-later
+ */
+
+package org.wahlzeit.model;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.wahlzeit.services.DatabaseConnection;
+
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+/**
+ * Test cases for the {@link PraiseCounters} class and the praise flush of the {@link PhotoManager} class.
+ */
+public class PraiseCountersTest {
+
+	private static final String UPDATE = "UPDATE photos SET praise_sum = praise_sum + ?, no_votes = no_votes + ?, modified_time = ? WHERE id = ?";
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private PraiseCounters counters;
+	private Photo photo;
+
+	@Before
+	public void initCounters() {
+		PhotoId.setCurrentIdFromInt(Math.max(PhotoId.getCurrentIdAsInt(), 100));
+		counters = new PraiseCounters();
+		photo = new Photo(PhotoId.getIdFromInt(42));
+		photo.resetWriteCount();
+	}
+
+	@Test
+	public void testDeltaPacksSumAndVotes() {
+		long delta = PraiseCounters.asDelta(123456, 789);
+
+		assertEquals(123456, PraiseCounters.getPraiseSum(delta));
+		assertEquals(789, PraiseCounters.getNoVotes(delta));
+	}
+
+	@Test
+	public void testVotesArePendingUntilTaken() {
+		counters.addVote(photo, 5);
+		counters.addVote(photo, 3);
+
+		assertEquals(18, photo.getPraiseSum());
+		assertEquals(3, photo.getNoVotes());
+		assertFalse(photo.isDirty());
+		assertEquals(1, counters.getNoPendingPhotos());
+
+		PraiseCounters.Batch batch = counters.take();
+		assertEquals(1, batch.size());
+		assertEquals(8, PraiseCounters.getPraiseSum(batch.getDelta(0)));
+		assertEquals(2, batch.getNoVotes());
+		assertEquals(18, photo.getPraiseSum());
+		assertEquals(0, counters.getNoPendingPhotos());
+		assertEquals(0, counters.take().size());
+	}
+
+	@Test
+	public void testNoVoteIsLostWhileTaking() throws InterruptedException {
+		final AtomicBoolean isDone = new AtomicBoolean(false);
+		final int[] taken = new int[1];
+		Thread taker = new Thread() {
+			public void run() {
+				while (!isDone.get()) {
+					counters.getTakeLock().writeLock().lock();
+					try {
+						taken[0] += counters.take().getNoVotes();
+					} finally {
+						counters.getTakeLock().writeLock().unlock();
+					}
+				}
+			}
+		};
+		taker.start();
+
+		List<Thread> voters = new ArrayList<Thread>();
+		for (int i = 0; i < 8; i++) {
+			Thread voter = new Thread() {
+				public void run() {
+					for (int j = 0; j < 20000; j++) {
+						counters.getTakeLock().readLock().lock();
+						try {
+							counters.addVote(photo, 1);
+						} finally {
+							counters.getTakeLock().readLock().unlock();
+						}
+					}
+				}
+			};
+			voter.start();
+			voters.add(voter);
+		}
+
+		for (Thread voter : voters) {
+			voter.join();
+		}
+		isDone.set(true);
+		taker.join();
+
+		assertEquals(160000, taken[0] + counters.take().getNoVotes());
+		assertEquals(160001, photo.getNoVotes());
+	}
+
+	@Test
+	public void testFlushAddsDeltasAndRetriesFailedBatch() throws SQLException {
+		final PreparedStatement update = mock(PreparedStatement.class);
+		final Connection connection = mock(Connection.class);
+		when(connection.getAutoCommit()).thenReturn(true);
+		final DatabaseConnection dbc = mock(DatabaseConnection.class);
+		when(dbc.getRdbmsConnection()).thenReturn(connection);
+		PhotoManager photoManager = new PhotoManager() {
+			@Override
+			public DatabaseConnection getDatabaseConnection() {
+				return dbc;
+			}
+
+			@Override
+			protected PreparedStatement getReadingStatement(String query) {
+				assertEquals(UPDATE, query);
+				return update;
+			}
+		};
+
+		photoManager.getPraiseCounters().addVote(photo, 7);
+		when(update.executeBatch()).thenThrow(new SQLException("connection lost")).thenReturn(new int[] { 1 });
+
+		assertEquals(-1, photoManager.flushPraise());
+		assertNotNull(photoManager.getPraiseCounters().getFailedBatch());
+		verify(connection).rollback();
+
+		photoManager.getPraiseCounters().addVote(photo, 2);
+		assertEquals(1, photoManager.flushPraise());
+		verify(update, times(2)).setInt(1, 7);
+		verify(update, times(2)).setInt(2, 1);
+		verify(update, times(2)).setInt(4, photo.getId().asInt());
+		verify(update, times(2)).setLong(eq(3), anyLong());
+		verify(connection).commit();
+
+		assertEquals(1, photoManager.flushPraise());
+		verify(update).setInt(1, 2);
+		assertEquals(19, photo.getPraiseSum());
+	}
+
+	@Test
+	public void testReplaySkipsSavedCheckpoint() throws SQLException, IOException {
+		PraiseJournal journal = new PraiseJournal(folder.getRoot(), "praise", 100, 0);
+		journal.append(photo.getId().asInt(), 5);
+		final long savedCheckpoint = journal.beginCheckpoint(); // saved, then crash before endCheckpoint()
+		journal.append(photo.getId().asInt(), 3);
+
+		final long[] selected = new long[1];
+		final PreparedStatement select = mock(PreparedStatement.class);
+		doAnswer(new Answer<Void>() {
+			public Void answer(InvocationOnMock invocation) {
+				selected[0] = invocation.getArgument(1);
+				return null;
+			}
+		}).when(select).setLong(eq(1), anyLong());
+		final ResultSet found = mock(ResultSet.class);
+		when(found.next()).thenReturn(true);
+		final ResultSet notFound = mock(ResultSet.class);
+		when(select.executeQuery()).thenAnswer(new Answer<ResultSet>() {
+			public ResultSet answer(InvocationOnMock invocation) {
+				return (selected[0] == savedCheckpoint) ? found : notFound;
+			}
+		});
+		final PreparedStatement update = mock(PreparedStatement.class);
+		final PreparedStatement insert = mock(PreparedStatement.class);
+		final Connection connection = mock(Connection.class);
+		when(connection.getAutoCommit()).thenReturn(true);
+		final DatabaseConnection dbc = mock(DatabaseConnection.class);
+		when(dbc.getRdbmsConnection()).thenReturn(connection);
+		PhotoManager photoManager = new PhotoManager() {
+			@Override
+			public DatabaseConnection getDatabaseConnection() {
+				return dbc;
+			}
+
+			@Override
+			public Photo getPhotoFromId(PhotoId id) {
+				return photo;
+			}
+
+			@Override
+			protected PreparedStatement getReadingStatement(String query) {
+				if (query.startsWith("SELECT")) {
+					return select;
+				}
+				return query.startsWith("INSERT") ? insert : update;
+			}
+		};
+		photoManager.setPraiseJournal(journal);
+
+		assertEquals(1, photoManager.replayPraiseJournal());
+		verify(update).setInt(1, 3);
+		verify(insert, never()).setLong(1, savedCheckpoint);
+		verify(insert).executeUpdate();
+		verify(connection).commit();
+		assertEquals(0, journal.getNoEntries());
+		journal.close();
+	}
+
+	@Test
+	public void testFullJournalIsCheckpointedBeforeVoteIsRejected() throws SQLException, IOException {
+		PraiseJournal journal = new PraiseJournal(folder.getRoot(), "praise", 1, 0);
+		final PreparedStatement update = mock(PreparedStatement.class);
+		when(update.executeBatch()).thenReturn(new int[] { 1 }).thenThrow(new SQLException("connection lost"));
+		PhotoManager photoManager = newPraiseManager(update, mock(PreparedStatement.class));
+		photoManager.setPraiseJournal(journal);
+
+		photoManager.praisePhoto(photo, 5);
+		photoManager.praisePhoto(photo, 3); // flushes the first vote to make room
+		verify(update).setInt(1, 5);
+		assertEquals(1, journal.getNoEntries());
+
+		photoManager.praisePhoto(photo, 2); // flushing fails, but the other generation takes the vote
+		try {
+			photoManager.praisePhoto(photo, 4); // retrying the failed flush fails, both generations are full
+			fail("vote should be rejected");
+		} catch (IOException ex) {
+			// expected
+		}
+		assertEquals(20, photo.getPraiseSum()); // the rejected vote is not counted
+		assertEquals(4, photo.getNoVotes());
+		assertEquals(2, journal.getNoEntries());
+		journal.close();
+	}
+
+	private static PhotoManager newPraiseManager(final PreparedStatement update, final PreparedStatement insert) throws SQLException {
+		final Connection connection = mock(Connection.class);
+		when(connection.getAutoCommit()).thenReturn(true);
+		final DatabaseConnection dbc = mock(DatabaseConnection.class);
+		when(dbc.getRdbmsConnection()).thenReturn(connection);
+		return new PhotoManager() {
+			@Override
+			public DatabaseConnection getDatabaseConnection() {
+				return dbc;
+			}
+
+			@Override
+			protected PreparedStatement getReadingStatement(String query) {
+				return query.startsWith("UPDATE") ? update : insert;
+			}
+		};
+	}
+
+}
@@ -0,0 +1,207 @@
+/*
+ * SPDX-FileCopyrightText: 2006-2009 Dirk Riehle https://dirkriehle.com
+ *
+ * SPDX-License-Identifier: AGPL-3.0-or-later
+ */
+
+package org.wahlzeit.model;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * Test cases for the {@link PraiseJournal} class. Crashes are simulated by damaging a generation file
+ * between closing and reopening the journal.
+ */
+public class PraiseJournalTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private PraiseJournal journal;
+
+	@Before
+	public void openJournal() throws IOException {
+		journal = new PraiseJournal(folder.getRoot(), "praise", 100, 0);
+	}
+
+	@After
+	public void closeJournal() throws IOException {
+		journal.close();
+	}
+
+	@Test
+	public void testEntriesSurviveReopen() throws IOException {
+		journal.awaitDurable(journal.append(7, 5));
+		journal.awaitDurable(journal.append(3, 10));
+		journal.awaitDurable(journal.append(7, 8));
+
+		reopen();
+
+		assertEquals(3, journal.getNoEntries());
+		assertEntries(new int[][] { { 3, 10 }, { 7, 5 }, { 7, 8 } }, journal.readEntries());
+	}
+
+	@Test
+	public void testTornEntryIsDiscarded() throws IOException {
+		journal.append(1, 5);
+		journal.append(2, 5);
+		journal.close();
+
+		RandomAccessFile file = new RandomAccessFile(new File(folder.getRoot(), "praise-0.journal"), "rw");
+		file.seek(PraiseJournal.ENTRY_SIZE + 4);
+		file.writeInt(9); // value written, checksum not
+		file.close();
+
+		journal = new PraiseJournal(folder.getRoot(), "praise", 100, 0);
+		assertEquals(1, journal.getNoEntries());
+
+		journal.append(3, 5);
+		reopen();
+
+		assertEntries(new int[][] { { 1, 5 }, { 3, 5 } }, journal.readEntries());
+	}
+
+	@Test
+	public void testConcurrentVotesShareSyncs() throws Exception {
+		journal.close();
+		journal = new PraiseJournal(folder.getRoot(), "praise", 1000, 5);
+
+		final AtomicInteger noFailures = new AtomicInteger();
+		List<Thread> threads = new ArrayList<Thread>();
+		for (int i = 0; i < 8; i++) {
+			final int photoId = i + 1;
+			Thread thread = new Thread() {
+				public void run() {
+					try {
+						for (int j = 0; j < 10; j++) {
+							journal.awaitDurable(journal.append(photoId, 5));
+						}
+					} catch (IOException ex) {
+						noFailures.incrementAndGet();
+					}
+				}
+			};
+			thread.start();
+			threads.add(thread);
+		}
+		for (Thread thread : threads) {
+			thread.join(10000);
+		}
+
+		assertEquals(0, noFailures.get());
+		assertEquals(80, journal.getNoAppended());
+		assertTrue("votes should be group-committed", journal.getNoSyncs() < 80);
+
+		reopen();
+		assertEquals(80, journal.getNoEntries());
+	}
+
+	@Test
+	public void testCheckpointClearsRetiredGeneration() throws IOException {
+		journal.append(1, 5);
+		journal.append(2, 5);
+
+		long checkpoint = journal.beginCheckpoint();
+		journal.append(1, 7); // during checkpoint
+		assertNotEquals(0, checkpoint);
+		assertEquals(3, journal.getNoEntries());
+
+		journal.endCheckpoint();
+		assertEquals(1, journal.getNoCheckpoints());
+
+		reopen();
+		assertEntries(new int[][] { { 1, 7 } }, journal.readEntries());
+		assertEquals(0, journal.readEntries().get(0).getCheckpoint());
+	}
+
+	@Test
+	public void testFailedCheckpointIsRetried() throws IOException {
+		journal.append(1, 5);
+		long checkpoint = journal.beginCheckpoint(); // saving photos fails, no endCheckpoint()
+		journal.append(2, 5);
+
+		assertEquals(checkpoint, journal.beginCheckpoint());
+		journal.endCheckpoint();
+
+		assertEntries(new int[][] { { 2, 5 } }, journal.readEntries());
+	}
+
+	@Test
+	public void testCheckpointSurvivesReopen() throws IOException {
+		journal.append(1, 5);
+		long checkpoint = journal.beginCheckpoint(); // crash before endCheckpoint()
+		journal.awaitDurable(journal.append(2, 5));
+
+		reopen();
+
+		List<PraiseJournal.Entry> entries = journal.readEntries();
+		assertEntries(new int[][] { { 1, 5 }, { 2, 5 } }, entries);
+		assertEquals(checkpoint, entries.get(0).getCheckpoint());
+		assertEquals(0, entries.get(1).getCheckpoint());
+
+		journal.append(3, 5); // appends go to the unmarked generation
+		Set<Long> checkpoints = journal.markAll();
+		assertEquals(2, checkpoints.size());
+		assertTrue(checkpoints.contains(checkpoint));
+		assertEquals(3, journal.getNoEntries());
+	}
+
+	@Test
+	public void testEmptyCheckpointIsNotMarked() throws IOException {
+		assertEquals(0, journal.beginCheckpoint());
+		journal.endCheckpoint();
+
+		assertTrue(journal.markAll().isEmpty());
+		assertEquals(0, journal.getNoEntries());
+	}
+
+	@Test
+	public void testFullJournalRejectsVotes() throws IOException {
+		journal.close();
+		journal = new PraiseJournal(folder.getRoot(), "small", 2, 0);
+
+		assertTrue(journal.append(1, 5) > 0);
+		assertTrue(journal.append(1, 5) > 0);
+		assertEquals(-1, journal.append(1, 5));
+		assertEquals(1, journal.getNoRejected());
+
+		journal.beginCheckpoint();
+		assertTrue(journal.append(1, 5) > 0);
+	}
+
+	@Test
+	public void testClearEmptiesBothGenerations() throws IOException {
+		journal.append(1, 5);
+		journal.beginCheckpoint();
+		journal.append(2, 5);
+
+		journal.clear();
+		reopen();
+
+		assertEquals(0, journal.getNoEntries());
+	}
+
+	private void reopen() throws IOException {
+		journal.close();
+		journal = new PraiseJournal(folder.getRoot(), "praise", 100, 0);
+	}
+
+	private static void assertEntries(int[][] expected, List<PraiseJournal.Entry> entries) {
+		assertEquals(expected.length, entries.size());
+		for (int i = 0; i < expected.length; i++) {
+			PraiseJournal.Entry entry = entries.get(i);
+			assertArrayEquals(expected[i], new int[] { entry.getPhotoId(), entry.getValue() });
+		}
+	}
+
+}
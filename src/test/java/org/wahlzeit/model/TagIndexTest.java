@@ -0,0 +1,79 @@
+/*
+ * SPDX-FileCopyrightText: 2006-2009 Dirk Riehle https://dirkriehle.com
+ *
+ * SPDX-License-Identifier: AGPL-3.0-or-later
+ */
+
+package org.wahlzeit.model;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.*;
+
+/**
+ * Test cases for the {@link TagIndex} class.
+ */
+public class TagIndexTest {
+
+	private TagIndex index;
+
+	@Before
+	public void initIndex() {
+		index = new TagIndex();
+		index.updatePhoto(1, Arrays.asList("un:alice", "tg:alice", "tg:cat"), true);
+		index.updatePhoto(2, Arrays.asList("un:bob", "tg:bob", "tg:cat", "tg:dog"), true);
+		index.updatePhoto(3, Arrays.asList("un:bob", "tg:bob", "tg:dog"), false);
+	}
+
+	@Test
+	public void testConditionsAreIntersected() {
+		assertArrayEquals(new int[] { 1, 2 }, index.getVisiblePhotoIds(Arrays.asList("tg:cat")).toArray());
+		assertArrayEquals(new int[] { 2 }, index.getVisiblePhotoIds(Arrays.asList("tg:cat", "un:bob")).toArray());
+		assertArrayEquals(new int[] { 2, 3 }, index.getPhotoIds(Arrays.asList("tg:dog")).toArray());
+		assertTrue(index.getVisiblePhotoIds(Arrays.asList("tg:cat", "tg:unknown")).isEmpty());
+	}
+
+	@Test
+	public void testNoConditionsSelectsAllVisiblePhotos() {
+		assertArrayEquals(new int[] { 1, 2 }, index.getVisiblePhotoIds(Collections.<String>emptyList()).toArray());
+		assertEquals(3, index.getNoPhotos());
+		assertEquals(2, index.getNoVisiblePhotos());
+	}
+
+	@Test
+	public void testUpdateReplacesTermsAndVisibility() {
+		index.updatePhoto(2, Arrays.asList("un:bob", "tg:bob", "tg:bird"), false);
+		index.updatePhoto(3, Arrays.asList("un:bob", "tg:bob", "tg:dog"), true);
+
+		assertArrayEquals(new int[] { 1 }, index.getVisiblePhotoIds(Arrays.asList("tg:cat")).toArray());
+		assertArrayEquals(new int[] { 3 }, index.getVisiblePhotoIds(Arrays.asList("tg:dog")).toArray());
+		assertArrayEquals(new int[] { 2 }, index.getPhotoIds(Arrays.asList("tg:bird")).toArray());
+	}
+
+	@Test
+	public void testRemovedPhotoDropsEmptyPostings() {
+		int noTerms = index.getNoTerms();
+		index.removePhoto(1);
+
+		assertEquals(noTerms - 2, index.getNoTerms());
+		assertFalse(index.isVisible(1));
+		assertArrayEquals(new int[] { 2 }, index.getVisiblePhotoIds(Arrays.asList("tg:cat")).toArray());
+	}
+
+	@Test
+	public void testTermsAddedRowByRow() {
+		index.addTerm(4, "tg:cat");
+		index.addTerm(4, "tg:cat");
+		index.setPhotoVisibility(4, true);
+
+		assertArrayEquals(new int[] { 1, 2, 4 }, index.getVisiblePhotoIds(Arrays.asList("tg:cat")).toArray());
+
+		index.updatePhoto(4, Arrays.asList("tg:dog"), true);
+		assertArrayEquals(new int[] { 1, 2 }, index.getVisiblePhotoIds(Arrays.asList("tg:cat")).toArray());
+	}
+
+}
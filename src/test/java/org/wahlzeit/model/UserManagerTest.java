@@ -0,0 +1,182 @@
+/*
+ * SPDX-FileCopyrightText: 2006-2009 Dirk Riehle https://dirkriehle.com
+ *
+ * SPDX-License-Identifier: AGPL-3.0-or-later
+ */
+
+package org.wahlzeit.model;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.wahlzeit.services.EmailAddress;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+/**
+ * Test cases for the secondary indexes of the {@link UserManager} class; lookups that reach
+ * the database would fail, as there is no database connection.
+ */
+public class UserManagerTest {
+
+	private UserManager manager;
+	private User user;
+
+	@Before
+	public void initUser() {
+		manager = UserManager.getInstance();
+		user = new User("Index Tester", "secret", "index.tester@example.com", 0);
+		manager.doAddUser(user);
+	}
+
+	@After
+	public void removeUser() {
+		manager.doDeleteUser(user);
+	}
+
+	@Test
+	public void testCachedUserIsFoundByEmailAddressAndId() {
+		assertSame(user, manager.getUserByEmailAddress("index.tester@example.com"));
+		assertSame(user, manager.getUserByEmailAddress(EmailAddress.getFromString("index.tester@example.com")));
+		assertSame(user, manager.getUserById(user.getId()));
+	}
+
+	@Test
+	public void testChangedEmailAddressIsReindexed() {
+		EmailAddress oldEmailAddress = user.getEmailAddress();
+		EmailAddress newEmailAddress = EmailAddress.getFromString("index.tester@example.org");
+		user.setEmailAddress(newEmailAddress);
+
+		assertSame(user, manager.getUserByEmailAddress(newEmailAddress));
+		assertFalse(manager.userTagsByEmailAddress.containsKey(oldEmailAddress));
+	}
+
+	@Test
+	public void testDeletedUserIsUnindexed() {
+		manager.doDeleteUser(user);
+
+		assertFalse(manager.userTagsByEmailAddress.containsKey(user.getEmailAddress()));
+		assertFalse(manager.userTagsById.containsKey(user.getId()));
+	}
+
+	@Test
+	public void testFiltersLearnUsersOfOtherNodesOnRefresh() throws SQLException {
+		final PreparedStatement all = mockQuery(emptyResultSet());
+		ResultSet created = mock(ResultSet.class);
+		when(created.next()).thenReturn(true, false);
+		when(created.getString("name_as_tag")).thenReturn("elsewhere");
+		when(created.getString("email_address")).thenReturn("elsewhere@example.com");
+		final PreparedStatement since = mockQuery(created, emptyResultSet());
+		UserManager filtered = new UserManager() {
+			@Override
+			protected PreparedStatement getReadingStatement(String query) {
+				return query.contains("creation_time") ? since : all;
+			}
+		};
+		filtered.initLookupFilters(0.01, 0, 100);
+
+		assertTrue(filtered.isPossibleUserTag("elsewhere"));
+		assertTrue(filtered.isPossibleEmailAddress("elsewhere@example.com"));
+		assertFalse(filtered.isPossibleUserTag("nobody"));
+		verify(since, times(2)).executeQuery();
+	}
+
+	@Test
+	public void testExistenceChecksIgnoreFilters() throws SQLException {
+		final PreparedStatement all = mockQuery(emptyResultSet());
+		final PreparedStatement byTag = mockQuery(emptyResultSet());
+		UserManager filtered = new UserManager() {
+			@Override
+			protected PreparedStatement getReadingStatement(String query) {
+				return query.contains("name_as_tag = ?") ? byTag : all;
+			}
+		};
+		filtered.initLookupFilters(0.01, 60000, 100);
+
+		assertFalse(filtered.isKnownUserName("newcomer"));
+		verify(byTag, never()).executeQuery();
+
+		assertFalse(filtered.hasUserByName("newcomer"));
+		verify(byTag).executeQuery();
+	}
+
+	@Test
+	public void testWarmStartReadsOnlyModifiedUsers() throws SQLException {
+		final User other = new User("Other Tester", "secret", "other.tester@example.com", 0);
+		ResultSet modified = mock(ResultSet.class);
+		when(modified.next()).thenReturn(true, false);
+		when(modified.getInt("id")).thenReturn(other.getId());
+		final PreparedStatement since = mockQuery(modified);
+		final PreparedStatement count = mockQuery(countResultSet(2));
+		final PreparedStatement all = mockQuery(emptyResultSet());
+		UserManager warm = new UserManager() {
+			@Override
+			protected PreparedStatement getReadingStatement(String query) {
+				return query.contains("modified_time") ? since : (query.contains("COUNT") ? count : all);
+			}
+		};
+		warm.doAddUser(user);
+		warm.doAddUser(other);
+
+		assertEquals(1, warm.removeUsersModifiedSince(1000));
+		verify(since).setLong(1, 1000);
+		verify(all, never()).executeQuery();
+		assertSame(user, warm.getUserById(user.getId()));
+		assertEquals(1, warm.getCachedUsers().size());
+	}
+
+	@Test
+	public void testWarmStartSweepsDeletedUsers() throws SQLException {
+		final PreparedStatement since = mockQuery(emptyResultSet());
+		final PreparedStatement count = mockQuery(countResultSet(0));
+		final PreparedStatement all = mockQuery(emptyResultSet());
+		UserManager warm = new UserManager() {
+			@Override
+			protected PreparedStatement getReadingStatement(String query) {
+				return query.contains("modified_time") ? since : (query.contains("COUNT") ? count : all);
+			}
+		};
+		warm.doAddUser(user);
+
+		assertEquals(1, warm.removeUsersModifiedSince(1000));
+		verify(all).executeQuery();
+		assertTrue(warm.getCachedUsers().isEmpty());
+	}
+
+	private static ResultSet countResultSet(int count) throws SQLException {
+		ResultSet result = mock(ResultSet.class);
+		when(result.next()).thenReturn(true, false);
+		when(result.getInt(1)).thenReturn(count);
+		return result;
+	}
+
+	private static ResultSet emptyResultSet() throws SQLException {
+		ResultSet result = mock(ResultSet.class);
+		when(result.next()).thenReturn(false);
+		return result;
+	}
+
+	private static PreparedStatement mockQuery(ResultSet first, ResultSet... next) throws SQLException {
+		PreparedStatement result = mock(PreparedStatement.class);
+		when(result.executeQuery()).thenReturn(first, next);
+		return result;
+	}
+
+	@Test
+	public void testReassignedEmailAddressIsKept() {
+		User other = new User("Other Tester", "secret", "index.tester@example.com", 0);
+		manager.doAddUser(other);
+		try {
+			manager.doDeleteUser(user);
+			assertSame(other, manager.getUserByEmailAddress(other.getEmailAddress()));
+		} finally {
+			manager.doDeleteUser(other);
+		}
+	}
+
+}
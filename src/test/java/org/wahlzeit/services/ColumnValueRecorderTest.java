@@ -0,0 +1,140 @@
+/*
+ * SPDX-FileCopyrightText: 2006-2009 Dirk Riehle https://dirkriehle.com
+ *
+ * SPDX-License-Identifier: AGPL-3.0-or-later
+ */
+
+package org.wahlzeit.services;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.sql.*;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+/**
+ * Test cases for the {@link ColumnValueRecorder} class.
+ */
+public class ColumnValueRecorderTest {
+
+	private TableColumns tableColumns;
+
+	@Before
+	public void initTableColumns() throws SQLException {
+		ResultSetMetaData metaData = mock(ResultSetMetaData.class);
+		when(metaData.getColumnCount()).thenReturn(4);
+		when(metaData.getColumnLabel(1)).thenReturn("id");
+		when(metaData.getColumnType(1)).thenReturn(Types.INTEGER);
+		when(metaData.getColumnLabel(2)).thenReturn("name");
+		when(metaData.getColumnType(2)).thenReturn(Types.VARCHAR);
+		when(metaData.getColumnLabel(3)).thenReturn("flagged");
+		when(metaData.getColumnType(3)).thenReturn(Types.BIT);
+		when(metaData.getColumnLabel(4)).thenReturn("comment");
+		when(metaData.getColumnType(4)).thenReturn(Types.VARCHAR);
+
+		tableColumns = new TableColumns("things", metaData);
+	}
+
+	@Test
+	public void testRecordsColumnsInWriteOrderWithoutId() throws SQLException {
+		ColumnValueRecorder recorder = new ColumnValueRecorder(tableColumns);
+		recorder.record(new Thing(7, "seven", null));
+
+		assertEquals(Arrays.asList("name", "flagged", "comment"), recorder.getColumnLabels());
+		assertEquals("seven", recorder.getValue("name"));
+		assertEquals(Boolean.TRUE, recorder.getValue("flagged"));
+		assertNull(recorder.getValue("comment"));
+		assertEquals("UPDATE things SET name = ?, flagged = ?, comment = ? WHERE id = ?", recorder.asUpdateStatement());
+	}
+
+	@Test
+	public void testBindsValuesNullsAndId() throws SQLException {
+		ColumnValueRecorder recorder = new ColumnValueRecorder(tableColumns);
+		Thing thing = new Thing(7, "seven", null);
+		recorder.record(thing);
+
+		PreparedStatement stmt = mock(PreparedStatement.class);
+		recorder.bindOn(stmt, thing);
+
+		verify(stmt).setObject(1, "seven");
+		verify(stmt).setObject(2, Boolean.TRUE);
+		verify(stmt).setNull(3, Types.VARCHAR);
+		verify(stmt).setInt(4, 7);
+	}
+
+	@Test
+	public void testMetaDataIsAvailableDuringWriteOn() throws SQLException {
+		ColumnValueRecorder recorder = new ColumnValueRecorder(tableColumns);
+		recorder.record(new DataObjectStub() {
+			public void writeOn(ResultSet rset) throws SQLException {
+				ResultSetMetaData metaData = rset.getMetaData();
+				assertEquals(4, metaData.getColumnCount());
+				assertEquals("flagged", metaData.getColumnLabel(3));
+				assertEquals(Types.BIT, metaData.getColumnType(3));
+			}
+		});
+	}
+
+	@Test(expected = SQLException.class)
+	public void testUnknownColumnIsRejected() throws SQLException {
+		ColumnValueRecorder recorder = new ColumnValueRecorder(tableColumns);
+		recorder.record(new DataObjectStub() {
+			public void writeOn(ResultSet rset) throws SQLException {
+				rset.updateString("unknown", "value");
+			}
+		});
+	}
+
+	/**
+	 *
+	 */
+	private static class DataObjectStub extends DataObject {
+
+		public String getIdAsString() {
+			return "0";
+		}
+
+		public void readFrom(ResultSet rset) throws SQLException {
+			// do nothing
+		}
+
+		public void writeOn(ResultSet rset) throws SQLException {
+			// do nothing
+		}
+
+		public void writeId(PreparedStatement stmt, int pos) throws SQLException {
+			stmt.setInt(pos, 0);
+		}
+	}
+
+	/**
+	 *
+	 */
+	private static class Thing extends DataObjectStub {
+
+		private final int id;
+		private final String name;
+		private final String comment;
+
+		Thing(int id, String name, String comment) {
+			this.id = id;
+			this.name = name;
+			this.comment = comment;
+		}
+
+		public void writeOn(ResultSet rset) throws SQLException {
+			rset.updateInt("id", id);
+			rset.updateString("name", name);
+			rset.updateBoolean("flagged", true);
+			rset.updateString("comment", comment);
+		}
+
+		public void writeId(PreparedStatement stmt, int pos) throws SQLException {
+			stmt.setInt(pos, id);
+		}
+	}
+
+}
@@ -0,0 +1,58 @@
+/*
+ * SPDX-FileCopyrightText: 2006-2009 Dirk Riehle https://dirkriehle.com
+ *
+ * SPDX-License-Identifier: AGPL-3.0-or-later
+ */
+
+package org.wahlzeit.services;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+/**
+ * Test cases for the {@link CopyWriter} class.
+ */
+public class CopyWriterTest {
+
+	@Test
+	public void testCopyStatementNamesColumns() {
+		CopyWriter writer = new CopyWriter("tags", Arrays.asList("tag", "photo_id"));
+
+		assertEquals("COPY tags (tag, photo_id) FROM STDIN", writer.asCopyStatement());
+	}
+
+	@Test
+	public void testValuesAreFormattedAndEscaped() {
+		CopyWriter writer = new CopyWriter("photos", Arrays.asList("id", "owner_name", "tags", "owner_notify_about_praise", "game_release"));
+		writer.addRow(Integer.valueOf(7), "back\\slash", "tab\there,new\nline", Boolean.TRUE, null);
+
+		assertEquals("7\tback\\\\slash\ttab\\there,new\\nline\tt\t\\N\n", writer.asCopyData());
+		assertEquals(1, writer.getNoRows());
+	}
+
+	@Test
+	public void testRowsFromValuesByLabel() {
+		CopyWriter writer = new CopyWriter("tags", Arrays.asList("tag", "photo_id"));
+		Map<String, Object> values = new HashMap<String, Object>();
+		values.put("photo_id", Long.valueOf(3));
+		writer.addRow(values);
+		writer.addRow("tg:flower", Integer.valueOf(4));
+
+		assertEquals("\\N\t3\ntg:flower\t4\n", writer.asCopyData());
+
+		writer.clear();
+		assertEquals(0, writer.getNoRows());
+		assertEquals("", writer.asCopyData());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testRowsMustMatchColumns() {
+		new CopyWriter("tags", Arrays.asList("tag", "photo_id")).addRow("tg:flower");
+	}
+
+}
@@ -0,0 +1,199 @@
+/*
+ * SPDX-FileCopyrightText: 2006-2009 Dirk Riehle https://dirkriehle.com
+ *
+ * SPDX-License-Identifier: AGPL-3.0-or-later
+ */
+
+package org.wahlzeit.services;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.Assert.*;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.Mockito.*;
+
+/**
+ * Test cases for the {@link DatabaseConnectionPool} class, using mocked RDBMS connections.
+ */
+public class DatabaseConnectionPoolTest {
+
+	private TestPool pool;
+
+	@Before
+	public void initPool() {
+		pool = new TestPool(2, 200, 60000, 60000);
+	}
+
+	@Test
+	public void testBorrowReusesReturnedConnection() throws SQLException {
+		DatabaseConnection first = pool.borrowConnection();
+		pool.returnConnection(first);
+		DatabaseConnection second = pool.borrowConnection();
+
+		assertSame(first, second);
+		assertEquals(1, pool.noCreated);
+		assertEquals(1, pool.getNoActiveConnections());
+		assertEquals(0, pool.getNoIdleConnections());
+	}
+
+	@Test
+	public void testPoolIsBounded() throws SQLException {
+		pool.borrowConnection();
+		pool.borrowConnection();
+
+		try {
+			pool.borrowConnection();
+			fail("exhausted pool should time out");
+		} catch (SQLException ex) {
+			// expected
+		}
+
+		assertEquals(2, pool.getNoConnections());
+		assertEquals(1, pool.getNoTimeouts());
+		assertEquals(0, pool.getNoWaiters());
+	}
+
+	@Test
+	public void testWaitersAreServedInOrder() throws Exception {
+		pool = new TestPool(1, 5000, 60000, 60000);
+		DatabaseConnection dbc = pool.borrowConnection();
+
+		final List<Integer> order = Collections.synchronizedList(new ArrayList<Integer>());
+		List<Thread> threads = new ArrayList<Thread>();
+		for (int i = 0; i < 3; i++) {
+			final int no = i;
+			Thread thread = new Thread() {
+				public void run() {
+					try {
+						DatabaseConnection borrowed = pool.borrowConnection();
+						order.add(no);
+						pool.returnConnection(borrowed);
+					} catch (SQLException ex) {
+						order.add(-1);
+					}
+				}
+			};
+			thread.start();
+			threads.add(thread);
+			while (pool.getNoWaiters() < (i + 1)) {
+				Thread.sleep(5);
+			}
+		}
+
+		pool.returnConnection(dbc);
+		for (Thread thread : threads) {
+			thread.join(5000);
+		}
+
+		assertEquals(3, order.size());
+		assertEquals(Integer.valueOf(0), order.get(0));
+		assertEquals(Integer.valueOf(1), order.get(1));
+		assertEquals(Integer.valueOf(2), order.get(2));
+		assertEquals(1, pool.noCreated);
+	}
+
+	@Test
+	public void testInvalidConnectionIsReplacedOnBorrow() throws SQLException {
+		DatabaseConnection first = pool.borrowConnection();
+		pool.returnConnection(first);
+		first.returnedAt = 0; // force validation
+		when(first.getRdbmsConnection().isValid(anyInt())).thenReturn(false);
+
+		DatabaseConnection second = pool.borrowConnection();
+
+		assertNotSame(first, second);
+		assertEquals(1, pool.getNoConnections());
+		verify(first.getRdbmsConnection()).close();
+	}
+
+	@Test
+	public void testIdleConnectionsAreEvicted() throws SQLException {
+		pool = new TestPool(2, 200, 0, 60000);
+		pool.returnConnection(pool.borrowConnection());
+		sleepQuietly(5);
+
+		assertEquals(1, pool.evictIdleConnections());
+		assertEquals(0, pool.getNoConnections());
+	}
+
+	@Test
+	public void testLeakedConnectionsAreReportedOnce() throws SQLException {
+		pool = new TestPool(2, 200, 60000, 0);
+		DatabaseConnection dbc = pool.borrowConnection();
+		sleepQuietly(5);
+
+		assertEquals(1, pool.detectLeakedConnections());
+		assertEquals(0, pool.detectLeakedConnections());
+		assertEquals(1, pool.getNoLeaked());
+
+		pool.returnConnection(dbc);
+		assertEquals(0, pool.getNoActiveConnections());
+	}
+
+	@Test
+	public void testClosedPoolClosesReturnedConnections() throws SQLException {
+		DatabaseConnection dbc = pool.borrowConnection();
+		pool.close();
+		pool.returnConnection(dbc);
+
+		verify(dbc.getRdbmsConnection()).close();
+		assertEquals(0, pool.getNoConnections());
+	}
+
+	@Test
+	public void testReleasedSlotAfterFailedOpen() throws Exception {
+		pool.failNextCreation = true;
+		try {
+			pool.borrowConnection();
+			fail("creation failure should be passed on");
+		} catch (SQLException ex) {
+			// expected
+		}
+
+		assertEquals(0, pool.getNoConnections());
+		assertNotNull(pool.borrowConnection());
+	}
+
+	private static void sleepQuietly(long millis) {
+		try {
+			Thread.sleep(millis);
+		} catch (InterruptedException ex) {
+			// ignore
+		}
+	}
+
+	/**
+	 * A pool that hands out database connections backed by mocks
+	 */
+	private static class TestPool extends DatabaseConnectionPool {
+
+		int noCreated = 0;
+		boolean failNextCreation = false;
+
+		TestPool(int maxSize, long borrowTimeout, long idleTimeout, long leakThreshold) {
+			super("test", "jdbc:test", maxSize, borrowTimeout, idleTimeout, leakThreshold);
+		}
+
+		@Override
+		protected DatabaseConnection createConnection(String dbcName) throws SQLException {
+			if (failNextCreation) {
+				failNextCreation = false;
+				throw new SQLException("connection refused");
+			}
+
+			noCreated++;
+			Connection connection = mock(Connection.class);
+			when(connection.isValid(anyInt())).thenReturn(true);
+			return new DatabaseConnection(dbcName, this, connection);
+		}
+	}
+
+}
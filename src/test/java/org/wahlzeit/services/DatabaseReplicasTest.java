@@ -0,0 +1,165 @@
+/*
+ * SPDX-FileCopyrightText: 2006-2009 Dirk Riehle https://dirkriehle.com
+ *
+ * SPDX-License-Identifier: AGPL-3.0-or-later
+ */
+
+package org.wahlzeit.services;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.Mockito.*;
+
+/**
+ * Test cases for the {@link DatabaseReplicas} class and replica routing of sessions, using mocked RDBMS connections.
+ */
+public class DatabaseReplicasTest {
+
+	private TestPool first;
+	private TestPool second;
+	private TestReplicas replicas;
+
+	@Before
+	public void initReplicas() {
+		first = new TestPool("replica0");
+		second = new TestPool("replica1");
+		replicas = new TestReplicas(1000);
+		replicas.addReplica(first);
+		replicas.addReplica(second);
+	}
+
+	@After
+	public void dropPools() {
+		DatabaseConnection.closePool();
+	}
+
+	@Test
+	public void testReplicasTakeTurns() {
+		DatabaseConnection a = replicas.borrowConnection();
+		DatabaseConnection b = replicas.borrowConnection();
+
+		assertNotSame(a.getOwningPool(), b.getOwningPool());
+		assertEquals(2, replicas.getNoUsableReplicas());
+	}
+
+	@Test
+	public void testLaggingReplicaIsSkipped() {
+		replicas.lags.put("replica0", 5000L);
+		replicas.checkReplicas();
+
+		for (int i = 0; i < 4; i++) {
+			DatabaseConnection dbc = replicas.borrowConnection();
+			assertSame(second, dbc.getOwningPool());
+			DatabaseConnection.returnDatabaseConnection(dbc);
+		}
+		assertEquals(1, replicas.getNoUsableReplicas());
+	}
+
+	@Test
+	public void testFailedReplicaRecoversAfterCheck() {
+		first.isDown = true;
+		replicas.checkReplicas();
+		assertEquals(1, replicas.getNoUsableReplicas());
+
+		first.isDown = false;
+		replicas.checkReplicas();
+		assertEquals(2, replicas.getNoUsableReplicas());
+	}
+
+	@Test
+	public void testNoUsableReplicaFallsBack() {
+		first.isDown = true;
+		second.isDown = true;
+
+		assertNull(replicas.borrowConnection());
+		assertEquals(0, replicas.getNoUsableReplicas());
+		assertEquals(1, replicas.getNoFallbacks());
+	}
+
+	@Test
+	public void testSessionReadsOwnWritesFromPrimary() {
+		TestPool primary = new TestPool("primary");
+		DatabaseConnection.pool = primary;
+		DatabaseConnection.replicas = replicas;
+
+		Session session = new SysSession("test");
+		assertNotSame(primary, session.ensureReplicaConnection().getOwningPool());
+		session.returnDatabaseConnection();
+
+		session.recordWrite();
+		assertSame(primary, session.ensureReplicaConnection().getOwningPool());
+		session.returnDatabaseConnection();
+
+		assertEquals(0, first.getNoActiveConnections() + second.getNoActiveConnections() + primary.getNoActiveConnections());
+	}
+
+	@Test
+	public void testQueuedWritesKeepSessionOnPrimary() {
+		TestPool primary = new TestPool("primary");
+		DatabaseConnection.pool = primary;
+		DatabaseConnection.replicas = replicas;
+
+		Session session = new SysSession("test");
+		assertNotSame(primary, session.ensureReplicaConnection().getOwningPool());
+
+		SessionManager.setThreadLocalSession(session);
+		WriteBehindQueue queue = new WriteBehindQueue();
+		queue.enable(10, 10, 60000);
+		assertTrue(queue.schedule(mock(Persistent.class)));
+		SessionManager.dropThreadLocalSession();
+
+		assertSame(primary, session.ensureReplicaConnection().getOwningPool());
+		session.returnDatabaseConnection();
+	}
+
+	/**
+	 * Replicas with lags set by the test
+	 */
+	private static class TestReplicas extends DatabaseReplicas {
+
+		Map<String, Long> lags = new HashMap<String, Long>();
+
+		TestReplicas(long maxLag) {
+			super(maxLag);
+		}
+
+		@Override
+		protected long measureLag(DatabaseConnection dbc) {
+			Long result = lags.get(dbc.getOwningPool().getName());
+			return (result == null) ? 0 : result;
+		}
+	}
+
+	/**
+	 * A pool that hands out database connections backed by mocks, unless it is down
+	 */
+	private static class TestPool extends DatabaseConnectionPool {
+
+		boolean isDown = false;
+
+		TestPool(String name) {
+			super(name, "jdbc:test", 2, 200, 60000, 60000);
+		}
+
+		@Override
+		protected DatabaseConnection createConnection(String dbcName) throws SQLException {
+			if (isDown) {
+				throw new SQLException("connection refused");
+			}
+
+			Connection connection = mock(Connection.class);
+			when(connection.isValid(anyInt())).thenReturn(true);
+			return new DatabaseConnection(dbcName, this, connection);
+		}
+	}
+
+}
@@ -0,0 +1,152 @@
+/*
+ * SPDX-FileCopyrightText: 2006-2009 Dirk Riehle https://dirkriehle.com
+ *
+ * SPDX-License-Identifier: AGPL-3.0-or-later
+ */
+
+package org.wahlzeit.services;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.*;
+
+/**
+ * Test cases for the {@link IdBlockAllocator} and {@link DatabaseIdBlockAllocator} classes.
+ */
+public class IdBlockAllocatorTest {
+
+	@After
+	public void dropSession() {
+		SessionManager.dropThreadLocalSession();
+	}
+
+	@Test
+	public void testIdsFollowLastId() {
+		IdBlockAllocator allocator = new IdBlockAllocator("test", 41, 3);
+
+		for (int id = 42; id < 50; id++) {
+			assertEquals(id, allocator.getNextId());
+		}
+		assertEquals(49, allocator.getLastAllocatedId());
+		assertEquals(50, allocator.getLastReservedId());
+	}
+
+	@Test
+	public void testBlocksAreOnlyReservedWhenExhausted() {
+		SharedCounterAllocator allocator = new SharedCounterAllocator(new AtomicInteger(0), 10);
+
+		for (int i = 0; i < 25; i++) {
+			allocator.getNextId();
+		}
+		assertEquals(3, allocator.noReservations);
+	}
+
+	@Test
+	public void testConcurrentAllocatorsNeverCollide() throws Exception {
+		final AtomicInteger store = new AtomicInteger(100);
+		final Set<Integer> ids = Collections.synchronizedSet(new HashSet<Integer>());
+		final AtomicInteger noDuplicates = new AtomicInteger(0);
+
+		List<Thread> threads = new ArrayList<Thread>();
+		for (int node = 0; node < 2; node++) {
+			final IdBlockAllocator allocator = new SharedCounterAllocator(store, 7);
+			for (int t = 0; t < 4; t++) {
+				Thread thread = new Thread() {
+					public void run() {
+						for (int i = 0; i < 1000; i++) {
+							int id = allocator.getNextId();
+							if ((id <= 100) || !ids.add(id)) {
+								noDuplicates.incrementAndGet();
+							}
+						}
+					}
+				};
+				threads.add(thread);
+				thread.start();
+			}
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+
+		assertEquals(0, noDuplicates.get());
+		assertEquals(8000, ids.size());
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void testFailedReservationIsReported() {
+		IdBlockAllocator allocator = new IdBlockAllocator("test", 0, 5) {
+			protected int reserveBlock(int size) throws SQLException {
+				throw new SQLException("database down");
+			}
+		};
+		allocator.getNextId();
+	}
+
+	@Test
+	public void testReservedRangeIsNotHandedOut() throws SQLException {
+		AtomicInteger store = new AtomicInteger(0);
+		SharedCounterAllocator allocator = new SharedCounterAllocator(store, 10);
+		SharedCounterAllocator other = new SharedCounterAllocator(store, 10);
+		assertEquals(1, allocator.getNextId());
+
+		assertEquals(11, other.reserveRange(100));
+		assertEquals(110, other.getLastReservedId());
+		for (int i = 2; i <= 10; i++) {
+			assertEquals(i, allocator.getNextId());
+		}
+		assertEquals(111, allocator.getNextId());
+		assertEquals(121, other.getNextId());
+	}
+
+	@Test
+	public void testDatabaseAllocatorAdvancesGlobalsColumn() throws SQLException {
+		ResultSet rset = mock(ResultSet.class);
+		when(rset.next()).thenReturn(true);
+		when(rset.getInt(1)).thenReturn(150);
+		PreparedStatement stmt = mock(PreparedStatement.class);
+		when(stmt.executeQuery()).thenReturn(rset);
+		DatabaseConnection dbc = mock(DatabaseConnection.class);
+		when(dbc.getReadingStatement(anyString())).thenReturn(stmt);
+		Session session = mock(Session.class);
+		when(session.ensureDatabaseConnection()).thenReturn(dbc);
+		SessionManager.setThreadLocalSession(session);
+
+		IdBlockAllocator allocator = new DatabaseIdBlockAllocator("photo", "last_photo_id", 10, 50);
+
+		assertEquals(101, allocator.getNextId());
+		assertEquals(102, allocator.getNextId());
+		verify(dbc).getReadingStatement("UPDATE globals SET last_photo_id = last_photo_id + ? WHERE id = 0 RETURNING last_photo_id");
+		verify(stmt).setInt(1, 50);
+		verify(stmt, times(1)).executeQuery();
+	}
+
+	/**
+	 * An allocator that reserves its blocks from a counter shared with other allocators, like the globals table
+	 */
+	private static class SharedCounterAllocator extends IdBlockAllocator {
+
+		private final AtomicInteger store;
+		private int noReservations = 0;
+
+		SharedCounterAllocator(AtomicInteger store, int blockSize) {
+			super("test", store.get(), blockSize);
+			this.store = store;
+		}
+
+		protected int reserveBlock(int size) {
+			noReservations++;
+			return store.addAndGet(size);
+		}
+	}
+
+}
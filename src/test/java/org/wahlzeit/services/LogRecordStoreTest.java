@@ -0,0 +1,127 @@
+/*
+ * SPDX-FileCopyrightText: 2006-2009 Dirk Riehle https://dirkriehle.com
+ *
+ * SPDX-License-Identifier: AGPL-3.0-or-later
+ */
+
+package org.wahlzeit.services;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.sql.*;
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+/**
+ * Test cases for the {@link LogRecordStore} and {@link TableScript} classes, using the default CreateTables.sql.
+ */
+public class LogRecordStoreTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private TableScript script;
+	private LogRecordStore store;
+
+	@Before
+	public void openStore() throws SQLException {
+		String fileName = "src/main/webapp/config/scripts/default/CreateTables.sql";
+		script = TableScript.readFrom(FileUtil.safelyReadFileAsString(fileName));
+		store = new LogRecordStore(folder.getRoot(), script.getTables(), false);
+	}
+
+	@After
+	public void closeStore() throws SQLException {
+		store.close();
+	}
+
+	@Test
+	public void testScriptDefinesTablesAndRows() {
+		TableColumns photos = script.getTable("photos");
+		assertEquals(Types.INTEGER, photos.getColumnType("id"));
+		assertEquals(Types.DOUBLE, photos.getColumnType("coordinate_1"));
+		assertEquals(Types.DATE, photos.getColumnType("game_release"));
+		assertEquals(Types.BIGINT, script.getTable("users").getColumnType("creation_time"));
+		assertTrue(script.getTable("users").hasColumn("password"));
+
+		assertEquals(2, script.getNoRows());
+		assertEquals("globals", script.getRowTableName(0));
+		assertEquals(Integer.valueOf(1), script.getRow(0).get("last_user_id"));
+		assertEquals("root@localhost", script.getRow(1).get("email_address"));
+	}
+
+	@Test
+	public void testRecordIsReadAsResultSet() throws SQLException {
+		Map<String, Object> values = new HashMap<String, Object>();
+		values.put("owner_name", "alice");
+		values.put("creation_time", 42L);
+		values.put("coordinate_1", 1.5);
+		values.put("game_release", java.sql.Date.valueOf("2020-01-31"));
+		store.writeRecords("photos", Collections.singletonMap(7, values));
+
+		ResultSet rset = store.readRecord("photos", 7);
+
+		assertEquals(7, rset.getInt("id"));
+		assertEquals("alice", rset.getString("owner_name"));
+		assertEquals(42L, rset.getLong("creation_time"));
+		assertEquals(1.5, rset.getDouble("coordinate_1"), 0);
+		assertEquals(java.sql.Date.valueOf("2020-01-31"), rset.getDate("game_release"));
+		assertEquals(0, rset.getInt("width"));
+		assertNull(rset.getString("tags"));
+		assertNull(store.readRecord("photos", 8));
+	}
+
+	@Test
+	public void testRecordsAreFoundByColumn() throws SQLException {
+		Map<Integer, Map<String, Object>> records = new LinkedHashMap<Integer, Map<String, Object>>();
+		records.put(3, Collections.<String, Object>singletonMap("owner_name", "bob"));
+		records.put(1, Collections.<String, Object>singletonMap("owner_name", "alice"));
+		records.put(2, Collections.<String, Object>singletonMap("owner_name", "bob"));
+		store.writeRecords("photos", records);
+
+		List<ResultSet> rows = new ArrayList<ResultSet>();
+		store.readRecords(rows, "photos", "owner_name", "bob");
+		assertEquals(2, rows.size());
+		assertEquals(2, rows.get(0).getInt("id"));
+		assertEquals(3, rows.get(1).getInt("id"));
+
+		store.deleteRecord("photos", 2);
+		rows.clear();
+		store.readRecords(rows, "photos", null, null);
+		assertEquals(2, rows.size());
+	}
+
+	@Test
+	public void testCompactionOnlyTouchesGarbageLogs() throws SQLException {
+		for (int i = 0; i < 10; i++) {
+			store.writeRecords("users", Collections.singletonMap(1, Collections.<String, Object>singletonMap("name", "user" + i)));
+		}
+		store.writeRecords("cases", Collections.singletonMap(1, Collections.<String, Object>singletonMap("flagger", "alice")));
+
+		assertEquals(1, store.compact(0.5));
+		assertEquals(0, store.getLog("users").getGarbageSize());
+		assertEquals("user9", store.readRecord("users", 1).getString("name"));
+		assertEquals(0, store.compact(0.5));
+	}
+
+	@Test(expected = SQLException.class)
+	public void testUnknownTableIsRejected() throws SQLException {
+		store.readRecord("no_such_table", 1);
+	}
+
+	@Test
+	public void testScriptIgnoresCommentsAndOtherStatements() throws SQLException {
+		TableScript other = TableScript.readFrom("DROP TABLE things; -- a comment; with a semicolon\n"
+				+ "CREATE TABLE things (\"name\" text, id integer, PRIMARY KEY (id));\n"
+				+ "INSERT INTO things (id, name) VALUES (1, 'it''s; here');");
+
+		assertEquals(Arrays.asList("name", "id"), other.getTable("things").getColumnLabels());
+		assertEquals("it's; here", other.getRow(0).get("name"));
+	}
+
+}
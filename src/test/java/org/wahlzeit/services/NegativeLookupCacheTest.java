@@ -0,0 +1,59 @@
+/*
+ * SPDX-FileCopyrightText: 2006-2009 Dirk Riehle https://dirkriehle.com
+ *
+ * SPDX-License-Identifier: AGPL-3.0-or-later
+ */
+
+package org.wahlzeit.services;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Test cases for the {@link NegativeLookupCache} class.
+ */
+public class NegativeLookupCacheTest {
+
+	@Test
+	public void testKeysExpire() throws InterruptedException {
+		NegativeLookupCache cache = new NegativeLookupCache("test", 20, 10);
+		cache.add("nobody");
+
+		assertTrue(cache.contains("nobody"));
+		assertEquals(1, cache.getNoHits());
+
+		Thread.sleep(40);
+		assertFalse(cache.contains("nobody"));
+		assertEquals(0, cache.size());
+	}
+
+	@Test
+	public void testRemovedKeysAreKnownAgain() {
+		NegativeLookupCache cache = new NegativeLookupCache("test", 60000, 10);
+		cache.add("newcomer");
+		cache.remove("newcomer");
+
+		assertFalse(cache.contains("newcomer"));
+	}
+
+	@Test
+	public void testCacheIsBounded() {
+		NegativeLookupCache cache = new NegativeLookupCache("test", 60000, 3);
+		for (int i = 0; i < 10; i++) {
+			cache.add("name" + i);
+		}
+
+		assertTrue(cache.size() <= 3);
+		assertTrue(cache.contains("name9"));
+	}
+
+	@Test
+	public void testZeroTimeToLiveDisablesCache() {
+		NegativeLookupCache cache = new NegativeLookupCache("test", 0, 10);
+		cache.add("nobody");
+
+		assertFalse(cache.contains("nobody"));
+	}
+
+}
@@ -0,0 +1,284 @@
+/*
+ * SPDX-FileCopyrightText: 2006-2009 Dirk Riehle https://dirkriehle.com
+ *
+ * SPDX-License-Identifier: AGPL-3.0-or-later
+ */
+
+package org.wahlzeit.services;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+/**
+ * Test cases for the {@link ObjectCache} class and its cache policies.
+ */
+public class ObjectCacheTest {
+
+	private ObjectCache<Integer, Persistent> cache;
+
+	@Before
+	public void initCache() {
+		cache = new ObjectCache<Integer, Persistent>("test");
+		cache.configure(3, LruCachePolicy.NAME);
+	}
+
+	@Test
+	public void testLruEvictsLeastRecentlyUsed() {
+		Persistent one = mock(Persistent.class);
+		cache.put(1, one);
+		cache.put(2, mock(Persistent.class));
+		cache.put(3, mock(Persistent.class));
+		cache.get(1);
+		cache.put(4, mock(Persistent.class));
+
+		assertEquals(3, cache.size());
+		assertEquals(1, cache.getNoEvictions());
+		assertSame(one, cache.get(1));
+		assertTrue(cache.containsKey(4));
+		assertFalse(cache.entries.containsKey(2));
+	}
+
+	@Test
+	public void testDirtyObjectsArePinned() {
+		Persistent dirty = mock(Persistent.class);
+		when(dirty.isDirty()).thenReturn(true);
+		cache.put(1, dirty);
+		cache.put(2, mock(Persistent.class));
+		cache.put(3, mock(Persistent.class));
+		cache.put(4, mock(Persistent.class));
+
+		assertTrue(cache.entries.containsKey(1));
+		assertFalse(cache.entries.containsKey(2));
+
+		Persistent dirtyToo = mock(Persistent.class);
+		when(dirtyToo.isDirty()).thenReturn(true);
+		cache.configure(1, LruCachePolicy.NAME);
+		cache.put(5, dirtyToo);
+
+		assertEquals(2, cache.size());
+		assertTrue(cache.entries.containsKey(1));
+		assertTrue(cache.entries.containsKey(5));
+	}
+
+	@Test
+	public void testEvictedObjectKeepsIdentityWhileReferenced() {
+		Persistent one = mock(Persistent.class);
+		cache.put(1, one);
+		for (int i = 2; i <= 10; i++) {
+			cache.put(i, mock(Persistent.class));
+		}
+
+		assertFalse(cache.entries.containsKey(1));
+		assertSame(one, cache.get(1));
+		assertEquals(1, cache.getNoRecoveries());
+		assertTrue(cache.entries.containsKey(1));
+	}
+
+	@Test
+	public void testHitsAndMissesAreCounted() {
+		cache.put(1, mock(Persistent.class));
+		cache.get(1);
+		cache.get(1);
+		cache.get(2);
+
+		assertEquals(2, cache.getNoHits());
+		assertEquals(1, cache.getNoMisses());
+		assertTrue(cache.asStatisticsString().contains("2 hits (66%)"));
+	}
+
+	@Test
+	public void testWeigherBoundsTotalWeight() {
+		cache.setWeigher(new ObjectCache.Weigher<Persistent>() {
+			public long getWeight(Persistent value) {
+				return 2;
+			}
+		});
+		cache.configure(4, LruCachePolicy.NAME);
+		cache.put(1, mock(Persistent.class));
+		cache.put(2, mock(Persistent.class));
+		cache.put(3, mock(Persistent.class));
+
+		assertEquals(2, cache.size());
+		assertEquals(4, cache.getWeight());
+	}
+
+	@Test
+	public void testTinyLfuKeepsFrequentlyUsedObjects() {
+		cache.configure(100, TinyLfuCachePolicy.NAME);
+		for (int i = 0; i < 100; i++) {
+			cache.put(i, mock(Persistent.class));
+		}
+		for (int round = 0; round < 5; round++) {
+			for (int i = 0; i < 50; i++) {
+				cache.get(i);
+			}
+		}
+
+		// a scan of objects used once should not displace the popular ones
+		for (int i = 1000; i < 1500; i++) {
+			cache.put(i, mock(Persistent.class));
+		}
+
+		assertEquals(100, cache.size());
+		for (int i = 0; i < 50; i++) {
+			assertTrue("object " + i, cache.entries.containsKey(i));
+		}
+	}
+
+	@Test
+	public void testFrequencySketchAges() {
+		TinyLfuCachePolicy.FrequencySketch sketch = new TinyLfuCachePolicy.FrequencySketch(8);
+		for (int i = 0; i < 20; i++) {
+			sketch.increment("popular");
+		}
+		assertEquals(15, sketch.getFrequency("popular"));
+
+		for (int i = 0; i < sketch.sampleSize; i++) {
+			sketch.increment(i);
+		}
+		assertTrue(sketch.getFrequency("popular") < 15);
+	}
+
+	@Test
+	public void testConcurrentMissesShareOneLoad() throws Exception {
+		final AtomicInteger noLoads = new AtomicInteger();
+		final CountDownLatch start = new CountDownLatch(1);
+		final ObjectCache.Loader<Integer, Persistent> loader = new ObjectCache.Loader<Integer, Persistent>() {
+			public Persistent load(Integer key) {
+				noLoads.incrementAndGet();
+				sleepQuietly(50);
+				return new TestObject();
+			}
+		};
+
+		final Persistent[] results = new Persistent[16];
+		List<Thread> threads = new ArrayList<Thread>();
+		for (int i = 0; i < results.length; i++) {
+			final int no = i;
+			Thread thread = new Thread() {
+				public void run() {
+					awaitQuietly(start);
+					results[no] = cache.getOrLoad(1, loader);
+				}
+			};
+			thread.start();
+			threads.add(thread);
+		}
+
+		start.countDown();
+		for (Thread thread : threads) {
+			thread.join(5000);
+		}
+
+		assertEquals(1, noLoads.get());
+		for (Persistent result : results) {
+			assertNotNull(result);
+			assertSame(results[0], result);
+		}
+		assertEquals(0, cache.getLoads().getNoFlights());
+	}
+
+	@Test
+	public void testIdentityIsPreservedUnderContention() throws Exception {
+		final int noKeys = 200;
+		cache.configure(20, TinyLfuCachePolicy.NAME);
+		final AtomicReferenceArray<Persistent> seen = new AtomicReferenceArray<Persistent>(noKeys);
+		final AtomicInteger noMismatches = new AtomicInteger();
+		final AtomicInteger noLoads = new AtomicInteger();
+		final ObjectCache.Loader<Integer, Persistent> loader = new ObjectCache.Loader<Integer, Persistent>() {
+			public Persistent load(Integer key) {
+				noLoads.incrementAndGet();
+				Thread.yield();
+				return new TestObject();
+			}
+		};
+
+		final CountDownLatch start = new CountDownLatch(1);
+		List<Thread> threads = new ArrayList<Thread>();
+		for (int i = 0; i < 8; i++) {
+			final Random random = new Random(i);
+			Thread thread = new Thread() {
+				public void run() {
+					awaitQuietly(start);
+					for (int j = 0; j < 20000; j++) {
+						int key = random.nextInt(noKeys);
+						Persistent result = cache.getOrLoad(key, loader);
+						// seen holds every object strongly, so evicted objects must be recovered, not reloaded
+						if (!seen.compareAndSet(key, null, result) && (seen.get(key) != result)) {
+							noMismatches.incrementAndGet();
+						}
+					}
+				}
+			};
+			thread.start();
+			threads.add(thread);
+		}
+
+		start.countDown();
+		for (Thread thread : threads) {
+			thread.join(30000);
+		}
+
+		assertEquals(0, noMismatches.get());
+		assertEquals(noKeys, noLoads.get());
+		assertTrue(cache.size() <= 20);
+	}
+
+	private static void sleepQuietly(long millis) {
+		try {
+			Thread.sleep(millis);
+		} catch (InterruptedException ex) {
+			// ignore
+		}
+	}
+
+	private static void awaitQuietly(CountDownLatch latch) {
+		try {
+			latch.await();
+		} catch (InterruptedException ex) {
+			// ignore
+		}
+	}
+
+	/**
+	 * A clean persistent object
+	 */
+	private static class TestObject implements Persistent {
+
+		public boolean isDirty() {
+			return false;
+		}
+
+		public void incWriteCount() {
+		}
+
+		public void resetWriteCount() {
+		}
+
+		public String getIdAsString() {
+			return null;
+		}
+
+		public void readFrom(ResultSet rset) {
+		}
+
+		public void writeOn(ResultSet rset) {
+		}
+
+		public void writeId(PreparedStatement stmt, int pos) {
+		}
+	}
+
+}
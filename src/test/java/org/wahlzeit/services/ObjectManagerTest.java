@@ -0,0 +1,197 @@
+/*
+ * SPDX-FileCopyrightText: 2006-2009 Dirk Riehle https://dirkriehle.com
+ *
+ * SPDX-License-Identifier: AGPL-3.0-or-later
+ */
+
+package org.wahlzeit.services;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.sql.*;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.*;
+
+/**
+ * Test cases for the streaming load of the {@link ObjectManager} class, using a mocked cursor.
+ */
+public class ObjectManagerTest {
+
+	private static final int NO_ROWS = 50;
+
+	private Connection connection;
+	private PreparedStatement stmt;
+	private AtomicInteger cursor;
+
+	@Before
+	public void initDatabase() throws SQLException {
+		ResultSetMetaData metaData = mock(ResultSetMetaData.class);
+		when(metaData.getColumnCount()).thenReturn(2);
+		when(metaData.getColumnLabel(1)).thenReturn("id");
+		when(metaData.getColumnType(1)).thenReturn(Types.INTEGER);
+		when(metaData.getColumnLabel(2)).thenReturn("name");
+		when(metaData.getColumnType(2)).thenReturn(Types.VARCHAR);
+
+		cursor = new AtomicInteger(-1);
+		ResultSet rset = mock(ResultSet.class);
+		when(rset.getMetaData()).thenReturn(metaData);
+		when(rset.next()).thenAnswer(invocation -> cursor.incrementAndGet() < NO_ROWS);
+		when(rset.getObject(1)).thenAnswer(invocation -> cursor.get());
+		when(rset.getObject(2)).thenAnswer(invocation -> "thing" + cursor.get());
+		when(rset.getInt("id")).thenAnswer(invocation -> cursor.get());
+		when(rset.getString("name")).thenAnswer(invocation -> "thing" + cursor.get());
+
+		stmt = mock(PreparedStatement.class);
+		when(stmt.executeQuery()).thenReturn(rset);
+
+		connection = mock(Connection.class);
+		when(connection.getAutoCommit()).thenReturn(true);
+		when(connection.prepareStatement(anyString(), anyInt(), anyInt())).thenReturn(stmt);
+	}
+
+	@Test
+	public void testStreamsThroughCursorOnReadingThread() throws SQLException {
+		List<Thing> result = new ArrayList<Thing>();
+		new ThingManager(false).readObjectsStreaming(result, "SELECT * FROM things", "things", 7, 4);
+
+		assertThingsInOrder(result);
+		verify(stmt).setFetchSize(7);
+		verify(connection).setAutoCommit(false);
+		verify(connection).commit();
+		verify(connection).setAutoCommit(true);
+		verify(stmt).close();
+	}
+
+	@Test
+	public void testStreamingReadIsTimed() throws SQLException {
+		String query = "SELECT id, name FROM things";
+		QueryTiming timing = QueryStatistics.getInstance().getTiming(query);
+		long noExecutions = timing.getNoExecutions();
+		long noRows = timing.getNoRows();
+
+		new ThingManager(false).readObjectsStreaming(new ArrayList<Thing>(), query, "things", 7, 1);
+
+		assertEquals(noExecutions + 1, timing.getNoExecutions());
+		assertEquals(noRows + NO_ROWS, timing.getNoRows());
+	}
+
+	@Test
+	public void testWorkersKeepRowOrder() throws SQLException {
+		ThingManager manager = new ThingManager(true);
+		List<Thing> result = new ArrayList<Thing>();
+		manager.readObjectsStreaming(result, "SELECT * FROM things", "things", 7, 3);
+
+		assertThingsInOrder(result);
+		if (Runtime.getRuntime().availableProcessors() > 1) {
+			assertFalse(manager.creatingThreads.contains(Thread.currentThread().getName()));
+		}
+	}
+
+	@Test
+	public void testSkippedColumnsAreNotUpdated() throws SQLException {
+		ResultSet rset = mock(ResultSet.class);
+		ResultSet skipping = new ThingManager(false).skipColumns(rset, Collections.singleton("name"));
+		skipping.updateString("NAME", "thing");
+		skipping.updateInt("id", 1);
+		skipping.updateRow();
+
+		verify(rset, never()).updateString(anyString(), anyString());
+		verify(rset).updateInt("id", 1);
+		verify(rset).updateRow();
+	}
+
+	@Test
+	public void testFailedCreationRollsBack() throws SQLException {
+		ThingManager manager = new ThingManager(true);
+		manager.failingId = 23;
+		try {
+			manager.readObjectsStreaming(new ArrayList<Thing>(), "SELECT * FROM things", "things", 5, 2);
+			fail("creation failure should be passed on");
+		} catch (SQLException ex) {
+			// expected
+		}
+
+		verify(connection).rollback();
+		verify(connection, never()).commit();
+		verify(connection).setAutoCommit(true);
+		verify(stmt).close();
+	}
+
+	private static void assertThingsInOrder(List<Thing> result) {
+		assertEquals(NO_ROWS, result.size());
+		for (int i = 0; i < NO_ROWS; i++) {
+			assertEquals(i, result.get(i).id);
+			assertEquals("thing" + i, result.get(i).name);
+		}
+	}
+
+	/**
+	 *
+	 */
+	private class ThingManager extends ObjectManager {
+
+		private final boolean isConcurrent;
+		private final List<String> creatingThreads = new java.util.concurrent.CopyOnWriteArrayList<String>();
+		private int failingId = -1;
+
+		ThingManager(boolean isConcurrent) {
+			this.isConcurrent = isConcurrent;
+		}
+
+		public DatabaseConnection getDatabaseConnection() throws SQLException {
+			return new DatabaseConnection("test", null, connection);
+		}
+
+		protected boolean canCreateObjectsConcurrently() {
+			return isConcurrent;
+		}
+
+		protected Persistent createObject(ResultSet rset) throws SQLException {
+			creatingThreads.add(Thread.currentThread().getName());
+			Thing result = new Thing(rset.getInt("id"), rset.getString("name"));
+			if (result.id == failingId) {
+				throw new SQLException("broken row");
+			}
+			return result;
+		}
+	}
+
+	/**
+	 *
+	 */
+	private static class Thing extends DataObject {
+
+		private final int id;
+		private final String name;
+
+		Thing(int id, String name) {
+			this.id = id;
+			this.name = name;
+		}
+
+		public String getIdAsString() {
+			return String.valueOf(id);
+		}
+
+		public void readFrom(ResultSet rset) throws SQLException {
+			// do nothing
+		}
+
+		public void writeOn(ResultSet rset) throws SQLException {
+			// do nothing
+		}
+
+		public void writeId(PreparedStatement stmt, int pos) throws SQLException {
+			stmt.setInt(pos, id);
+		}
+	}
+
+}
@@ -0,0 +1,125 @@
+/*
+ * SPDX-FileCopyrightText: 2006-2009 Dirk Riehle https://dirkriehle.com
+ *
+ * SPDX-License-Identifier: AGPL-3.0-or-later
+ */
+
+package org.wahlzeit.services;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+/**
+ * Test cases for the {@link QueryStatistics} and {@link QueryTiming} classes, using mocked statements.
+ */
+public class QueryStatisticsTest {
+
+	private QueryStatistics statistics;
+
+	@Before
+	public void initStatistics() {
+		statistics = new QueryStatistics();
+		statistics.setSlowQueryThreshold(60000);
+	}
+
+	@Test
+	public void testNormalize() {
+		assertEquals("SELECT * FROM photos WHERE id = ?", QueryStatistics.normalize("SELECT *  FROM photos\n\tWHERE id = ? "));
+		assertEquals("SELECT * FROM tags WHERE tag = ? AND photo_id = ?", QueryStatistics.normalize("SELECT * FROM tags WHERE tag = 'it''s' AND photo_id = 42"));
+		assertEquals("UPDATE globals SET last_user_id = ?", QueryStatistics.normalize("UPDATE globals SET last_user_id = 3.5"));
+	}
+
+	@Test
+	public void testStatementsWithSameSqlShareTiming() throws SQLException {
+		PreparedStatement first = statistics.instrument(mockStatement(3), "DELETE FROM tags WHERE photo_id = ?");
+		PreparedStatement second = statistics.instrument(mockStatement(2), "DELETE  FROM tags WHERE photo_id = ?");
+
+		first.executeUpdate();
+		second.executeUpdate();
+		first.setInt(1, 7);
+
+		QueryTiming timing = statistics.getTiming("DELETE FROM tags WHERE photo_id = ?");
+		assertEquals(1, statistics.getSnapshot().size());
+		assertEquals(2, timing.getNoExecutions());
+		assertEquals(5, timing.getNoRows());
+	}
+
+	@Test
+	public void testRowsReadAreCounted() throws SQLException {
+		ResultSet rset = mock(ResultSet.class);
+		when(rset.next()).thenReturn(true, true, false);
+		PreparedStatement stmt = mock(PreparedStatement.class);
+		when(stmt.executeQuery()).thenReturn(rset);
+
+		ResultSet result = statistics.instrument(stmt, "SELECT * FROM photos").executeQuery();
+		while (result.next()) {
+			result.getInt("id");
+		}
+
+		QueryTiming timing = statistics.getTiming("SELECT * FROM photos");
+		assertEquals(1, timing.getNoExecutions());
+		assertEquals(2, timing.getNoRows());
+		verify(rset, times(2)).getInt("id");
+	}
+
+	@Test
+	public void testSlowQueriesAreKept() throws SQLException {
+		statistics.setSlowQueryThreshold(0);
+		for (int i = 0; i < QueryStatistics.MAX_SLOW_QUERIES + 5; i++) {
+			statistics.instrument(mockStatement(1), "UPDATE users SET status = ?").executeUpdate();
+		}
+
+		assertEquals(QueryStatistics.MAX_SLOW_QUERIES + 5, statistics.getNoSlowQueries());
+		assertEquals(QueryStatistics.MAX_SLOW_QUERIES, statistics.getSlowQueries().size());
+	}
+
+	@Test
+	public void testExceptionsArePassedOn() throws SQLException {
+		PreparedStatement stmt = mock(PreparedStatement.class);
+		when(stmt.executeUpdate()).thenThrow(new SQLException("duplicate key"));
+
+		try {
+			statistics.instrument(stmt, "INSERT INTO photos(id) VALUES(?)").executeUpdate();
+			fail("exception should be passed on");
+		} catch (SQLException ex) {
+			assertEquals("duplicate key", ex.getMessage());
+		}
+	}
+
+	@Test
+	public void testPercentiles() {
+		QueryTiming timing = new QueryTiming("SELECT 1");
+		for (int i = 0; i < 98; i++) {
+			timing.recordExecution(200 * 1000L);
+		}
+		timing.recordExecution(20 * 1000000L);
+		timing.recordExecution(30 * 1000000L);
+
+		assertEquals(250, timing.getPercentileMicros(50));
+		assertEquals(250, timing.getPercentileMicros(95));
+		assertEquals(25000, timing.getPercentileMicros(99));
+		assertEquals(30000, timing.getMaxMicros());
+	}
+
+	@Test
+	public void testDisabledStatisticsLeaveStatementsAlone() {
+		PreparedStatement stmt = mock(PreparedStatement.class);
+		statistics.setEnabled(false);
+
+		assertSame(stmt, statistics.instrument(stmt, "SELECT * FROM users"));
+	}
+
+	private static PreparedStatement mockStatement(int rows) throws SQLException {
+		PreparedStatement result = mock(PreparedStatement.class);
+		when(result.executeUpdate()).thenReturn(rows);
+		return result;
+	}
+
+}
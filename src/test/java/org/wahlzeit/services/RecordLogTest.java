@@ -0,0 +1,322 @@
+/*
+ * SPDX-FileCopyrightText: 2006-2009 Dirk Riehle https://dirkriehle.com
+ *
+ * SPDX-License-Identifier: AGPL-3.0-or-later
+ */
+
+package org.wahlzeit.services;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.*;
+import java.nio.channels.FileChannel;
+import java.sql.SQLException;
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+/**
+ * Crash recovery test cases for the {@link RecordLog} class. Crashes are simulated by damaging the file
+ * between closing and reopening the log, the way an interrupted append or compaction would leave it.
+ */
+public class RecordLogTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private TableColumns columns;
+	private File file;
+	private RecordLog log;
+
+	@Before
+	public void openLog() throws IOException, SQLException {
+		columns = TableScript.readFrom("CREATE TABLE cases (id integer PRIMARY KEY, flagger text, was_decided boolean, creation_time bigint);").getTable("cases");
+		file = new File(folder.getRoot(), "cases.log");
+		log = new RecordLog(file, columns, true);
+	}
+
+	@After
+	public void closeLog() throws IOException {
+		log.close();
+	}
+
+	@Test
+	public void testRecordsSurviveReopen() throws IOException {
+		write(1, "alice", false, 100L);
+		write(2, "bob", true, 200L);
+
+		reopen();
+
+		assertEquals(2, log.getNoRecords());
+		assertArrayEquals(new Object[] { 1, "alice", false, 100L }, log.read(1));
+		assertArrayEquals(new Object[] { 2, "bob", true, 200L }, log.read(2));
+		assertEquals(0, log.getNoTruncatedBytes());
+	}
+
+	@Test
+	public void testWriteKeepsColumnsNotGiven() throws IOException {
+		write(1, "alice", false, 100L);
+		log.write(Collections.singletonMap(1, values("was_decided", true)));
+
+		assertArrayEquals(new Object[] { 1, "alice", true, 100L }, log.read(1));
+		assertEquals(1, log.getNoRecords());
+		assertTrue(log.getGarbageSize() > 0);
+	}
+
+	@Test
+	public void testTornTailIsCutOff() throws IOException {
+		write(1, "alice", false, 100L);
+		long intactSize = log.getSize();
+		write(2, "bob", true, 200L);
+		log.close();
+		truncateFile(file.length() - 3); // crash in the middle of the second append
+
+		reopen();
+
+		assertEquals(1, log.getNoRecords());
+		assertNotNull(log.read(1));
+		assertNull(log.read(2));
+		assertEquals(intactSize, file.length());
+		assertTrue(log.getNoTruncatedBytes() > 0);
+	}
+
+	@Test
+	public void testTornHeaderIsCutOff() throws IOException {
+		write(1, "alice", false, 100L);
+		long intactSize = log.getSize();
+		log.close();
+		appendToFile(new byte[] { 0, 0, 0 });
+
+		reopen();
+
+		assertEquals(1, log.getNoRecords());
+		assertEquals(intactSize, file.length());
+	}
+
+	@Test
+	public void testCorruptRecordIsCutOff() throws IOException {
+		write(1, "alice", false, 100L);
+		long intactSize = log.getSize();
+		write(2, "bob", true, 200L);
+		log.close();
+		flipByte(file.length() - 1); // unsynced page written half
+
+		reopen();
+
+		assertEquals(1, log.getNoRecords());
+		assertNull(log.read(2));
+		assertEquals(intactSize, file.length());
+	}
+
+	@Test
+	public void testPreallocatedZerosAreCutOff() throws IOException {
+		write(1, "alice", false, 100L);
+		long intactSize = log.getSize();
+		log.close();
+		appendToFile(new byte[4096]);
+
+		reopen();
+
+		assertEquals(1, log.getNoRecords());
+		assertEquals(intactSize, file.length());
+	}
+
+	@Test
+	public void testLogIsWritableAfterRecovery() throws IOException {
+		write(1, "alice", false, 100L);
+		log.close();
+		appendToFile(new byte[] { 0, 0, 0, 42, 1, 2 });
+
+		reopen();
+		write(2, "bob", true, 200L);
+		reopen();
+
+		assertEquals(2, log.getNoRecords());
+		assertArrayEquals(new Object[] { 2, "bob", true, 200L }, log.read(2));
+		assertEquals(0, log.getNoTruncatedBytes());
+	}
+
+	@Test
+	public void testDeletesSurviveReopen() throws IOException {
+		write(1, "alice", false, 100L);
+		write(2, "bob", true, 200L);
+		assertTrue(log.delete(1));
+		assertFalse(log.delete(3));
+
+		reopen();
+
+		assertNull(log.read(1));
+		assertNotNull(log.read(2));
+		assertEquals(1, log.getNoRecords());
+	}
+
+	@Test
+	public void testLatestWriteWinsAfterReopen() throws IOException {
+		write(1, "alice", false, 100L);
+		write(1, "alice", true, 300L);
+		log.delete(1);
+		write(1, "carol", false, 400L);
+
+		reopen();
+
+		assertArrayEquals(new Object[] { 1, "carol", false, 400L }, log.read(1));
+		long size = log.getSize();
+		long garbageSize = log.getGarbageSize();
+		log.compact();
+		assertEquals(size - garbageSize, log.getSize()); // recovered garbage is exactly what compaction drops
+	}
+
+	@Test
+	public void testCompactionKeepsLatestRecords() throws IOException {
+		for (int i = 0; i < 50; i++) {
+			write(i % 5, "user" + i, (i % 2) == 0, (long) i);
+		}
+		log.delete(4);
+		long oldSize = log.getSize();
+
+		log.compact();
+
+		assertTrue(log.getSize() < oldSize);
+		assertEquals(0, log.getGarbageSize());
+		assertEquals(4, log.getNoRecords());
+		assertArrayEquals(new Object[] { 3, "user48", true, 48L }, log.read(3));
+
+		reopen();
+
+		assertEquals(4, log.getNoRecords());
+		assertNull(log.read(4));
+		assertArrayEquals(new Object[] { 3, "user48", true, 48L }, log.read(3));
+		assertEquals(0, log.getGarbageSize());
+	}
+
+	@Test
+	public void testLogIsWritableAfterCompaction() throws IOException {
+		write(1, "alice", false, 100L);
+		write(1, "alice", true, 100L);
+		log.compact();
+
+		write(2, "bob", true, 200L);
+		reopen();
+
+		assertEquals(2, log.getNoRecords());
+		assertArrayEquals(new Object[] { 1, "alice", true, 100L }, log.read(1));
+		assertArrayEquals(new Object[] { 2, "bob", true, 200L }, log.read(2));
+	}
+
+	@Test
+	public void testWritesDuringCompactionAreKept() throws IOException {
+		log.close();
+		log = new RecordLog(file, columns, true) {
+			@Override
+			protected void finishCompaction(FileChannel compactChannel, long copiedSize, Map<Integer, Long> copiedOffsets, long copiedEnd) throws IOException {
+				RecordLogTest.this.write(1, "alice", true, 300L); // after the records were copied
+				delete(2);
+				RecordLogTest.this.write(4, "dave", false, 400L);
+				super.finishCompaction(compactChannel, copiedSize, copiedOffsets, copiedEnd);
+			}
+		};
+		write(1, "alice", false, 100L);
+		write(2, "bob", true, 200L);
+		write(3, "carol", true, 300L);
+		write(3, "carol", false, 300L);
+
+		log.compact();
+		assertEquals(3, log.getNoRecords());
+		assertTrue(log.getGarbageSize() > 0); // the copied records of 1 and 2, and the tombstone
+
+		reopen();
+
+		assertEquals(3, log.getNoRecords());
+		assertArrayEquals(new Object[] { 1, "alice", true, 300L }, log.read(1));
+		assertNull(log.read(2));
+		assertArrayEquals(new Object[] { 3, "carol", false, 300L }, log.read(3));
+		assertArrayEquals(new Object[] { 4, "dave", false, 400L }, log.read(4));
+		long size = log.getSize();
+		long garbageSize = log.getGarbageSize();
+		log.compact();
+		assertEquals(size - garbageSize, log.getSize());
+	}
+
+	@Test
+	public void testUnfinishedCompactionIsDiscarded() throws IOException {
+		write(1, "alice", false, 100L);
+		write(2, "bob", true, 200L);
+		log.close();
+		File compactFile = new File(file.getPath() + RecordLog.COMPACT_SUFFIX);
+		OutputStream out = new FileOutputStream(compactFile);
+		out.write(new byte[] { 0, 0, 0, 9, 1, 2, 3 }); // crash while copying
+		out.close();
+
+		reopen();
+
+		assertFalse(compactFile.exists());
+		assertEquals(2, log.getNoRecords());
+		assertArrayEquals(new Object[] { 1, "alice", false, 100L }, log.read(1));
+	}
+
+	@Test
+	public void testColumnIndexFollowsWrites() throws IOException {
+		write(1, "alice", false, 100L);
+		write(2, "bob", false, 200L);
+		write(3, "carol", true, 300L);
+		assertEquals(2, log.find("was_decided", false).length);
+
+		log.write(Collections.singletonMap(1, values("was_decided", true)));
+		log.delete(2);
+
+		assertEquals(0, log.find("was_decided", false).length);
+		int[] decided = log.find("was_decided", true);
+		Arrays.sort(decided);
+		assertArrayEquals(new int[] { 1, 3 }, decided);
+		assertArrayEquals(new int[] { 3 }, log.find("creation_time", 300)); // integral keys compare by value
+	}
+
+	@Test(expected = IOException.class)
+	public void testUnknownColumnIsRejected() throws IOException {
+		log.write(Collections.singletonMap(1, values("no_such_column", 1)));
+	}
+
+	private void write(int id, String flagger, boolean wasDecided, long creationTime) throws IOException {
+		Map<String, Object> record = values("flagger", flagger);
+		record.put("was_decided", wasDecided);
+		record.put("creation_time", creationTime);
+		log.write(Collections.singletonMap(id, record));
+	}
+
+	private static Map<String, Object> values(String label, Object value) {
+		Map<String, Object> result = new HashMap<String, Object>();
+		result.put(label, value);
+		return result;
+	}
+
+	private void reopen() throws IOException {
+		log.close();
+		log = new RecordLog(file, columns, true);
+	}
+
+	private void truncateFile(long length) throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		raf.setLength(length);
+		raf.close();
+	}
+
+	private void appendToFile(byte[] bytes) throws IOException {
+		OutputStream out = new FileOutputStream(file, true);
+		out.write(bytes);
+		out.close();
+	}
+
+	private void flipByte(long position) throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		raf.seek(position);
+		int value = raf.read();
+		raf.seek(position);
+		raf.write(value ^ 0xff);
+		raf.close();
+	}
+
+}
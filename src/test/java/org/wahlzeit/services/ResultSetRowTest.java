@@ -0,0 +1,87 @@
+/*
+ * SPDX-FileCopyrightText: 2006-2009 Dirk Riehle https://dirkriehle.com
+ *
+ * SPDX-License-Identifier: AGPL-3.0-or-later
+ */
+
+package org.wahlzeit.services;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.sql.*;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+/**
+ * Test cases for the {@link ResultSetRow} class.
+ */
+public class ResultSetRowTest {
+
+	private TableColumns tableColumns;
+
+	@Before
+	public void initTableColumns() throws SQLException {
+		ResultSetMetaData metaData = mock(ResultSetMetaData.class);
+		when(metaData.getColumnCount()).thenReturn(4);
+		when(metaData.getColumnLabel(1)).thenReturn("id");
+		when(metaData.getColumnType(1)).thenReturn(Types.INTEGER);
+		when(metaData.getColumnLabel(2)).thenReturn("name");
+		when(metaData.getColumnType(2)).thenReturn(Types.VARCHAR);
+		when(metaData.getColumnLabel(3)).thenReturn("creation_time");
+		when(metaData.getColumnType(3)).thenReturn(Types.BIGINT);
+		when(metaData.getColumnLabel(4)).thenReturn("release");
+		when(metaData.getColumnType(4)).thenReturn(Types.DATE);
+
+		tableColumns = new TableColumns("things", metaData);
+	}
+
+	@Test
+	public void testCopyStaysReadableAfterResultSetMoves() throws SQLException {
+		ResultSet rset = mock(ResultSet.class);
+		when(rset.getObject(1)).thenReturn(7, 8);
+		when(rset.getObject(2)).thenReturn("seven", "eight");
+		when(rset.getObject(3)).thenReturn(123456789L, 0L);
+		when(rset.getObject(4)).thenReturn(Date.valueOf("2020-01-31"), null);
+
+		ResultSet row = ResultSetRow.copyOf(rset, tableColumns).asResultSet();
+		ResultSetRow.copyOf(rset, tableColumns);
+
+		assertEquals(7, row.getInt("id"));
+		assertEquals("seven", row.getString("NAME"));
+		assertEquals(123456789L, row.getLong("creation_time"));
+		assertEquals(Date.valueOf("2020-01-31"), row.getDate("release"));
+		assertEquals(2, row.findColumn("name"));
+		assertEquals(Types.DATE, row.getMetaData().getColumnType(4));
+	}
+
+	@Test
+	public void testNullsConvertLikeJdbc() throws SQLException {
+		ResultSet row = new ResultSetRow(tableColumns, new Object[] { null, null, null, null }).asResultSet();
+
+		assertEquals(0, row.getInt("id"));
+		assertTrue(row.wasNull());
+		assertNull(row.getString("name"));
+		assertFalse(row.getBoolean("name"));
+		assertEquals(0.0d, row.getDouble(3), 0.0d);
+		assertNull(row.getDate("release"));
+	}
+
+	@Test
+	public void testNumbersConvertBetweenTypes() throws SQLException {
+		ResultSet row = new ResultSetRow(tableColumns, new Object[] { 1L, "2.5", 3, null }).asResultSet();
+
+		assertEquals(1, row.getInt("id"));
+		assertTrue(row.getBoolean("id"));
+		assertEquals(2.5d, row.getDouble("name"), 0.0d);
+		assertEquals(3L, row.getLong("creation_time"));
+		assertFalse(row.wasNull());
+	}
+
+	@Test(expected = SQLException.class)
+	public void testUnknownColumnIsRejected() throws SQLException {
+		new ResultSetRow(tableColumns, new Object[4]).asResultSet().getInt("unknown");
+	}
+
+}
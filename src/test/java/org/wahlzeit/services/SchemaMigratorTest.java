@@ -0,0 +1,120 @@
+/*
+ * SPDX-FileCopyrightText: 2006-2009 Dirk Riehle https://dirkriehle.com
+ *
+ * SPDX-License-Identifier: AGPL-3.0-or-later
+ */
+
+package org.wahlzeit.services;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import static org.junit.Assert.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+/**
+ * Test cases for the {@link SchemaMigrator} and {@link QueryPlanCheck} classes, using a mocked RDBMS connection.
+ */
+public class SchemaMigratorTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private SchemaMigrator migrator;
+	private Connection conn;
+	private Statement stmt;
+	private PreparedStatement insert;
+
+	@Before
+	public void initMigrator() throws Exception {
+		File defaultDir = folder.newFolder("scripts", ConfigDir.DEFAULT_DIR_NAME);
+		File customDir = folder.newFolder("scripts", ConfigDir.CUSTOM_DIR_NAME);
+		writeFile(new File(defaultDir, "Migration1.sql"), "CREATE TABLE one (id integer);");
+		writeFile(new File(defaultDir, "Migration2.sql"), "CREATE INDEX two_idx ON one(id);");
+		writeFile(new File(customDir, "Migration2.sql"), "CREATE INDEX custom_idx ON one(id);");
+		writeFile(new File(defaultDir, "Migration4.sql"), "-- not reached, there is no Migration3.sql");
+		migrator = new SchemaMigrator(new ConfigDir(folder.getRoot().getAbsolutePath(), "scripts"));
+
+		conn = mock(Connection.class);
+		stmt = mock(Statement.class);
+		insert = mock(PreparedStatement.class);
+		when(conn.createStatement()).thenReturn(stmt);
+		when(conn.prepareStatement(anyString())).thenReturn(insert);
+		when(conn.getAutoCommit()).thenReturn(true);
+	}
+
+	@Test
+	public void testScriptsAreNumberedWithoutGaps() {
+		assertEquals(2, migrator.getLatestVersion());
+		assertEquals("Migration2.sql", SchemaMigrator.getScriptName(2));
+		assertTrue(migrator.readScript(2).contains("two_idx"));
+		assertTrue(migrator.readScript(2).contains("custom_idx"));
+	}
+
+	@Test
+	public void testOnlyNewScriptsAreApplied() throws SQLException {
+		setCurrentVersion(1);
+
+		assertEquals(1, migrator.migrate(conn));
+
+		verify(stmt, never()).execute(contains("CREATE TABLE one"));
+		verify(stmt).execute(contains("two_idx"));
+		verify(insert).setInt(1, 2);
+		verify(insert).executeUpdate();
+		verify(conn).commit();
+		verify(conn).setAutoCommit(true);
+	}
+
+	@Test
+	public void testFailedScriptIsRolledBack() throws SQLException {
+		setCurrentVersion(1);
+		when(stmt.execute(contains("two_idx"))).thenThrow(new SQLException("syntax error"));
+
+		try {
+			migrator.migrate(conn);
+			fail("failure should be passed on");
+		} catch (SQLException ex) {
+			// expected
+		}
+
+		verify(conn).rollback();
+		verify(conn, never()).commit();
+		verify(insert, never()).executeUpdate();
+		verify(conn).setAutoCommit(true);
+	}
+
+	@Test
+	public void testSequentialScansAreFoundInPlans() {
+		assertTrue(QueryPlanCheck.getScannedTables("Index Scan using users_name_as_tag_idx on users").isEmpty());
+		assertEquals("tags", QueryPlanCheck.getScannedTables("  ->  Seq Scan on tags  (cost=0.00..35.50 rows=10 width=4)").iterator().next());
+	}
+
+	private void setCurrentVersion(int version) throws SQLException {
+		ResultSet rset = mock(ResultSet.class);
+		when(rset.next()).thenReturn(true);
+		when(rset.getInt(1)).thenReturn(version);
+		when(stmt.executeQuery(anyString())).thenReturn(rset);
+	}
+
+	private static void writeFile(File file, String content) throws IOException {
+		FileWriter writer = new FileWriter(file);
+		try {
+			writer.write(content);
+		} finally {
+			writer.close();
+		}
+	}
+
+}
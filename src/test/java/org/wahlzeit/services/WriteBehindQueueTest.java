@@ -0,0 +1,138 @@
+/*
+ * SPDX-FileCopyrightText: 2006-2009 Dirk Riehle https://dirkriehle.com
+ *
+ * SPDX-License-Identifier: AGPL-3.0-or-later
+ */
+
+package org.wahlzeit.services;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Test cases for the {@link WriteBehindQueue} class.
+ */
+public class WriteBehindQueueTest {
+
+	private WriteBehindQueue queue;
+
+	@Before
+	public void initQueue() {
+		queue = new WriteBehindQueue();
+		queue.enable(3, 2);
+	}
+
+	@Test
+	public void testDisabledQueueLeavesWritingToCaller() {
+		queue.disable();
+
+		assertFalse(queue.schedule(new Thing()));
+		assertEquals(0, queue.getDepth());
+	}
+
+	@Test
+	public void testRepeatedChangesAreCoalesced() {
+		Thing first = new Thing();
+		Thing second = new Thing();
+
+		assertTrue(queue.schedule(first));
+		assertTrue(queue.schedule(second));
+		assertTrue(queue.schedule(first));
+
+		assertEquals(2, queue.getDepth());
+		assertEquals(1, queue.getNoCoalesced());
+		assertEquals(Arrays.<Persistent>asList(first, second), queue.drain(10));
+	}
+
+	@Test
+	public void testDrainedObjectsCanBeQueuedAgain() {
+		Thing thing = new Thing();
+		queue.schedule(thing);
+		List<Persistent> drained = queue.drain(10);
+
+		assertEquals(1, drained.size());
+		assertEquals(0, queue.getDepth());
+		assertTrue(queue.schedule(thing));
+		assertEquals(1, queue.getDepth());
+		assertEquals(0, queue.getNoCoalesced());
+	}
+
+	@Test
+	public void testFullQueueOverflowsWithoutBlocking() {
+		for (int i = 0; i < 5; i++) {
+			assertTrue(queue.schedule(new Thing()));
+		}
+
+		assertEquals(3, queue.getDepth());
+		assertEquals(3, queue.getPeakDepth());
+		assertEquals(2, queue.getNoOverflowed());
+		assertTrue(queue.takeOverflow());
+		assertFalse(queue.takeOverflow());
+	}
+
+	@Test
+	public void testFlusherWakesUpAtFlushSize() throws Exception {
+		Thread scheduler = new Thread() {
+			public void run() {
+				try {
+					Thread.sleep(50);
+				} catch (InterruptedException ex) {
+					// ignore
+				}
+				queue.schedule(new Thing());
+				queue.schedule(new Thing());
+			}
+		};
+
+		long startTime = System.currentTimeMillis();
+		scheduler.start();
+		queue.awaitFlush(10000);
+		scheduler.join();
+
+		assertTrue(System.currentTimeMillis() - startTime < 5000);
+		assertEquals(2, queue.getDepth());
+	}
+
+	@Test
+	public void testFlushesAreMeasured() {
+		queue.recordFlush(10, 20);
+		queue.recordFlush(30, 40);
+
+		assertEquals(2, queue.getNoFlushes());
+		assertEquals(40, queue.getNoFlushed());
+		assertEquals(30, queue.getAverageFlushTime());
+		assertEquals(40, queue.getMaxFlushTime());
+		assertTrue(queue.asStatisticsString().contains("flushed: 40 in 2 flushes"));
+	}
+
+	/**
+	 *
+	 */
+	private static class Thing extends DataObject {
+
+		public String getIdAsString() {
+			return "0";
+		}
+
+		public void readFrom(ResultSet rset) throws SQLException {
+			// do nothing
+		}
+
+		public void writeOn(ResultSet rset) throws SQLException {
+			// do nothing
+		}
+
+		public void writeId(PreparedStatement stmt, int pos) throws SQLException {
+			stmt.setInt(pos, 0);
+		}
+	}
+
+}
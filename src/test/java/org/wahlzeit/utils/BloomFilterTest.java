@@ -0,0 +1,62 @@
+/*
+ * SPDX-FileCopyrightText: 2006-2009 Dirk Riehle https://dirkriehle.com
+ *
+ * SPDX-License-Identifier: AGPL-3.0-or-later
+ */
+
+package org.wahlzeit.utils;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Test cases for the {@link BloomFilter} class.
+ */
+public class BloomFilterTest {
+
+	@Test
+	public void testAddedValuesAreAlwaysContained() {
+		BloomFilter filter = new BloomFilter(1000, 0.01);
+		for (int i = 0; i < 1000; i++) {
+			filter.add("user" + i);
+		}
+
+		for (int i = 0; i < 1000; i++) {
+			assertTrue(filter.mightContain("user" + i));
+		}
+		assertEquals(1000, filter.getNoAdditions());
+		assertFalse(filter.isSaturated());
+	}
+
+	@Test
+	public void testFalsePositiveRateIsNearConfigured() {
+		BloomFilter filter = new BloomFilter(10000, 0.01);
+		for (int i = 0; i < 10000; i++) {
+			filter.add("name" + i + "@example.com");
+		}
+
+		int noFalsePositives = 0;
+		for (int i = 0; i < 10000; i++) {
+			if (filter.mightContain("other" + i + "@example.com")) {
+				noFalsePositives++;
+			}
+		}
+
+		assertTrue("false positives: " + noFalsePositives, noFalsePositives < 200);
+		assertEquals(0.01, filter.getFalsePositiveRate(), 0.005);
+		assertEquals(7, filter.getNoHashes());
+	}
+
+	@Test
+	public void testFilterRunsFull() {
+		BloomFilter filter = new BloomFilter(2, 0.01);
+		filter.add("a");
+		filter.add("b");
+		assertFalse(filter.isSaturated());
+
+		filter.add("c");
+		assertTrue(filter.isSaturated());
+	}
+
+}
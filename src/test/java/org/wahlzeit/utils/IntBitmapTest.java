@@ -0,0 +1,118 @@
+/*
+ * SPDX-FileCopyrightText: 2006-2009 Dirk Riehle https://dirkriehle.com
+ *
+ * SPDX-License-Identifier: AGPL-3.0-or-later
+ */
+
+package org.wahlzeit.utils;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.TreeSet;
+
+import static org.junit.Assert.*;
+
+/**
+ * Test cases for the {@link IntBitmap} class.
+ */
+public class IntBitmapTest {
+
+	@Test
+	public void testAddAndRemove() {
+		IntBitmap bitmap = IntBitmap.of(5, 70000, 3);
+
+		assertTrue(bitmap.contains(3));
+		assertTrue(bitmap.contains(70000));
+		assertFalse(bitmap.contains(4));
+		assertFalse(bitmap.add(5));
+		assertEquals(3, bitmap.getCardinality());
+		assertArrayEquals(new int[] { 3, 5, 70000 }, bitmap.toArray());
+
+		assertTrue(bitmap.remove(70000));
+		assertFalse(bitmap.remove(70000));
+		assertArrayEquals(new int[] { 3, 5 }, bitmap.toArray());
+	}
+
+	@Test
+	public void testDenseContainersMatchSparseOnes() {
+		IntBitmap bitmap = new IntBitmap();
+		TreeSet<Integer> expected = new TreeSet<Integer>();
+		for (int i = 0; i < 10000; i += 2) {
+			bitmap.add(i);
+			expected.add(i);
+		}
+
+		assertEquals(expected.size(), bitmap.getCardinality());
+		assertArrayEquals(toIntArray(expected), bitmap.toArray());
+		assertTrue(bitmap.getSizeInBytes() < 10000);
+
+		for (int i = 0; i < 10000; i += 4) {
+			bitmap.remove(i);
+			expected.remove(i);
+		}
+
+		assertArrayEquals(toIntArray(expected), bitmap.toArray());
+	}
+
+	@Test
+	public void testAndMatchesSetIntersection() {
+		Random random = new Random(42);
+		IntBitmap first = new IntBitmap();
+		IntBitmap second = new IntBitmap();
+		TreeSet<Integer> expected = new TreeSet<Integer>();
+		TreeSet<Integer> others = new TreeSet<Integer>();
+		for (int i = 0; i < 20000; i++) {
+			int value = random.nextInt(200000);
+			first.add(value);
+			expected.add(value);
+		}
+		for (int i = 0; i < 50000; i++) {
+			int value = random.nextInt(200000);
+			second.add(value);
+			others.add(value);
+		}
+		expected.retainAll(others);
+
+		assertArrayEquals(toIntArray(expected), first.and(second).toArray());
+		assertArrayEquals(toIntArray(expected), second.and(first).toArray());
+		assertEquals(first.and(second), IntBitmap.and(Arrays.asList(second, first)));
+	}
+
+	@Test
+	public void testAndNot() {
+		IntBitmap bitmap = IntBitmap.of(1, 2, 3, 100000);
+
+		assertArrayEquals(new int[] { 1, 3 }, bitmap.andNot(IntBitmap.of(2, 100000, 7)).toArray());
+		assertArrayEquals(new int[] { 1, 2, 3, 100000 }, bitmap.toArray());
+	}
+
+	@Test
+	public void testSelect() {
+		IntBitmap bitmap = new IntBitmap();
+		for (int i = 0; i < 8000; i++) {
+			bitmap.add(3 * i);
+		}
+		bitmap.add(1 << 20);
+
+		assertEquals(0, bitmap.select(0));
+		assertEquals(3 * 5000, bitmap.select(5000));
+		assertEquals(1 << 20, bitmap.select(8000));
+	}
+
+	@Test(expected = IndexOutOfBoundsException.class)
+	public void testSelectOutOfRange() {
+		IntBitmap.of(1).select(1);
+	}
+
+	private static int[] toIntArray(TreeSet<Integer> values) {
+		int[] result = new int[values.size()];
+		int i = 0;
+		for (Integer value : values) {
+			result[i++] = value;
+		}
+		return result;
+	}
+
+}
@@ -0,0 +1,70 @@
+/*
+ * SPDX-FileCopyrightText: 2006-2009 Dirk Riehle https://dirkriehle.com
+ *
+ * SPDX-License-Identifier: AGPL-3.0-or-later
+ */
+
+package org.wahlzeit.utils;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.*;
+
+/**
+ * Test cases for the {@link StripedLong} class.
+ */
+public class StripedLongTest {
+
+	@Test
+	public void testSumAndReset() {
+		StripedLong counter = new StripedLong();
+		counter.add(3);
+		counter.add(4);
+
+		assertEquals(7, counter.sum());
+		assertEquals(7, counter.sumThenReset());
+		assertEquals(0, counter.sum());
+	}
+
+	@Test
+	public void testNoAddIsLostWhileResetting() throws InterruptedException {
+		final StripedLong counter = new StripedLong();
+		final AtomicBoolean isDone = new AtomicBoolean(false);
+		final long[] taken = new long[1];
+		Thread taker = new Thread() {
+			public void run() {
+				while (!isDone.get()) {
+					taken[0] += counter.sumThenReset();
+				}
+			}
+		};
+		taker.start();
+
+		List<Thread> adders = new ArrayList<Thread>();
+		for (int i = 0; i < 8; i++) {
+			Thread adder = new Thread() {
+				public void run() {
+					for (int j = 0; j < 100000; j++) {
+						counter.add(1);
+					}
+				}
+			};
+			adder.start();
+			adders.add(adder);
+		}
+
+		for (Thread adder : adders) {
+			adder.join();
+		}
+		isDone.set(true);
+		taker.join();
+
+		assertEquals(800000, taken[0] + counter.sumThenReset());
+		assertTrue(counter.getNoCells() <= StripedLong.MAX_CELLS);
+	}
+
+}
@@ -0,0 +1,91 @@
+/*
+ * SPDX-FileCopyrightText: 2006-2009 Dirk Riehle https://dirkriehle.com
+ *
+ * SPDX-License-Identifier: AGPL-3.0-or-later
+ */
+
+package org.wahlzeit.utils;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Test cases for the {@link WeightedSampler} class.
+ */
+public class WeightedSamplerTest {
+
+	@Test
+	public void testPrefixSumsPickEveryIndexByWeight() {
+		WeightedSampler sampler = new WeightedSampler(new int[] { 2, 0, 3, 1, 0, 4 });
+
+		assertEquals(10, sampler.getTotalWeight());
+		int[] expected = { 0, 0, 2, 2, 2, 3, 5, 5, 5, 5 };
+		for (int target = 0; target < expected.length; target++) {
+			assertEquals(expected[target], sampler.findIndex(target));
+		}
+	}
+
+	@Test
+	public void testSetWeightUpdatesTotalAndPicks() {
+		WeightedSampler sampler = new WeightedSampler(new int[] { 1, 1, 1, 1, 1, 1, 1 });
+		sampler.setWeight(0, 0);
+		sampler.setWeight(6, 5);
+
+		assertEquals(10, sampler.getTotalWeight());
+		assertEquals(1, sampler.findIndex(0));
+		assertEquals(6, sampler.findIndex(5));
+		assertEquals(6, sampler.findIndex(9));
+	}
+
+	@Test
+	public void testZeroWeightsAreNeverDrawn() {
+		WeightedSampler sampler = new WeightedSampler(new int[] { 0, 5, 0, 0, 1, 0, 0, 0, 0 });
+		Random random = new Random(7);
+		int[] counts = new int[sampler.getSize()];
+		for (int i = 0; i < 6000; i++) {
+			counts[sampler.sample(random)]++;
+		}
+
+		assertEquals(6000, counts[1] + counts[4]);
+		assertTrue(counts[1] > 4 * counts[4]);
+	}
+
+	@Test
+	public void testNoWeightDrawsNothing() {
+		WeightedSampler sampler = new WeightedSampler(new int[] { 3 });
+		sampler.setWeight(0, 0);
+
+		assertEquals(-1, sampler.sample(new Random()));
+		assertEquals(-1, new WeightedSampler(new int[0]).sample(new Random()));
+	}
+
+	@Test
+	public void testZipfianWeightsFallByRank() {
+		WeightedSampler sampler = WeightedSampler.createZipfian(1000, 1.0);
+
+		assertEquals(WeightedSampler.MAX_ZIPFIAN_WEIGHT, sampler.getWeight(0));
+		assertEquals(WeightedSampler.MAX_ZIPFIAN_WEIGHT / 2, sampler.getWeight(1));
+		assertEquals(WeightedSampler.MAX_ZIPFIAN_WEIGHT / 4, sampler.getWeight(3));
+		assertTrue(sampler.getWeight(999) >= 1);
+		assertEquals(1, WeightedSampler.createZipfian(10, 0.0).getWeight(9) / WeightedSampler.MAX_ZIPFIAN_WEIGHT);
+	}
+
+	@Test
+	public void testZipfianSamplingIsDeterministicPerSeed() {
+		WeightedSampler sampler = WeightedSampler.createZipfian(50, 1.2);
+		Random first = new Random(11);
+		Random second = new Random(11);
+		for (int i = 0; i < 100; i++) {
+			assertEquals(sampler.sample(first), sampler.sample(second));
+		}
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testNegativeWeight() {
+		new WeightedSampler(new int[] { 1 }).setWeight(0, -1);
+	}
+
+}